@@ -0,0 +1,507 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.fiber.PausableFiber;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link Scheduler} backed by a hierarchical timing wheel.
+ *
+ * Unlike the {@link LegacyScheduler}, which polls every interval queue on each
+ * pass, the timing wheel places each runnable in the bucket of the tick at which
+ * it becomes due.  Inserting and expiring an entry are O(1) operations, and only
+ * the bucket of the current tick is examined each time the wheel advances.
+ *
+ * Callers never take a lock when scheduling: new entries are handed to the wheel
+ * thread through a lock-free inbox, and the wheel itself is only ever touched by
+ * that single thread. Runnables that are due but whose {@link ReadyRunnable#isReady()}
+ * returns false are re-examined after {@link #getNotReadyRetryMillis()} milliseconds.
+ *
+ * @author <a href="http://www.opennms.org/">OpenNMS </a>
+ */
+public class TimingWheelScheduler implements Runnable, PausableFiber, Scheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(TimingWheelScheduler.class);
+
+    /** Default duration of a single tick, in milliseconds. */
+    public static final long DEFAULT_TICK_MILLIS = 100L;
+
+    /** Default number of buckets per wheel level. Must be a power of two. */
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+
+    /** Default delay before a due, but not ready, runnable is examined again. */
+    public static final long DEFAULT_NOT_READY_RETRY_MILLIS = 1000L;
+
+    /**
+     * Number of levels in the hierarchy. With the default tick and wheel size
+     * the top level covers far more than any realistic scheduling interval.
+     */
+    private static final int LEVELS = 4;
+
+    private static final class TimerEntry {
+        private final ReadyRunnable m_runnable;
+        private final long m_deadline;
+
+        private TimerEntry(final ReadyRunnable runnable, final long deadline) {
+            m_runnable = runnable;
+            m_deadline = deadline;
+        }
+    }
+
+    private final long m_tickMillis;
+    private final int m_wheelBits;
+    private final int m_wheelMask;
+    private final long m_notReadyRetryMillis;
+
+    /**
+     * The buckets of each level, indexed by [level][slot]. Only accessed by the
+     * wheel thread.
+     */
+    private final Queue<TimerEntry>[][] m_wheels;
+
+    /**
+     * Entries that have been scheduled but not yet placed on the wheel.
+     */
+    private final Queue<TimerEntry> m_inbox = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The next tick that will be processed by the wheel thread.
+     */
+    private long m_currentTick;
+
+    /**
+     * The pool of threads that are used to executed the runnable instances
+     * scheduled by the class' instance.
+     */
+    private final ExecutorService m_runner;
+
+    private volatile int m_status;
+    private volatile Thread m_worker;
+
+    private final AtomicLong m_scheduled = new AtomicLong(0);
+    private volatile long m_numTasksExecuted = 0;
+    private volatile long m_numTasksLate = 0;
+    private volatile long m_totalLateness = 0;
+    private volatile long m_maxLateness = 0;
+    private volatile long m_lastLateness = 0;
+
+    /**
+     * Constructs a new timing wheel scheduler using the default tick and wheel
+     * size.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     */
+    public TimingWheelScheduler(final String parent, final int maxSize) {
+        this(parent, maxSize, DEFAULT_TICK_MILLIS, DEFAULT_WHEEL_SIZE, DEFAULT_NOT_READY_RETRY_MILLIS);
+    }
+
+    /**
+     * Constructs a new timing wheel scheduler.
+     *
+     * @param parent
+     *            String prepended to "Scheduler" to create fiber name
+     * @param maxSize
+     *            The maximum size of the thread pool.
+     * @param tickMillis
+     *            The resolution of the wheel in milliseconds.
+     * @param wheelSize
+     *            The number of buckets per level, must be a power of two.
+     * @param notReadyRetryMillis
+     *            The delay before a due runnable that is not ready is checked again.
+     */
+    @SuppressWarnings("unchecked")
+    public TimingWheelScheduler(final String parent, final int maxSize, final long tickMillis, final int wheelSize, final long notReadyRetryMillis) {
+        Assert.isTrue(tickMillis > 0, "tickMillis must be positive");
+        Assert.isTrue(wheelSize > 1 && Integer.bitCount(wheelSize) == 1, "wheelSize must be a power of two");
+        Assert.isTrue(notReadyRetryMillis > 0, "notReadyRetryMillis must be positive");
+
+        m_status = START_PENDING;
+        m_runner = Executors.newFixedThreadPool(maxSize, new LogPreservingThreadFactory(parent, maxSize));
+        m_tickMillis = tickMillis;
+        m_wheelBits = Integer.numberOfTrailingZeros(wheelSize);
+        m_wheelMask = wheelSize - 1;
+        m_notReadyRetryMillis = notReadyRetryMillis;
+
+        m_wheels = new Queue[LEVELS][wheelSize];
+        for (int level = 0; level < LEVELS; level++) {
+            for (int slot = 0; slot < wheelSize; slot++) {
+                m_wheels[level][slot] = new ArrayDeque<>();
+            }
+        }
+        m_worker = null;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void schedule(final long interval, final ReadyRunnable runnable) {
+        LOG.debug("schedule: Adding ready runnable {} at interval {}", runnable, interval);
+        m_scheduled.incrementAndGet();
+        m_inbox.add(new TimerEntry(runnable, getCurrentTime() + Math.max(0, interval)));
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getCurrentTime() {
+        return System.currentTimeMillis();
+    }
+
+    /**
+     * <p>start</p>
+     */
+    @Override
+    public synchronized void start() {
+        Assert.state(m_worker == null, "The fiber has already run or is running");
+
+        m_status = STARTING;
+        m_worker = new Thread(this, getName());
+        m_worker.start();
+
+        LOG.info("start: scheduler started");
+    }
+
+    /**
+     * <p>stop</p>
+     */
+    @Override
+    public synchronized void stop() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+
+        m_status = STOP_PENDING;
+        m_worker.interrupt();
+        m_runner.shutdown();
+
+        LOG.info("stop: scheduler stopped");
+    }
+
+    /**
+     * <p>pause</p>
+     */
+    @Override
+    public synchronized void pause() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == PAUSED) {
+            return;
+        }
+
+        m_status = PAUSE_PENDING;
+        notifyAll();
+    }
+
+    /**
+     * <p>resume</p>
+     */
+    @Override
+    public synchronized void resume() {
+        Assert.state(m_worker != null, "The fiber has never been started");
+        Assert.state(m_status != STOPPED && m_status != STOP_PENDING, "The fiber is not running or a stop is pending");
+
+        if (m_status == RUNNING) {
+            return;
+        }
+
+        m_status = RESUME_PENDING;
+        notifyAll();
+    }
+
+    /**
+     * <p>getStatus</p>
+     *
+     * @return a int.
+     */
+    @Override
+    public synchronized int getStatus() {
+        if (m_worker != null && m_worker.isAlive() == false) {
+            m_status = STOPPED;
+        }
+        return m_status;
+    }
+
+    /**
+     * Returns the name of this fiber.
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    @Override
+    public String getName() {
+        return m_runner.toString();
+    }
+
+    /**
+     * Returns the pool of threads that are used to executed the runnable
+     * instances scheduled by the class' instance.
+     *
+     * @return thread pool
+     */
+    public ExecutorService getRunner() {
+        return m_runner;
+    }
+
+    /**
+     * Returns the number of runnables that are waiting on the wheel, including
+     * the ones that have not yet been picked up by the wheel thread.
+     *
+     * @return the scheduler backlog
+     */
+    public long getScheduled() {
+        return m_scheduled.get();
+    }
+
+    /**
+     * Returns the number of runnables that were handed to the thread pool more
+     * than one tick after their scheduled time.
+     *
+     * @return the number of late tasks
+     */
+    public long getNumTasksLate() {
+        return m_numTasksLate;
+    }
+
+    /**
+     * @return the largest observed lateness, in milliseconds
+     */
+    public long getMaxLateness() {
+        return m_maxLateness;
+    }
+
+    /**
+     * @return the lateness of the most recently executed runnable, in milliseconds
+     */
+    public long getLastLateness() {
+        return m_lastLateness;
+    }
+
+    /**
+     * @return the average lateness of all executed runnables, in milliseconds
+     */
+    public double getAverageLateness() {
+        final long executed = m_numTasksExecuted;
+        return executed > 0 ? (double) m_totalLateness / executed : 0.0;
+    }
+
+    public long getTickMillis() {
+        return m_tickMillis;
+    }
+
+    public long getNotReadyRetryMillis() {
+        return m_notReadyRetryMillis;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public long getNumTasksExecuted() {
+        return m_numTasksExecuted;
+    }
+
+    /**
+     * The main method of the scheduler. Advances the wheel one tick at a time,
+     * cascading entries from the upper levels and handing the ones that are
+     * due to the thread pool.
+     */
+    @Override
+    public void run() {
+        synchronized (this) {
+            if (m_status == STARTING) {
+                m_status = RUNNING;
+            }
+        }
+
+        LOG.debug("run: scheduler running");
+
+        // Nothing has been placed on the wheel yet, so start ticking from now
+        m_currentTick = toTick(getCurrentTime());
+
+        try {
+            for (;;) {
+                if (!awaitRunning()) {
+                    break;
+                }
+
+                drainInbox();
+
+                final long now = getCurrentTime();
+                final long nowTick = toTick(now);
+                while (m_currentTick <= nowTick) {
+                    processTick(now);
+                    m_currentTick++;
+                }
+
+                // Sleep until the start of the next tick
+                final long sleep = m_currentTick * m_tickMillis - getCurrentTime();
+                if (sleep > 0) {
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(sleep));
+                }
+                if (Thread.interrupted() && m_status == STOP_PENDING) {
+                    break;
+                }
+            }
+        } catch (RejectedExecutionException e) {
+            if (m_status != STOP_PENDING) {
+                throw new UndeclaredThrowableException(e);
+            }
+        }
+
+        LOG.debug("run: scheduler exiting, state = STOPPED");
+        synchronized (this) {
+            m_status = STOPPED;
+        }
+    }
+
+    /**
+     * Blocks while the scheduler is paused.
+     *
+     * @return false if the scheduler should exit
+     */
+    private synchronized boolean awaitRunning() {
+        if (m_status != RUNNING && m_status != PAUSED && m_status != PAUSE_PENDING && m_status != RESUME_PENDING) {
+            LOG.debug("run: status = {}, time to exit", m_status);
+            return false;
+        }
+
+        while (m_status == PAUSE_PENDING || m_status == PAUSED) {
+            if (m_status == PAUSE_PENDING) {
+                LOG.debug("run: pausing.");
+            }
+            m_status = PAUSED;
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                return false;
+            }
+        }
+
+        if (m_status == RESUME_PENDING) {
+            LOG.debug("run: resuming.");
+            m_status = RUNNING;
+        }
+        return true;
+    }
+
+    private void drainInbox() {
+        TimerEntry entry;
+        while ((entry = m_inbox.poll()) != null) {
+            place(entry);
+        }
+    }
+
+    private void processTick(final long now) {
+        // Cascade the upper levels whose bucket starts at this tick
+        for (int level = LEVELS - 1; level > 0; level--) {
+            final int shift = level * m_wheelBits;
+            if ((m_currentTick & ((1L << shift) - 1)) == 0) {
+                final Queue<TimerEntry> bucket = m_wheels[level][(int) ((m_currentTick >>> shift) & m_wheelMask)];
+                TimerEntry entry;
+                while ((entry = bucket.poll()) != null) {
+                    place(entry);
+                }
+            }
+        }
+
+        final Queue<TimerEntry> bucket = m_wheels[0][(int) (m_currentTick & m_wheelMask)];
+        if (bucket.isEmpty()) {
+            return;
+        }
+
+        // Entries that are re-queued below must not land back in the bucket we are draining
+        final int size = bucket.size();
+        for (int i = 0; i < size; i++) {
+            final TimerEntry entry = bucket.poll();
+            if (entry.m_deadline > now) {
+                // Placed at the top level beyond the range of the wheel
+                place(entry);
+            } else if (entry.m_runnable.isReady()) {
+                dispatch(entry, now);
+            } else {
+                place(new TimerEntry(entry.m_runnable, now + m_notReadyRetryMillis));
+            }
+        }
+    }
+
+    private void dispatch(final TimerEntry entry, final long now) {
+        LOG.debug("run: found ready runnable {}", entry.m_runnable);
+
+        final long lateness = Math.max(0, now - entry.m_deadline);
+        m_lastLateness = lateness;
+        m_totalLateness += lateness;
+        if (lateness > m_maxLateness) {
+            m_maxLateness = lateness;
+        }
+        if (lateness > m_tickMillis) {
+            m_numTasksLate++;
+        }
+        m_numTasksExecuted++;
+
+        m_scheduled.decrementAndGet();
+        m_runner.execute(entry.m_runnable);
+    }
+
+    /**
+     * Places the entry in the lowest level whose range covers its deadline.
+     */
+    private void place(final TimerEntry entry) {
+        final long deadlineTick = Math.max(m_currentTick, ceilTick(entry.m_deadline));
+        final long delta = deadlineTick - m_currentTick;
+
+        for (int level = 0; level < LEVELS; level++) {
+            final int shift = level * m_wheelBits;
+            if (level == LEVELS - 1 || (delta >>> (shift + m_wheelBits)) == 0) {
+                final long tick = level == LEVELS - 1 ? Math.min(deadlineTick, m_currentTick + (1L << (shift + m_wheelBits)) - 1) : deadlineTick;
+                m_wheels[level][(int) ((tick >>> shift) & m_wheelMask)].add(entry);
+                return;
+            }
+        }
+    }
+
+    private long toTick(final long time) {
+        return time / m_tickMillis;
+    }
+
+    private long ceilTick(final long time) {
+        return (time + m_tickMillis - 1) / m_tickMillis;
+    }
+}
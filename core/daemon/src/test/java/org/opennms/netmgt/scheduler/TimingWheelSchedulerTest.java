@@ -0,0 +1,150 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.scheduler;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimingWheelSchedulerTest {
+
+    private TimingWheelScheduler m_scheduler;
+
+    @Before
+    public void setUp() {
+        // Use a small wheel so that entries cascade through several levels
+        m_scheduler = new TimingWheelScheduler("Test", 4, 10, 8, 20);
+        m_scheduler.start();
+    }
+
+    @After
+    public void tearDown() {
+        m_scheduler.stop();
+    }
+
+    @Test
+    public void canRunImmediately() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        m_scheduler.schedule(0, runnable(latch, new AtomicLong()));
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(1, m_scheduler.getNumTasksExecuted());
+    }
+
+    @Test
+    public void neverRunsEarly() throws InterruptedException {
+        // 10ms ticks with 8 slots per level, so these span levels 0 through 2
+        final long[] intervals = new long[] { 5, 50, 120, 700, 1300 };
+        final CountDownLatch latch = new CountDownLatch(intervals.length);
+        final AtomicBoolean early = new AtomicBoolean(false);
+
+        for (final long interval : intervals) {
+            final long expected = System.currentTimeMillis() + interval;
+            m_scheduler.schedule(interval, new ReadyRunnable() {
+                @Override
+                public boolean isReady() {
+                    return true;
+                }
+
+                @Override
+                public void run() {
+                    if (System.currentTimeMillis() < expected) {
+                        early.set(true);
+                    }
+                    latch.countDown();
+                }
+            });
+        }
+
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertFalse("A runnable was executed before its interval expired", early.get());
+        assertEquals(0, m_scheduler.getScheduled());
+    }
+
+    @Test
+    public void retriesWhenNotReady() throws InterruptedException {
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicLong readyChecks = new AtomicLong();
+        m_scheduler.schedule(0, new ReadyRunnable() {
+            @Override
+            public boolean isReady() {
+                return readyChecks.incrementAndGet() >= 3;
+            }
+
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        });
+
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(3, readyChecks.get());
+    }
+
+    @Test
+    public void doesNotRunWhilePaused() throws InterruptedException {
+        final AtomicLong runs = new AtomicLong();
+        final CountDownLatch latch = new CountDownLatch(1);
+
+        m_scheduler.pause();
+        while (m_scheduler.getStatus() != TimingWheelScheduler.PAUSED) {
+            Thread.sleep(10);
+        }
+        m_scheduler.schedule(0, runnable(latch, runs));
+        assertFalse(latch.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(0, runs.get());
+
+        m_scheduler.resume();
+        assertTrue(latch.await(5, TimeUnit.SECONDS));
+        assertEquals(1, runs.get());
+    }
+
+    private static ReadyRunnable runnable(final CountDownLatch latch, final AtomicLong runs) {
+        return new ReadyRunnable() {
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void run() {
+                runs.incrementAndGet();
+                latch.countDown();
+            }
+        };
+    }
+}
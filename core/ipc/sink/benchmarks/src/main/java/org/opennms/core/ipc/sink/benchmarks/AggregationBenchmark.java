@@ -0,0 +1,200 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.ipc.sink.benchmarks;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.core.ipc.sink.aggregation.AggregatingMessageProducer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how long it takes for aggregated messages to be flushed, either because
+ * the bucket reached the completion size or because the completion interval expired.
+ */
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class AggregationBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class SizeTriggeredState {
+        @Param({"10", "100", "1000"})
+        public int completionSize;
+
+        BenchmarkMessage message;
+        CountingProducer producer;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            message = BenchmarkMessage.ofSize("key", 128);
+            // Disable the flush timer so that buckets are only dispatched once they are full
+            producer = new CountingProducer(new BenchmarkSinkModule("size-triggered", 1, 1, completionSize, 0));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            producer.close();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class IntervalTriggeredState {
+        @Param({"10", "100"})
+        public int completionIntervalMs;
+
+        BenchmarkMessage message;
+        CountingProducer producer;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            message = BenchmarkMessage.ofSize("key", 128);
+            // Use a completion size that is never reached so that buckets are only dispatched by the flush timer
+            producer = new CountingProducer(new BenchmarkSinkModule("interval-triggered", 1, 1, Integer.MAX_VALUE,
+                    completionIntervalMs));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            producer.close();
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class ContendedState {
+        @Param({"1", "64"})
+        public int numKeys;
+
+        BenchmarkMessage[] messages;
+        CountingProducer producer;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            messages = new BenchmarkMessage[numKeys];
+            for (int i = 0; i < numKeys; i++) {
+                messages[i] = BenchmarkMessage.ofSize("key" + i, 128);
+            }
+            producer = new CountingProducer(new BenchmarkSinkModule("contended", 1, 1, 100, 1000));
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            producer.close();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        int index;
+
+        int nextIndex(int numKeys) {
+            index = (index + 1) % numKeys;
+            return index;
+        }
+    }
+
+    /**
+     * Time taken to fill a bucket and have it dispatched.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public long sizeTriggeredFlush(SizeTriggeredState state) {
+        for (int i = 0; i < state.completionSize; i++) {
+            state.producer.send(state.message);
+        }
+        return state.producer.getNumDispatched();
+    }
+
+    /**
+     * Time taken from the first message entering a bucket to the bucket being dispatched by the flush timer.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public long intervalTriggeredFlush(IntervalTriggeredState state) throws InterruptedException {
+        final CountDownLatch flushed = state.producer.expectDispatch();
+        state.producer.send(state.message);
+        flushed.await();
+        return state.producer.getNumDispatched();
+    }
+
+    /**
+     * Aggregation throughput with several threads sending to the same or to different buckets.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(4)
+    public void contendedAggregate(ContendedState state, ThreadState threadState) {
+        state.producer.send(state.messages[threadState.nextIndex(state.numKeys)]);
+    }
+
+    private static class CountingProducer extends AggregatingMessageProducer<BenchmarkMessage, BenchmarkMessageLog> {
+        private final AtomicLong numDispatched = new AtomicLong();
+        private volatile CountDownLatch latch;
+
+        CountingProducer(BenchmarkSinkModule module) {
+            super(module.getId(), module.getAggregationPolicy());
+        }
+
+        CountDownLatch expectDispatch() {
+            latch = new CountDownLatch(1);
+            return latch;
+        }
+
+        long getNumDispatched() {
+            return numDispatched.get();
+        }
+
+        @Override
+        public void dispatch(BenchmarkMessageLog message) {
+            numDispatched.incrementAndGet();
+            final CountDownLatch currentLatch = latch;
+            if (currentLatch != null) {
+                currentLatch.countDown();
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.ipc.sink.benchmarks;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.opennms.core.ipc.sink.api.AsyncDispatcher;
+import org.opennms.core.ipc.sink.api.MessageConsumer;
+import org.opennms.core.ipc.sink.api.SinkModule;
+import org.opennms.core.ipc.sink.mock.MockMessageDispatcherFactory;
+import org.opennms.core.ipc.sink.offheap.DispatchQueueServiceLoader;
+import org.opennms.core.ipc.sink.offheap.QueueFileOffHeapDispatchQueueFactory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the end-to-end throughput of an {@link AsyncDispatcher} created by the
+ * {@link MockMessageDispatcherFactory}, from the call to send until the aggregated
+ * messages are handed to the consumer. No broker is involved.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class AsyncDispatcherBenchmark {
+
+    private static final int BATCH = 1000;
+
+    private static final int COMPLETION_SIZE = 100;
+
+    /**
+     * Uses the in-memory queue that is created when no dispatch queue factory is available.
+     */
+    public static final String IN_MEMORY = "in-memory";
+
+    @Param({IN_MEMORY, DispatchQueues.QUEUE_FILE, DispatchQueues.SEGMENTED})
+    public String queueType;
+
+    @Param({"1", "4"})
+    public int numThreads;
+
+    private Path path;
+    private MockMessageDispatcherFactory<BenchmarkMessage, BenchmarkMessageLog> dispatcherFactory;
+    private AsyncDispatcher<BenchmarkMessage> dispatcher;
+    private BenchmarkMessage message;
+    private final AtomicLong numConsumed = new AtomicLong();
+    private long numSent;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        path = Files.createTempDirectory("sink-benchmark");
+        if (IN_MEMORY.equals(queueType)) {
+            DispatchQueueServiceLoader.setDispatchQueue(null);
+        } else {
+            final int segments = DispatchQueues.SEGMENTED.equals(queueType) ? DispatchQueues.NUM_SEGMENTS : 1;
+            DispatchQueueServiceLoader.setDispatchQueue(new QueueFileOffHeapDispatchQueueFactory(BATCH, 100,
+                    "512MB", path.toString(), segments));
+        }
+
+        final BenchmarkSinkModule module = new BenchmarkSinkModule("AsyncDispatcherBenchmark", BATCH, numThreads,
+                COMPLETION_SIZE, 1000);
+        dispatcherFactory = new MockMessageDispatcherFactory<>();
+        dispatcherFactory.setConsumer(new MessageConsumer<BenchmarkMessage, BenchmarkMessageLog>() {
+            @Override
+            public SinkModule<BenchmarkMessage, BenchmarkMessageLog> getModule() {
+                return module;
+            }
+
+            @Override
+            public void handleMessage(BenchmarkMessageLog messageLog) {
+                numConsumed.addAndGet(messageLog.size());
+            }
+        });
+        dispatcherFactory.afterPropertiesSet();
+        dispatcher = dispatcherFactory.createAsyncDispatcher(module);
+        message = BenchmarkMessage.ofSize("key", 128);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        dispatcher.close();
+        dispatcherFactory.destroy();
+        DispatchQueueServiceLoader.setDispatchQueue(null);
+        DispatchQueues.deleteRecursively(path);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long sendAndConsume() {
+        for (int i = 0; i < BATCH; i++) {
+            dispatcher.send(message);
+        }
+        numSent += BATCH;
+
+        // Wait for all of the messages to make their way to the consumer. The batch is a multiple of
+        // the completion size, so the buckets are flushed without waiting on the flush timer.
+        while (numConsumed.get() < numSent) {
+            Thread.yield();
+        }
+        return numSent;
+    }
+}
@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.ipc.sink.benchmarks;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import org.opennms.core.ipc.sink.api.Message;
+
+/**
+ * A message with an opaque payload of a fixed size.
+ */
+public class BenchmarkMessage implements Message {
+
+    private final String key;
+    private final byte[] payload;
+
+    public BenchmarkMessage(String key, byte[] payload) {
+        this.key = Objects.requireNonNull(key);
+        this.payload = Objects.requireNonNull(payload);
+    }
+
+    public static BenchmarkMessage ofSize(String key, int payloadSize) {
+        final byte[] payload = new byte[payloadSize];
+        Arrays.fill(payload, (byte) 'x');
+        return new BenchmarkMessage(key, payload);
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /**
+     * Serializes the message as [key length][key][payload].
+     */
+    public byte[] toBytes() {
+        final byte[] keyBytes = key.getBytes();
+        final byte[] bytes = new byte[4 + keyBytes.length + payload.length];
+        bytes[0] = (byte) (keyBytes.length >>> 24);
+        bytes[1] = (byte) (keyBytes.length >>> 16);
+        bytes[2] = (byte) (keyBytes.length >>> 8);
+        bytes[3] = (byte) keyBytes.length;
+        System.arraycopy(keyBytes, 0, bytes, 4, keyBytes.length);
+        System.arraycopy(payload, 0, bytes, 4 + keyBytes.length, payload.length);
+        return bytes;
+    }
+
+    public static BenchmarkMessage fromBytes(byte[] bytes) {
+        final int keyLength = ((bytes[0] & 0xff) << 24) | ((bytes[1] & 0xff) << 16) | ((bytes[2] & 0xff) << 8)
+                | (bytes[3] & 0xff);
+        final String key = new String(bytes, 4, keyLength);
+        return new BenchmarkMessage(key, Arrays.copyOfRange(bytes, 4 + keyLength, bytes.length));
+    }
+}
@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.ipc.sink.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.opennms.core.ipc.sink.api.Message;
+
+/**
+ * The result of aggregating one or more {@link BenchmarkMessage}s.
+ */
+public class BenchmarkMessageLog implements Message {
+
+    private final List<BenchmarkMessage> messages;
+
+    public BenchmarkMessageLog(int expectedSize) {
+        // The expected size is unbounded when the aggregation is only completed by its interval
+        messages = new ArrayList<>(Math.min(expectedSize, 1024));
+    }
+
+    public void add(BenchmarkMessage message) {
+        messages.add(message);
+    }
+
+    public List<BenchmarkMessage> getMessages() {
+        return messages;
+    }
+
+    public int size() {
+        return messages.size();
+    }
+}
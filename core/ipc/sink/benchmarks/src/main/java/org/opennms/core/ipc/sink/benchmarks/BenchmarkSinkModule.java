@@ -0,0 +1,120 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.ipc.sink.benchmarks;
+
+import org.opennms.core.ipc.sink.api.AggregationPolicy;
+import org.opennms.core.ipc.sink.api.AsyncPolicy;
+import org.opennms.core.ipc.sink.mock.MockSinkModule;
+
+/**
+ * A sink module for {@link BenchmarkMessage}s that can optionally aggregate the
+ * messages by key, in the same fashion as the syslog and trap modules.
+ */
+public class BenchmarkSinkModule extends MockSinkModule<BenchmarkMessage, BenchmarkMessageLog> {
+
+    private final String id;
+    private final AsyncPolicy asyncPolicy;
+    private final AggregationPolicy<BenchmarkMessage, BenchmarkMessageLog, BenchmarkMessageLog> aggregationPolicy;
+
+    public BenchmarkSinkModule(String id, int queueSize, int numThreads, int completionSize, int completionIntervalMs) {
+        this.id = id;
+        asyncPolicy = new AsyncPolicy() {
+            @Override
+            public int getQueueSize() {
+                return queueSize;
+            }
+
+            @Override
+            public int getNumThreads() {
+                return numThreads;
+            }
+
+            @Override
+            public boolean isBlockWhenFull() {
+                return true;
+            }
+        };
+        aggregationPolicy = new AggregationPolicy<BenchmarkMessage, BenchmarkMessageLog, BenchmarkMessageLog>() {
+            @Override
+            public int getCompletionSize() {
+                return completionSize;
+            }
+
+            @Override
+            public int getCompletionIntervalMs() {
+                return completionIntervalMs;
+            }
+
+            @Override
+            public Object key(BenchmarkMessage message) {
+                return message.getKey();
+            }
+
+            @Override
+            public BenchmarkMessageLog aggregate(BenchmarkMessageLog accumulator, BenchmarkMessage newMessage) {
+                if (accumulator == null) {
+                    accumulator = new BenchmarkMessageLog(completionSize);
+                }
+                accumulator.add(newMessage);
+                return accumulator;
+            }
+
+            @Override
+            public BenchmarkMessageLog build(BenchmarkMessageLog accumulator) {
+                return accumulator;
+            }
+        };
+    }
+
+    @Override
+    public String getId() {
+        return id;
+    }
+
+    @Override
+    public byte[] marshalSingleMessage(BenchmarkMessage message) {
+        return message.toBytes();
+    }
+
+    @Override
+    public BenchmarkMessage unmarshalSingleMessage(byte[] message) {
+        return BenchmarkMessage.fromBytes(message);
+    }
+
+    @Override
+    public AggregationPolicy<BenchmarkMessage, BenchmarkMessageLog, ?> getAggregationPolicy() {
+        return aggregationPolicy;
+    }
+
+    @Override
+    public AsyncPolicy getAsyncPolicy() {
+        return asyncPolicy;
+    }
+}
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.ipc.sink.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.ipc.sink.api.DispatchQueue;
+import org.opennms.core.ipc.sink.api.WriteFailedException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the enqueue/dequeue throughput of the dispatch queues while
+ * the entries fit in memory, which is the steady state of a healthy Minion.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class DispatchQueueBenchmark {
+
+    private static final int BATCH = 100;
+
+    @Param({DispatchQueues.QUEUE_FILE, DispatchQueues.SEGMENTED})
+    public String queueType;
+
+    @Param({"128", "1024"})
+    public int payloadSize;
+
+    private Path path;
+    private DispatchQueue<BenchmarkMessage> queue;
+    private BenchmarkMessage message;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        path = Files.createTempDirectory("sink-benchmark");
+        queue = DispatchQueues.create(queueType, "DispatchQueueBenchmark", path, BATCH * 10, BATCH,
+                100 * 1024 * 1024);
+        message = BenchmarkMessage.ofSize("key", payloadSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        DispatchQueues.close(queue);
+        DispatchQueues.deleteRecursively(path);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void enqueueThenDequeue(Blackhole bh) throws WriteFailedException, InterruptedException {
+        for (int i = 0; i < BATCH; i++) {
+            bh.consume(queue.enqueue(message, null));
+        }
+        for (int i = 0; i < BATCH; i++) {
+            bh.consume(queue.dequeue());
+        }
+    }
+}
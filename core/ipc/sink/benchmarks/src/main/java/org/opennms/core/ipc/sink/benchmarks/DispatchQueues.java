@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.ipc.sink.benchmarks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.opennms.core.ipc.sink.api.DispatchQueue;
+import org.opennms.core.ipc.sink.offheap.QueueFileOffHeapDispatchQueue;
+import org.opennms.core.ipc.sink.offheap.SegmentedOffHeapDispatchQueue;
+
+/**
+ * Creates the dispatch queue implementations that are compared by the benchmarks.
+ */
+public final class DispatchQueues {
+
+    /**
+     * A single {@link QueueFileOffHeapDispatchQueue}.
+     */
+    public static final String QUEUE_FILE = "queue-file";
+
+    /**
+     * A {@link SegmentedOffHeapDispatchQueue} with {@link #NUM_SEGMENTS} stripes.
+     */
+    public static final String SEGMENTED = "segmented";
+
+    public static final int NUM_SEGMENTS = 4;
+
+    private DispatchQueues() {}
+
+    public static DispatchQueue<BenchmarkMessage> create(String type, String moduleName, Path path,
+                                                         int inMemoryQueueSize, int batchSize,
+                                                         long maxFileSizeInBytes) throws IOException {
+        switch (type) {
+            case QUEUE_FILE:
+                return new QueueFileOffHeapDispatchQueue<>(BenchmarkMessage::toBytes, BenchmarkMessage::fromBytes,
+                        moduleName, path, inMemoryQueueSize, batchSize, maxFileSizeInBytes);
+            case SEGMENTED:
+                return new SegmentedOffHeapDispatchQueue<>(BenchmarkMessage::toBytes, BenchmarkMessage::fromBytes,
+                        moduleName, path, inMemoryQueueSize, batchSize, maxFileSizeInBytes, NUM_SEGMENTS);
+            default:
+                throw new IllegalArgumentException("Unsupported queue type: " + type);
+        }
+    }
+
+    /**
+     * Dequeues entries until the queue reports that it is empty.
+     *
+     * @return the number of entries that were dequeued
+     */
+    public static int drain(DispatchQueue<BenchmarkMessage> queue) throws InterruptedException {
+        int count = 0;
+        while (queue.getSize() > 0) {
+            queue.dequeue();
+            count++;
+        }
+        return count;
+    }
+
+    public static void close(DispatchQueue<BenchmarkMessage> queue) throws IOException {
+        if (queue instanceof Closeable) {
+            ((Closeable) queue).close();
+        }
+    }
+
+    public static void deleteRecursively(Path path) throws IOException {
+        if (path == null || !Files.exists(path)) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(path)) {
+            for (Path p : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(p);
+            }
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.core.ipc.sink.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.opennms.core.ipc.sink.api.DispatchQueue;
+import org.opennms.core.ipc.sink.api.WriteFailedException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of spilling entries off-heap once the in-memory portion of
+ * the dispatch queue is full, and of recovering those entries after a restart.
+ *
+ * Each invocation moves {@link #NUM_ENTRIES} entries through the queue, so the
+ * scores are reported per batch rather than per entry.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class OffHeapSpillBenchmark {
+
+    private static final int NUM_ENTRIES = 10_000;
+    private static final int IN_MEMORY_QUEUE_SIZE = 100;
+    private static final int BATCH_SIZE = 100;
+    private static final long MAX_FILE_SIZE = 512 * 1024 * 1024;
+
+    @State(Scope.Thread)
+    public static class SpillState {
+        @Param({DispatchQueues.QUEUE_FILE, DispatchQueues.SEGMENTED})
+        public String queueType;
+
+        @Param({"128", "1024"})
+        public int payloadSize;
+
+        Path path;
+        DispatchQueue<BenchmarkMessage> queue;
+        BenchmarkMessage message;
+
+        @Setup(Level.Invocation)
+        public void setUp() throws IOException {
+            path = Files.createTempDirectory("sink-benchmark");
+            queue = DispatchQueues.create(queueType, "OffHeapSpillBenchmark", path, IN_MEMORY_QUEUE_SIZE, BATCH_SIZE,
+                    MAX_FILE_SIZE);
+            message = BenchmarkMessage.ofSize("key", payloadSize);
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() throws IOException {
+            DispatchQueues.close(queue);
+            DispatchQueues.deleteRecursively(path);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class RecoveryState {
+        @Param({DispatchQueues.QUEUE_FILE, DispatchQueues.SEGMENTED})
+        public String queueType;
+
+        @Param({"128", "1024"})
+        public int payloadSize;
+
+        Path path;
+        DispatchQueue<BenchmarkMessage> queue;
+
+        /**
+         * Fills the queue past its in-memory capacity and then closes it without draining it,
+         * leaving the spilled entries on disk as they would be after a restart.
+         */
+        @Setup(Level.Invocation)
+        public void setUp() throws IOException, WriteFailedException {
+            path = Files.createTempDirectory("sink-benchmark");
+            final DispatchQueue<BenchmarkMessage> filled = DispatchQueues.create(queueType, "OffHeapRecoveryBenchmark",
+                    path, IN_MEMORY_QUEUE_SIZE, BATCH_SIZE, MAX_FILE_SIZE);
+            final BenchmarkMessage message = BenchmarkMessage.ofSize("key", payloadSize);
+            for (int i = 0; i < NUM_ENTRIES + IN_MEMORY_QUEUE_SIZE; i++) {
+                filled.enqueue(message, null);
+            }
+            DispatchQueues.close(filled);
+        }
+
+        @TearDown(Level.Invocation)
+        public void tearDown() throws IOException {
+            DispatchQueues.close(queue);
+            DispatchQueues.deleteRecursively(path);
+        }
+    }
+
+    /**
+     * Enqueues enough entries to overflow the in-memory queue, then drains them all.
+     */
+    @Benchmark
+    public int spillAndDrain(SpillState state) throws WriteFailedException, InterruptedException {
+        for (int i = 0; i < NUM_ENTRIES; i++) {
+            state.queue.enqueue(state.message, null);
+        }
+        return DispatchQueues.drain(state.queue);
+    }
+
+    /**
+     * Re-opens a queue that was left with entries on disk, then drains them all.
+     */
+    @Benchmark
+    public int recoverAndDrain(RecoveryState state) throws IOException, InterruptedException {
+        state.queue = DispatchQueues.create(state.queueType,
+                "OffHeapRecoveryBenchmark", state.path, IN_MEMORY_QUEUE_SIZE, BATCH_SIZE, MAX_FILE_SIZE);
+        return DispatchQueues.drain(state.queue);
+    }
+}
@@ -30,6 +30,7 @@ package org.opennms.core.ipc.sink.offheap;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.io.ObjectInput;
@@ -75,10 +76,12 @@ import com.swrve.ratelimitedlogger.RateLimitedLog;
  * <p>
  * Before queued items are written to disk they are first accumulated in a batch to limit the number of discrete writes
  * we make to disk. The batched items are considered part of the in-memory portion of the queue and are also volatile.
+ * <p>
+ * Closing the queue closes the backing file, the queue cannot be used afterwards.
  *
  * @param <T> the type being queued
  */
-public class QueueFileOffHeapDispatchQueue<T> implements DispatchQueue<T> {
+public class QueueFileOffHeapDispatchQueue<T> implements DispatchQueue<T>, Closeable {
 
     private static final Logger LOG = LoggerFactory.getLogger(QueueFileOffHeapDispatchQueue.class);
     private final RateLimitedLog RATE_LIMITED_LOGGER = RateLimitedLog
@@ -394,6 +397,19 @@ public class QueueFileOffHeapDispatchQueue<T> implements DispatchQueue<T> {
         }
     }
 
+    @Override
+    public void close() throws IOException {
+        if (offHeapQueue == null) {
+            return;
+        }
+        offHeapLock.lock();
+        try {
+            offHeapQueue.close();
+        } finally {
+            offHeapLock.unlock();
+        }
+    }
+
     private List<Map.Entry<String, T>> unbatchSerializedBatch(SerializedBatch serializedBatch)
             throws ExecutionException, InterruptedException {
         final Batch deserializedBatch = new Batch(batchSize);
@@ -28,6 +28,7 @@
 
 package org.opennms.core.ipc.sink.offheap;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -41,22 +42,38 @@ import org.opennms.core.ipc.sink.api.DispatchQueueFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class QueueFileOffHeapDispatchQueueFactory implements DispatchQueueFactory {
+public class QueueFileOffHeapDispatchQueueFactory implements DispatchQueueFactory, Closeable {
 
     private static final Logger LOG = LoggerFactory.getLogger(QueueFileOffHeapDispatchQueueFactory.class);
 
     private final int inMemoryEntrySize;
     private final long offHeapSize;
     private final int batchSize;
+    private final int offHeapSegments;
     private final Path baseFilePath;
 
     private final Map<String, DispatchQueue<?>> queues = new ConcurrentHashMap<>();
 
     public QueueFileOffHeapDispatchQueueFactory(int inMemoryEntrySize, int batchSize, String offHeapSize,
                                                 String baseFilePath) {
+        this(inMemoryEntrySize, batchSize, offHeapSize, baseFilePath, 1);
+    }
+
+    /**
+     * @param offHeapSegments the number of independently locked segments the off-heap portion of each queue is split
+     *                        into. A value of 1 uses a single {@link QueueFileOffHeapDispatchQueue}, larger values use
+     *                        a {@link SegmentedOffHeapDispatchQueue}.
+     */
+    public QueueFileOffHeapDispatchQueueFactory(int inMemoryEntrySize, int batchSize, String offHeapSize,
+                                                String baseFilePath, int offHeapSegments) {
+        if (offHeapSegments < 1) {
+            throw new IllegalArgumentException("The number of off-heap segments must be greater than 0");
+        }
+
         this.inMemoryEntrySize = inMemoryEntrySize;
         this.batchSize = batchSize;
         this.offHeapSize = convertToBytes(offHeapSize);
+        this.offHeapSegments = offHeapSegments;
 
         if (baseFilePath == null || baseFilePath.length() == 0) {
             this.baseFilePath = Paths.get(System.getProperty("karaf.data"));
@@ -65,8 +82,8 @@ public class QueueFileOffHeapDispatchQueueFactory implements DispatchQueueFactor
         }
 
         LOG.info("DispatchQueue factory initialized with on-heap size: {}, batch size: {}, off-heap size: {}, " +
-                        "and file path: {}", this.inMemoryEntrySize, this.batchSize, this.offHeapSize,
-                this.baseFilePath);
+                        "off-heap segments: {}, and file path: {}", this.inMemoryEntrySize, this.batchSize,
+                this.offHeapSize, this.offHeapSegments, this.baseFilePath);
     }
 
     @Override
@@ -79,6 +96,11 @@ public class QueueFileOffHeapDispatchQueueFactory implements DispatchQueueFactor
 
         return (DispatchQueue<T>) queues.computeIfAbsent(moduleName, (k) -> {
             try {
+                // The segmented queue only applies when queueing off-heap is enabled
+                if (offHeapSegments > 1 && offHeapSize > 0) {
+                    return new SegmentedOffHeapDispatchQueue<>(serializer, deserializer, k, baseFilePath,
+                            inMemoryEntrySize, batchSize, offHeapSize, offHeapSegments);
+                }
                 return new QueueFileOffHeapDispatchQueue<>(serializer, deserializer, k, baseFilePath,
                         inMemoryEntrySize, batchSize,
                         offHeapSize);
@@ -88,6 +110,24 @@ public class QueueFileOffHeapDispatchQueueFactory implements DispatchQueueFactor
         });
     }
 
+    /**
+     * Closes all of the queues created by this factory, releasing their files and segment mappings. Called when the
+     * bundle providing the factory is stopped.
+     */
+    @Override
+    public void close() {
+        for (Map.Entry<String, DispatchQueue<?>> entry : queues.entrySet()) {
+            if (!queues.remove(entry.getKey(), entry.getValue()) || !(entry.getValue() instanceof Closeable)) {
+                continue;
+            }
+            try {
+                ((Closeable) entry.getValue()).close();
+            } catch (IOException e) {
+                LOG.warn("Failed to close the dispatch queue for module {}", entry.getKey(), e);
+            }
+        }
+    }
+
     private static long convertToBytes(String sizeWithSuffix) {
         if (sizeWithSuffix == null || sizeWithSuffix.length() == 0) {
             return 0;
@@ -0,0 +1,694 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.offheap;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+import org.opennms.core.ipc.sink.api.DispatchQueue;
+import org.opennms.core.ipc.sink.api.WriteFailedException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.swrve.ratelimitedlogger.RateLimitedLog;
+
+/**
+ * A {@link DispatchQueue} that, like the {@link QueueFileOffHeapDispatchQueue}, first queues items in memory and
+ * spills them to disk once the in-memory queue is full.
+ * <p>
+ * Instead of serializing all access through a single queue file, the off-heap portion is split into a number of
+ * independent stripes. Each stripe has its own lock, its own batch and its own series of append-only, memory-mapped
+ * segment files. Producers pick a stripe at random and only contend with producers that picked the same stripe, and
+ * consumers drain whole batches from different stripes in parallel. Serialization and deserialization of batches
+ * happen outside of any lock.
+ * <p>
+ * Messages are still delivered in order within a stripe, but there is no ordering guarantee across stripes.
+ * <p>
+ * Each segment file starts with the offset of the next unread record, followed by records made of a length and a
+ * serialized batch. A zero length marks the end of the written portion of the segment. Segments are deleted once they
+ * have been fully read, and any unread records are reloaded when the queue is re-created after a restart.
+ * <p>
+ * Closing the queue forces the segments to disk and releases them, the queue cannot be used afterwards.
+ *
+ * @param <T> the type being queued
+ */
+public class SegmentedOffHeapDispatchQueue<T> implements DispatchQueue<T>, Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SegmentedOffHeapDispatchQueue.class);
+    private final RateLimitedLog RATE_LIMITED_LOGGER = RateLimitedLog
+            .withRateLimit(LOG)
+            .maxRate(5)
+            .every(Duration.ofSeconds(30))
+            .build();
+
+    private static final String DIRECTORY_EXTENSION = ".segments";
+    private static final String STRIPE_PREFIX = "stripe-";
+    private static final String SEGMENT_EXTENSION = ".seg";
+
+    // The segment header holds the offset of the next record to read
+    private static final int SEGMENT_HEADER_SIZE_IN_BYTES = Long.BYTES;
+    private static final int RECORD_HEADER_SIZE_IN_BYTES = Integer.BYTES;
+
+    private static final long MIN_SEGMENT_SIZE_IN_BYTES = 1024 * 1024;
+    private static final long MAX_SEGMENT_SIZE_IN_BYTES = 128 * 1024 * 1024;
+
+    // How long a consumer waits on the in-memory queue before checking the stripes again
+    private static final long DRAIN_POLL_INTERVAL_MS = 100;
+
+    private final Function<T, byte[]> serializer;
+    private final Function<byte[], T> deserializer;
+    private final String moduleName;
+    private final int batchSize;
+    private final long maxFileSizeInBytes;
+    private final long segmentSizeInBytes;
+
+    private final BlockingQueue<Map.Entry<String, T>> inMemoryQueue = new LinkedBlockingQueue<>();
+    // Bounds the in-memory queue, consumers reserve room for a whole batch before draining a stripe
+    private final InMemoryPermits inMemoryPermits;
+
+    private final List<Stripe> stripes;
+    // Only the first writeStripes stripes are written to, any others were recovered from a previous configuration
+    private final int writeStripes;
+
+    // The number of messages that are batched, being flushed or on disk
+    private final AtomicLong offHeapEntries = new AtomicLong(0);
+    private final AtomicInteger nextDrainStripe = new AtomicInteger(0);
+    private final CapacityLatch capacityLatch = new CapacityLatch();
+
+    public SegmentedOffHeapDispatchQueue(Function<T, byte[]> serializer, Function<byte[], T> deserializer,
+                                         String moduleName, Path filePath, int inMemoryQueueSize, int batchSize,
+                                         long maxFileSizeInBytes, int numStripes) throws IOException {
+        Objects.requireNonNull(serializer);
+        Objects.requireNonNull(deserializer);
+        Objects.requireNonNull(moduleName);
+        Objects.requireNonNull(filePath);
+
+        if (inMemoryQueueSize < 1) {
+            throw new IllegalArgumentException("In memory queue size must be greater than 0");
+        }
+
+        if (inMemoryQueueSize % batchSize != 0) {
+            throw new IllegalArgumentException("In memory queue size must be a multiple of batch size");
+        }
+
+        if (maxFileSizeInBytes <= 0) {
+            throw new IllegalArgumentException("Max file size must be a positive integer");
+        }
+
+        if (numStripes < 1) {
+            throw new IllegalArgumentException("Number of stripes must be greater than 0");
+        }
+
+        this.serializer = serializer;
+        this.deserializer = deserializer;
+        this.moduleName = moduleName;
+        this.batchSize = batchSize;
+        this.maxFileSizeInBytes = maxFileSizeInBytes;
+        this.segmentSizeInBytes = Math.max(MIN_SEGMENT_SIZE_IN_BYTES,
+                Math.min(MAX_SEGMENT_SIZE_IN_BYTES, maxFileSizeInBytes / (numStripes * 8L)));
+        this.inMemoryPermits = new InMemoryPermits(inMemoryQueueSize);
+        this.writeStripes = numStripes;
+
+        final Path directory = Paths.get(filePath.toString(), moduleName + DIRECTORY_EXTENSION);
+        Files.createDirectories(directory);
+
+        // Pick up any stripes left behind by a previous configuration with more stripes so they still get drained
+        int existingStripes = 0;
+        final File[] stripeDirectories = directory.toFile().listFiles((dir, name) -> name.startsWith(STRIPE_PREFIX));
+        if (stripeDirectories != null) {
+            for (File stripeDirectory : stripeDirectories) {
+                try {
+                    existingStripes = Math.max(existingStripes,
+                            Integer.parseInt(stripeDirectory.getName().substring(STRIPE_PREFIX.length())) + 1);
+                } catch (NumberFormatException e) {
+                    LOG.warn("Ignoring unexpected directory {}", stripeDirectory);
+                }
+            }
+        }
+
+        stripes = new ArrayList<>(Math.max(numStripes, existingStripes));
+        for (int i = 0; i < Math.max(numStripes, existingStripes); i++) {
+            stripes.add(new Stripe(directory.resolve(STRIPE_PREFIX + i)));
+        }
+    }
+
+    /**
+     * When enqueueing we prefer the in-memory queue unless messages are already queued off-heap. Otherwise the message
+     * is added to the batch of a random stripe. Once that batch is full it is serialized and appended to the stripe's
+     * current segment, blocking if the off-heap storage is out of capacity.
+     */
+    @Override
+    public EnqueueResult enqueue(T message, String key) throws WriteFailedException {
+        if (offHeapEntries.get() == 0 && inMemoryPermits.tryAcquire()) {
+            LOG.trace("Enqueueing {} with key {} in-memory", message, key);
+            inMemoryQueue.add(new AbstractMap.SimpleImmutableEntry<>(key, message));
+            return EnqueueResult.IMMEDIATE;
+        }
+
+        final Stripe stripe = stripes.get(ThreadLocalRandom.current().nextInt(writeStripes));
+        final List<T> fullBatch = stripe.addToBatch(message);
+        if (fullBatch == null) {
+            return EnqueueResult.DEFERRED;
+        }
+
+        final byte[] record;
+        try {
+            record = toRecord(fullBatch);
+        } catch (Exception e) {
+            RATE_LIMITED_LOGGER.warn("Failed to flush to off-heap", e);
+            offHeapEntries.addAndGet(-fullBatch.size());
+            throw new WriteFailedException(e);
+        }
+
+        final long recordSize = record.length + RECORD_HEADER_SIZE_IN_BYTES;
+        try {
+            capacityLatch.acquire(recordSize);
+        } catch (InterruptedException e) {
+            offHeapEntries.addAndGet(-fullBatch.size());
+            throw new WriteFailedException(e);
+        }
+
+        try {
+            stripe.append(record, fullBatch.size());
+        } catch (IOException e) {
+            capacityLatch.release(recordSize);
+            offHeapEntries.addAndGet(-fullBatch.size());
+            throw new WriteFailedException(e);
+        }
+
+        return EnqueueResult.DEFERRED;
+    }
+
+    /**
+     * Before taking from the in-memory queue we try to move a batch from one of the stripes to the in-memory queue,
+     * provided there is room for a whole batch. Stripes that are being drained by another consumer are skipped so
+     * several consumers can drain different stripes at the same time.
+     */
+    @Override
+    public Map.Entry<String, T> dequeue() throws InterruptedException {
+        LOG.debug("Dequeueing an entry from queue with current size {}", getSize());
+
+        while (true) {
+            if (offHeapEntries.get() > 0) {
+                drainOffHeap();
+            }
+
+            final Map.Entry<String, T> entry = inMemoryQueue.poll(DRAIN_POLL_INTERVAL_MS, TimeUnit.MILLISECONDS);
+            if (entry != null) {
+                inMemoryPermits.release();
+                return entry;
+            }
+        }
+    }
+
+    private void drainOffHeap() {
+        if (!inMemoryPermits.tryAcquire(batchSize)) {
+            return;
+        }
+
+        int permits = batchSize;
+        try {
+            final int start = Math.floorMod(nextDrainStripe.getAndIncrement(), stripes.size());
+
+            // Prefer batches that were written to disk, they are the oldest
+            for (int i = 0; i < stripes.size(); i++) {
+                final Stripe stripe = stripes.get((start + i) % stripes.size());
+                final byte[] record = stripe.pollRecord();
+                if (record != null) {
+                    capacityLatch.release(record.length + RECORD_HEADER_SIZE_IN_BYTES);
+                    final List<T> messages = fromRecord(record);
+                    permits -= addToMemory(messages);
+                    return;
+                }
+            }
+
+            // Nothing on disk, so move any partial batches that are sitting in memory
+            for (int i = 0; i < stripes.size(); i++) {
+                final List<T> messages = stripes.get((start + i) % stripes.size()).takeBatch();
+                if (!messages.isEmpty()) {
+                    permits -= addToMemory(messages);
+                    return;
+                }
+            }
+        } catch (IOException e) {
+            RATE_LIMITED_LOGGER.warn("Exception while dequeueing", e);
+            throw new RuntimeException(e);
+        } finally {
+            if (permits > 0) {
+                inMemoryPermits.release(permits);
+            } else if (permits < 0) {
+                // A batch recovered from disk may have been written with a larger batch size
+                inMemoryPermits.reduce(-permits);
+            }
+        }
+    }
+
+    private int addToMemory(List<T> messages) {
+        messages.forEach(msg -> inMemoryQueue.add(new AbstractMap.SimpleImmutableEntry<>(null, msg)));
+        offHeapEntries.addAndGet(-messages.size());
+        LOG.trace("Moved a batch of {} entries from off-heap to in-memory", messages.size());
+        return messages.size();
+    }
+
+    @Override
+    public boolean isFull() {
+        return capacityLatch.isFull();
+    }
+
+    @Override
+    public int getSize() {
+        return (int) (inMemoryQueue.size() + offHeapEntries.get());
+    }
+
+    /**
+     * Forces the segments to disk and drops them. The mappings are released once they are garbage collected, since
+     * they cannot be unmapped explicitly.
+     */
+    @Override
+    public void close() {
+        for (Stripe stripe : stripes) {
+            stripe.close();
+        }
+    }
+
+    @VisibleForTesting
+    long getUsedBytes() {
+        return capacityLatch.getUsedBytes();
+    }
+
+    @VisibleForTesting
+    int getNumStripes() {
+        return stripes.size();
+    }
+
+    private byte[] toRecord(List<T> messages) throws IOException {
+        try (ByteArrayOutputStream bos = new ByteArrayOutputStream();
+             DataOutputStream out = new DataOutputStream(bos)) {
+            out.writeInt(messages.size());
+            for (T message : messages) {
+                final byte[] bytes = serializer.apply(message);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            out.flush();
+            return bos.toByteArray();
+        }
+    }
+
+    private List<T> fromRecord(byte[] record) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+            final int count = in.readInt();
+            final List<T> messages = new ArrayList<>(count);
+            for (int i = 0; i < count; i++) {
+                final byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                messages.add(deserializer.apply(bytes));
+            }
+            return messages;
+        }
+    }
+
+    /**
+     * Bounds the number of entries in the in-memory queue.
+     */
+    private static final class InMemoryPermits extends Semaphore {
+        private static final long serialVersionUID = 1L;
+
+        InMemoryPermits(int permits) {
+            super(permits);
+        }
+
+        void reduce(int permits) {
+            reducePermits(permits);
+        }
+    }
+
+    /**
+     * A latch that bounds the number of bytes queued on disk across all stripes.
+     */
+    private final class CapacityLatch {
+        private long usedBytes = 0;
+        private boolean isFull = false;
+
+        public synchronized void acquire(long bytes) throws InterruptedException {
+            // Always let a record through when the disk is empty, otherwise a record larger than the maximum would
+            // block forever
+            while (usedBytes > 0 && usedBytes + bytes > maxFileSizeInBytes) {
+                markFull();
+                LOG.trace("Waiting for capacity... Need {} bytes but {} of {} bytes are used",
+                        bytes, usedBytes, maxFileSizeInBytes);
+                wait();
+            }
+
+            markNotFull();
+            usedBytes += bytes;
+        }
+
+        public synchronized void release(long bytes) {
+            usedBytes -= bytes;
+            notifyAll();
+        }
+
+        private void markFull() {
+            if (!isFull) {
+                RATE_LIMITED_LOGGER.info("Off heap segments for module {} are now full", moduleName);
+                isFull = true;
+            }
+        }
+
+        private void markNotFull() {
+            if (isFull) {
+                RATE_LIMITED_LOGGER.info("Off heap segments for module {} are no longer full", moduleName);
+                isFull = false;
+            }
+        }
+
+        public synchronized boolean isFull() {
+            return isFull;
+        }
+
+        public synchronized long getUsedBytes() {
+            return usedBytes;
+        }
+    }
+
+    /**
+     * An independently locked portion of the off-heap queue.
+     */
+    private final class Stripe {
+        private final Path directory;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Deque<Segment> segments = new ArrayDeque<>();
+        private List<T> batch;
+        private long nextSegmentId = 0;
+
+        Stripe(Path directory) throws IOException {
+            this.directory = directory;
+            batch = new ArrayList<>(batchSize);
+            Files.createDirectories(directory);
+            recover();
+        }
+
+        private void recover() throws IOException {
+            final File[] files = directory.toFile().listFiles((dir, name) -> name.endsWith(SEGMENT_EXTENSION));
+            if (files == null) {
+                return;
+            }
+
+            final long[] ids = Arrays.stream(files)
+                    .map(f -> f.getName().substring(0, f.getName().length() - SEGMENT_EXTENSION.length()))
+                    .filter(name -> name.chars().allMatch(Character::isDigit) && !name.isEmpty())
+                    .mapToLong(Long::parseLong)
+                    .sorted()
+                    .toArray();
+
+            for (long id : ids) {
+                final File file = segmentFile(id);
+                nextSegmentId = id + 1;
+                try {
+                    final Segment segment = Segment.open(file);
+                    if (segment.isExhausted()) {
+                        segment.delete();
+                        continue;
+                    }
+                    segments.addLast(segment);
+                    offHeapEntries.addAndGet(segment.unreadMessages());
+                    capacityLatch.usedBytes += segment.unreadBytes();
+                } catch (Exception e) {
+                    LOG.warn("Exception while loading segment file {}", file, e);
+                    if (!file.delete()) {
+                        throw new IOException("Could not delete corrupted segment file " + file.getAbsolutePath());
+                    }
+                }
+            }
+        }
+
+        private File segmentFile(long id) {
+            return directory.resolve(String.format("%020d%s", id, SEGMENT_EXTENSION)).toFile();
+        }
+
+        /**
+         * @return the full batch if adding the message filled it, or null otherwise
+         */
+        List<T> addToBatch(T message) {
+            lock.lock();
+            try {
+                batch.add(message);
+                offHeapEntries.incrementAndGet();
+                if (batch.size() < batchSize) {
+                    return null;
+                }
+                final List<T> fullBatch = batch;
+                batch = new ArrayList<>(batchSize);
+                return fullBatch;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        List<T> takeBatch() {
+            if (!lock.tryLock()) {
+                return new ArrayList<>(0);
+            }
+            try {
+                final List<T> messages = batch;
+                batch = new ArrayList<>(batchSize);
+                return messages;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void append(byte[] record, int messageCount) throws IOException {
+            lock.lock();
+            try {
+                Segment segment = segments.peekLast();
+                if (segment == null || !segment.hasRoomFor(record.length)) {
+                    final long size = Math.max(segmentSizeInBytes,
+                            SEGMENT_HEADER_SIZE_IN_BYTES + 2L * RECORD_HEADER_SIZE_IN_BYTES + record.length);
+                    segment = Segment.create(segmentFile(nextSegmentId++), size);
+                    segments.addLast(segment);
+                }
+                segment.append(record, messageCount);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void close() {
+            lock.lock();
+            try {
+                for (Segment segment : segments) {
+                    segment.force();
+                }
+                segments.clear();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * @return the oldest unread record in this stripe, or null if there is none or another consumer is already
+         * draining it
+         */
+        byte[] pollRecord() throws IOException {
+            if (!lock.tryLock()) {
+                return null;
+            }
+            try {
+                Segment segment;
+                while ((segment = segments.peekFirst()) != null) {
+                    final byte[] record = segment.poll();
+                    if (record != null) {
+                        return record;
+                    }
+                    if (segment == segments.peekLast()) {
+                        // Keep the segment we are still writing to
+                        return null;
+                    }
+                    segments.removeFirst();
+                    segment.delete();
+                }
+                return null;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * A single append-only, memory-mapped segment file.
+     * <p>
+     * Not thread safe. Access should be guarded by the owning stripe's lock.
+     */
+    private static final class Segment {
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private int readPosition;
+        private int writePosition;
+        private long unreadMessages;
+        private long unreadBytes;
+
+        private Segment(File file, MappedByteBuffer buffer) {
+            this.file = file;
+            this.buffer = buffer;
+        }
+
+        static Segment create(File file, long size) throws IOException {
+            final Segment segment = new Segment(file, map(file, size));
+            segment.readPosition = SEGMENT_HEADER_SIZE_IN_BYTES;
+            segment.writePosition = SEGMENT_HEADER_SIZE_IN_BYTES;
+            segment.buffer.putLong(0, segment.readPosition);
+            return segment;
+        }
+
+        static Segment open(File file) throws IOException {
+            final Segment segment = new Segment(file, map(file, file.length()));
+            final long readPosition = segment.buffer.getLong(0);
+            if (readPosition < SEGMENT_HEADER_SIZE_IN_BYTES || readPosition > segment.buffer.capacity()) {
+                throw new IOException("Invalid read position " + readPosition + " in segment " + file);
+            }
+
+            // Scan the unread records to find where we left off writing
+            int position = (int) readPosition;
+            while (position + RECORD_HEADER_SIZE_IN_BYTES <= segment.buffer.capacity()) {
+                final int length = segment.buffer.getInt(position);
+                if (length == 0) {
+                    break;
+                }
+                if (length < Integer.BYTES || position + RECORD_HEADER_SIZE_IN_BYTES + length > segment.buffer.capacity()) {
+                    throw new IOException("Invalid record length " + length + " in segment " + file);
+                }
+                segment.unreadMessages += segment.buffer.getInt(position + RECORD_HEADER_SIZE_IN_BYTES);
+                segment.unreadBytes += RECORD_HEADER_SIZE_IN_BYTES + length;
+                position += RECORD_HEADER_SIZE_IN_BYTES + length;
+            }
+
+            segment.readPosition = (int) readPosition;
+            segment.writePosition = position;
+            return segment;
+        }
+
+        private static MappedByteBuffer map(File file, long size) throws IOException {
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Segment size " + size + " exceeds the maximum mappable size");
+            }
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+                 FileChannel channel = raf.getChannel()) {
+                // The mapping remains valid after the channel is closed
+                return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+
+        boolean hasRoomFor(int recordLength) {
+            // Always leave room for the zero length that terminates the segment
+            return (long) writePosition + 2L * RECORD_HEADER_SIZE_IN_BYTES + recordLength <= buffer.capacity();
+        }
+
+        void append(byte[] record, int messageCount) {
+            // Write the payload before the length so a partially written record is never considered complete
+            buffer.position(writePosition + RECORD_HEADER_SIZE_IN_BYTES);
+            buffer.put(record);
+            buffer.putInt(writePosition, record.length);
+            writePosition += RECORD_HEADER_SIZE_IN_BYTES + record.length;
+            unreadMessages += messageCount;
+            unreadBytes += RECORD_HEADER_SIZE_IN_BYTES + record.length;
+        }
+
+        byte[] poll() {
+            if (isExhausted()) {
+                return null;
+            }
+            final int length = buffer.getInt(readPosition);
+            final byte[] record = new byte[length];
+            buffer.position(readPosition + RECORD_HEADER_SIZE_IN_BYTES);
+            buffer.get(record);
+            // Every record starts with the number of messages it contains
+            final int messageCount = buffer.getInt(readPosition + RECORD_HEADER_SIZE_IN_BYTES);
+
+            readPosition += RECORD_HEADER_SIZE_IN_BYTES + length;
+            buffer.putLong(0, readPosition);
+            unreadMessages -= messageCount;
+            unreadBytes -= RECORD_HEADER_SIZE_IN_BYTES + length;
+            return record;
+        }
+
+        boolean isExhausted() {
+            return readPosition >= writePosition;
+        }
+
+        long unreadMessages() {
+            return unreadMessages;
+        }
+
+        long unreadBytes() {
+            return unreadBytes;
+        }
+
+        void force() {
+            buffer.force();
+        }
+
+        void delete() {
+            if (!file.delete()) {
+                LOG.warn("Could not delete segment file {}", file);
+            }
+        }
+    }
+}
@@ -0,0 +1,301 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.core.ipc.sink.offheap;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.core.ipc.sink.api.AsyncPolicy;
+import org.opennms.core.ipc.sink.api.DispatchQueue;
+import org.opennms.core.ipc.sink.api.WriteFailedException;
+
+import com.jayway.awaitility.core.ConditionTimeoutException;
+
+public class SegmentedOffHeapDispatchQueueTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void canQueueAndDequeue() throws IOException, WriteFailedException, InterruptedException {
+        DispatchQueue<String> queue = new SegmentedOffHeapDispatchQueue<>(String::getBytes, String::new,
+                "canQueueAndDequeue", Paths.get(folder.newFolder().toURI()), 1, 1, 10000, 4);
+
+        // Since size is 1, the first entry should be in-memory and the second entry should be on disk
+        String payload1 = "msg1";
+        assertThat(queue.enqueue(payload1, "key1"), equalTo(DispatchQueue.EnqueueResult.IMMEDIATE));
+
+        String payload2 = "msg2";
+        assertThat(queue.enqueue(payload2, "key2"), equalTo(DispatchQueue.EnqueueResult.DEFERRED));
+
+        assertThat(queue.getSize(), equalTo(2));
+
+        assertThat(queue.dequeue().getValue(), equalTo(payload1));
+        assertThat(queue.dequeue().getValue(), equalTo(payload2));
+        assertThat(queue.getSize(), equalTo(0));
+    }
+
+    @Test
+    public void canQueueAndDequeueInParallel() throws IOException {
+        DispatchQueue<String> queue = new SegmentedOffHeapDispatchQueue<>(String::getBytes, String::new,
+                "canQueueAndDequeueInParallel", Paths.get(folder.newFolder().toURI()), 20, 5, 100_000_000, 4);
+
+        int numProducers = 4;
+        int numEntriesPerProducer = 5_000;
+        Set<String> expected = IntStream.range(0, numProducers * numEntriesPerProducer)
+                .boxed()
+                .map(Object::toString)
+                .collect(Collectors.toSet());
+
+        ExecutorService executor = Executors.newCachedThreadPool();
+        for (int p = 0; p < numProducers; p++) {
+            final int producer = p;
+            executor.execute(() -> {
+                for (int i = 0; i < numEntriesPerProducer; i++) {
+                    try {
+                        queue.enqueue(Integer.toString(producer * numEntriesPerProducer + i), "key");
+                    } catch (WriteFailedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+
+        Set<String> dequeued = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        for (int c = 0; c < 3; c++) {
+            executor.execute(() -> {
+                while (true) {
+                    try {
+                        dequeued.add(queue.dequeue().getValue());
+                    } catch (InterruptedException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+        }
+
+        try {
+            await().atMost(1, TimeUnit.MINUTES).until(() -> dequeued, equalTo(expected));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void dequeuesInOrderWithSingleStripe() throws IOException, WriteFailedException, InterruptedException {
+        DispatchQueue<String> queue = new SegmentedOffHeapDispatchQueue<>(String::getBytes, String::new,
+                "dequeuesInOrderWithSingleStripe", Paths.get(folder.newFolder().toURI()), 1000, 100, 10_000_000, 1);
+
+        int numEntries = 10020;
+        List<String> toQueue = IntStream.range(0, numEntries)
+                .boxed()
+                .map(Object::toString)
+                .collect(Collectors.toList());
+
+        for (String s : toQueue) {
+            queue.enqueue(s, "key" + s);
+        }
+
+        assertThat(queue.getSize(), equalTo(numEntries));
+
+        List<String> dequeued = new ArrayList<>();
+        while (queue.getSize() > 0) {
+            dequeued.add(queue.dequeue().getValue());
+        }
+
+        assertThat(dequeued, equalTo(toQueue));
+    }
+
+    @Test
+    public void blocksWhenFull() throws WriteFailedException, IOException, InterruptedException {
+        SegmentedOffHeapDispatchQueue<byte[]> queue = new SegmentedOffHeapDispatchQueue<>(b -> b, b -> b,
+                "blocksWhenFull", Paths.get(folder.newFolder().toURI()), 1, 1, 30, 1);
+
+        // Fill the in-memory queue and the segments
+        queue.enqueue(new byte[0], "key1");
+        queue.enqueue(new byte[20], "key2");
+
+        AtomicBoolean didQueue = new AtomicBoolean(false);
+        CompletableFuture.runAsync(() -> {
+            // Now try to queue again and verify that we block
+            try {
+                queue.enqueue(new byte[1], "key3");
+                didQueue.set(true);
+            } catch (WriteFailedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        try {
+            await().pollDelay(10, TimeUnit.MILLISECONDS)
+                    .atMost(100, TimeUnit.MILLISECONDS)
+                    .until(didQueue::get);
+            fail("Enqueue happened but we should have been blocking");
+        } catch (ConditionTimeoutException expected) {
+        }
+        assertThat(queue.isFull(), equalTo(true));
+
+        // Now dequeue which should free up space on disk
+        queue.dequeue();
+        queue.dequeue();
+
+        await().atMost(1, TimeUnit.SECONDS).until(didQueue::get);
+        assertThat(queue.isFull(), equalTo(false));
+    }
+
+    @Test
+    public void canDequeueOffHeapAfterRestart() throws IOException, WriteFailedException, InterruptedException {
+        Path path = Paths.get(folder.newFolder().toURI());
+        String moduleName = "canDequeueOffHeapAfterRestart";
+        SegmentedOffHeapDispatchQueue<String> queue = new SegmentedOffHeapDispatchQueue<>(String::getBytes,
+                String::new, moduleName, path, 1, 1, 10000, 2);
+
+        assertThat(queue.enqueue("msg1", "key1"), equalTo(DispatchQueue.EnqueueResult.IMMEDIATE));
+        for (int i = 2; i <= 5; i++) {
+            assertThat(queue.enqueue("msg" + i, "key" + i), equalTo(DispatchQueue.EnqueueResult.DEFERRED));
+        }
+
+        // Consume one of the entries on disk before restarting
+        assertThat(queue.dequeue().getValue(), equalTo("msg1"));
+        String consumed = queue.dequeue().getValue();
+
+        // Reinitialize with fewer stripes to simulate coming back up after restart with a new configuration
+        queue = new SegmentedOffHeapDispatchQueue<>(String::getBytes, String::new, moduleName, path, 1, 1, 10000, 1);
+
+        // We will have lost the in-memory portion of the queue, but not the entries still on disk
+        assertThat(queue.getSize(), equalTo(3));
+        assertThat(queue.getNumStripes(), equalTo(2));
+
+        List<String> dequeued = new ArrayList<>();
+        dequeued.add(consumed);
+        while (queue.getSize() > 0) {
+            dequeued.add(queue.dequeue().getValue());
+        }
+        Collections.sort(dequeued);
+        assertThat(dequeued, equalTo(IntStream.rangeClosed(2, 5).mapToObj(i -> "msg" + i).collect(Collectors.toList())));
+        assertThat(queue.getUsedBytes(), equalTo(0L));
+    }
+
+    @Test
+    public void canReopenAfterClose() throws IOException, WriteFailedException, InterruptedException {
+        Path path = Paths.get(folder.newFolder().toURI());
+        String moduleName = "canReopenAfterClose";
+        SegmentedOffHeapDispatchQueue<String> queue = new SegmentedOffHeapDispatchQueue<>(String::getBytes,
+                String::new, moduleName, path, 1, 1, 10000, 1);
+        for (int i = 1; i <= 3; i++) {
+            queue.enqueue("msg" + i, "key" + i);
+        }
+        queue.close();
+
+        // The first entry was in memory, the others were written to disk before closing
+        queue = new SegmentedOffHeapDispatchQueue<>(String::getBytes, String::new, moduleName, path, 1, 1, 10000, 1);
+        assertThat(queue.getSize(), equalTo(2));
+        assertThat(queue.dequeue().getValue(), equalTo("msg2"));
+        assertThat(queue.dequeue().getValue(), equalTo("msg3"));
+        queue.close();
+    }
+
+    @Test
+    public void factoryClosesItsQueues() throws IOException, WriteFailedException, InterruptedException {
+        String path = folder.newFolder().getAbsolutePath();
+        AsyncPolicy asyncPolicy = new AsyncPolicy() {
+            @Override
+            public int getQueueSize() {
+                return 1;
+            }
+
+            @Override
+            public int getNumThreads() {
+                return 1;
+            }
+
+            @Override
+            public boolean isBlockWhenFull() {
+                return true;
+            }
+        };
+        QueueFileOffHeapDispatchQueueFactory factory = new QueueFileOffHeapDispatchQueueFactory(1, 1, "10KB", path, 2);
+        DispatchQueue<String> queue = factory.getQueue(asyncPolicy, "factoryClosesItsQueues", String::getBytes,
+                String::new);
+        for (int i = 1; i <= 3; i++) {
+            queue.enqueue("msg" + i, "key" + i);
+        }
+        factory.close();
+
+        // A new queue is created from the segments written to disk before closing
+        factory = new QueueFileOffHeapDispatchQueueFactory(1, 1, "10KB", path, 2);
+        DispatchQueue<String> reopened = factory.getQueue(asyncPolicy, "factoryClosesItsQueues", String::getBytes,
+                String::new);
+        assertThat(reopened, not(sameInstance(queue)));
+        assertThat(reopened.getSize(), equalTo(2));
+        factory.close();
+    }
+
+    @Test
+    public void recoversFromCorruptSegment() throws IOException, WriteFailedException, InterruptedException {
+        String moduleName = "recoversFromCorruptSegment";
+        File tmpFolder = folder.newFolder();
+        Path stripe = Paths.get(tmpFolder.getAbsolutePath(), moduleName + ".segments", "stripe-0");
+        Files.createDirectories(stripe);
+        Files.write(stripe.resolve("00000000000000000000.seg"), "corrupt!".getBytes());
+
+        SegmentedOffHeapDispatchQueue<String> queue = new SegmentedOffHeapDispatchQueue<>(String::getBytes,
+                String::new, moduleName, Paths.get(tmpFolder.toURI()), 1, 1, 300, 1);
+
+        String payload1 = "msg1";
+        queue.enqueue(payload1, "key1");
+
+        assertThat(queue.dequeue().getValue(), equalTo(payload1));
+    }
+}
@@ -0,0 +1,253 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp;
+
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Learns the number of repetitions and varbinds per PDU to use when walking a given agent.
+ *
+ * Enabled by setting the system property {@value #ENABLED_PROPERTY} to true. When enabled,
+ * {@link SnmpWalker} starts every walk from the values learned during the previous walks
+ * of the same agent instead of the fixed values from snmp-config. The values are grown
+ * additively while the agent answers full responses quickly, and are cut in half when the
+ * agent returns tooBig, truncates its responses, responds slowly or times out.
+ */
+public class AdaptiveBulkSizer {
+    private static final Logger LOG = LoggerFactory.getLogger(AdaptiveBulkSizer.class);
+
+    public static final String ENABLED_PROPERTY = "org.opennms.snmp.walker.adaptive";
+    public static final String MAX_REPETITIONS_PROPERTY = "org.opennms.snmp.walker.adaptive.maxRepetitions";
+    public static final String MAX_VARS_PER_PDU_PROPERTY = "org.opennms.snmp.walker.adaptive.maxVarsPerPdu";
+    public static final String TARGET_RTT_PROPERTY = "org.opennms.snmp.walker.adaptive.targetRtt";
+
+    public static final int DEFAULT_MAX_REPETITIONS = 50;
+    public static final int DEFAULT_MAX_VARS_PER_PDU = 50;
+    public static final long DEFAULT_TARGET_RTT_MS = 500;
+
+    private static final AdaptiveBulkSizer INSTANCE = new AdaptiveBulkSizer(
+            Integer.getInteger(MAX_REPETITIONS_PROPERTY, DEFAULT_MAX_REPETITIONS),
+            Integer.getInteger(MAX_VARS_PER_PDU_PROPERTY, DEFAULT_MAX_VARS_PER_PDU),
+            Long.getLong(TARGET_RTT_PROPERTY, DEFAULT_TARGET_RTT_MS));
+
+    private final Map<InetAddress, AgentSizing> m_agents = new ConcurrentHashMap<>();
+    private final int m_maxRepetitionsLimit;
+    private final int m_maxVarsPerPduLimit;
+    private final long m_targetRttNanos;
+
+    public AdaptiveBulkSizer(int maxRepetitionsLimit, int maxVarsPerPduLimit, long targetRttMs) {
+        m_maxRepetitionsLimit = Math.max(1, maxRepetitionsLimit);
+        m_maxVarsPerPduLimit = Math.max(1, maxVarsPerPduLimit);
+        m_targetRttNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, targetRttMs));
+    }
+
+    public static boolean isEnabled() {
+        return Boolean.getBoolean(ENABLED_PROPERTY);
+    }
+
+    public static AdaptiveBulkSizer getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Retrieves the sizing for the given agent, seeding it with the configured
+     * values if the agent has not been walked before.
+     */
+    public AgentSizing getSizing(InetAddress address, int maxVarsPerPdu, int maxRepetitions) {
+        return m_agents.computeIfAbsent(address, a -> new AgentSizing(a,
+                clamp(maxVarsPerPdu, m_maxVarsPerPduLimit), clamp(maxRepetitions, m_maxRepetitionsLimit)));
+    }
+
+    public Map<InetAddress, AgentSizing> getSizings() {
+        return Collections.unmodifiableMap(m_agents);
+    }
+
+    public void reset(InetAddress address) {
+        m_agents.remove(address);
+    }
+
+    public void clear() {
+        m_agents.clear();
+    }
+
+    private static int clamp(int value, int limit) {
+        return Math.max(1, Math.min(value, limit));
+    }
+
+    public class AgentSizing {
+        private final InetAddress m_address;
+        private int m_maxVarsPerPdu;
+        private int m_maxRepetitions;
+        private long m_walks = 0;
+        private long m_pdus = 0;
+        private long m_lastWalkPdus = 0;
+        private long m_tooBigs = 0;
+        private long m_timeouts = 0;
+        private long m_truncated = 0;
+        private double m_avgRttNanos = 0;
+        private double m_avgResponseSize = 0;
+
+        private AgentSizing(InetAddress address, int maxVarsPerPdu, int maxRepetitions) {
+            m_address = address;
+            m_maxVarsPerPdu = maxVarsPerPdu;
+            m_maxRepetitions = maxRepetitions;
+        }
+
+        public InetAddress getAddress() {
+            return m_address;
+        }
+
+        public synchronized int getMaxVarsPerPdu() {
+            return m_maxVarsPerPdu;
+        }
+
+        public synchronized int getMaxRepetitions() {
+            return m_maxRepetitions;
+        }
+
+        public synchronized long getWalks() {
+            return m_walks;
+        }
+
+        public synchronized long getPdus() {
+            return m_pdus;
+        }
+
+        public synchronized long getLastWalkPdus() {
+            return m_lastWalkPdus;
+        }
+
+        public synchronized double getAvgPdusPerWalk() {
+            return m_walks == 0 ? 0 : (double)m_pdus / m_walks;
+        }
+
+        public synchronized long getTooBigs() {
+            return m_tooBigs;
+        }
+
+        public synchronized long getTimeouts() {
+            return m_timeouts;
+        }
+
+        public synchronized long getTruncatedResponses() {
+            return m_truncated;
+        }
+
+        public synchronized double getAvgRttMs() {
+            return m_avgRttNanos / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        /**
+         * @return the moving average of the number of bytes in the responses, or 0 if unknown
+         */
+        public synchronized double getAvgResponseSize() {
+            return m_avgResponseSize;
+        }
+
+        /**
+         * Records a response without errors.
+         *
+         * @param rttNanos time elapsed between sending the request and receiving the response
+         * @param requestedVarBinds number of varbinds the request could have returned
+         * @param receivedVarBinds number of varbinds actually returned
+         * @param responseSize size of the encoded response in bytes, or a negative value if unknown
+         * @param maxResponseSize largest response the agent is configured to send, or a negative value if unknown
+         */
+        public synchronized void onResponse(long rttNanos, int requestedVarBinds, int receivedVarBinds, int responseSize, int maxResponseSize) {
+            m_avgRttNanos = m_avgRttNanos == 0 ? rttNanos : 0.8 * m_avgRttNanos + 0.2 * rttNanos;
+            if (responseSize >= 0) {
+                m_avgResponseSize = m_avgResponseSize == 0 ? responseSize : 0.8 * m_avgResponseSize + 0.2 * responseSize;
+            }
+
+            if (rttNanos > 2 * m_targetRttNanos) {
+                // The agent is struggling, back off before it starts timing out
+                shrink("slow response");
+            } else if (receivedVarBinds < requestedVarBinds) {
+                // Agents may omit trailing varbinds when the response would not fit, treat it as a soft tooBig
+                m_truncated++;
+                if (m_maxRepetitions > 1) {
+                    m_maxRepetitions = Math.max(1, m_maxRepetitions - Math.max(1, m_maxRepetitions / 4));
+                }
+            } else if (rttNanos < m_targetRttNanos
+                    && (responseSize < 0 || maxResponseSize <= 0 || responseSize < maxResponseSize / 2)) {
+                grow();
+            }
+        }
+
+        public synchronized void onTooBig() {
+            m_tooBigs++;
+            shrink("tooBig");
+        }
+
+        public synchronized void onTimeout() {
+            m_timeouts++;
+            shrink("timeout");
+        }
+
+        public synchronized void onWalkCompleted(long pdus) {
+            m_walks++;
+            m_pdus += pdus;
+            m_lastWalkPdus = pdus;
+        }
+
+        private void grow() {
+            m_maxRepetitions = Math.min(m_maxRepetitionsLimit, m_maxRepetitions + Math.max(1, m_maxRepetitions / 4));
+            m_maxVarsPerPdu = Math.min(m_maxVarsPerPduLimit, m_maxVarsPerPdu + Math.max(1, m_maxVarsPerPdu / 4));
+        }
+
+        private void shrink(String reason) {
+            m_maxRepetitions = Math.max(1, m_maxRepetitions / 2);
+            m_maxVarsPerPdu = Math.max(1, m_maxVarsPerPdu / 2);
+            LOG.debug("Reduced sizing for {} after {} to maxVarsPerPdu={}, maxRepetitions={}", m_address, reason, m_maxVarsPerPdu, m_maxRepetitions);
+        }
+
+        @Override
+        public synchronized String toString() {
+            return new ToStringBuilder(this)
+                .append("address", InetAddrUtils.str(m_address))
+                .append("max vars per pdu", m_maxVarsPerPdu)
+                .append("max repetitions", m_maxRepetitions)
+                .append("walks", m_walks)
+                .append("pdus", m_pdus)
+                .append("last walk pdus", m_lastWalkPdus)
+                .append("too bigs", m_tooBigs)
+                .append("timeouts", m_timeouts)
+                .append("truncated responses", m_truncated)
+                .toString();
+        }
+    }
+}
@@ -51,6 +51,9 @@ public abstract class SnmpWalker implements AutoCloseable {
     private WalkerPduBuilder m_pduBuilder;
     private ResponseProcessor m_responseProcessor;
     private final int m_maxVarsPerPdu;
+    private AdaptiveBulkSizer.AgentSizing m_sizing;
+    private long m_pdusSent = 0;
+    private long m_sentAt;
     private boolean m_error = false;
     private String m_errorMessage = "";
     private Throwable m_errorThrowable = null;
@@ -68,6 +71,9 @@ public abstract class SnmpWalker implements AutoCloseable {
         m_tracker.setMaxRetries(maxRetries);
         
         m_maxVarsPerPdu = maxVarsPerPdu;
+        if (AdaptiveBulkSizer.isEnabled()) {
+            m_sizing = AdaptiveBulkSizer.getInstance().getSizing(address, maxVarsPerPdu, maxRepetitions);
+        }
     }
 
     /**
@@ -83,7 +89,7 @@ public abstract class SnmpWalker implements AutoCloseable {
     protected abstract WalkerPduBuilder createPduBuilder(int maxVarsPerPdu);
     
     public void start() {
-        m_pduBuilder = createPduBuilder(m_maxVarsPerPdu);
+        m_pduBuilder = createPduBuilder(m_sizing == null ? m_maxVarsPerPdu : m_sizing.getMaxVarsPerPdu());
         try {
             buildAndSendNextPdu();
         } catch (Throwable e) {
@@ -100,7 +106,14 @@ public abstract class SnmpWalker implements AutoCloseable {
             handleDone();
         } else {
             m_pduBuilder.reset();
+            if (m_sizing != null) {
+                // Pick up whatever was learned from the previous response
+                m_pduBuilder.setMaxVarsPerPdu(m_sizing.getMaxVarsPerPdu());
+                m_tracker.setMaxRepetitions(m_sizing.getMaxRepetitions());
+            }
             m_responseProcessor = m_tracker.buildNextPdu(m_pduBuilder);
+            m_pdusSent++;
+            m_sentAt = System.nanoTime();
             sendNextPdu(m_pduBuilder);
         }
     }
@@ -147,6 +160,9 @@ public abstract class SnmpWalker implements AutoCloseable {
     }
     
     protected void handleTimeout(String msg) {
+        if (m_sizing != null) {
+            m_sizing.onTimeout();
+        }
         m_tracker.setTimedOut(true);
         processError("Timeout retrieving", msg, new SnmpAgentTimeoutException(getName(), m_address));
     }
@@ -162,6 +178,9 @@ public abstract class SnmpWalker implements AutoCloseable {
     }
 
     private void finish() {
+        if (m_sizing != null && !failed()) {
+            m_sizing.onWalkCompleted(m_pdusSent);
+        }
         signal();
         // Trigger the callback after the latch was decreased and the session was closed.
         if (m_callback != null) {
@@ -206,8 +225,45 @@ public abstract class SnmpWalker implements AutoCloseable {
          */ 
     }
     
+    /**
+     * Used by the implementations to report the size of a response before processing
+     * it, so that the sizing of the following requests can be adapted to the agent.
+     *
+     * @param requestedVarBinds number of varbinds the request could have returned
+     * @param receivedVarBinds number of varbinds in the response
+     * @param responseSize size of the encoded response in bytes, or a negative value if unknown
+     * @param maxResponseSize largest response the agent is configured to send, or a negative value if unknown
+     */
+    protected void responseReceived(int requestedVarBinds, int receivedVarBinds, int responseSize, int maxResponseSize) {
+        if (m_sizing != null) {
+            m_sizing.onResponse(System.nanoTime() - m_sentAt, requestedVarBinds, receivedVarBinds, responseSize, maxResponseSize);
+        }
+    }
+
+    /**
+     * @return the number of PDUs sent so far by this walker
+     */
+    public final long getPdusSent() {
+        return m_pdusSent;
+    }
+
+    /**
+     * @return the learned sizing for the agent, or null if the adaptive mode is disabled
+     */
+    public final AdaptiveBulkSizer.AgentSizing getSizing() {
+        return m_sizing;
+    }
+
     // processErrors returns true if we need to retry the request and false otherwise
     protected boolean processErrors(int errorStatus, int errorIndex) throws SnmpException {
+        if (m_sizing != null && ErrorStatus.fromStatus(errorStatus) == ErrorStatus.TOO_BIG
+                && (m_sizing.getMaxRepetitions() > 1 || m_sizing.getMaxVarsPerPdu() > 1)) {
+            // Retry the same request with the reduced sizing, the trackers have not consumed anything yet
+            m_sizing.onTooBig();
+            m_tracker.reportTooBigErr("Reducing the sizing to maxVarsPerPdu=" + m_sizing.getMaxVarsPerPdu()
+                    + ", maxRepetitions=" + m_sizing.getMaxRepetitions() + " for this agent.");
+            return true;
+        }
         return m_responseProcessor.processErrors(errorStatus, errorIndex);
     }
     
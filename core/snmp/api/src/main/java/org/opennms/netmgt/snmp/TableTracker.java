@@ -193,7 +193,8 @@ public class TableTracker extends CollectionTracker implements RowCallback, RowR
              * 
              */
             
-            int columnIndex = (errorIndex - 1) % m_processors.size();
+            // errorIndex is 0 when there is no error, or when the agent did not point to a specific varBind
+            int columnIndex = errorIndex < 1 ? 0 : (errorIndex - 1) % m_processors.size();
             
             ResponseProcessor rp = m_processors.get(columnIndex);
 
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.net.InetAddress;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class AdaptiveBulkSizerTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(5000);
+
+    @Test
+    public void canGrowUpToTheLimits() {
+        final AdaptiveBulkSizer sizer = new AdaptiveBulkSizer(40, 20, 500);
+        final AdaptiveBulkSizer.AgentSizing sizing = sizer.getSizing(InetAddress.getLoopbackAddress(), 10, 2);
+        assertEquals(10, sizing.getMaxVarsPerPdu());
+        assertEquals(2, sizing.getMaxRepetitions());
+
+        for (int i = 0; i < 100; i++) {
+            sizing.onResponse(FAST, 10, 10, 1000, 65535);
+        }
+        assertEquals(20, sizing.getMaxVarsPerPdu());
+        assertEquals(40, sizing.getMaxRepetitions());
+
+        // The sizing is remembered for the agent
+        assertSame(sizing, sizer.getSizing(InetAddress.getLoopbackAddress(), 10, 2));
+    }
+
+    @Test
+    public void canShrinkOnErrors() {
+        final AdaptiveBulkSizer sizer = new AdaptiveBulkSizer(40, 20, 500);
+        final AdaptiveBulkSizer.AgentSizing sizing = sizer.getSizing(InetAddress.getLoopbackAddress(), 20, 40);
+
+        sizing.onTooBig();
+        assertEquals(10, sizing.getMaxVarsPerPdu());
+        assertEquals(20, sizing.getMaxRepetitions());
+
+        sizing.onTimeout();
+        assertEquals(5, sizing.getMaxVarsPerPdu());
+        assertEquals(10, sizing.getMaxRepetitions());
+
+        sizing.onResponse(SLOW, 10, 10, 1000, 65535);
+        assertEquals(2, sizing.getMaxVarsPerPdu());
+        assertEquals(5, sizing.getMaxRepetitions());
+
+        for (int i = 0; i < 10; i++) {
+            sizing.onTooBig();
+        }
+        assertEquals(1, sizing.getMaxVarsPerPdu());
+        assertEquals(1, sizing.getMaxRepetitions());
+        assertEquals(11, sizing.getTooBigs());
+        assertEquals(1, sizing.getTimeouts());
+    }
+
+    @Test
+    public void doesNotGrowOnTruncatedOrLargeResponses() {
+        final AdaptiveBulkSizer sizer = new AdaptiveBulkSizer(40, 20, 500);
+        final AdaptiveBulkSizer.AgentSizing sizing = sizer.getSizing(InetAddress.getLoopbackAddress(), 10, 8);
+
+        sizing.onResponse(FAST, 80, 50, 1000, 65535);
+        assertEquals(10, sizing.getMaxVarsPerPdu());
+        assertEquals(6, sizing.getMaxRepetitions());
+        assertEquals(1, sizing.getTruncatedResponses());
+
+        sizing.onResponse(FAST, 60, 60, 60000, 65535);
+        assertEquals(10, sizing.getMaxVarsPerPdu());
+        assertEquals(6, sizing.getMaxRepetitions());
+
+        sizing.onWalkCompleted(4);
+        sizing.onWalkCompleted(2);
+        assertEquals(2, sizing.getWalks());
+        assertEquals(2, sizing.getLastWalkPdus());
+        assertTrue(sizing.getAvgPdusPerWalk() == 3.0d);
+    }
+}
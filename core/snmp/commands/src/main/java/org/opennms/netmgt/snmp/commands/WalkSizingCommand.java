@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp.commands;
+
+import java.net.InetAddress;
+import java.util.Comparator;
+
+import org.apache.karaf.shell.api.action.Action;
+import org.apache.karaf.shell.api.action.Argument;
+import org.apache.karaf.shell.api.action.Command;
+import org.apache.karaf.shell.api.action.Option;
+import org.apache.karaf.shell.api.action.lifecycle.Service;
+import org.opennms.netmgt.snmp.AdaptiveBulkSizer;
+import org.opennms.netmgt.snmp.InetAddrUtils;
+
+@Command(scope = "opennms", name = "snmp-walk-sizing", description = "Display the repetitions and varbinds per PDU learned for the agents when adaptive walks are enabled.")
+@Service
+public class WalkSizingCommand implements Action {
+
+    @Option(name = "-r", aliases = "--reset", description = "Forget the learned sizing instead of displaying it", required = false, multiValued = false)
+    boolean m_reset = false;
+
+    @Argument(index = 0, name = "host", description = "Hostname or IP Address of the agent, displays all of the agents when omitted", required = false, multiValued = false)
+    String m_host;
+
+    @Override
+    public Object execute() throws Exception {
+        if (!AdaptiveBulkSizer.isEnabled()) {
+            System.out.printf("Adaptive walks are disabled. Set %s=true to enable them.\n", AdaptiveBulkSizer.ENABLED_PROPERTY);
+        }
+
+        final AdaptiveBulkSizer sizer = AdaptiveBulkSizer.getInstance();
+        final InetAddress address = m_host != null ? InetAddress.getByName(m_host) : null;
+        if (m_reset) {
+            if (address != null) {
+                sizer.reset(address);
+            } else {
+                sizer.clear();
+            }
+            return null;
+        }
+
+        System.out.printf("%-40s %8s %8s %8s %10s %10s %8s %8s %10s %10s\n", "Agent", "MaxVars", "MaxReps",
+                "Walks", "PDUs/Walk", "LastWalk", "TooBigs", "Timeouts", "Truncated", "RTT (ms)");
+        sizer.getSizings().values().stream()
+            .filter(s -> address == null || address.equals(s.getAddress()))
+            .sorted(Comparator.comparing(s -> InetAddrUtils.str(s.getAddress())))
+            .forEach(s -> System.out.printf("%-40s %8d %8d %8d %10.1f %10d %8d %8d %10d %10.1f\n",
+                    InetAddrUtils.str(s.getAddress()), s.getMaxVarsPerPdu(), s.getMaxRepetitions(), s.getWalks(),
+                    s.getAvgPdusPerWalk(), s.getLastWalkPdus(), s.getTooBigs(), s.getTimeouts(),
+                    s.getTruncatedResponses(), s.getAvgRttMs()));
+        return null;
+    }
+}
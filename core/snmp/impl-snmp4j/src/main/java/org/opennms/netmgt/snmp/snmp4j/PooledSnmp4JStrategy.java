@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import org.opennms.core.sysprops.SystemProperties;
+import org.opennms.netmgt.snmp.CollectionTracker;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpWalker;
+import org.snmp4j.Snmp;
+
+/**
+ * SNMP4J strategy that sends all of the requests and walks through a {@link Snmp4JSessionPool},
+ * instead of opening a new socket for every one of them.
+ *
+ * Can be enabled by setting:
+ *   org.opennms.snmp.strategyClass=org.opennms.netmgt.snmp.snmp4j.PooledSnmp4JStrategy
+ *
+ * Traps and informs are handled the same way as they are by the {@link Snmp4JStrategy}.
+ */
+public class PooledSnmp4JStrategy extends Snmp4JStrategy {
+
+    public static final String POOL_SESSIONS_PROPERTY = "org.opennms.snmp.snmp4j.pool.sessions";
+
+    public static final String POOL_DISPATCHER_THREADS_PROPERTY = "org.opennms.snmp.snmp4j.pool.dispatcherThreads";
+
+    private static Snmp4JSessionPool s_sessionPool;
+
+    private static synchronized Snmp4JSessionPool getSessionPool() {
+        if (s_sessionPool == null) {
+            try {
+                s_sessionPool = new Snmp4JSessionPool(SystemProperties.getInteger(POOL_SESSIONS_PROPERTY, 4),
+                        SystemProperties.getInteger(POOL_DISPATCHER_THREADS_PROPERTY, Runtime.getRuntime().availableProcessors() * 2));
+            } catch (IOException e) {
+                throw new UncheckedIOException("Failed to open the shared SNMP sessions", e);
+            }
+        }
+        return s_sessionPool;
+    }
+
+    /**
+     * Closes the shared sessions and stops their dispatcher threads.
+     *
+     * The sessions are opened again if the strategy is used afterwards.
+     */
+    public static synchronized void closeSessionPool() {
+        if (s_sessionPool != null) {
+            s_sessionPool.close();
+            s_sessionPool = null;
+        }
+    }
+
+    @Override
+    public SnmpWalker createWalker(SnmpAgentConfig snmpAgentConfig, String name, CollectionTracker tracker) {
+        return new Snmp4JWalker(new Snmp4JAgentConfig(snmpAgentConfig), name, tracker, getSessionPool());
+    }
+
+    @Override
+    protected Snmp openSession(Snmp4JAgentConfig agentConfig, boolean expectResponse) throws IOException {
+        try {
+            return getSessionPool().getSession(agentConfig);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    @Override
+    protected void closeSession(Snmp session) {
+        // The sessions are shared and remain open
+    }
+}
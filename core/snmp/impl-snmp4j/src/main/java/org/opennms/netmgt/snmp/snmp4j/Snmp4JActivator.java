@@ -47,12 +47,17 @@ public class Snmp4JActivator implements BundleActivator {
             props.put("implementation", Snmp4JStrategy.class.getName());
             Snmp4JStrategy strategy = new Snmp4JStrategy();
             context.registerService(SnmpStrategy.class.getName(), strategy, props);
+
+            // The shared sessions are only opened once the pooled strategy is used
+            Dictionary<String, String> pooledProps = new Hashtable<String, String>();
+            pooledProps.put("implementation", PooledSnmp4JStrategy.class.getName());
+            context.registerService(SnmpStrategy.class.getName(), new PooledSnmp4JStrategy(), pooledProps);
         }
     }
 
     @Override
     public void stop(BundleContext context) throws Exception {
-
+        PooledSnmp4JStrategy.closeSessionPool();
     }
 
 }
@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.snmp4j.MessageDispatcher;
+import org.snmp4j.MessageDispatcherImpl;
+import org.snmp4j.Snmp;
+import org.snmp4j.mp.MPv1;
+import org.snmp4j.mp.MPv2c;
+import org.snmp4j.mp.MPv3;
+import org.snmp4j.security.SecurityProtocols;
+import org.snmp4j.security.USM;
+import org.snmp4j.security.UsmUser;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+import org.snmp4j.util.MultiThreadedMessageDispatcher;
+import org.snmp4j.util.ThreadPool;
+
+/**
+ * A fixed set of long-lived SNMP sessions, shared by all of the requests.
+ *
+ * Every session has its own UDP socket and the responses are matched to their requests
+ * by request ID, so any number of requests can be outstanding on a session at once.
+ * Requests to a given agent always use the same session, which keeps the engine ID
+ * discovered for SNMPv3 agents cached between requests.
+ *
+ * SNMPv3 users are localized to the engine ID of every agent and kept in a single
+ * {@link USM}, so that agents using the same security name with different credentials
+ * can be reached through the same sessions.
+ *
+ * Responses are processed by a pool of dispatcher threads instead of the thread reading
+ * from the socket. Response listeners should not block while waiting for other requests.
+ */
+public class Snmp4JSessionPool implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(Snmp4JSessionPool.class);
+
+    private final Snmp[] m_sessions;
+
+    private final USM m_usm;
+
+    private final ThreadPool m_dispatcherPool;
+
+    private final Map<UserKey, UsmUser> m_localizedUsers = new ConcurrentHashMap<>();
+
+    public Snmp4JSessionPool(int numSessions, int numDispatcherThreads) throws IOException {
+        if (numSessions < 1) {
+            throw new IllegalArgumentException("numSessions must be strictly positive");
+        }
+
+        m_usm = new USM(SecurityProtocols.getInstance(), Snmp4JStrategy.createLocalEngineId(), 0);
+        m_dispatcherPool = ThreadPool.create("SNMP4J-Dispatcher", Math.max(1, numDispatcherThreads));
+        m_sessions = new Snmp[numSessions];
+        try {
+            for (int i = 0; i < numSessions; i++) {
+                final MessageDispatcher disp = new MultiThreadedMessageDispatcher(m_dispatcherPool, new MessageDispatcherImpl());
+                disp.addMessageProcessingModel(new MPv1());
+                disp.addMessageProcessingModel(new MPv2c());
+                disp.addMessageProcessingModel(new MPv3(m_usm));
+                m_sessions[i] = new Snmp(disp, new DefaultUdpTransportMapping());
+                m_sessions[i].listen();
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+        LOG.info("Opened {} shared SNMP sessions.", numSessions);
+    }
+
+    /**
+     * Retrieves the session used to communicate with the given agent.
+     *
+     * For SNMPv3 agents, the engine ID of the agent is discovered on first use and the
+     * configured user is localized to it.
+     *
+     * The session is shared and must not be closed by the caller.
+     */
+    public Snmp getSession(Snmp4JAgentConfig agentConfig) {
+        final Address address = Snmp4JAgentConfig.convertAddress(agentConfig.getInetAddress(), agentConfig.getPort());
+        final Snmp session = m_sessions[Math.floorMod(address.hashCode(), m_sessions.length)];
+        if (agentConfig.isSnmpV3()) {
+            addUser(session, address, agentConfig);
+        }
+        return session;
+    }
+
+    public int getNumSessions() {
+        return m_sessions.length;
+    }
+
+    private void addUser(Snmp session, Address address, Snmp4JAgentConfig agentConfig) {
+        final MPv3 mpv3 = (MPv3)session.getMessageProcessingModel(MPv3.ID);
+        OctetString engineId = mpv3.getEngineID(address);
+        if (engineId == null) {
+            final byte[] discoveredEngineId = session.discoverAuthoritativeEngineID(address, agentConfig.getTimeout());
+            if (discoveredEngineId == null) {
+                // Let the request go through, it will fail the same way the discovery did
+                LOG.debug("Failed to discover the engine ID of agent at {}.", address);
+                return;
+            }
+            engineId = new OctetString(discoveredEngineId);
+            mpv3.addEngineID(address, engineId);
+        }
+
+        final UsmUser user = new UsmUser(
+                agentConfig.getSecurityName(),
+                agentConfig.getAuthProtocol(),
+                agentConfig.getAuthPassPhrase(),
+                agentConfig.getPrivProtocol(),
+                agentConfig.getPrivPassPhrase());
+        // Localizing the keys is expensive, only do it when the user is new or was changed
+        final UserKey key = new UserKey(engineId, agentConfig.getSecurityName());
+        if (!user.equals(m_localizedUsers.get(key))) {
+            m_usm.addUser(agentConfig.getSecurityName(), engineId, user);
+            m_localizedUsers.put(key, user);
+        }
+    }
+
+    @Override
+    public void close() {
+        for (Snmp session : m_sessions) {
+            if (session == null) {
+                continue;
+            }
+            try {
+                session.close();
+            } catch (IOException e) {
+                LOG.warn("Error closing shared SNMP session.", e);
+            }
+        }
+        m_dispatcherPool.cancel();
+    }
+
+    private static class UserKey {
+        private final OctetString engineId;
+        private final OctetString securityName;
+
+        private UserKey(OctetString engineId, OctetString securityName) {
+            this.engineId = engineId;
+            this.securityName = securityName;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final UserKey that = (UserKey) o;
+            return Objects.equals(engineId, that.engineId) && Objects.equals(securityName, that.securityName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(engineId, securityName);
+        }
+    }
+}
@@ -308,12 +308,41 @@ public class Snmp4JStrategy implements SnmpStrategy {
         }
     }
 
+    /**
+     * Opens the session used to send a single request to the given agent.
+     *
+     * A new session, with its own transport, is created for every request.
+     *
+     * @param agentConfig the agent the request is sent to
+     * @param expectResponse whether or not the session should listen for a response
+     * @return the session, which is released using {@link #closeSession(Snmp)}
+     */
+    protected Snmp openSession(Snmp4JAgentConfig agentConfig, boolean expectResponse) throws IOException {
+        final Snmp session = agentConfig.createSnmpSession();
+        Snmp4JStrategy.trackSession(session);
+        if (expectResponse) {
+            try {
+                session.listen();
+            } catch (final IOException e) {
+                closeQuietly(session);
+                throw e;
+            }
+        }
+        return session;
+    }
+
+    /**
+     * Releases a session opened with {@link #openSession(Snmp4JAgentConfig, boolean)}.
+     */
+    protected void closeSession(Snmp session) {
+        closeQuietly(session);
+    }
+
     private void send(Snmp4JAgentConfig agentConfig, PDU pdu, boolean expectResponse, CompletableFuture<SnmpValue[]> future) {
-        Snmp session;
+        final Snmp session;
 
         try {
-            session = agentConfig.createSnmpSession();
-            Snmp4JStrategy.trackSession(session);
+            session = openSession(agentConfig, expectResponse);
         } catch (final Exception e) {
             LOG.error("send: Could not create SNMP session for agent {}", agentConfig, e);
             future.completeExceptionally(new SnmpException("Could not create SNMP session for agent", e));
@@ -321,20 +350,14 @@ public class Snmp4JStrategy implements SnmpStrategy {
         }
 
         if (expectResponse) {
-            try {
-                session.listen();
-            } catch (final Exception e) {
-                closeQuietly(session);
-                LOG.error("send: error setting up listener for SNMP responses", e);
-                future.completeExceptionally(new SnmpException("error setting up listener for SNMP responses", e));
-                return;
-            }
-
             try {
                 final Snmp mySession = session;
                 mySession.send(pdu, agentConfig.getTarget(), null, new ResponseListener() {
                     @Override
                     public void onResponse(final ResponseEvent responseEvent) {
+                        // SNMP4J keeps the request and calls us again once it times out unless we cancel it,
+                        // and shared sessions are not closed after the response
+                        mySession.cancel(responseEvent.getRequest(), this);
                         try {
                             future.complete(processResponse(agentConfig, responseEvent, pdu));
                         } catch (final Exception e) {
@@ -346,7 +369,7 @@ public class Snmp4JStrategy implements SnmpStrategy {
                             REAPER_EXECUTOR.submit(new Runnable() {
                                 @Override
                                 public void run() {
-                                    closeQuietly(mySession);
+                                    closeSession(mySession);
                                 }
                             });
                         }
@@ -355,7 +378,7 @@ public class Snmp4JStrategy implements SnmpStrategy {
             } catch (final Exception e) {
                 // The ResponseListener will not be called since an exception occurred in the send,
                 // so we make sure to close the session here
-                closeQuietly(session);
+                closeSession(session);
                 LOG.error("send: error during SNMP operation", e);
                 future.completeExceptionally(e);
             }
@@ -367,8 +390,7 @@ public class Snmp4JStrategy implements SnmpStrategy {
                 LOG.error("send: error during SNMP operation", e);
                 future.completeExceptionally(new SnmpException(e));
             } finally {
-                closeQuietly(session);
-                Snmp4JStrategy.reapSession(session);
+                closeSession(session);
             }
         }
     }
@@ -141,6 +141,9 @@ public class Snmp4JWalker extends SnmpWalker {
                 if (response.getType() == PDU.REPORT) {
                     handleAuthError("A REPORT PDU was returned from the agent.  This is most likely an authentication problem.  Please check the config");
                 } else {
+                    if (response.getErrorStatus() == PDU.noError) {
+                        responseReceived(getRequestedVarBinds(m_pendingPdu), response.size(), response.getBERLength(), m_agentConfig.getMaxRequestSize());
+                    }
                     if (!processErrors(response.getErrorStatus(), response.getErrorIndex())) {
                         if (response.size() == 0) { // NMS-6484
                             handleError("A PDU with no errors and 0 varbinds was returned from the agent at " + getAddress() + ". This seems to be related with a broken SNMP agent.");
@@ -163,7 +166,14 @@ public class Snmp4JWalker extends SnmpWalker {
         @Override
         public void onResponse(ResponseEvent responseEvent) {
             // need to cancel the request here otherwise SNMP4J Keeps it around forever... go figure
-            m_session.cancel(responseEvent.getRequest(), this);
+            final Snmp session = m_session;
+            if (session != null) {
+                session.cancel(responseEvent.getRequest(), this);
+            } else if (m_sessionPool != null) {
+                // The walker was closed while the request was in flight on a shared session
+                LOG.debug("{}: Ignoring response received after the walker was closed for: {}", getName(), getAddress());
+                return;
+            }
 
             // Check to see if we got an interrupted exception
             if (responseEvent.getError() instanceof InterruptedException) {
@@ -188,15 +198,25 @@ public class Snmp4JWalker extends SnmpWalker {
         
     }
     
-    private Snmp m_session;
+    private volatile Snmp m_session;
     private final Target m_tgt;
     private final ResponseListener m_listener;
     private final Snmp4JAgentConfig m_agentConfig;
+    private final Snmp4JSessionPool m_sessionPool;
+    private PDU m_pendingPdu;
 
     public Snmp4JWalker(Snmp4JAgentConfig agentConfig, String name, CollectionTracker tracker) {
+        this(agentConfig, name, tracker, null);
+    }
+
+    /**
+     * @param sessionPool pool providing a shared session, or {@code null} to use a dedicated session for the walk
+     */
+    public Snmp4JWalker(Snmp4JAgentConfig agentConfig, String name, CollectionTracker tracker, Snmp4JSessionPool sessionPool) {
         super(agentConfig.getInetAddress(), name, agentConfig.getMaxVarsPerPdu(), agentConfig.getMaxRepetitions(), agentConfig.getRetries(), tracker);
         
         m_agentConfig = agentConfig;
+        m_sessionPool = sessionPool;
         
         m_tgt = agentConfig.getTarget();
         m_listener = new Snmp4JResponseListener();
@@ -221,7 +241,9 @@ public class Snmp4JWalker extends SnmpWalker {
     protected void sendNextPdu(WalkerPduBuilder pduBuilder) throws SnmpException {
         Snmp4JPduBuilder snmp4JPduBuilder = (Snmp4JPduBuilder)pduBuilder;
         try {
-            if (m_session == null) {
+            if (m_session == null && m_sessionPool != null) {
+                m_session = m_sessionPool.getSession(m_agentConfig);
+            } else if (m_session == null) {
                 m_session = m_agentConfig.createSnmpSession();
                 Snmp4JStrategy.trackSession(m_session);
                 m_session.listen();
@@ -233,7 +255,8 @@ public class Snmp4JWalker extends SnmpWalker {
 
         LOG.debug("Sending tracker pdu of size {}", snmp4JPduBuilder.getPdu().size());
         try {
-            m_session.send(snmp4JPduBuilder.getPdu(), m_tgt, null, m_listener);
+            m_pendingPdu = snmp4JPduBuilder.getPdu();
+            m_session.send(m_pendingPdu, m_tgt, null, m_listener);
         } catch (final IOException e) {
             LOG.debug("Failed to send pdu of size {}", snmp4JPduBuilder.getPdu().size(), e);
             close();
@@ -241,13 +264,30 @@ public class Snmp4JWalker extends SnmpWalker {
         }
     }
     
+    private static int getRequestedVarBinds(final PDU request) {
+        if (request == null) {
+            return 0;
+        } else if (request.getType() != PDU.GETBULK) {
+            return request.size();
+        }
+        final int nonRepeaters = Math.min(request.getNonRepeaters(), request.size());
+        return nonRepeaters + (request.size() - nonRepeaters) * Math.max(1, request.getMaxRepetitions());
+    }
+
     protected int getVersion() {
         return m_tgt.getVersion();
     }
 
     @Override
     public void close() {
-        if (m_session != null) {
+        if (m_sessionPool != null) {
+            // The session is shared and remains open, only cancel our outstanding request
+            final Snmp session = m_session;
+            m_session = null;
+            if (session != null && m_pendingPdu != null) {
+                session.cancel(m_pendingPdu, m_listener);
+            }
+        } else if (m_session != null) {
             try {
                 m_session.close();
             } catch (IOException e) {
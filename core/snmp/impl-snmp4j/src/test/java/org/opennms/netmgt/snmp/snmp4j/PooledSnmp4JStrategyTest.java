@@ -0,0 +1,246 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpValue;
+import org.snmp4j.CommandResponder;
+import org.snmp4j.CommandResponderEvent;
+import org.snmp4j.MessageException;
+import org.snmp4j.MessageDispatcherImpl;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.mp.MPv3;
+import org.snmp4j.mp.StatusInformation;
+import org.snmp4j.security.AuthMD5;
+import org.snmp4j.security.SecurityProtocols;
+import org.snmp4j.security.USM;
+import org.snmp4j.security.UsmUser;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.UdpAddress;
+import org.snmp4j.smi.VariableBinding;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+
+public class PooledSnmp4JStrategyTest {
+
+    private Snmp m_agent;
+
+    private int m_agentPort;
+
+    /**
+     * Starts a v1/v2c agent that answers every GET with the requested OIDs as values.
+     */
+    @Before
+    public void setUp() throws IOException {
+        final DefaultUdpTransportMapping transport = new DefaultUdpTransportMapping(new UdpAddress("127.0.0.1/0"));
+        m_agent = new Snmp(transport);
+        m_agent.addCommandResponder(new EchoResponder());
+        m_agent.listen();
+        m_agentPort = transport.getListenAddress().getPort();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        m_agent.close();
+    }
+
+    @Test
+    public void canMatchConcurrentResponsesToRequests() throws Exception {
+        final PooledSnmp4JStrategy strategy = new PooledSnmp4JStrategy();
+
+        final List<CompletableFuture<SnmpValue[]>> futures = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            futures.add(strategy.getAsync(getAgentConfig(), new SnmpObjId[] { SnmpObjId.get(".1.3.6.1.2.1.2.2.1.10." + i) }));
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            final SnmpValue[] values = futures.get(i).get(1, TimeUnit.MINUTES);
+            assertEquals("1.3.6.1.2.1.2.2.1.10." + i, values[0].toDisplayString());
+        }
+    }
+
+    @Test
+    public void shouldHandleEachResponseOnce() throws Exception {
+        // Every call to the response listener releases the session, a second call
+        // would be SNMP4J timing out the request that was already answered
+        final AtomicInteger responsesHandled = new AtomicInteger();
+        final PooledSnmp4JStrategy strategy = new PooledSnmp4JStrategy() {
+            @Override
+            protected void closeSession(Snmp session) {
+                responsesHandled.incrementAndGet();
+                super.closeSession(session);
+            }
+        };
+
+        final SnmpAgentConfig agentConfig = getAgentConfig();
+        agentConfig.setTimeout(500);
+        agentConfig.setRetries(0);
+        final SnmpValue[] values = strategy.getAsync(agentConfig, new SnmpObjId[] { SnmpObjId.get(".1.3.6.1.2.1.1.1.0") }).get(1, TimeUnit.MINUTES);
+        assertEquals("1.3.6.1.2.1.1.1.0", values[0].toDisplayString());
+        await().atMost(5, TimeUnit.SECONDS).until(responsesHandled::get, equalTo(1));
+
+        // Wait past the timeout of the request
+        Thread.sleep(1500);
+        assertEquals(1, responsesHandled.get());
+    }
+
+    @Test
+    public void canShareSessions() throws IOException {
+        try (Snmp4JSessionPool pool = new Snmp4JSessionPool(3, 2)) {
+            assertEquals(3, pool.getNumSessions());
+
+            final Snmp4JAgentConfig agentConfig = new Snmp4JAgentConfig(getAgentConfig());
+            final Snmp session = pool.getSession(agentConfig);
+            // Requests to the same agent should always use the same session
+            for (int i = 0; i < 10; i++) {
+                assertSame(session, pool.getSession(new Snmp4JAgentConfig(getAgentConfig())));
+            }
+        }
+    }
+
+    @Test
+    public void discoversTheEngineIdOfV3AgentsOnce() throws Exception {
+        final USM usm = new USM(SecurityProtocols.getInstance(), new OctetString(MPv3.createLocalEngineID()), 0);
+        usm.addUser(new OctetString("opennms"), new UsmUser(new OctetString("opennms"), AuthMD5.ID, new OctetString("0p3nNMSv3"), null, null));
+        final AtomicInteger messagesReceived = new AtomicInteger();
+        final Snmp agent = startV3Agent(usm, messagesReceived);
+        try {
+            final int port = ((UdpAddress)agent.getMessageDispatcher().getTransportMappings().iterator().next().getListenAddress()).getPort();
+            final PooledSnmp4JStrategy strategy = new PooledSnmp4JStrategy();
+            final SnmpObjId oid = SnmpObjId.get(".1.3.6.1.2.1.1.1.0");
+
+            assertEquals("1.3.6.1.2.1.1.1.0", strategy.get(getV3AgentConfig(port, "0p3nNMSv3"), oid).toDisplayString());
+            // The first request is preceded by the discovery of the engine ID
+            final int messagesForFirstRequest = messagesReceived.get();
+            assertTrue(messagesForFirstRequest > 1);
+
+            // Subsequent requests are sent right away, with the keys localized to the cached engine ID
+            for (int i = 1; i <= 3; i++) {
+                assertEquals("1.3.6.1.2.1.1.1.0", strategy.get(getV3AgentConfig(port, "0p3nNMSv3"), oid).toDisplayString());
+                assertEquals(messagesForFirstRequest + i, messagesReceived.get());
+            }
+
+            // Changed credentials are localized again, without discovering the engine ID again
+            usm.removeAllUsers(new OctetString("opennms"));
+            usm.addUser(new OctetString("opennms"), new UsmUser(new OctetString("opennms"), AuthMD5.ID, new OctetString("n3wPassw0rd"), null, null));
+            assertEquals("1.3.6.1.2.1.1.1.0", strategy.get(getV3AgentConfig(port, "n3wPassw0rd"), oid).toDisplayString());
+            assertEquals(messagesForFirstRequest + 4, messagesReceived.get());
+        } finally {
+            agent.close();
+        }
+    }
+
+    @Test
+    public void canReopenTheSessionPool() throws Exception {
+        final PooledSnmp4JStrategy strategy = new PooledSnmp4JStrategy();
+        final SnmpObjId oid = SnmpObjId.get(".1.3.6.1.2.1.1.1.0");
+        assertEquals("1.3.6.1.2.1.1.1.0", strategy.get(getAgentConfig(), oid).toDisplayString());
+
+        PooledSnmp4JStrategy.closeSessionPool();
+        assertEquals("1.3.6.1.2.1.1.1.0", strategy.get(getAgentConfig(), oid).toDisplayString());
+    }
+
+    /**
+     * Starts a v3 agent that authenticates the requests against the given USM
+     * and counts all of the messages it receives, including the discovery requests.
+     */
+    private static Snmp startV3Agent(USM usm, AtomicInteger messagesReceived) throws IOException {
+        final DefaultUdpTransportMapping transport = new DefaultUdpTransportMapping(new UdpAddress("127.0.0.1/0"));
+        transport.addTransportListener((sourceTransport, incomingAddress, wholeMessage, tmStateReference) -> messagesReceived.incrementAndGet());
+        final MessageDispatcherImpl dispatcher = new MessageDispatcherImpl();
+        dispatcher.addMessageProcessingModel(new MPv3(usm));
+        final Snmp agent = new Snmp(dispatcher, transport);
+        agent.addCommandResponder(new EchoResponder());
+        agent.listen();
+        return agent;
+    }
+
+    private static SnmpAgentConfig getV3AgentConfig(int port, String authPassPhrase) {
+        final SnmpAgentConfig config = new SnmpAgentConfig(InetAddress.getLoopbackAddress());
+        config.setPort(port);
+        config.setVersion(SnmpAgentConfig.VERSION3);
+        config.setSecurityLevel(SnmpAgentConfig.AUTH_NOPRIV);
+        config.setSecurityName("opennms");
+        config.setAuthProtocol("MD5");
+        config.setAuthPassPhrase(authPassPhrase);
+        config.setTimeout(5000);
+        config.setRetries(0);
+        return config;
+    }
+
+    private SnmpAgentConfig getAgentConfig() {
+        final SnmpAgentConfig config = new SnmpAgentConfig(InetAddress.getLoopbackAddress());
+        config.setPort(m_agentPort);
+        config.setVersion(SnmpAgentConfig.VERSION2C);
+        config.setTimeout(5000);
+        config.setRetries(1);
+        return config;
+    }
+
+    /**
+     * Answers every GET with the requested OIDs as values.
+     */
+    private static class EchoResponder implements CommandResponder {
+        @Override
+        public void processPdu(CommandResponderEvent event) {
+            final PDU response = (PDU)event.getPDU().clone();
+            response.setType(PDU.RESPONSE);
+            for (VariableBinding vb : response.getVariableBindings()) {
+                vb.setVariable(new OctetString(vb.getOid().toDottedString()));
+            }
+            try {
+                event.getMessageDispatcher().returnResponsePdu(event.getMessageProcessingModel(), event.getSecurityModel(),
+                        event.getSecurityName(), event.getSecurityLevel(), response, event.getMaxSizeResponsePDU(),
+                        event.getStateReference(), new StatusInformation());
+            } catch (MessageException e) {
+                throw new RuntimeException(e);
+            }
+            event.setProcessed(true);
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.snmp.snmp4j;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.snmp.AdaptiveBulkSizer;
+import org.opennms.netmgt.snmp.SnmpAgentConfig;
+import org.opennms.netmgt.snmp.SnmpObjId;
+import org.opennms.netmgt.snmp.SnmpWalker;
+import org.opennms.netmgt.snmp.TableTracker;
+import org.snmp4j.CommandResponder;
+import org.snmp4j.CommandResponderEvent;
+import org.snmp4j.MessageException;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.mp.StatusInformation;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.Null;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.UdpAddress;
+import org.snmp4j.smi.VariableBinding;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+
+public class Snmp4JAdaptiveWalkTest {
+
+    private static final int NUM_ROWS = 200;
+
+    private static final int MAX_VARBINDS_PER_RESPONSE = 60;
+
+    private static final SnmpObjId IF_IN_OCTETS = SnmpObjId.get(".1.3.6.1.2.1.2.2.1.10");
+
+    private static final SnmpObjId IF_OUT_OCTETS = SnmpObjId.get(".1.3.6.1.2.1.2.2.1.16");
+
+    private final TreeMap<OID, Integer32> m_mib = new TreeMap<>();
+
+    private Snmp m_agent;
+
+    private int m_agentPort;
+
+    /**
+     * Starts a v2c agent serving two columns with GETNEXT and GETBULK, which returns at most
+     * {@link #MAX_VARBINDS_PER_RESPONSE} varbinds per response.
+     */
+    @Before
+    public void setUp() throws IOException {
+        AdaptiveBulkSizer.getInstance().clear();
+
+        for (int i = 1; i <= NUM_ROWS; i++) {
+            m_mib.put(new OID(IF_IN_OCTETS.getIds()).append(i), new Integer32(i));
+            m_mib.put(new OID(IF_OUT_OCTETS.getIds()).append(i), new Integer32(-i));
+        }
+
+        final DefaultUdpTransportMapping transport = new DefaultUdpTransportMapping(new UdpAddress("127.0.0.1/0"));
+        m_agent = new Snmp(transport);
+        m_agent.addCommandResponder(new CommandResponder() {
+            @Override
+            public void processPdu(CommandResponderEvent event) {
+                final PDU request = event.getPDU();
+                final PDU response = new PDU();
+                response.setType(PDU.RESPONSE);
+                response.setRequestID(request.getRequestID());
+
+                final int nonRepeaters = request.getType() == PDU.GETBULK ? request.getNonRepeaters() : request.size();
+                final int repetitions = request.getType() == PDU.GETBULK ? request.getMaxRepetitions() : 1;
+                final OID[] last = new OID[request.size()];
+                for (int i = 0; i < request.size(); i++) {
+                    last[i] = request.get(i).getOid();
+                }
+                for (int r = 0; r < repetitions && response.size() < MAX_VARBINDS_PER_RESPONSE; r++) {
+                    for (int i = (r == 0 ? 0 : nonRepeaters); i < last.length && response.size() < MAX_VARBINDS_PER_RESPONSE; i++) {
+                        final Map.Entry<OID, Integer32> next = m_mib.higherEntry(last[i]);
+                        if (next == null) {
+                            response.add(new VariableBinding(last[i], Null.endOfMibView));
+                        } else {
+                            last[i] = next.getKey();
+                            response.add(new VariableBinding(next.getKey(), next.getValue()));
+                        }
+                    }
+                }
+
+                try {
+                    event.getMessageDispatcher().returnResponsePdu(event.getMessageProcessingModel(), event.getSecurityModel(),
+                            event.getSecurityName(), event.getSecurityLevel(), response, event.getMaxSizeResponsePDU(),
+                            event.getStateReference(), new StatusInformation());
+                } catch (MessageException e) {
+                    throw new RuntimeException(e);
+                }
+                event.setProcessed(true);
+            }
+        });
+        m_agent.listen();
+        m_agentPort = transport.getListenAddress().getPort();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        m_agent.close();
+        AdaptiveBulkSizer.getInstance().clear();
+        System.clearProperty(AdaptiveBulkSizer.ENABLED_PROPERTY);
+    }
+
+    @Test
+    public void canReduceRoundTripsAcrossWalks() throws Exception {
+        final Snmp4JStrategy strategy = new Snmp4JStrategy();
+
+        // Walk once with the fixed sizing from the agent config
+        final long fixedWalkPdus = walk(strategy);
+
+        System.setProperty(AdaptiveBulkSizer.ENABLED_PROPERTY, "true");
+        long lastWalkPdus = -1;
+        for (int i = 0; i < 5; i++) {
+            lastWalkPdus = walk(strategy);
+        }
+
+        final AdaptiveBulkSizer.AgentSizing sizing = AdaptiveBulkSizer.getInstance().getSizings().get(InetAddress.getLoopbackAddress());
+        assertEquals(5, sizing.getWalks());
+        assertEquals(lastWalkPdus, sizing.getLastWalkPdus());
+        assertTrue(sizing.getMaxRepetitions() > SnmpAgentConfig.DEFAULT_MAX_REPETITIONS);
+        // The agent truncates the responses, so we should not keep on growing past what it can answer
+        assertTrue(sizing.getMaxRepetitions() < MAX_VARBINDS_PER_RESPONSE);
+        assertTrue("Expected fewer PDUs than " + fixedWalkPdus + " but got " + lastWalkPdus, lastWalkPdus * 4 < fixedWalkPdus);
+    }
+
+    private long walk(Snmp4JStrategy strategy) throws InterruptedException {
+        final AtomicInteger rows = new AtomicInteger();
+        final TableTracker tracker = new TableTracker(row -> rows.incrementAndGet(), IF_IN_OCTETS, IF_OUT_OCTETS);
+        try (SnmpWalker walker = strategy.createWalker(getAgentConfig(), "adaptive", tracker)) {
+            walker.start();
+            walker.waitFor();
+            assertFalse(walker.getErrorMessage(), walker.failed());
+            assertEquals(NUM_ROWS, rows.get());
+            return walker.getPdusSent();
+        }
+    }
+
+    private SnmpAgentConfig getAgentConfig() {
+        final SnmpAgentConfig config = new SnmpAgentConfig(InetAddress.getLoopbackAddress());
+        config.setPort(m_agentPort);
+        config.setVersion(SnmpAgentConfig.VERSION2C);
+        config.setTimeout(5000);
+        config.setRetries(1);
+        return config;
+    }
+}
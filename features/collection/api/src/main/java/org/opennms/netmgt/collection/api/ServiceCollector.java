@@ -29,6 +29,7 @@
 package org.opennms.netmgt.collection.api;
 
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.opennms.netmgt.events.api.EventProxy;
 import org.opennms.netmgt.rrd.RrdRepository;
@@ -108,6 +109,28 @@ public interface ServiceCollector {
      */
     CollectionSet collect(CollectionAgent agent, Map<String, Object> parameters) throws CollectionException;
 
+    /**
+     * Invokes a collection on the object without waiting for it to complete.
+     *
+     * Collectors that can perform their requests without blocking the calling thread
+     * should override this method. The default implementation performs the collection
+     * synchronously using {@link #collect(CollectionAgent, Map)}.
+     *
+     * @param agent a {@link org.opennms.netmgt.collectd.CollectionAgent} object.
+     * @param parameters a {@link java.util.Map} object.
+     * @return a future completed with the collection set, or completed exceptionally
+     *         with a {@link CollectionException} if the collection failed
+     */
+    default CompletableFuture<CollectionSet> collectAsync(CollectionAgent agent, Map<String, Object> parameters) {
+        final CompletableFuture<CollectionSet> future = new CompletableFuture<>();
+        try {
+            future.complete(collect(agent, parameters));
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+        }
+        return future;
+    }
+
     /**
      * Retrieve the {@link RrdRepository} configuration for the given collection.
      *
@@ -36,6 +36,7 @@ import java.util.function.Supplier;
 import org.opennms.core.logging.Logging;
 import org.opennms.core.rpc.xml.AbstractXmlRpcModule;
 import org.opennms.netmgt.collection.api.CollectionAgent;
+import org.opennms.netmgt.collection.api.CollectionSet;
 import org.opennms.netmgt.collection.api.ServiceCollector;
 import org.opennms.netmgt.collection.api.ServiceCollectorRegistry;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -74,15 +75,18 @@ public class CollectorClientRpcModule extends AbstractXmlRpcModule<CollectorRequ
             throw new IllegalArgumentException("No collector found with class name '" + className + "'.");
         }
 
-        return CompletableFuture.supplyAsync(new Supplier<CollectorResponseDTO>() {
+        // Collectors that don't block only use the executor to start the collection
+        return CompletableFuture.supplyAsync(new Supplier<CompletableFuture<CollectionSet>>() {
             @Override
-            public CollectorResponseDTO get() {
+            public CompletableFuture<CollectionSet> get() {
                 Logging.putPrefix("collectd");
                 final CollectionAgent agent = request.getAgent();
                 final Map<String, Object> parameters = request.getParameters(collector);
-                return new CollectorResponseDTO(collector.collect(agent, parameters));
+                return collector.collectAsync(agent, parameters);
             }
-        }, executor);
+        }, executor)
+        .thenCompose(future -> future)
+        .thenApply(CollectorResponseDTO::new);
     }
 
     public void setServiceCollectorRegistry(ServiceCollectorRegistry serviceCollectorRegistry) {
@@ -33,6 +33,8 @@ import java.util.Collections;
 import java.util.Map;
 import java.util.Objects;
 import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 
 import org.opennms.core.rpc.api.RpcExceptionHandler;
@@ -273,55 +275,96 @@ public class CollectionSpecification {
     public CollectionSet collect(CollectionAgent agent) throws CollectionException {
         m_instrumentation.beginCollectorCollect(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName);
         try {
-            final CollectionSet set = m_locationAwareCollectorClient.collect()
-                .withAgent(agent)
-                .withAttributes(getPropertyMap())
-                .withCollector(getCollector())
-                // Use the service interval as the TTL
-                .withTimeToLive(getService().getInterval())
-                .execute()
-                .get();
-
-            // There are collector implementations that never throw an exception just return a collection failed
-            if (CollectionStatus.FAILED.equals(set.getStatus())) {
-                m_instrumentation.reportCollectionException(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName, new CollectionFailed(CollectionStatus.FAILED));
-            }
+            final CollectionSet set = executeCollect(agent).get();
+            reportIfFailed(agent, set);
             return set;
         } catch (InterruptedException|ExecutionException e) {
-            final CollectionException ce = RpcExceptionUtils.handleException(e, new RpcExceptionHandler<CollectionException>() {
-                @Override
-                public CollectionException onInterrupted(Throwable t) {
-                    return new CollectionUnknown("Interrupted.", t);
-                }
-
-                @Override
-                public CollectionException onTimedOut(Throwable t) {
-                    return new CollectionUnknown("Request timed out.", t);
-                }
-
-                @Override
-                public CollectionException onRejected(Throwable t) {
-                    return new CollectionUnknown("Request rejected.", e);
-                }
+            throw toCollectionException(agent, e);
+        } finally {
+            m_instrumentation.endCollectorCollect(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName);
+        }
+    }
 
-                @Override
-                public CollectionException onUnknown(Throwable t) {
-                    if (t instanceof CollectionException) {
-                        return (CollectionException)t;
-                    } else if (t.getCause() != null && t.getCause() instanceof CollectionException) {
-                        return (CollectionException)t.getCause();
+    /**
+     * Performs the collection without blocking the calling thread.
+     *
+     * @param agent a {@link org.opennms.netmgt.collection.api.CollectionAgent} object.
+     * @return a future completed with the collection set, or completed exceptionally
+     *         with a {@link CollectionException} if the collection failed
+     */
+    public CompletableFuture<CollectionSet> collectAsync(CollectionAgent agent) {
+        m_instrumentation.beginCollectorCollect(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName);
+        final CompletableFuture<CollectionSet> future = new CompletableFuture<>();
+        try {
+            executeCollect(agent).whenComplete((set, ex) -> {
+                try {
+                    if (ex != null) {
+                        future.completeExceptionally(toCollectionException(agent, ex));
+                    } else {
+                        reportIfFailed(agent, set);
+                        future.complete(set);
                     }
-                    return new CollectionException("Collection failed : " + t.getClass().getName() +
-                            ": " + t.getMessage(), t);
+                } finally {
+                    m_instrumentation.endCollectorCollect(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName);
                 }
             });
-            m_instrumentation.reportCollectionException(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName, ce);
-            throw ce;
-        } finally {
+        } catch (Throwable t) {
             m_instrumentation.endCollectorCollect(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName);
+            future.completeExceptionally(toCollectionException(agent, t));
+        }
+        return future;
+    }
+
+    private CompletableFuture<CollectionSet> executeCollect(CollectionAgent agent) {
+        return m_locationAwareCollectorClient.collect()
+            .withAgent(agent)
+            .withAttributes(getPropertyMap())
+            .withCollector(getCollector())
+            // Use the service interval as the TTL
+            .withTimeToLive(getService().getInterval())
+            .execute();
+    }
+
+    private void reportIfFailed(CollectionAgent agent, CollectionSet set) {
+        // There are collector implementations that never throw an exception just return a collection failed
+        if (CollectionStatus.FAILED.equals(set.getStatus())) {
+            m_instrumentation.reportCollectionException(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName, new CollectionFailed(CollectionStatus.FAILED));
         }
     }
 
+    private CollectionException toCollectionException(CollectionAgent agent, Throwable e) {
+        final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        final CollectionException ce = RpcExceptionUtils.handleException(cause, new RpcExceptionHandler<CollectionException>() {
+            @Override
+            public CollectionException onInterrupted(Throwable t) {
+                return new CollectionUnknown("Interrupted.", t);
+            }
+
+            @Override
+            public CollectionException onTimedOut(Throwable t) {
+                return new CollectionUnknown("Request timed out.", t);
+            }
+
+            @Override
+            public CollectionException onRejected(Throwable t) {
+                return new CollectionUnknown("Request rejected.", cause);
+            }
+
+            @Override
+            public CollectionException onUnknown(Throwable t) {
+                if (t instanceof CollectionException) {
+                    return (CollectionException)t;
+                } else if (t.getCause() != null && t.getCause() instanceof CollectionException) {
+                    return (CollectionException)t.getCause();
+                }
+                return new CollectionException("Collection failed : " + t.getClass().getName() +
+                        ": " + t.getMessage(), t);
+            }
+        });
+        m_instrumentation.reportCollectionException(m_package.getName(), agent.getNodeId(), agent.getHostAddress(), m_svcName, ce);
+        return ce;
+    }
+
     /**
      * <p>scheduledOutage</p>
      *
@@ -36,6 +36,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ExecutionException;
 
 import org.opennms.core.rpc.api.RpcExceptionHandler;
@@ -364,64 +365,100 @@ public class SnmpCollectionSet implements Collectable, CollectionSet {
     }
 
     void collect() throws CollectionException {
-        // XXX Should we have a call to hasDataToCollect here?
         try {
-            // now collect the data
-            CollectionAgent agent = getCollectionAgent();
-            logStartedWalker();
+            collectAsync().get();
+        } catch (InterruptedException e) {
+            // Only this thread was interrupted, the walk completes its future on a callback thread
+            Thread.currentThread().interrupt();
+            throw toCollectionException(e);
+        } catch (ExecutionException e) {
+            // Failures of the walk are already converted, anything else was thrown while post-processing
+            if (e.getCause() instanceof CollectionException) {
+                throw (CollectionException)e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
+            } else if (e.getCause() instanceof Error) {
+                throw (Error)e.getCause();
+            }
+            throw toCollectionException(e);
+        }
+    }
 
-            CompletableFuture<CollectionTracker> future = m_client.walk(getAgentConfig(), getTracker())
+    /**
+     * Walks the agent without blocking the calling thread.
+     *
+     * @return a future completed when the data was collected, or completed exceptionally
+     *         with a {@link CollectionException} if the collection failed
+     */
+    CompletableFuture<Void> collectAsync() {
+        // XXX Should we have a call to hasDataToCollect here?
+        // now collect the data
+        CollectionAgent agent = getCollectionAgent();
+        logStartedWalker();
+
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+        try {
+            m_client.walk(getAgentConfig(), getTracker())
                 .withDescription("SnmpCollectors for " + agent.getHostAddress())
                 .withLocation(getCollectionAgent().getLocationName())
                 .withTimeToLive(m_snmpCollection.getServiceParameters().getTTL())
-                .execute();
+                .execute()
+                .whenComplete((tracker, ex) -> {
+                    logFinishedWalker();
+                    if (ex != null) {
+                        result.completeExceptionally(toCollectionException(ex));
+                        return;
+                    }
+                    try {
+                        // Execute POST Updates (add custom parameters)
+                        SnmpPropertyExtenderProcessor processor = new SnmpPropertyExtenderProcessor();
+                        processor.process(this, m_snmpCollection.getName(), m_agent.getSysObjectId(), m_agent.getHostAddress());
+                        m_status = CollectionStatus.SUCCEEDED;
+                        result.complete(null);
+                    } catch (Throwable t) {
+                        result.completeExceptionally(t);
+                    }
+                });
+        } catch (Throwable t) {
+            result.completeExceptionally(toCollectionException(t));
+        }
+        return result;
+    }
 
-            // wait for collection to finish
-            try {
-                future.get();
-            } finally {
-                logFinishedWalker();
+    private CollectionException toCollectionException(Throwable e) {
+        final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+        return RpcExceptionUtils.handleException(cause, new RpcExceptionHandler<CollectionException>() {
+            @Override
+            public CollectionException onInterrupted(Throwable t) {
+                return new CollectionUnknown(String.format("Collection of SNMP data for interface %s at location %s was interrupted.",
+                        getCollectionAgent().getHostAddress(), getCollectionAgent().getLocationName()), t);
             }
 
-            // Execute POST Updates (add custom parameters)
-            SnmpPropertyExtenderProcessor processor = new SnmpPropertyExtenderProcessor();
-            processor.process(this, m_snmpCollection.getName(), m_agent.getSysObjectId(), m_agent.getHostAddress());
-            m_status = CollectionStatus.SUCCEEDED;
-        } catch (InterruptedException|ExecutionException e) {
-            throw RpcExceptionUtils.handleException(e, new RpcExceptionHandler<CollectionException>() {
-                @Override
-                public CollectionException onInterrupted(Throwable t) {
-                    Thread.currentThread().interrupt();
-                    return new CollectionUnknown(String.format("Collection of SNMP data for interface %s at location %s was interrupted.",
-                            getCollectionAgent().getHostAddress(), getCollectionAgent().getLocationName()), t);
-                }
-
-                @Override
-                public CollectionException onTimedOut(Throwable t) {
-                    return new CollectionUnknown(String.format("No response received when remotely collecting SNMP data"
-                            + " for interface %s at location %s.",
-                            getCollectionAgent().getHostAddress(), getCollectionAgent().getLocationName()), t);
-                }
+            @Override
+            public CollectionException onTimedOut(Throwable t) {
+                return new CollectionUnknown(String.format("No response received when remotely collecting SNMP data"
+                        + " for interface %s at location %s.",
+                        getCollectionAgent().getHostAddress(), getCollectionAgent().getLocationName()), t);
+            }
 
-                @Override
-                public CollectionException onRejected(Throwable t) {
-                    return new CollectionUnknown(String.format("The request to remotely collect SNMP data"
-                            + " for interface %s at location %s was rejected.",
-                            getCollectionAgent().getHostAddress(), getCollectionAgent().getLocationName()), t);
-                }
+            @Override
+            public CollectionException onRejected(Throwable t) {
+                return new CollectionUnknown(String.format("The request to remotely collect SNMP data"
+                        + " for interface %s at location %s was rejected.",
+                        getCollectionAgent().getHostAddress(), getCollectionAgent().getLocationName()), t);
+            }
 
-                @Override
-                public CollectionException onUnknown(Throwable t) {
-                    if (t instanceof SnmpAgentTimeoutException) {
-                        return new CollectionTimedOut(t.getMessage());
-                    } else if (t.getCause() != null && t.getCause() instanceof SnmpAgentTimeoutException) {
-                        return new CollectionTimedOut(t.getCause().getMessage());
-                    }
-                    return new CollectionWarning(String.format("Unexpected exception when collecting SNMP data for interface %s at location %s.",
-                            getCollectionAgent().getHostAddress(), getCollectionAgent().getLocationName()), t);
+            @Override
+            public CollectionException onUnknown(Throwable t) {
+                if (t instanceof SnmpAgentTimeoutException) {
+                    return new CollectionTimedOut(t.getMessage());
+                } else if (t.getCause() != null && t.getCause() instanceof SnmpAgentTimeoutException) {
+                    return new CollectionTimedOut(t.getCause().getMessage());
                 }
-            });
-        }
+                return new CollectionWarning(String.format("Unexpected exception when collecting SNMP data for interface %s at location %s.",
+                        getCollectionAgent().getHostAddress(), getCollectionAgent().getLocationName()), t);
+            }
+        });
     }
 
     boolean checkDisableForceRescan(final String disabledString) {
@@ -30,6 +30,7 @@ package org.opennms.netmgt.collectd;
 
 import java.util.Date;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.opennms.core.spring.BeanUtils;
 import org.opennms.netmgt.collection.api.CollectionAgent;
@@ -62,51 +63,88 @@ public class SnmpCollector extends AbstractSnmpCollector {
     @Override
     public CollectionSet collect(CollectionAgent agent, Map<String, Object> parameters) throws CollectionException {
         try {
-            final ServiceParameters params = new ServiceParameters(parameters);
-            params.logIfAliasConfig();
+            final SnmpCollectionSet collectionSet = createCollectionSet(agent, parameters);
+            collectionSet.collect();
+            return afterCollect(agent, collectionSet);
+        } catch (CollectionException e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new CollectionException("Unexpected error during node SNMP collection for: " + agent.getHostAddress(), t);
+        }
+    }
 
-            if (m_client == null) {
-                m_client = BeanUtils.getBean("daoContext", "locationAwareSnmpClient", LocationAwareSnmpClient.class);
-            }
+    /**
+     * {@inheritDoc}
+     *
+     * Perform data collection without waiting for the walk to complete.
+     */
+    @Override
+    public CompletableFuture<CollectionSet> collectAsync(CollectionAgent agent, Map<String, Object> parameters) {
+        final CompletableFuture<CollectionSet> future = new CompletableFuture<>();
+        try {
+            final SnmpCollectionSet collectionSet = createCollectionSet(agent, parameters);
+            collectionSet.collectAsync().whenComplete((v, ex) -> {
+                try {
+                    if (ex != null) {
+                        throw ex;
+                    }
+                    future.complete(afterCollect(agent, collectionSet));
+                } catch (CollectionException e) {
+                    future.completeExceptionally(e);
+                } catch (Throwable t) {
+                    future.completeExceptionally(new CollectionException("Unexpected error during node SNMP collection for: " + agent.getHostAddress(), t));
+                }
+            });
+        } catch (CollectionException e) {
+            future.completeExceptionally(e);
+        } catch (Throwable t) {
+            future.completeExceptionally(new CollectionException("Unexpected error during node SNMP collection for: " + agent.getHostAddress(), t));
+        }
+        return future;
+    }
 
-            if (!(agent instanceof SnmpCollectionAgent)) {
-                throw new InvalidCollectionAgentException(String.format("Expected agent of type: %s, but got: %s",
-                        SnmpCollectionAgent.class.getCanonicalName(), agent.getClass().getCanonicalName()));
-            }
-            OnmsSnmpCollection snmpCollection = new OnmsSnmpCollection((SnmpCollectionAgent)agent, params, m_client);
+    private SnmpCollectionSet createCollectionSet(CollectionAgent agent, Map<String, Object> parameters) throws CollectionException {
+        final ServiceParameters params = new ServiceParameters(parameters);
+        params.logIfAliasConfig();
 
-            final EventProxy eventProxy = EventIpcManagerFactory.getIpcManager();
-            final ForceRescanState forceRescanState = new ForceRescanState(agent, eventProxy);
+        if (m_client == null) {
+            m_client = BeanUtils.getBean("daoContext", "locationAwareSnmpClient", LocationAwareSnmpClient.class);
+        }
 
-            SnmpCollectionSet collectionSet = snmpCollection.createCollectionSet((SnmpCollectionAgent)agent);
-            collectionSet.setCollectionTimestamp(new Date());
-            if (!collectionSet.hasDataToCollect()) {
-                LOG.info("agent {} defines no data to collect.  Skipping.", agent);
-                // should we return here?
-            }
+        if (!(agent instanceof SnmpCollectionAgent)) {
+            throw new InvalidCollectionAgentException(String.format("Expected agent of type: %s, but got: %s",
+                    SnmpCollectionAgent.class.getCanonicalName(), agent.getClass().getCanonicalName()));
+        }
+        OnmsSnmpCollection snmpCollection = new OnmsSnmpCollection((SnmpCollectionAgent)agent, params, m_client);
 
-            collectionSet.collect();
+        SnmpCollectionSet collectionSet = snmpCollection.createCollectionSet((SnmpCollectionAgent)agent);
+        collectionSet.setCollectionTimestamp(new Date());
+        if (!collectionSet.hasDataToCollect()) {
+            LOG.info("agent {} defines no data to collect.  Skipping.", agent);
+            // should we return here?
+        }
+        return collectionSet;
+    }
+
+    private CollectionSet afterCollect(CollectionAgent agent, SnmpCollectionSet collectionSet) {
+        final EventProxy eventProxy = EventIpcManagerFactory.getIpcManager();
+        final ForceRescanState forceRescanState = new ForceRescanState(agent, eventProxy);
 
+        /*
+         * FIXME: Should we even be doing this? I say we get rid of this force rescan thingie
+         * {@see http://issues.opennms.org/browse/NMS-1057}
+         */
+        if (System.getProperty("org.opennms.netmgt.collectd.SnmpCollector.forceRescan", "false").equalsIgnoreCase("true")
+                && collectionSet.rescanNeeded()) {
             /*
-             * FIXME: Should we even be doing this? I say we get rid of this force rescan thingie
-             * {@see http://issues.opennms.org/browse/NMS-1057}
+             * TODO: the behavior of this object may have been re-factored away.
+             * Verify that this is correct and remove this unused object if it
+             * is no longer needed.  My gut thinks this should be investigated.
              */
-            if (System.getProperty("org.opennms.netmgt.collectd.SnmpCollector.forceRescan", "false").equalsIgnoreCase("true")
-                    && collectionSet.rescanNeeded()) {
-                /*
-                 * TODO: the behavior of this object may have been re-factored away.
-                 * Verify that this is correct and remove this unused object if it
-                 * is no longer needed.  My gut thinks this should be investigated.
-                 */
-                forceRescanState.rescanIndicated();
-            } else {
-                collectionSet.checkForSystemRestart();
-            }
-            return collectionSet;
-        } catch (CollectionException e) {
-            throw e;
-        } catch (Throwable t) {
-            throw new CollectionException("Unexpected error during node SNMP collection for: " + agent.getHostAddress(), t);
+            forceRescanState.rescanIndicated();
+        } else {
+            collectionSet.checkForSystemRestart();
         }
+        return collectionSet;
     }
 }
@@ -29,6 +29,7 @@
 package org.opennms.netmgt.eventd;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -47,6 +48,7 @@ import java.util.concurrent.TimeUnit;
 
 import org.opennms.core.concurrent.LogPreservingThreadFactory;
 import org.opennms.core.logging.Logging;
+import org.opennms.netmgt.eventd.EventListenerRingBuffer.BackpressurePolicy;
 import org.opennms.netmgt.events.api.EventHandler;
 import org.opennms.netmgt.events.api.EventIpcBroadcaster;
 import org.opennms.netmgt.events.api.EventIpcManager;
@@ -58,6 +60,7 @@ import org.opennms.netmgt.events.api.model.ImmutableMapper;
 import org.opennms.netmgt.xml.event.*;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.util.Assert;
 import org.springframework.util.StringUtils;
@@ -72,7 +75,7 @@ import com.codahale.metrics.MetricRegistry;
  * @author <A HREF="mailto:sowmya@opennms.org">Sowmya Nataraj </A>
  * @author <A HREF="http://www.opennms.org">OpenNMS.org </A>
  */
-public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroadcaster, InitializingBean {
+public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroadcaster, InitializingBean, DisposableBean {
     
     
     private static final Logger LOG = LoggerFactory.getLogger(EventIpcManagerDefaultImpl.class);
@@ -128,6 +131,23 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
 
     private final MetricRegistry m_registry;
 
+    /**
+     * Either 'executor' to use a dedicated executor per listener, or 'ring-buffer' to use a
+     * shared {@link EventListenerRingBuffer} for all listeners.
+     */
+    private String m_broadcaster = System.getProperty("org.opennms.eventd.broadcaster", "executor");
+
+    private int m_ringBufferSize = Integer.getInteger("org.opennms.eventd.broadcaster.ringBufferSize", 16384);
+
+    private BackpressurePolicy m_backpressurePolicy = BackpressurePolicy.fromString(
+            System.getProperty("org.opennms.eventd.broadcaster.backpressure", "block"));
+
+    private List<String> m_droppableUeis = Arrays.asList(StringUtils.tokenizeToStringArray(
+            System.getProperty("org.opennms.eventd.broadcaster.droppableUeis",
+                    "uei.opennms.org/generic/traps/,uei.opennms.org/vendor/,uei.opennms.org/syslogd/"), ","));
+
+    private volatile EventListenerRingBuffer m_ringBuffer;
+
     /**
      * A thread dedicated to each listener. The events meant for each listener
      * is added to an execution queue when the 'sendNow()' is called. The
@@ -300,19 +320,18 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             LOG.debug("No listeners interested in all events");
         }
 
-        List<CompletableFuture<Void>> listenerFutures = new ArrayList<>();
+        List<EventListener> targetListeners = new ArrayList<>();
 
         IEvent immutableEvent = ImmutableMapper.fromMutableEvent(event);
 
         // Send to listeners interested in receiving all events
-        for (EventListener listener : m_listeners) {
-            listenerFutures.add(queueEventToListener(immutableEvent, listener));
-        }
+        targetListeners.addAll(m_listeners);
 
         if (event.getUei() == null) {
             if (LOG.isDebugEnabled()) {
                 LOG.debug("Event ID {} does not have a UEI, so skipping UEI matching", immutableEvent.getDbid());
             }
+            queueEventToListeners(immutableEvent, targetListeners, false);
             return;
         }
 
@@ -325,7 +344,7 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             if (m_ueiListeners.containsKey(uei)) {
                 for (EventListener listener : m_ueiListeners.get(uei)) {
                     if (!sentToListeners.contains(listener)) {
-                        listenerFutures.add(queueEventToListener(immutableEvent, listener));
+                        targetListeners.add(listener);
                         sentToListeners.add(listener);
                     }
                 }
@@ -348,13 +367,28 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             }
         }
 
+        final CompletableFuture<Void> future = queueEventToListeners(immutableEvent, targetListeners, synchronous);
+
         // If synchronous...
         if (synchronous) {
             // Wait for all of the listeners to complete before returning
-            CompletableFuture.allOf(listenerFutures.toArray(new CompletableFuture[0])).join();
+            future.join();
         }
     }
 
+    private CompletableFuture<Void> queueEventToListeners(IEvent event, List<EventListener> listeners, boolean trackCompletion) {
+        final EventListenerRingBuffer ringBuffer = m_ringBuffer;
+        if (ringBuffer != null) {
+            return ringBuffer.publish(event, listeners, trackCompletion);
+        }
+
+        List<CompletableFuture<Void>> listenerFutures = new ArrayList<>(listeners.size());
+        for (EventListener listener : listeners) {
+            listenerFutures.add(queueEventToListener(event, listener));
+        }
+        return CompletableFuture.allOf(listenerFutures.toArray(new CompletableFuture[0]));
+    }
+
     private CompletableFuture<Void> queueEventToListener(IEvent event, EventListener listener) {
         return m_listenerThreads.get(listener.getName()).addEvent(event);
     }
@@ -485,6 +519,12 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
 
             m_listenerThreads.remove(listener.getName());
         }
+
+        if (m_ringBuffer != null && m_ringBuffer.hasListener(listener.getName())) {
+            m_ringBuffer.removeListener(listener);
+            m_registry.remove(MetricRegistry.name("eventlisteners", listener.getName(), "lag"));
+            m_registry.remove(MetricRegistry.name("eventlisteners", listener.getName(), "dropped"));
+        }
     }
 
     /**
@@ -492,6 +532,11 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
      * already exist.
      */
     private void createListenerThread(EventListener listener) {
+        if (isRingBufferBroadcaster()) {
+            createListenerConsumer(listener);
+            return;
+        }
+
         if (m_listenerThreads.containsKey(listener.getName())) {
             return;
         }
@@ -500,6 +545,54 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         m_listenerThreads.put(listener.getName(), listenerThread);
     }
 
+    /**
+     * Register this listener with the ring buffer if it is not already consuming it.
+     */
+    private void createListenerConsumer(EventListener listener) {
+        final EventListenerRingBuffer ringBuffer = getRingBuffer();
+        if (ringBuffer.hasListener(listener.getName())) {
+            return;
+        }
+
+        ringBuffer.addListener(listener);
+
+        final String name = listener.getName();
+        m_registry.remove(MetricRegistry.name("eventlisteners", name, "lag"));
+        m_registry.register(MetricRegistry.name("eventlisteners", name, "lag"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return ringBuffer.getLag(name);
+            }
+        });
+        m_registry.remove(MetricRegistry.name("eventlisteners", name, "dropped"));
+        m_registry.register(MetricRegistry.name("eventlisteners", name, "dropped"), new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                return ringBuffer.getDropped(name);
+            }
+        });
+    }
+
+    private boolean isRingBufferBroadcaster() {
+        return "ring-buffer".equalsIgnoreCase(m_broadcaster);
+    }
+
+    private synchronized EventListenerRingBuffer getRingBuffer() {
+        if (m_ringBuffer == null) {
+            final EventListenerRingBuffer ringBuffer = new EventListenerRingBuffer(m_ringBufferSize, m_backpressurePolicy, m_droppableUeis);
+            m_registry.remove("eventlisteners.dropped");
+            m_registry.register("eventlisteners.dropped", new Gauge<Long>() {
+                @Override
+                public Long getValue() {
+                    return ringBuffer.getDropped();
+                }
+            });
+            LOG.info("Broadcasting events through a ring buffer with {} slots and backpressure policy {}", m_ringBufferSize, m_backpressurePolicy);
+            m_ringBuffer = ringBuffer;
+        }
+        return m_ringBuffer;
+    }
+
     /**
      * Add to uei listeners.
      */
@@ -557,6 +650,10 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
             }
         });
 
+        if (isRingBufferBroadcaster()) {
+            getRingBuffer();
+        }
+
         Logging.withPrefix(Eventd.LOG4J_CATEGORY, new Runnable() {
 
             @Override
@@ -579,6 +676,17 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         });
     }
 
+    /**
+     * Stops the threads of the ring buffer listeners.
+     */
+    @Override
+    public void destroy() {
+        final EventListenerRingBuffer ringBuffer = m_ringBuffer;
+        if (ringBuffer != null) {
+            ringBuffer.stop();
+        }
+    }
+
     /**
      * <p>getEventHandler</p>
      *
@@ -636,6 +744,52 @@ public class EventIpcManagerDefaultImpl implements EventIpcManager, EventIpcBroa
         m_handlerQueueLength = size;
     }
 
+    public String getBroadcaster() {
+        return m_broadcaster;
+    }
+
+    /**
+     * <p>setBroadcaster</p>
+     *
+     * @param broadcaster either 'executor' or 'ring-buffer'
+     */
+    public void setBroadcaster(String broadcaster) {
+        Assert.state(m_ringBuffer == null && m_listenerThreads.isEmpty(), "broadcaster property cannot be changed once listeners are registered");
+        m_broadcaster = Objects.requireNonNull(broadcaster);
+    }
+
+    public int getRingBufferSize() {
+        return m_ringBufferSize;
+    }
+
+    public void setRingBufferSize(int ringBufferSize) {
+        Assert.state(m_ringBuffer == null, "ringBufferSize property cannot be set once the ring buffer is created");
+        m_ringBufferSize = ringBufferSize;
+    }
+
+    public BackpressurePolicy getBackpressurePolicy() {
+        return m_backpressurePolicy;
+    }
+
+    public void setBackpressurePolicy(BackpressurePolicy backpressurePolicy) {
+        Assert.state(m_ringBuffer == null, "backpressurePolicy property cannot be set once the ring buffer is created");
+        m_backpressurePolicy = Objects.requireNonNull(backpressurePolicy);
+    }
+
+    public List<String> getDroppableUeis() {
+        return m_droppableUeis;
+    }
+
+    /**
+     * <p>setDroppableUeis</p>
+     *
+     * @param droppableUeis UEI prefixes of the events which are dropped when using the DROP_BY_UEI backpressure policy
+     */
+    public void setDroppableUeis(List<String> droppableUeis) {
+        Assert.state(m_ringBuffer == null, "droppableUeis property cannot be set once the ring buffer is created");
+        m_droppableUeis = Objects.requireNonNull(droppableUeis);
+    }
+
     @Override
     public boolean hasEventListener(final String uei) {
         if (this.m_ueiListeners.containsKey(uei)) {
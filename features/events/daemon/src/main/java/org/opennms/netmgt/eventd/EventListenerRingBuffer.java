@@ -0,0 +1,523 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.logging.Logging;
+import org.opennms.netmgt.events.api.EventListener;
+import org.opennms.netmgt.events.api.ThreadAwareEventListener;
+import org.opennms.netmgt.events.api.model.IEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Broadcasts events to the registered listeners through a single, preallocated ring buffer.
+ *
+ * Events are published once, together with the listeners they are meant for. Each listener consumes the
+ * ring with its own sequence, so no per-listener queues are allocated and a slow listener does not affect
+ * the others until the ring wraps around. What happens then is defined by the {@link BackpressurePolicy}.
+ *
+ * Listeners implementing {@link ThreadAwareEventListener} get one consumer thread per requested thread.
+ * Each of these threads handles every n-th slot of the ring with its own sequence.
+ *
+ * Publishing is serialized, making this a single-producer ring: the critical section only claims and
+ * fills a preallocated slot. Publishers waiting for capacity back off without holding the lock.
+ */
+public class EventListenerRingBuffer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(EventListenerRingBuffer.class);
+
+    private static final long WRITING = -2;
+
+    private static final long WAIT_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final long BACKOFF_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private static final long STOP_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(5);
+
+    public enum BackpressurePolicy {
+        /**
+         * Block the publisher until the slowest listener frees up a slot.
+         */
+        BLOCK,
+        /**
+         * Overwrite the oldest slot. Listeners which did not yet consume it miss the event.
+         */
+        DROP_OLDEST,
+        /**
+         * Discard the published event if its UEI starts with one of the droppable UEIs, block otherwise.
+         */
+        DROP_BY_UEI;
+
+        public static BackpressurePolicy fromString(String value) {
+            return valueOf(value.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    private static class Slot {
+        private volatile long sequence = -1;
+        private volatile IEvent event;
+        private volatile Consumer[] targets;
+        private volatile Completion completion;
+    }
+
+    private static class Completion {
+        private final AtomicInteger remaining;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private Completion(int remaining) {
+            this.remaining = new AtomicInteger(remaining);
+        }
+
+        private void countDown() {
+            if (remaining.decrementAndGet() <= 0) {
+                future.complete(null);
+            }
+        }
+    }
+
+    private final Slot[] m_slots;
+    private final int m_mask;
+    private final BackpressurePolicy m_policy;
+    private final List<String> m_droppableUeis;
+
+    private final ReentrantLock m_publishLock = new ReentrantLock();
+    // Next sequence to publish, only modified while holding the publish lock
+    private long m_nextSequence = 0;
+    // Last published sequence
+    private final AtomicLong m_cursor = new AtomicLong(-1);
+    private final AtomicLong m_dropped = new AtomicLong();
+
+    private final Map<String, Consumer> m_consumers = new ConcurrentHashMap<>();
+    // Gating workers, copied on write
+    private volatile Worker[] m_workers = new Worker[0];
+
+    public EventListenerRingBuffer(int size, BackpressurePolicy policy, List<String> droppableUeis) {
+        if (size < 1 || Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("Ring buffer size must be a positive power of 2, got " + size);
+        }
+        m_slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            m_slots[i] = new Slot();
+        }
+        m_mask = size - 1;
+        m_policy = Objects.requireNonNull(policy);
+        m_droppableUeis = droppableUeis == null ? Collections.emptyList() : new ArrayList<>(droppableUeis);
+    }
+
+    /**
+     * Starts consuming events for the given listener, unless it is already registered.
+     *
+     * The listener only receives events published after this call.
+     */
+    public synchronized void addListener(EventListener listener) {
+        if (m_consumers.containsKey(listener.getName())) {
+            return;
+        }
+        int numThreads = 1;
+        if (listener instanceof ThreadAwareEventListener) {
+            numThreads = Math.max(1, ((ThreadAwareEventListener)listener).getNumThreads());
+        }
+
+        // Hold the publish lock so no event is published between reading the cursor and gating the new workers
+        m_publishLock.lock();
+        try {
+            final Consumer consumer = new Consumer(listener, numThreads, m_nextSequence);
+            m_consumers.put(listener.getName(), consumer);
+            final Worker[] workers = Arrays.copyOf(m_workers, m_workers.length + consumer.m_workers.length);
+            System.arraycopy(consumer.m_workers, 0, workers, m_workers.length, consumer.m_workers.length);
+            m_workers = workers;
+            consumer.start();
+        } finally {
+            m_publishLock.unlock();
+        }
+    }
+
+    /**
+     * Stops consuming events for the given listener. Events already handed to the listener are completed.
+     */
+    public synchronized void removeListener(EventListener listener) {
+        final Consumer consumer = m_consumers.remove(listener.getName());
+        if (consumer == null) {
+            return;
+        }
+        final List<Worker> workers = new ArrayList<>(Arrays.asList(m_workers));
+        workers.removeAll(Arrays.asList(consumer.m_workers));
+        m_workers = workers.toArray(new Worker[0]);
+        consumer.stop();
+    }
+
+    public boolean hasListener(String listenerName) {
+        return m_consumers.containsKey(listenerName);
+    }
+
+    /**
+     * Publishes the event to the given listeners.
+     *
+     * @return a future which completes once all targeted listeners handled or dropped the event
+     */
+    public CompletableFuture<Void> publish(IEvent event, List<EventListener> listeners, boolean trackCompletion) {
+        final Consumer[] targets = listeners.stream()
+                .map(l -> m_consumers.get(l.getName()))
+                .filter(Objects::nonNull)
+                .toArray(Consumer[]::new);
+        if (targets.length == 0) {
+            return CompletableFuture.completedFuture(null);
+        }
+        final Completion completion = trackCompletion ? new Completion(targets.length) : null;
+
+        m_publishLock.lock();
+        try {
+            final long sequence = claim(event);
+            if (sequence < 0) {
+                m_dropped.incrementAndGet();
+                for (Consumer target : targets) {
+                    target.m_dropped.incrementAndGet();
+                }
+                LOG.debug("Ring buffer is full, discarding event {}", event.getUei());
+                return CompletableFuture.completedFuture(null);
+            }
+
+            final long wrapSequence = sequence - m_slots.length;
+            final Slot slot = m_slots[(int) (sequence & m_mask)];
+            slot.sequence = WRITING;
+            if (wrapSequence >= 0) {
+                dropUnconsumed(slot, wrapSequence);
+            }
+            slot.event = event;
+            slot.targets = targets;
+            slot.completion = completion;
+            slot.sequence = sequence;
+
+            m_nextSequence = sequence + 1;
+            m_cursor.set(sequence);
+        } finally {
+            m_publishLock.unlock();
+        }
+
+        for (Worker worker : m_workers) {
+            worker.wakeUp();
+        }
+        return completion == null ? CompletableFuture.completedFuture(null) : completion.future;
+    }
+
+    /**
+     * Claims the next sequence, waiting until its slot was consumed by all listeners if the ring is full.
+     *
+     * Must be called with the publish lock held. The lock is released while backing off, so listeners can be
+     * added and other events published in the meantime, and the next sequence is read again afterwards.
+     *
+     * @return the claimed sequence, or -1 if the event should be dropped instead
+     */
+    private long claim(IEvent event) {
+        while (true) {
+            final long sequence = m_nextSequence;
+            final long wrapSequence = sequence - m_slots.length;
+            if (wrapSequence < 0 || getMinimumSequence() > wrapSequence) {
+                return sequence;
+            }
+            switch (m_policy) {
+                case DROP_OLDEST:
+                    return sequence;
+                case DROP_BY_UEI:
+                    if (isDroppable(event)) {
+                        return -1;
+                    }
+                    // Fall through, this event must not be dropped
+                case BLOCK:
+                default:
+                    m_publishLock.unlock();
+                    try {
+                        // Lagging workers may have been waiting for an event which is not targeted at them
+                        for (Worker worker : m_workers) {
+                            worker.wakeUp();
+                        }
+                        LockSupport.parkNanos(this, BACKOFF_NANOS);
+                    } finally {
+                        m_publishLock.lock();
+                    }
+            }
+        }
+    }
+
+    private void dropUnconsumed(Slot slot, long wrapSequence) {
+        final Consumer[] targets = slot.targets;
+        final Completion completion = slot.completion;
+        if (targets == null) {
+            return;
+        }
+        for (Consumer target : targets) {
+            if (target.getWorker(wrapSequence).m_sequence.get() <= wrapSequence) {
+                target.m_dropped.incrementAndGet();
+                m_dropped.incrementAndGet();
+                if (completion != null) {
+                    completion.countDown();
+                }
+            }
+        }
+    }
+
+    private boolean isDroppable(IEvent event) {
+        final String uei = event.getUei();
+        if (uei == null) {
+            return false;
+        }
+        for (String droppableUei : m_droppableUeis) {
+            if (uei.startsWith(droppableUei)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private long getMinimumSequence() {
+        long minimum = Long.MAX_VALUE;
+        for (Worker worker : m_workers) {
+            minimum = Math.min(minimum, worker.m_sequence.get());
+        }
+        return minimum;
+    }
+
+    public int getSize() {
+        return m_slots.length;
+    }
+
+    public BackpressurePolicy getPolicy() {
+        return m_policy;
+    }
+
+    /**
+     * @return the total number of events dropped for any listener
+     */
+    public long getDropped() {
+        return m_dropped.get();
+    }
+
+    /**
+     * @return the number of published events the given listener did not consume yet
+     */
+    public long getLag(String listenerName) {
+        final Consumer consumer = m_consumers.get(listenerName);
+        return consumer == null ? 0 : consumer.getLag();
+    }
+
+    /**
+     * @return the number of events the given listener missed due to backpressure
+     */
+    public long getDropped(String listenerName) {
+        final Consumer consumer = m_consumers.get(listenerName);
+        return consumer == null ? 0 : consumer.m_dropped.get();
+    }
+
+    /**
+     * Stops all consumers and waits for their threads to complete the events already handed to the listeners.
+     */
+    public synchronized void stop() {
+        final List<Consumer> consumers = new ArrayList<>(m_consumers.values());
+        m_consumers.clear();
+        m_workers = new Worker[0];
+        consumers.forEach(Consumer::stop);
+
+        final long deadline = System.currentTimeMillis() + STOP_TIMEOUT_MS;
+        for (Consumer consumer : consumers) {
+            for (Worker worker : consumer.m_workers) {
+                final long remaining = deadline - System.currentTimeMillis();
+                if (worker.m_thread == Thread.currentThread() || remaining <= 0) {
+                    continue;
+                }
+                try {
+                    worker.m_thread.join(remaining);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private class Consumer {
+        private final EventListener m_listener;
+        private final Worker[] m_workers;
+        private final AtomicLong m_dropped = new AtomicLong();
+
+        private Consumer(EventListener listener, int numThreads, long firstSequence) {
+            m_listener = listener;
+            m_workers = new Worker[numThreads];
+            for (int i = 0; i < numThreads; i++) {
+                m_workers[i] = new Worker(this, firstSequence + i, numThreads);
+            }
+        }
+
+        private Worker getWorker(long sequence) {
+            // Worker i handles the sequences firstSequence + i + k * numThreads
+            for (Worker worker : m_workers) {
+                if (Math.floorMod(sequence - worker.m_firstSequence, m_workers.length) == 0) {
+                    return worker;
+                }
+            }
+            throw new IllegalStateException("No worker for sequence " + sequence);
+        }
+
+        private long getLag() {
+            long minimum = Long.MAX_VALUE;
+            for (Worker worker : m_workers) {
+                minimum = Math.min(minimum, worker.m_sequence.get());
+            }
+            return Math.max(0, m_cursor.get() - minimum + 1);
+        }
+
+        private void start() {
+            // This ThreadFactory will ensure that the log prefix of the calling thread
+            // is used for all events that this listener handles
+            final LogPreservingThreadFactory threadFactory = new LogPreservingThreadFactory(m_listener.getName(), m_workers.length);
+            for (Worker worker : m_workers) {
+                worker.m_thread = threadFactory.newThread(worker);
+                worker.m_thread.setDaemon(true);
+                worker.m_thread.start();
+            }
+        }
+
+        private void stop() {
+            for (Worker worker : m_workers) {
+                worker.m_running = false;
+                worker.wakeUp();
+            }
+        }
+
+        private boolean isTargetOf(Consumer[] targets) {
+            for (Consumer target : targets) {
+                if (target == this) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void deliver(IEvent event) {
+            try {
+                if (LOG.isDebugEnabled()) LOG.debug("run: calling onEvent on {} for event {}", m_listener.getName(), event.toStringSimple());
+
+                // Make sure we restore our log4j logging prefix after onEvent is called
+                Map<String,String> mdc = Logging.getCopyOfContextMap();
+                try {
+                    m_listener.onEvent(event);
+                } finally {
+                    Logging.setContextMap(mdc);
+                }
+            } catch (Throwable t) {
+                LOG.warn("run: an unexpected error occured during ListenerThread {}", m_listener.getName(), t);
+            }
+        }
+    }
+
+    private class Worker implements Runnable {
+        private final Consumer m_consumer;
+        private final long m_firstSequence;
+        private final int m_stride;
+        // Next sequence to consume
+        private final AtomicLong m_sequence;
+        private volatile boolean m_running = true;
+        private volatile boolean m_waiting = false;
+        private Thread m_thread;
+
+        private Worker(Consumer consumer, long firstSequence, int stride) {
+            m_consumer = consumer;
+            m_firstSequence = firstSequence;
+            m_stride = stride;
+            m_sequence = new AtomicLong(firstSequence);
+        }
+
+        private void wakeUp() {
+            if (m_waiting) {
+                LockSupport.unpark(m_thread);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (m_running) {
+                final long sequence = m_sequence.get();
+                if (sequence > m_cursor.get()) {
+                    m_waiting = true;
+                    if (sequence > m_cursor.get() && m_running) {
+                        LockSupport.parkNanos(this, WAIT_NANOS);
+                    }
+                    m_waiting = false;
+                    continue;
+                }
+
+                final Slot slot = m_slots[(int) (sequence & m_mask)];
+                final long before = slot.sequence;
+                final IEvent event = slot.event;
+                final Consumer[] targets = slot.targets;
+                final Completion completion = slot.completion;
+                if (before != sequence || slot.sequence != sequence) {
+                    // The slot was overwritten, continue with the oldest event still available
+                    final long oldest = m_cursor.get() - m_slots.length + 1;
+                    final long skip = Math.max(1, (oldest - sequence + m_stride - 1) / m_stride);
+                    m_sequence.set(sequence + skip * m_stride);
+                    continue;
+                }
+
+                // The event is captured, so the slot can be reused while the listener handles it
+                m_sequence.set(sequence + m_stride);
+                if (m_consumer.isTargetOf(targets)) {
+                    m_consumer.deliver(event);
+                    if (completion != null) {
+                        completion.countDown();
+                    }
+                }
+            }
+
+            // Release publishers waiting for events this listener will no longer handle
+            for (long sequence = m_sequence.get(); sequence <= m_cursor.get(); sequence += m_stride) {
+                final Slot slot = m_slots[(int) (sequence & m_mask)];
+                final Consumer[] targets = slot.targets;
+                final Completion completion = slot.completion;
+                if (slot.sequence == sequence && completion != null && m_consumer.isTargetOf(targets)) {
+                    completion.countDown();
+                }
+            }
+        }
+    }
+}
@@ -28,13 +28,27 @@
 
 package org.opennms.netmgt.eventd.processor;
 
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Objects;
-import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+import org.hibernate.SessionFactory;
+import org.hibernate.engine.SessionFactoryImplementor;
+import org.hibernate.engine.SessionImplementor;
+import org.opennms.core.concurrent.LogPreservingThreadFactory;
+import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.dao.api.DistPollerDao;
 import org.opennms.netmgt.dao.api.EventDao;
 import org.opennms.netmgt.dao.api.MonitoringSystemDao;
@@ -49,6 +63,7 @@ import org.opennms.netmgt.eventd.EventUtil;
 import org.opennms.netmgt.events.api.EventDatabaseConstants;
 import org.opennms.netmgt.events.api.EventProcessorException;
 import org.opennms.netmgt.model.OnmsEvent;
+import org.opennms.netmgt.model.OnmsEventParameter;
 import org.opennms.netmgt.model.OnmsSeverity;
 import org.opennms.netmgt.xml.event.Event;
 import org.opennms.netmgt.xml.event.Header;
@@ -56,6 +71,8 @@ import org.opennms.netmgt.xml.event.Log;
 import org.opennms.netmgt.xml.event.Operaction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DeadlockLoserDataAccessException;
 import org.springframework.transaction.TransactionStatus;
@@ -63,6 +80,8 @@ import org.springframework.transaction.support.TransactionCallbackWithoutResult;
 import org.springframework.transaction.support.TransactionOperations;
 import org.springframework.util.Assert;
 
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Histogram;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.codahale.metrics.Timer.Context;
@@ -86,12 +105,28 @@ import com.codahale.metrics.Timer.Context;
  * @see org.opennms.netmgt.events.api.EventDatabaseConstants#DB_ATTRIB_DELIM
  * @see org.opennms.netmgt.events.api.EventDatabaseConstants#NAME_VAL_DELIM
  *
+ * When batching is enabled, the events logs handed over by concurrent callers are
+ * queued and persisted together, in a single transaction, by a dedicated thread.
+ * Callers still wait for their events to be persisted, so that the events carry
+ * their database ID when they reach the next processors. The events of a batch
+ * and their parameters are inserted with JDBC batches on the connection of the
+ * transaction, since the shared session factory sends one statement per row.
+ *
  * @author <A HREF="mailto:sowmya@opennms.org">Sowmya Nataraj </A>
  * @author <A HREF="http://www.opennms.org">OpenNMS.org </A>
  */
-public class HibernateEventWriter implements EventWriter {
+public class HibernateEventWriter implements EventWriter, InitializingBean, DisposableBean {
     private static final Logger LOG = LoggerFactory.getLogger(HibernateEventWriter.class);
 
+    private static final String SQL_INSERT_EVENT = "INSERT INTO events (eventId, eventUei, eventTime, eventHost, eventSource, ipAddr, systemId, " +
+            "eventSnmpHost, serviceId, eventSnmp, eventCreateTime, eventDescr, eventLogGroup, eventLogMsg, eventSeverity, ifIndex, " +
+            "eventPathOutage, eventCorrelation, eventSuppressedCount, eventOperInstruct, eventAutoAction, eventOperAction, " +
+            "eventOperActionMenuText, eventNotification, eventTTicket, eventTTicketState, eventForward, eventMouseOverText, " +
+            "eventLog, eventDisplay, eventAckUser, eventAckTime, nodeId) " +
+            "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)";
+
+    private static final String SQL_INSERT_EVENT_PARAMETER = "INSERT INTO event_parameters (eventID, name, value, type, position) VALUES (?, ?, ?, ?, ?)";
+
     public static final String LOG_MSG_DEST_DO_NOT_PERSIST = "donotpersist";
     public static final String LOG_MSG_DEST_SUPRRESS = "suppress";
     public static final String LOG_MSG_DEST_LOG_AND_DISPLAY = "logndisplay";
@@ -119,10 +154,36 @@ public class HibernateEventWriter implements EventWriter {
     @Autowired
     private EventUtil eventUtil;
 
+    @Autowired
+    private SessionFactory m_sessionFactory;
+
+    private boolean m_batching = Boolean.getBoolean("org.opennms.eventd.writer.batching");
+
+    private int m_batchSize = Integer.getInteger("org.opennms.eventd.writer.batchSize", 500);
+
+    private long m_batchWindow = Long.getLong("org.opennms.eventd.writer.batchWindow", 0L);
+
+    private volatile Batcher m_batcher;
+
+    private volatile boolean m_destroyed = false;
+
     private final Timer writeTimer;
 
+    private final Timer flushTimer;
+
+    private final Histogram batchSizes;
+
     public HibernateEventWriter(MetricRegistry registry) {
         writeTimer = Objects.requireNonNull(registry).timer("eventlogs.process.write");
+        flushTimer = registry.timer("eventlogs.process.write.batch.flush");
+        batchSizes = registry.histogram("eventlogs.process.write.batch.size");
+        registry.register("eventlogs.process.write.batch.pending", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                final Batcher batcher = m_batcher;
+                return batcher == null ? 0 : batcher.getPendingCount();
+            }
+        });
     }
 
     /**
@@ -162,59 +223,162 @@ public class HibernateEventWriter implements EventWriter {
 
     @Override
     public void process(Log eventLog) throws EventProcessorException {
-        if (eventLog != null && eventLog.getEvents() != null) {
-            final List<Event> eventsInLog = eventLog.getEvents().getEventCollection();
-            // This shouldn't happen, but just to be safe...
-            if (eventsInLog == null) {
-                return;
-            }
+        // Find the events in the log that need to be persisted
+        final List<Event> eventsToPersist = getEventsToPersist(eventLog);
 
-            // Find the events in the log that need to be persisted
-            final List<Event> eventsToPersist = eventsInLog.stream()
-                .filter(e -> checkEventSanityAndDoWeProcess(e, "HibernateEventWriter"))
-                .collect(Collectors.toList());
+        // If there are no events to persist, avoid creating a database transaction
+        if (eventsToPersist.size() < 1) {
+            return;
+        }
 
-            // If there are no events to persist, avoid creating a database transaction
-            if (eventsToPersist.size() < 1) {
-                return;
+        // Time the transaction and insertions, including the time spent waiting for a batch
+        try (Context context = writeTimer.time()) {
+            persist(eventLog.getHeader(), eventsToPersist).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new EventProcessorException("Interrupted while waiting for the events to be persisted", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof EventProcessorException) {
+                throw (EventProcessorException)e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)e.getCause();
             }
+            throw new EventProcessorException("Unexpected exception while storing events", e.getCause());
+        }
+    }
+
+    /**
+     * Persists the events in the given log without waiting for them to be written.
+     *
+     * @param eventLog the log of events to persist
+     * @return a future completed with the events that were persisted, once their
+     *         database ID has been set, or completed exceptionally if any of them
+     *         could not be persisted
+     */
+    public CompletableFuture<List<Event>> persistAsync(Log eventLog) {
+        return persist(eventLog == null ? null : eventLog.getHeader(), getEventsToPersist(eventLog));
+    }
 
-            // Time the transaction and insertions
-            try (Context context = writeTimer.time()) {
-                final AtomicReference<EventProcessorException> exception = new AtomicReference<>();
+    private static List<Event> getEventsToPersist(Log eventLog) {
+        if (eventLog == null || eventLog.getEvents() == null) {
+            return Collections.emptyList();
+        }
+        final List<Event> eventsInLog = eventLog.getEvents().getEventCollection();
+        // This shouldn't happen, but just to be safe...
+        if (eventsInLog == null) {
+            return Collections.emptyList();
+        }
+        return eventsInLog.stream()
+            .filter(e -> checkEventSanityAndDoWeProcess(e, "HibernateEventWriter"))
+            .collect(Collectors.toList());
+    }
+
+    private CompletableFuture<List<Event>> persist(final Header eventHeader, final List<Event> eventsToPersist) {
+        if (eventsToPersist.isEmpty()) {
+            return CompletableFuture.completedFuture(eventsToPersist);
+        }
+        final PendingWrite write = new PendingWrite(eventHeader, eventsToPersist);
+        final Batcher batcher = m_batcher;
+        if (m_destroyed) {
+            write.future.completeExceptionally(new EventProcessorException("The event writer has been destroyed, not persisting " + eventsToPersist.size() + " events"));
+        } else if (m_batching) {
+            if (batcher == null) {
+                write.future.completeExceptionally(new EventProcessorException("Batching was enabled after the event writer was initialized, not persisting " + eventsToPersist.size() + " events"));
+            } else {
+                batcher.enqueue(write);
+            }
+        } else {
+            write(Collections.singletonList(write));
+        }
+        return write.future;
+    }
 
-                m_transactionManager.execute(new TransactionCallbackWithoutResult() {
-                    @Override
-                    protected void doInTransactionWithoutResult(TransactionStatus status) {
-                        for (Event eachEvent : eventsToPersist) {
+    /**
+     * Persists the events of all the given writes in a single transaction and
+     * completes their futures.
+     *
+     * As before batching, a write stops at the first event that fails to be
+     * persisted, while the events that preceded it are still committed.
+     */
+    private void write(final List<PendingWrite> writes) {
+        try {
+            m_transactionManager.execute(new TransactionCallbackWithoutResult() {
+                @Override
+                protected void doInTransactionWithoutResult(TransactionStatus status) {
+                    final List<OnmsEvent> batch = m_batching ? new ArrayList<>() : null;
+                    for (PendingWrite write : writes) {
+                        write.exception = null;
+                        for (Event eachEvent : write.events) {
                             try {
-                                process(eventLog.getHeader(), eachEvent);
+                                process(write.header, eachEvent, batch);
                             } catch (EventProcessorException e) {
-                                exception.set(e);
-                                return;
+                                write.exception = e;
+                                break;
                             }
                         }
                     }
-                });
-
-                if (exception.get() != null) {
-                    throw exception.get();
+                    if (batch != null && !batch.isEmpty()) {
+                        insert(batch);
+                    }
                 }
+            });
+        } catch (RuntimeException e) {
+            if (writes.size() > 1) {
+                // Don't let a single failing log take the others down with it
+                LOG.warn("Failed to persist a batch of {} event logs, persisting them one at a time.", writes.size(), e);
+                for (PendingWrite write : writes) {
+                    write(Collections.singletonList(write));
+                }
+            } else {
+                writes.get(0).future.completeExceptionally(e);
+            }
+            return;
+        }
+
+        for (PendingWrite write : writes) {
+            if (write.exception != null) {
+                write.future.completeExceptionally(write.exception);
+            } else {
+                write.future.complete(write.events);
             }
         }
     }
 
+    @Override
+    public void afterPropertiesSet() {
+        if (m_batching) {
+            m_batcher = new Batcher();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        m_destroyed = true;
+        final Batcher batcher = m_batcher;
+        m_batcher = null;
+        if (batcher != null) {
+            batcher.stop();
+        }
+    }
+
     /**
      * {@inheritDoc}
      *
      * The method that inserts the event into the database
      */
-    private void process(final Header eventHeader, final Event event) throws EventProcessorException {
+    private void process(final Header eventHeader, final Event event, final List<OnmsEvent> batch) throws EventProcessorException {
         LOG.debug("HibernateEventWriter: processing {}, nodeid: {}, ipaddr: {}, serviceid: {}, time: {}", event.getUei(), event.getNodeid(), event.getInterface(), event.getService(), event.getTime());
 
         try {
             final OnmsEvent ovent = createOnmsEvent(eventHeader, event);
-            eventDao.save(ovent);
+            if (batch == null) {
+                eventDao.save(ovent);
+            } else {
+                // Use the same generator as Hibernate, so that the IDs don't collide with the events it saves
+                final SessionImplementor session = (SessionImplementor)m_sessionFactory.getCurrentSession();
+                ovent.setId((Integer)((SessionFactoryImplementor)m_sessionFactory).getIdentifierGenerator(OnmsEvent.class.getName()).generate(session, ovent));
+                batch.add(ovent);
+            }
 
             // Update the event with the database ID of the event stored in the database
             event.setDbid(ovent.getId());
@@ -225,6 +389,87 @@ public class HibernateEventWriter implements EventWriter {
         }
     }
 
+    /**
+     * Inserts the given events, and their parameters, with one JDBC batch per
+     * table on the connection of the current transaction.
+     */
+    private void insert(final List<OnmsEvent> ovents) {
+        m_sessionFactory.getCurrentSession().doWork(connection -> {
+            try (PreparedStatement insertEvent = connection.prepareStatement(SQL_INSERT_EVENT);
+                 PreparedStatement insertParameter = connection.prepareStatement(SQL_INSERT_EVENT_PARAMETER)) {
+                int numParameters = 0;
+                for (OnmsEvent ovent : ovents) {
+                    int i = 1;
+                    insertEvent.setInt(i++, ovent.getId());
+                    insertEvent.setString(i++, ovent.getEventUei());
+                    setTimestamp(insertEvent, i++, ovent.getEventTime());
+                    insertEvent.setString(i++, ovent.getEventHost());
+                    insertEvent.setString(i++, ovent.getEventSource());
+                    insertEvent.setString(i++, ovent.getIpAddr() == null ? null : InetAddressUtils.str(ovent.getIpAddr()));
+                    insertEvent.setString(i++, ovent.getDistPoller() == null ? null : ovent.getDistPoller().getId());
+                    insertEvent.setString(i++, ovent.getEventSnmpHost());
+                    setInteger(insertEvent, i++, ovent.getServiceType() == null ? null : ovent.getServiceType().getId());
+                    insertEvent.setString(i++, ovent.getEventSnmp());
+                    setTimestamp(insertEvent, i++, ovent.getEventCreateTime());
+                    insertEvent.setString(i++, ovent.getEventDescr());
+                    insertEvent.setString(i++, ovent.getEventLogGroup());
+                    insertEvent.setString(i++, ovent.getEventLogMsg());
+                    setInteger(insertEvent, i++, ovent.getEventSeverity());
+                    setInteger(insertEvent, i++, ovent.getIfIndex());
+                    insertEvent.setString(i++, ovent.getEventPathOutage());
+                    insertEvent.setString(i++, ovent.getEventCorrelation());
+                    setInteger(insertEvent, i++, ovent.getEventSuppressedCount());
+                    insertEvent.setString(i++, ovent.getEventOperInstruct());
+                    insertEvent.setString(i++, ovent.getEventAutoAction());
+                    insertEvent.setString(i++, ovent.getEventOperAction());
+                    insertEvent.setString(i++, ovent.getEventOperActionMenuText());
+                    insertEvent.setString(i++, ovent.getEventNotification());
+                    insertEvent.setString(i++, ovent.getEventTTicket());
+                    setInteger(insertEvent, i++, ovent.getEventTTicketState());
+                    insertEvent.setString(i++, ovent.getEventForward());
+                    insertEvent.setString(i++, ovent.getEventMouseOverText());
+                    insertEvent.setString(i++, ovent.getEventLog());
+                    insertEvent.setString(i++, ovent.getEventDisplay());
+                    insertEvent.setString(i++, ovent.getEventAckUser());
+                    setTimestamp(insertEvent, i++, ovent.getEventAckTime());
+                    setInteger(insertEvent, i++, ovent.getNode() == null ? null : ovent.getNode().getId());
+                    insertEvent.addBatch();
+
+                    final List<OnmsEventParameter> parameters = ovent.getEventParameters();
+                    if (parameters != null) {
+                        // The parameters are sorted by position
+                        for (int position = 0; position < parameters.size(); position++) {
+                            final OnmsEventParameter parameter = parameters.get(position);
+                            insertParameter.setInt(1, ovent.getId());
+                            insertParameter.setString(2, parameter.getName());
+                            insertParameter.setString(3, parameter.getValue());
+                            insertParameter.setString(4, parameter.getType());
+                            insertParameter.setInt(5, position);
+                            insertParameter.addBatch();
+                            numParameters++;
+                        }
+                    }
+                }
+                insertEvent.executeBatch();
+                if (numParameters > 0) {
+                    insertParameter.executeBatch();
+                }
+            }
+        });
+    }
+
+    private static void setInteger(final PreparedStatement statement, final int index, final Integer value) throws SQLException {
+        if (value == null) {
+            statement.setNull(index, Types.INTEGER);
+        } else {
+            statement.setInt(index, value);
+        }
+    }
+
+    private static void setTimestamp(final PreparedStatement statement, final int index, final Date value) throws SQLException {
+        statement.setTimestamp(index, value == null ? null : new Timestamp(value.getTime()));
+    }
+
     /**
      * Creates OnmsEvent to be inserted afterwards.
      * 
@@ -405,4 +650,140 @@ public class HibernateEventWriter implements EventWriter {
     public void setTransactionManager(TransactionOperations transactionManager) {
         m_transactionManager = transactionManager;
     }
+
+    public void setSessionFactory(SessionFactory sessionFactory) {
+        m_sessionFactory = sessionFactory;
+    }
+
+    public boolean isBatching() {
+        return m_batching;
+    }
+
+    public void setBatching(boolean batching) {
+        m_batching = batching;
+    }
+
+    public int getBatchSize() {
+        return m_batchSize;
+    }
+
+    /**
+     * @param batchSize the number of events after which a batch is flushed
+     */
+    public void setBatchSize(int batchSize) {
+        Assert.isTrue(batchSize > 0, "batchSize must be positive");
+        m_batchSize = batchSize;
+    }
+
+    public long getBatchWindow() {
+        return m_batchWindow;
+    }
+
+    /**
+     * @param batchWindow the number of milliseconds to wait for more events before
+     *        flushing a batch that isn't full, 0 to flush as soon as the previous
+     *        batch was written
+     */
+    public void setBatchWindow(long batchWindow) {
+        Assert.isTrue(batchWindow >= 0, "batchWindow must not be negative");
+        m_batchWindow = batchWindow;
+    }
+
+    private static class PendingWrite {
+        private final Header header;
+        private final List<Event> events;
+        private final CompletableFuture<List<Event>> future = new CompletableFuture<>();
+        private EventProcessorException exception;
+
+        private PendingWrite(Header header, List<Event> events) {
+            this.header = header;
+            this.events = events;
+        }
+    }
+
+    /**
+     * Groups the pending writes into batches and persists them.
+     */
+    private class Batcher implements Runnable {
+        private final BlockingQueue<PendingWrite> m_pending = new LinkedBlockingQueue<>();
+        private final Thread m_thread;
+        private volatile boolean m_running = true;
+
+        private Batcher() {
+            m_thread = new LogPreservingThreadFactory(HibernateEventWriter.class.getSimpleName(), 1).newThread(this);
+            m_thread.setDaemon(true);
+            m_thread.start();
+        }
+
+        private void enqueue(PendingWrite write) {
+            m_pending.add(write);
+            if (!m_running) {
+                // We're shutting down, and the batcher may already be gone
+                drain();
+            }
+        }
+
+        private int getPendingCount() {
+            return m_pending.size();
+        }
+
+        @Override
+        public void run() {
+            while (m_running) {
+                try {
+                    final PendingWrite first = m_pending.poll(100, TimeUnit.MILLISECONDS);
+                    if (first == null) {
+                        continue;
+                    }
+
+                    final List<PendingWrite> batch = new ArrayList<>();
+                    batch.add(first);
+                    int numEvents = first.events.size();
+                    final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(m_batchWindow);
+                    while (numEvents < m_batchSize) {
+                        PendingWrite next = m_pending.poll();
+                        if (next == null) {
+                            final long remaining = deadline - System.nanoTime();
+                            if (remaining <= 0 || (next = m_pending.poll(remaining, TimeUnit.NANOSECONDS)) == null) {
+                                break;
+                            }
+                        }
+                        batch.add(next);
+                        numEvents += next.events.size();
+                    }
+                    flush(batch, numEvents);
+                } catch (InterruptedException e) {
+                    break;
+                }
+            }
+            drain();
+        }
+
+        private void flush(List<PendingWrite> batch, int numEvents) {
+            try (Context context = flushTimer.time()) {
+                write(batch);
+            } catch (Throwable t) {
+                LOG.error("Unexpected exception while persisting a batch of {} events.", numEvents, t);
+                batch.forEach(write -> write.future.completeExceptionally(t));
+            }
+            batchSizes.update(numEvents);
+        }
+
+        private void drain() {
+            PendingWrite write;
+            while ((write = m_pending.poll()) != null) {
+                flush(Collections.singletonList(write), write.events.size());
+            }
+        }
+
+        private void stop() {
+            m_running = false;
+            try {
+                m_thread.join(TimeUnit.SECONDS.toMillis(30));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            drain();
+        }
+    }
 }
@@ -774,6 +774,81 @@ public class EventIpcManagerDefaultImplTest extends TestCase {
         assertEquals(1, counter.get());
     }
 
+    public void testRingBufferBroadcastNowSync() throws InterruptedException {
+        final AtomicInteger counter = new AtomicInteger();
+        final EventListener slowListener = new EventListener() {
+            @Override
+            public String getName() {
+                return "testRingBufferBroadcastNowSync";
+            }
+
+            @Override
+            public void onEvent(IEvent event) {
+                try {
+                    Thread.sleep(TimeUnit.SECONDS.toMillis(2));
+                } catch (InterruptedException e) {
+                }
+                counter.incrementAndGet();
+            }
+        };
+
+        EventIpcManagerDefaultImpl manager = new EventIpcManagerDefaultImpl(m_registry);
+        manager.setBroadcaster("ring-buffer");
+        manager.setRingBufferSize(16);
+        manager.setHandlerPoolSize(5);
+        DefaultEventHandlerImpl handler = new DefaultEventHandlerImpl(m_registry);
+        manager.setEventHandler(handler);
+        manager.afterPropertiesSet();
+
+        manager.addEventListener(slowListener, "uei.opennms.org/");
+
+        EventBuilder bldr = new EventBuilder("uei.opennms.org/foo", "testRingBufferBroadcastNowSync");
+        Event e = bldr.getEvent();
+
+        // Broadcast synchronously - this should block until our event listener returns
+        manager.broadcastNow(e, true);
+        assertEquals(1, counter.get());
+
+        // Events for other UEIs are not delivered
+        manager.broadcastNow(new EventBuilder("uei.foo.org/bar", "testRingBufferBroadcastNowSync").getEvent(), true);
+        assertEquals(1, counter.get());
+
+        // The lag of each listener is exposed
+        assertEquals(0L, m_registry.getGauges().get("eventlisteners.testRingBufferBroadcastNowSync.lag").getValue());
+
+        manager.removeEventListener(slowListener);
+        assertFalse(m_registry.getGauges().containsKey("eventlisteners.testRingBufferBroadcastNowSync.lag"));
+    }
+
+    public void testRingBufferStoppedOnDestroy() throws InterruptedException {
+        final AtomicReference<Thread> listenerThread = new AtomicReference<>();
+        final EventListener listener = new EventListener() {
+            @Override
+            public String getName() {
+                return "testRingBufferStoppedOnDestroy";
+            }
+
+            @Override
+            public void onEvent(IEvent event) {
+                listenerThread.set(Thread.currentThread());
+            }
+        };
+
+        EventIpcManagerDefaultImpl manager = new EventIpcManagerDefaultImpl(m_registry);
+        manager.setBroadcaster("ring-buffer");
+        manager.setRingBufferSize(16);
+        manager.setHandlerPoolSize(5);
+        manager.setEventHandler(new DefaultEventHandlerImpl(m_registry));
+        manager.afterPropertiesSet();
+
+        manager.addEventListener(listener, "uei.opennms.org/");
+        manager.broadcastNow(new EventBuilder("uei.opennms.org/foo", "testRingBufferStoppedOnDestroy").getEvent(), true);
+        assertTrue(listenerThread.get().isAlive());
+
+        manager.destroy();
+        assertFalse(listenerThread.get().isAlive());
+    }
+
     private static class MultiThreadedEventListener implements ThreadAwareEventListener, EventListener {
         private final ThreadLocker locker;
         private final int numThreads;
@@ -0,0 +1,344 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.eventd;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.netmgt.eventd.EventListenerRingBuffer.BackpressurePolicy;
+import org.opennms.netmgt.events.api.EventListener;
+import org.opennms.netmgt.events.api.ThreadAwareEventListener;
+import org.opennms.netmgt.events.api.model.IEvent;
+import org.opennms.netmgt.events.api.model.ImmutableMapper;
+import org.opennms.netmgt.model.events.EventBuilder;
+
+public class EventListenerRingBufferTest {
+
+    private EventListenerRingBuffer m_ringBuffer;
+
+    @After
+    public void tearDown() {
+        if (m_ringBuffer != null) {
+            m_ringBuffer.stop();
+        }
+    }
+
+    @Test
+    public void canDeliverToTargetedListenersOnly() {
+        m_ringBuffer = new EventListenerRingBuffer(8, BackpressurePolicy.BLOCK, Collections.emptyList());
+        final RecordingListener a = new RecordingListener("a");
+        final RecordingListener b = new RecordingListener("b");
+        m_ringBuffer.addListener(a);
+        m_ringBuffer.addListener(b);
+
+        // Publish more events than the ring can hold
+        for (int i = 0; i < 100; i++) {
+            m_ringBuffer.publish(event("uei.opennms.org/test/" + i), i % 2 == 0 ? listOf(a, b) : listOf(a), false);
+        }
+
+        await().atMost(10, TimeUnit.SECONDS).until(() -> a.getUeis().size(), equalTo(100));
+        await().atMost(10, TimeUnit.SECONDS).until(() -> b.getUeis().size(), equalTo(50));
+        assertThat(a.getUeis(), equalTo(IntStream.range(0, 100).mapToObj(i -> "uei.opennms.org/test/" + i).collect(Collectors.toList())));
+        assertThat(b.getUeis(), equalTo(IntStream.range(0, 100).filter(i -> i % 2 == 0).mapToObj(i -> "uei.opennms.org/test/" + i).collect(Collectors.toList())));
+        assertThat(m_ringBuffer.getDropped(), equalTo(0L));
+        await().atMost(10, TimeUnit.SECONDS).until(() -> m_ringBuffer.getLag("a"), equalTo(0L));
+    }
+
+    @Test
+    public void canWaitForCompletion() {
+        m_ringBuffer = new EventListenerRingBuffer(8, BackpressurePolicy.BLOCK, Collections.emptyList());
+        final RecordingListener a = new RecordingListener("a");
+        final RecordingListener b = new RecordingListener("b");
+        m_ringBuffer.addListener(a);
+        m_ringBuffer.addListener(b);
+
+        m_ringBuffer.publish(event("uei.opennms.org/test"), listOf(a, b), true).join();
+        assertThat(a.getUeis(), contains("uei.opennms.org/test"));
+        assertThat(b.getUeis(), contains("uei.opennms.org/test"));
+    }
+
+    @Test
+    public void blocksWhenFull() throws InterruptedException {
+        m_ringBuffer = new EventListenerRingBuffer(4, BackpressurePolicy.BLOCK, Collections.emptyList());
+        final BlockingListener listener = new BlockingListener("blocking");
+        m_ringBuffer.addListener(listener);
+
+        // The first event is held by the listener, the next four fill the ring
+        for (int i = 0; i < 5; i++) {
+            m_ringBuffer.publish(event("uei.opennms.org/test"), listOf(listener), false);
+        }
+        final CompletableFuture<Void> published = CompletableFuture.runAsync(() ->
+                m_ringBuffer.publish(event("uei.opennms.org/test"), listOf(listener), false));
+        Thread.sleep(200);
+        assertFalse("Publishing should block while the ring is full", published.isDone());
+        assertThat(m_ringBuffer.getLag("blocking"), equalTo(4L));
+
+        listener.release();
+        published.join();
+        await().atMost(10, TimeUnit.SECONDS).until(listener::getCount, equalTo(6));
+        assertThat(m_ringBuffer.getDropped("blocking"), equalTo(0L));
+    }
+
+    @Test
+    public void blockedPublisherDoesNotHoldTheLock() throws Exception {
+        m_ringBuffer = new EventListenerRingBuffer(4, BackpressurePolicy.BLOCK, Collections.emptyList());
+        final BlockingListener listener = new BlockingListener("blocking");
+        m_ringBuffer.addListener(listener);
+
+        for (int i = 0; i < 5; i++) {
+            m_ringBuffer.publish(event("uei.opennms.org/test"), listOf(listener), false);
+        }
+        final CompletableFuture<Void> published = CompletableFuture.runAsync(() ->
+                m_ringBuffer.publish(event("uei.opennms.org/test"), listOf(listener), false));
+        Thread.sleep(200);
+        assertFalse("Publishing should block while the ring is full", published.isDone());
+
+        // Listeners can still be added while the publisher waits for capacity
+        final RecordingListener added = new RecordingListener("added");
+        CompletableFuture.runAsync(() -> m_ringBuffer.addListener(added)).get(5, TimeUnit.SECONDS);
+        assertTrue(m_ringBuffer.hasListener("added"));
+
+        listener.release();
+        published.join();
+        await().atMost(10, TimeUnit.SECONDS).until(listener::getCount, equalTo(6));
+    }
+
+    @Test
+    public void stopWaitsForTheWorkers() {
+        m_ringBuffer = new EventListenerRingBuffer(8, BackpressurePolicy.BLOCK, Collections.emptyList());
+        final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        final CountDownLatch latch = new CountDownLatch(2);
+        final ThreadAwareListener listener = new ThreadAwareListener(2, threads, latch);
+        m_ringBuffer.addListener(listener);
+
+        m_ringBuffer.publish(event("uei.opennms.org/test"), listOf(listener), true).join();
+        m_ringBuffer.publish(event("uei.opennms.org/test"), listOf(listener), true).join();
+        assertThat(threads.size(), equalTo(2));
+
+        m_ringBuffer.stop();
+        assertFalse(m_ringBuffer.hasListener("threadAware"));
+        for (Thread thread : threads) {
+            assertFalse(thread.getName() + " should have been stopped", thread.isAlive());
+        }
+    }
+
+    @Test
+    public void dropsOldestWhenFull() {
+        m_ringBuffer = new EventListenerRingBuffer(4, BackpressurePolicy.DROP_OLDEST, Collections.emptyList());
+        final BlockingListener slow = new BlockingListener("slow");
+        final RecordingListener fast = new RecordingListener("fast");
+        m_ringBuffer.addListener(slow);
+        m_ringBuffer.addListener(fast);
+
+        for (int i = 0; i < 20; i++) {
+            m_ringBuffer.publish(event("uei.opennms.org/test/" + i), listOf(slow, fast), false);
+            // Let the fast listener keep up
+            final int published = i + 1;
+            await().atMost(10, TimeUnit.SECONDS).until(() -> fast.getUeis().size(), equalTo(published));
+        }
+
+        // The slow listener only sees the event it was blocked on and the last ones in the ring
+        slow.release();
+        await().atMost(10, TimeUnit.SECONDS).until(() -> m_ringBuffer.getLag("slow"), equalTo(0L));
+        assertTrue(slow.getCount() <= 5);
+        assertThat((long)slow.getCount() + m_ringBuffer.getDropped("slow"), equalTo(20L));
+        assertThat(m_ringBuffer.getDropped("fast"), equalTo(0L));
+    }
+
+    @Test
+    public void dropsByUeiWhenFull() {
+        m_ringBuffer = new EventListenerRingBuffer(4, BackpressurePolicy.DROP_BY_UEI, Collections.singletonList("uei.opennms.org/traps/"));
+        final BlockingListener listener = new BlockingListener("blocking");
+        m_ringBuffer.addListener(listener);
+
+        for (int i = 0; i < 5; i++) {
+            m_ringBuffer.publish(event("uei.opennms.org/test"), listOf(listener), false);
+        }
+        // The ring is full, so traps are dropped
+        m_ringBuffer.publish(event("uei.opennms.org/traps/linkDown"), listOf(listener), false);
+        assertThat(m_ringBuffer.getDropped("blocking"), equalTo(1L));
+
+        // But other events are not
+        final CompletableFuture<Void> published = CompletableFuture.runAsync(() ->
+                m_ringBuffer.publish(event("uei.opennms.org/test"), listOf(listener), false));
+        listener.release();
+        published.join();
+        await().atMost(10, TimeUnit.SECONDS).until(listener::getCount, equalTo(6));
+        assertThat(m_ringBuffer.getDropped(), equalTo(1L));
+    }
+
+    @Test
+    public void canDeliverOverMultipleThreads() throws InterruptedException {
+        m_ringBuffer = new EventListenerRingBuffer(16, BackpressurePolicy.BLOCK, Collections.emptyList());
+        final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        final CountDownLatch latch = new CountDownLatch(100);
+        final ThreadAwareListener listener = new ThreadAwareListener(4, threads, latch);
+        m_ringBuffer.addListener(listener);
+
+        for (int i = 0; i < 100; i++) {
+            m_ringBuffer.publish(event("uei.opennms.org/test"), listOf(listener), false);
+        }
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertThat(threads.size(), equalTo(4));
+    }
+
+    @Test
+    public void releasesCompletionWhenListenerIsRemoved() {
+        m_ringBuffer = new EventListenerRingBuffer(8, BackpressurePolicy.BLOCK, Collections.emptyList());
+        final BlockingListener listener = new BlockingListener("blocking");
+        m_ringBuffer.addListener(listener);
+
+        m_ringBuffer.publish(event("uei.opennms.org/test"), listOf(listener), false);
+        final CompletableFuture<Void> completion = m_ringBuffer.publish(event("uei.opennms.org/test"), listOf(listener), true);
+        await().atMost(10, TimeUnit.SECONDS).until(listener::isBlocked);
+        m_ringBuffer.removeListener(listener);
+        listener.release();
+        completion.join();
+        assertThat(listener.getCount(), equalTo(1));
+    }
+
+    private static IEvent event(String uei) {
+        return ImmutableMapper.fromMutableEvent(new EventBuilder(uei, "EventListenerRingBufferTest").getEvent());
+    }
+
+    private static List<EventListener> listOf(EventListener... listeners) {
+        final List<EventListener> list = new ArrayList<>();
+        Collections.addAll(list, listeners);
+        return list;
+    }
+
+    private static class RecordingListener implements EventListener {
+        private final String m_name;
+        private final List<String> m_ueis = Collections.synchronizedList(new ArrayList<>());
+
+        private RecordingListener(String name) {
+            m_name = name;
+        }
+
+        @Override
+        public String getName() {
+            return m_name;
+        }
+
+        @Override
+        public void onEvent(IEvent e) {
+            m_ueis.add(e.getUei());
+        }
+
+        public List<String> getUeis() {
+            synchronized (m_ueis) {
+                return new ArrayList<>(m_ueis);
+            }
+        }
+    }
+
+    private static class BlockingListener implements EventListener {
+        private final String m_name;
+        private final CountDownLatch m_latch = new CountDownLatch(1);
+        private volatile int m_count = 0;
+        private volatile boolean m_blocked = false;
+
+        private BlockingListener(String name) {
+            m_name = name;
+        }
+
+        @Override
+        public String getName() {
+            return m_name;
+        }
+
+        @Override
+        public void onEvent(IEvent e) {
+            m_blocked = true;
+            try {
+                m_latch.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            m_count++;
+        }
+
+        public void release() {
+            m_latch.countDown();
+        }
+
+        public int getCount() {
+            return m_count;
+        }
+
+        public boolean isBlocked() {
+            return m_blocked;
+        }
+    }
+
+    private static class ThreadAwareListener implements ThreadAwareEventListener, EventListener {
+        private final int m_numThreads;
+        private final Set<Thread> m_threads;
+        private final CountDownLatch m_latch;
+
+        private ThreadAwareListener(int numThreads, Set<Thread> threads, CountDownLatch latch) {
+            m_numThreads = numThreads;
+            m_threads = threads;
+            m_latch = latch;
+        }
+
+        @Override
+        public String getName() {
+            return "threadAware";
+        }
+
+        @Override
+        public void onEvent(IEvent e) {
+            m_threads.add(Thread.currentThread());
+            m_latch.countDown();
+        }
+
+        @Override
+        public int getNumThreads() {
+            return m_numThreads;
+        }
+    }
+}
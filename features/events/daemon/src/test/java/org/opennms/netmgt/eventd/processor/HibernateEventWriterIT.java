@@ -32,16 +32,20 @@ import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.greaterThanOrEqualTo;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.sql.SQLException;
 import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
+import org.hibernate.SessionFactory;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.opennms.core.test.OpenNMSJUnit4ClassRunner;
@@ -55,12 +59,16 @@ import org.opennms.netmgt.model.events.EventBuilder;
 import org.opennms.netmgt.snmp.SnmpUtils;
 import org.opennms.netmgt.snmp.SnmpValue;
 import org.opennms.netmgt.xml.event.Event;
+import org.opennms.netmgt.xml.event.Events;
 import org.opennms.netmgt.xml.event.Log;
 import org.opennms.test.JUnitConfigurationEnvironment;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationContext;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.test.context.ContextConfiguration;
 
+import com.codahale.metrics.MetricRegistry;
+
 /**
  * This class tests some of the quirky behaviors of persisting events.
  * 
@@ -92,6 +100,12 @@ public class HibernateEventWriterIT {
     @Autowired
     private JdbcTemplate jdbcTemplate;
 
+    @Autowired
+    private SessionFactory m_sessionFactory;
+
+    @Autowired
+    private ApplicationContext m_context;
+
     @Test
     public void testWriteEventWithParameters() throws Exception {
         final EventBuilder builder = new EventBuilder("testUei", "testSource");
@@ -129,6 +143,54 @@ public class HibernateEventWriterIT {
         assertEquals(longParamName, parameters.get(4).get("value"));
     }
 
+    /**
+     * Verifies that a batching writer inserts the events and their parameters
+     * with JDBC batches instead of saving them through Hibernate, and that their
+     * IDs don't collide with the events saved through Hibernate.
+     */
+    @Test
+    public void testEventInsertsAreBatched() throws Exception {
+        final HibernateEventWriter batchingWriter = new HibernateEventWriter(new MetricRegistry());
+        batchingWriter.setBatching(true);
+        m_context.getAutowireCapableBeanFactory().autowireBean(batchingWriter);
+        batchingWriter.afterPropertiesSet();
+
+        final Events events = new Events();
+        for (int i = 0; i < 10; i++) {
+            final EventBuilder builder = new EventBuilder("testUei", "testSource");
+            builder.setLogDest(HibernateEventWriter.LOG_MSG_DEST_LOG_AND_DISPLAY);
+            builder.addParam("param2", i);
+            builder.addParam("param1", "value" + i);
+            events.addEvent(builder.getEvent());
+        }
+        final Log log = new Log();
+        log.setEvents(events);
+
+        m_sessionFactory.getStatistics().clear();
+        m_sessionFactory.getStatistics().setStatisticsEnabled(true);
+        try {
+            batchingWriter.process(log);
+            assertEquals(0, m_sessionFactory.getStatistics().getEntityInsertCount());
+        } finally {
+            m_sessionFactory.getStatistics().setStatisticsEnabled(false);
+            batchingWriter.destroy();
+        }
+
+        final EventBuilder builder = new EventBuilder("testUei", "testSource");
+        builder.setLogDest(HibernateEventWriter.LOG_MSG_DEST_LOG_AND_DISPLAY);
+        m_eventWriter.process(builder.getLog());
+
+        final Set<Integer> ids = new HashSet<>();
+        ids.add(builder.getEvent().getDbid());
+        for (Event event : log.getEvents().getEventCollection()) {
+            assertNotNull(event.getDbid());
+            assertTrue(ids.add(event.getDbid()));
+            assertEquals("testSource", jdbcTemplate.queryForObject("SELECT eventSource FROM events WHERE eventID = " + event.getDbid(), String.class));
+            final List<String> names = jdbcTemplate.queryForList("SELECT name FROM event_parameters WHERE eventID = " + event.getDbid() + " ORDER BY position", String.class);
+            assertEquals(Arrays.asList("param2", "param1"), names);
+        }
+    }
+
     /**
      * In NMS-10525, we switched the event parameter name column from varchar(256) to text.
      *
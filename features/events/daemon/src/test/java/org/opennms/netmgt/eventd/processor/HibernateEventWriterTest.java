@@ -28,13 +28,24 @@
 
 package org.opennms.netmgt.eventd.processor;
 
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.reset;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.opennms.netmgt.events.api.EventProcessorException;
@@ -63,6 +74,11 @@ public class HibernateEventWriterTest {
         eventWriter.setTransactionManager(transactionManager);
     }
 
+    @After
+    public void tearDown() {
+        eventWriter.destroy();
+    }
+
     /**
      * Verifies that no transaction is opened when none of the events
      * in the event log need to be persisted.
@@ -116,4 +132,65 @@ public class HibernateEventWriterTest {
         eventWriter.process(log);
         verify(transactionManager, times(1)).execute(any());
     }
+
+    /**
+     * Verifies that the logs queued while a batch is being written
+     * are persisted together, in a single transaction.
+     */
+    @Test
+    public void testConcurrentLogsAreBatched() throws Exception {
+        eventWriter.setBatching(true);
+        eventWriter.afterPropertiesSet();
+
+        final AtomicInteger numTransactions = new AtomicInteger();
+        final CountDownLatch firstTransactionStarted = new CountDownLatch(1);
+        final CountDownLatch releaseFirstTransaction = new CountDownLatch(1);
+        when(transactionManager.execute(any())).thenAnswer(invocation -> {
+            if (numTransactions.incrementAndGet() == 1) {
+                firstTransactionStarted.countDown();
+                releaseFirstTransaction.await();
+            }
+            return null;
+        });
+
+        final List<CompletableFuture<List<Event>>> futures = new ArrayList<>();
+        futures.add(eventWriter.persistAsync(createLog()));
+        assertTrue(firstTransactionStarted.await(5, TimeUnit.SECONDS));
+
+        // These are queued while the first batch is being written
+        for (int i = 0; i < 3; i++) {
+            futures.add(eventWriter.persistAsync(createLog()));
+        }
+        releaseFirstTransaction.countDown();
+
+        for (CompletableFuture<List<Event>> future : futures) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        verify(transactionManager, times(2)).execute(any());
+    }
+
+    /**
+     * Verifies that no events are persisted once the writer was destroyed.
+     */
+    @Test
+    public void testPersistIsRejectedAfterDestroy() throws Exception {
+        eventWriter.setBatching(true);
+        eventWriter.afterPropertiesSet();
+        eventWriter.destroy();
+
+        try {
+            eventWriter.process(createLog());
+            fail("Expected the events to be rejected");
+        } catch (EventProcessorException e) {
+            // expected
+        }
+        assertTrue(eventWriter.persistAsync(createLog()).isCompletedExceptionally());
+        verify(transactionManager, never()).execute(any());
+    }
+
+    private static Log createLog() {
+        EventBuilder bldr = new EventBuilder("testUei", "testSource");
+        bldr.setLogDest(HibernateEventWriter.LOG_MSG_DEST_LOG_AND_DISPLAY);
+        return bldr.getLog();
+    }
 }
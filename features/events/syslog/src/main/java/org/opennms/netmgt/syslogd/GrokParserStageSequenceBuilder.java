@@ -318,7 +318,7 @@ public abstract class GrokParserStageSequenceBuilder {
 	private static BiConsumer<ParserState,String> semanticStringToField(String semanticString) {
 		// Discard this match
 		if (semanticString.equalsIgnoreCase(IGNORE_FIELD)) {
-			return (s, v) -> {};
+			return ParserStageSequenceBuilder.discard();
 		}
 
 		if (semanticString.startsWith(PARAMETER_PREFIX)) {
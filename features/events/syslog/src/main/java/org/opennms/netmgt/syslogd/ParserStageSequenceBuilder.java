@@ -30,6 +30,7 @@ package org.opennms.netmgt.syslogd;
 
 import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -83,31 +84,129 @@ public class ParserStageSequenceBuilder {
 		}
 	}
 
+	/**
+	 * A consumer that discards the values of its stage. In zero-copy mode,
+	 * these values are never materialized.
+	 */
+	private static final class Discard<R> implements BiConsumer<ParserState,R> {
+		@Override
+		public void accept(ParserState state, R value) {
+			// Do nothing
+		}
+	}
+
+	/**
+	 * Returns a consumer that discards the values of its stage. A new instance
+	 * is returned by each call so that stages using it never compare equal,
+	 * like the stages using any other consumer.
+	 */
+	public static <R> BiConsumer<ParserState,R> discard() {
+		return new Discard<>();
+	}
+
 	/**
 	 * The state of an individual {@link ParserStage} operation.
 	 */
 	private static class ParserStageState {
 		public final ByteBuffer buffer;
 
+		private final boolean zeroCopy;
+
 		private StringBuilder accumulatedValue = null;
 		private AtomicInteger accumulatedSize = null;
 
+		// Only used in zero-copy mode: the stages always accumulate a contiguous
+		// run of characters, so we only keep track of where it is in the buffer
+		private int accumulatedStart = -1;
+		private int accumulatedLength = 0;
+
 		// Only used by MatchMonth
 		public RadixTreeNode<CharacterWithValue> currentNode = null; 
 
 		public ParserStageState(ByteBuffer input) {
+			this(input, false);
+		}
+
+		public ParserStageState(ByteBuffer input, boolean zeroCopy) {
 			buffer = input;
+			this.zeroCopy = zeroCopy;
 		}
 
 		public void accumulate(char c) {
-			accessAccumulatedValue().append(c);
-			accessAccumulatedSize().incrementAndGet();
+			if (zeroCopy) {
+				// The character was just read from the buffer
+				if (accumulatedLength++ == 0) {
+					accumulatedStart = buffer.position() - 1;
+				}
+			} else {
+				accessAccumulatedValue().append(c);
+				accessAccumulatedSize().incrementAndGet();
+			}
 		}
 
 		public int getAccumulatedSize() {
+			if (zeroCopy) {
+				return accumulatedLength;
+			}
 			return accessAccumulatedSize().get();
 		}
 
+		public String getAccumulatedValue() {
+			if (zeroCopy) {
+				return accumulatedLength == 0 ? null : decode(buffer, accumulatedStart, accumulatedLength);
+			}
+			return accumulatedValue == null ? null : accumulatedValue.toString();
+		}
+
+		/**
+		 * Converts the accumulated digits to an integer without materializing
+		 * them, with the same results as {@link MatchInteger#trimAndConvert(String)}.
+		 */
+		public int getAccumulatedDecimalInt() {
+			if (accumulatedLength == 0) {
+				throw new NumberFormatException("No digits in value");
+			}
+			// Accumulate negatively like StringUtils.parseDecimalInt()
+			int retval = 0;
+			for (int i = accumulatedStart; i < accumulatedStart + accumulatedLength; i++) {
+				final int oldValue = retval;
+				final int digit = (char)buffer.get(i) - '0';
+				if (digit < 0 || digit > 9) {
+					throw new NumberFormatException("Invalid digit: " + (char)buffer.get(i));
+				}
+				retval = (retval * 10) - digit;
+				if (retval > oldValue) {
+					throw new NumberFormatException("Overflow");
+				}
+			}
+			return -retval;
+		}
+
+		/**
+		 * Decodes the characters the same way the stages read them, one byte per character.
+		 */
+		private static String decode(ByteBuffer buffer, int start, int length) {
+			if (buffer.hasArray()) {
+				final byte[] array = buffer.array();
+				final int offset = buffer.arrayOffset() + start;
+				boolean ascii = true;
+				for (int i = offset; i < offset + length; i++) {
+					if (array[i] < 0) {
+						ascii = false;
+						break;
+					}
+				}
+				if (ascii) {
+					return new String(array, offset, length, StandardCharsets.ISO_8859_1);
+				}
+			}
+			final char[] chars = new char[length];
+			for (int i = 0; i < length; i++) {
+				chars[i] = (char)buffer.get(start + i);
+			}
+			return new String(chars);
+		}
+
 		private final StringBuilder accessAccumulatedValue() {
 			if (accumulatedValue == null) {
 				accumulatedValue = new StringBuilder();
@@ -124,9 +223,10 @@ public class ParserStageSequenceBuilder {
 
 		@Override
 		public String toString() {
+			final String value = getAccumulatedValue();
 			return new ToStringBuilder(this, ToStringStyle.SHORT_PREFIX_STYLE)
-				.append("accumulatedValue", accumulatedValue == null ? "null" : accumulatedValue.toString())
-				.append("accumulatedSize", accumulatedSize == null ? 0 : accumulatedSize.get())
+				.append("accumulatedValue", value == null ? "null" : value)
+				.append("accumulatedSize", zeroCopy ? accumulatedLength : accumulatedSize == null ? 0 : accumulatedSize.get())
 				.toString();
 		}
 	}
@@ -341,16 +441,24 @@ public class ParserStageSequenceBuilder {
 			if (incomingState == null) {
 				return null;
 			} else {
-				LOG.trace("Starting stage: " + this);
+				LOG.trace("Starting stage: {}", this);
 			}
 
-			ParserState state = incomingState.clone();
+			// In zero-copy mode, the stages that don't consume their value never
+			// modify the message so they can share it with the incoming state
+			ParserState state = incomingState.isZeroCopy() && (m_resultConsumer == null || m_resultConsumer instanceof Discard) ?
+				incomingState.duplicate() :
+				incomingState.clone();
 
 			// Create a new state for the current ParserStage.
 			// Use ByteBuffer.duplicate() to create a buffer with marks
 			// and positions that only this stage will use.
 //			ParserStageState stageState = new ParserStageState(state.getBuffer().duplicate()); 
-			ParserStageState stageState = new ParserStageState(state.getBuffer()); 
+			// The state was cloned above so its buffer can be used directly in
+			// zero-copy mode, without wrapping it in a read-only buffer
+			ParserStageState stageState = state.isZeroCopy() ?
+				new ParserStageState(state.getSourceBuffer(), true) :
+				new ParserStageState(state.getBuffer());
 
 			while(true) {
 				stageState.buffer.mark();
@@ -361,14 +469,14 @@ public class ParserStageSequenceBuilder {
 				} catch (BufferUnderflowException e) {
 					if (m_terminal) {
 						if (m_resultConsumer != null) {
-							m_resultConsumer.accept(state, getValue(stageState));
+							m_resultConsumer.accept(state, getValue(state, stageState));
 						}
 
 //						// Reset any local state if necessary
 //						reset(stageState);
 
 						LOG.trace("End of buffer with terminal match");
-						return new ParserState(stageState.buffer, state.message);
+						return new ParserState(stageState.buffer, state.message, state.isZeroCopy());
 					} else if (m_optional) {
 //						// TODO: Should we reset the buffer here? It probably
 //						// doesn't matter since we're at the end of the buffer.
@@ -378,10 +486,10 @@ public class ParserStageSequenceBuilder {
 //						reset(stageState);
 
 						LOG.trace("End of buffer with optional match");
-						return new ParserState(stageState.buffer, state.message);
+						return new ParserState(stageState.buffer, state.message, state.isZeroCopy());
 					} else {
 						// Reached end of buffer, match failed
-						LOG.trace("Parse failed due to buffer underflow: " + this);
+						LOG.trace("Parse failed due to buffer underflow: {}", this);
 						return null;
 					}
 				}
@@ -392,7 +500,7 @@ public class ParserStageSequenceBuilder {
 					case COMPLETE_AFTER_CONSUMING:
 						if (m_resultConsumer != null) {
 							try {
-								m_resultConsumer.accept(state, getValue(stageState));
+								m_resultConsumer.accept(state, getValue(state, stageState));
 							} catch (Exception e) {
 								// Conversion to value failed
 								LOG.trace("Parse failed on result consumer: {}", stageState, e);
@@ -403,11 +511,11 @@ public class ParserStageSequenceBuilder {
 //						// Reset any local state if necessary
 //						reset(stageState);
 
-						return new ParserState(stageState.buffer, state.message);
+						return new ParserState(stageState.buffer, state.message, state.isZeroCopy());
 					case COMPLETE_WITHOUT_CONSUMING:
 						if (m_resultConsumer != null) {
 							try {
-								m_resultConsumer.accept(state, getValue(stageState));
+								m_resultConsumer.accept(state, getValue(state, stageState));
 							} catch (Exception e) {
 								// Conversion to value failed
 								LOG.trace("Parse failed on result consumer: {}", stageState, e);
@@ -421,7 +529,7 @@ public class ParserStageSequenceBuilder {
 						// Move the mark back before the current character
 						stageState.buffer.reset();
 
-						return new ParserState(stageState.buffer, state.message);
+						return new ParserState(stageState.buffer, state.message, state.isZeroCopy());
 					case CANCEL:
 						if (m_optional) {
 							stageState.buffer.reset();
@@ -429,7 +537,7 @@ public class ParserStageSequenceBuilder {
 							// Reset any local state if necessary
 							reset(stageState);
 
-							return new ParserState(stageState.buffer, state.message);
+							return new ParserState(stageState.buffer, state.message, state.isZeroCopy());
 						} else {
 							// Match failed
 							LOG.trace("Parse failed: {}", this);
@@ -443,6 +551,13 @@ public class ParserStageSequenceBuilder {
 			// Do nothing by default
 		}
 
+		private R getValue(ParserState state, ParserStageState stageState) {
+			if (state.isZeroCopy() && m_resultConsumer instanceof Discard) {
+				return null;
+			}
+			return getValue(stageState);
+		}
+
 		protected static void accumulate(ParserStageState state, char c) {
 			state.accumulate(c);
 		}
@@ -452,12 +567,7 @@ public class ParserStageSequenceBuilder {
 		}
 
 		protected static String getAccumulatedValue(ParserStageState state) {
-			final StringBuilder accumulatedValue = state.accumulatedValue;
-			if (accumulatedValue == null) {
-				return null;
-			} else {
-				return accumulatedValue.toString();
-			}
+			return state.getAccumulatedValue();
 		}
 
 		protected R getValue(ParserStageState state) {
@@ -1010,6 +1120,9 @@ public class ParserStageSequenceBuilder {
 
 		@Override
 		public Integer getValue(ParserStageState state) {
+			if (state.zeroCopy) {
+				return state.getAccumulatedDecimalInt();
+			}
 			return trimAndConvert(getAccumulatedValue(state));
 		}
 
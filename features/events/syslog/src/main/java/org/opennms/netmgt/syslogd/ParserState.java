@@ -43,18 +43,34 @@ public class ParserState implements Cloneable {
 
 	private final static Logger LOG = LoggerFactory.getLogger(ParserState.class);
 
+	/**
+	 * System property used to enable the zero-copy parse mode by default.
+	 */
+	public static final String ZERO_COPY_PROPERTY = "org.opennms.syslogd.parser.zeroCopy";
+
 	private final ByteBuffer buffer;
 
 	// TODO: Replace with a strategy
 	public final SyslogMessage message;
 
+	private final boolean zeroCopy;
+
 	public ParserState(ByteBuffer input) {
-		this(input, new SyslogMessage());
+		this(input, false);
+	}
+
+	public ParserState(ByteBuffer input, boolean zeroCopy) {
+		this(input, new SyslogMessage(), zeroCopy);
 	}
 
 	public ParserState(ByteBuffer input, SyslogMessage message) {
+		this(input, message, false);
+	}
+
+	public ParserState(ByteBuffer input, SyslogMessage message, boolean zeroCopy) {
 		this.buffer = input;
 		this.message = message;
+		this.zeroCopy = zeroCopy;
 	}
 
 	public ByteBuffer getBuffer() {
@@ -62,6 +78,23 @@ public class ParserState implements Cloneable {
 		return buffer.asReadOnlyBuffer();
 	}
 
+	/**
+	 * In zero-copy mode, the {@link ParserStage} objects track the values they
+	 * match as ranges of the buffer, and only materialize the values they hand
+	 * over to their consumers, straight from the backing array of the buffer.
+	 */
+	public boolean isZeroCopy() {
+		return zeroCopy;
+	}
+
+	/**
+	 * @return the buffer itself, without the read-only view returned by
+	 * {@link #getBuffer()}, so that its backing array can be accessed
+	 */
+	ByteBuffer getSourceBuffer() {
+		return buffer;
+	}
+
 	@Override
 	public String toString() {
 		return new ToStringBuilder(this)
@@ -69,9 +102,16 @@ public class ParserState implements Cloneable {
 			.toString();
 	}
 	
+	/**
+	 * Like {@link #clone()}, but shares the message with this state.
+	 */
+	ParserState duplicate() {
+		return new ParserState(buffer.duplicate(), message, zeroCopy);
+	}
+
 	@Override
 	public ParserState clone() {
-		ParserState retval = new ParserState(buffer.duplicate(), message.clone());
+		ParserState retval = new ParserState(buffer.duplicate(), message.clone(), zeroCopy);
 		LOG.trace("ORIGINAL: {}", this);
 		LOG.trace("CLONE   : {}", retval);
 		return retval;
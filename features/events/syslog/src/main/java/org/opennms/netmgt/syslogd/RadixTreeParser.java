@@ -74,6 +74,8 @@ public class RadixTreeParser implements ByteBufferParser<SyslogMessage> {
 
 	final RadixTree<ParserStage> tree = new RadixTreeImpl<>();
 
+	private boolean m_zeroCopy = Boolean.getBoolean(ParserState.ZERO_COPY_PROPERTY);
+
 //	private static final ThreadPoolExecutor m_executor = new ThreadPoolExecutor(
 //		1,
 //		1,
@@ -112,6 +114,17 @@ public class RadixTreeParser implements ByteBufferParser<SyslogMessage> {
 		tree.addChildren(stages);
 	}
 
+	/**
+	 * @see ParserState#isZeroCopy()
+	 */
+	public boolean isZeroCopy() {
+		return m_zeroCopy;
+	}
+
+	public void setZeroCopy(boolean zeroCopy) {
+		m_zeroCopy = zeroCopy;
+	}
+
 	public void performEdgeCompression() {
 		for (RadixTreeNode<ParserStage> child : tree.getChildren()) {
 			compressNode(child);
@@ -182,7 +195,7 @@ public class RadixTreeParser implements ByteBufferParser<SyslogMessage> {
 
 	@Override
 	public CompletableFuture<SyslogMessage> parse(ByteBuffer incoming) {
-		ParserState state = new ParserState(incoming);
+		ParserState state = new ParserState(incoming, m_zeroCopy);
 
 		// TODO: Use better collection than ArrayList?
 		// We have to make sure that this list maintains the insertion order
@@ -41,15 +41,28 @@ public class SingleSequenceParser implements ByteBufferParser<SyslogMessage> {
 
 	private final List<ParserStage> m_stages;
 
+	private boolean m_zeroCopy = Boolean.getBoolean(ParserState.ZERO_COPY_PROPERTY);
+
 	public SingleSequenceParser(List<ParserStage> stages) {
 		m_stages = Collections.unmodifiableList(stages);
 	}
 
+	/**
+	 * @see ParserState#isZeroCopy()
+	 */
+	public boolean isZeroCopy() {
+		return m_zeroCopy;
+	}
+
+	public void setZeroCopy(boolean zeroCopy) {
+		m_zeroCopy = zeroCopy;
+	}
+
 	@Override
 	public CompletableFuture<SyslogMessage> parse(ByteBuffer incoming) {
 
 		// Put all mutable parts of the parse operation into a state object
-		final ParserState state = new ParserState(incoming);
+		final ParserState state = new ParserState(incoming, m_zeroCopy);
 
 		CompletableFuture<ParserState> future = CompletableFuture.completedFuture(state);
 
@@ -31,9 +31,11 @@ package org.opennms.netmgt.syslogd;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
@@ -460,6 +462,41 @@ public class BufferParserTest {
 		assertEquals("foo%d", event.getParm("process").getValue().getContent());
 	}
 
+	/**
+	 * Verifies that the zero-copy parse mode gives the same results as the
+	 * default mode on the test corpus, encoded as ASCII and as UTF-8.
+	 */
+	@Test
+	public void testZeroCopyParse() {
+		final RadixTreeParser radixParser = SyslogdTestUtils.getDefaultRadixTreeParser();
+		int numParsed = 0;
+		for (String syslog : SyslogdTestUtils.getSyslogMessages()) {
+			for (Charset charset : new Charset[] { StandardCharsets.US_ASCII, StandardCharsets.UTF_8 }) {
+				final ByteBuffer incoming = SyslogdTestUtils.toByteBuffer(syslog, charset);
+
+				radixParser.setZeroCopy(false);
+				final SyslogMessage expected = radixParser.parse(incoming.duplicate()).join();
+				radixParser.setZeroCopy(true);
+				final SyslogMessage actual = radixParser.parse(incoming.duplicate()).join();
+
+				if (expected == null) {
+					assertNull(syslog, actual);
+				} else {
+					assertNotNull(syslog, actual);
+					assertEquals(syslog, describe(expected), describe(actual));
+					numParsed++;
+				}
+			}
+		}
+		assertTrue(numParsed > 0);
+	}
+
+	private static String describe(SyslogMessage message) {
+		// Skip the identity hash code
+		final String description = message.toString();
+		return description.substring(description.indexOf('['));
+	}
+
 	/**
 	 * The cause of NMS-9522 was that the parser tree generation
 	 * was considering the {@code %{STRING:timezone}} and 
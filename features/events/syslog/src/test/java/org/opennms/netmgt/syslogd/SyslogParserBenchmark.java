@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.syslogd;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Compares the default and the zero-copy parse modes of the {@link RadixTreeParser}
+ * on the messages of the <i>syslogMessages.txt</i> test corpus.
+ *
+ * Run it with the {@link #main(String[])} method from the test classpath, which
+ * also reports the allocation rates of both modes.
+ */
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class SyslogParserBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class CorpusState {
+        @Param({"false", "true"})
+        public boolean zeroCopy;
+
+        RadixTreeParser parser;
+        List<ByteBuffer> messages;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            parser = SyslogdTestUtils.getDefaultRadixTreeParser();
+            parser.setZeroCopy(zeroCopy);
+            messages = SyslogdTestUtils.getSyslogMessages().stream()
+                    .map(syslog -> SyslogdTestUtils.toByteBuffer(syslog, StandardCharsets.UTF_8))
+                    .collect(Collectors.toList());
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        int index;
+
+        ByteBuffer nextMessage(List<ByteBuffer> messages) {
+            index = (index + 1) % messages.size();
+            return messages.get(index).duplicate();
+        }
+    }
+
+    /**
+     * Time taken to parse a message of the corpus.
+     */
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public SyslogMessage parse(CorpusState state, ThreadState threadState) {
+        return state.parser.parse(threadState.nextMessage(state.messages)).join();
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(SyslogParserBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
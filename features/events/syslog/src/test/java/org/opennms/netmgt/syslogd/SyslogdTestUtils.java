@@ -28,9 +28,15 @@
 
 package org.opennms.netmgt.syslogd;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.stream.Collectors;
 
 /**
  * This class provides utility methods for the Syslogd tests.
@@ -61,4 +67,39 @@ public abstract class SyslogdTestUtils {
     public static ByteBuffer toByteBuffer(String string, Charset charset) {
         return ByteBuffer.wrap(string.getBytes(charset));
     }
+
+    /**
+     * @return the messages of the <i>syslogMessages.txt</i> test corpus
+     */
+    public static List<String> getSyslogMessages() {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                SyslogdTestUtils.class.getResourceAsStream("/syslogMessages.txt"), StandardCharsets.UTF_8))) {
+            return reader.lines()
+                // Ignore comments and blank lines
+                .filter(syslog -> syslog.trim().length() > 0 && !syslog.trim().startsWith("#"))
+                // Replace the "\u0000" and "\uFEFF" tokens, see ConvertToEventTest
+                .map(syslog -> syslog.replaceAll("\\\\u0000", "\u0000").replaceAll("\\\\uFEFF", "\uFEFF"))
+                .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * @return a parser that was taught the default <i>grok-patterns.txt</i>
+     */
+    public static RadixTreeParser getDefaultRadixTreeParser() {
+        final RadixTreeParser radixParser = new RadixTreeParser();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                RadixTreeParser.class.getClassLoader().getResourceAsStream("org/opennms/netmgt/syslogd/grok-patterns.txt")))) {
+            reader.lines()
+                // Ignore comments and blank lines
+                .filter(pattern -> pattern.trim().length() > 0 && !pattern.trim().startsWith("#"))
+                .forEach(pattern -> radixParser.teach(GrokParserStageSequenceBuilder.parseGrok(pattern).toArray(new ParserStage[0])));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        radixParser.performEdgeCompression();
+        return radixParser;
+    }
 }
@@ -0,0 +1,276 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import org.opennms.netmgt.flows.classification.ClassificationEngine;
+import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.ClassificationRuleProvider;
+import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.internal.classifier.CombinedClassifier;
+import org.opennms.netmgt.flows.classification.internal.index.IpPrefixTrie;
+import org.opennms.netmgt.flows.classification.internal.index.PortIntervalIndex;
+import org.opennms.netmgt.flows.classification.internal.value.IpValue;
+import org.opennms.netmgt.flows.classification.internal.value.PortValue;
+import org.opennms.netmgt.flows.classification.internal.value.StringValue;
+import org.opennms.netmgt.flows.classification.persistence.api.Protocol;
+import org.opennms.netmgt.flows.classification.persistence.api.Protocols;
+import org.opennms.netmgt.flows.classification.persistence.api.Rule;
+import org.opennms.netmgt.flows.classification.persistence.api.RuleDefinition;
+import org.opennms.netmgt.flows.classification.persistence.api.RulePositionComparator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Lists;
+
+/**
+ * {@link ClassificationEngine} which compiles the rule set into a multi-level index: protocol first,
+ * then src and dst port intervals, then src and dst address prefixes.
+ *
+ * Each level yields the set of rules which may match a request, so classifying a flow is a handful of
+ * lookups and bitset intersections, followed by running the matchers of the few remaining candidates.
+ * The results are identical to the ones of the {@link DefaultClassificationEngine}.
+ *
+ * The compiled index is immutable and swapped atomically on {@link #reload()}, so flows can be
+ * classified while the rules are being reloaded without any locking. Reloads are serialized, so that
+ * the rules loaded last are the ones that stay in place.
+ */
+public class CompiledClassificationEngine implements ClassificationEngine {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompiledClassificationEngine.class);
+
+    private final ClassificationRuleProvider ruleProvider;
+    private final FilterService filterService;
+
+    private volatile CompiledRules compiledRules = new CompiledRules(Collections.emptyList(), Collections.emptyList());
+
+    public CompiledClassificationEngine(final ClassificationRuleProvider ruleProvider, final FilterService filterService) {
+        this(ruleProvider, filterService, true);
+    }
+
+    public CompiledClassificationEngine(final ClassificationRuleProvider ruleProvider, final FilterService filterService, final boolean initialize) {
+        this.ruleProvider = Objects.requireNonNull(ruleProvider);
+        this.filterService = Objects.requireNonNull(filterService);
+        if (initialize) {
+            this.reload();
+        }
+    }
+
+    @Override
+    public synchronized void reload() {
+        // Load all rules and validate them
+        final List<Rule> validRules = Lists.newArrayList();
+        final List<Rule> invalidRules = Lists.newArrayList();
+        ruleProvider.getRules().forEach(rule -> {
+            try {
+                new CombinedClassifier(rule, filterService);
+                validRules.add(rule);
+            } catch (Exception ex) {
+                LOG.error("Rule {} is not valid. Ignoring rule.", rule, ex);
+                invalidRules.add(rule);
+            }
+        });
+
+        final List<CompiledRule> rules = new ArrayList<>();
+        for (RuleDefinition rule : DefaultClassificationEngine.expandOmnidirectionalRules(validRules)) {
+            rules.add(new CompiledRule(rule, new CombinedClassifier(rule, filterService), rules.size()));
+        }
+
+        final CompiledRules compiledRules = new CompiledRules(rules, invalidRules);
+        LOG.debug("Compiled {} rules into {} src port and {} dst port segments",
+                rules.size(), compiledRules.srcPorts.getSegmentCount(), compiledRules.dstPorts.getSegmentCount());
+        this.compiledRules = compiledRules;
+    }
+
+    @Override
+    public List<Rule> getInvalidRules() {
+        return compiledRules.invalidRules;
+    }
+
+    @Override
+    public String classify(ClassificationRequest request) {
+        final CompiledRules compiledRules = this.compiledRules;
+        final int srcPort = request.getSrcPort();
+        final int dstPort = request.getDstPort();
+
+        final BitSet candidates = (BitSet) compiledRules.getProtocolRules(request.getProtocol()).clone();
+        candidates.and(compiledRules.srcPorts.lookup(srcPort));
+        candidates.and(compiledRules.dstPorts.lookup(dstPort));
+        candidates.and(compiledRules.srcAddresses.lookup(request.getSrcAddress()));
+        candidates.and(compiledRules.dstAddresses.lookup(request.getDstAddress()));
+
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            if (!compiledRules.matches(i, request)) {
+                continue;
+            }
+            // Rules sharing the same position are ordered by their appearance in the port buckets of the
+            // DefaultClassificationEngine, where rules of the src port bucket precede the ones of the dst port bucket
+            final BitSet srcPortRules = compiledRules.portBuckets.lookup(srcPort);
+            if (srcPortRules.get(i)) {
+                return compiledRules.getName(i);
+            }
+            for (int j = candidates.nextSetBit(i + 1); j >= 0 && j < compiledRules.tieEnd[i]; j = candidates.nextSetBit(j + 1)) {
+                if (srcPortRules.get(j) && compiledRules.matches(j, request)) {
+                    return compiledRules.getName(j);
+                }
+            }
+            return compiledRules.getName(i);
+        }
+
+        // We return null instead of 'Undefined', to let the caller decide what an unmapped definition should be named
+        return null;
+    }
+
+    private static class CompiledRule {
+        private final RuleDefinition definition;
+        private final CombinedClassifier classifier;
+        private final int index;
+
+        private CompiledRule(RuleDefinition definition, CombinedClassifier classifier, int index) {
+            this.definition = definition;
+            this.classifier = classifier;
+            this.index = index;
+        }
+
+        private boolean isAnyPort() {
+            return !definition.hasSrcPortDefinition() && !definition.hasDstPortDefinition();
+        }
+    }
+
+    private static class CompiledRules {
+        // Ordered by position, rules not bound to any port last and finally by their order of definition
+        private final CompiledRule[] rules;
+        // (rule) -> first rule which does not share the position of the rule
+        private final int[] tieEnd;
+        private final List<Rule> invalidRules;
+
+        // (protocol) -> rules
+        private final Map<Integer, BitSet> protocolRules = new HashMap<>();
+        private final BitSet anyProtocolRules = new BitSet();
+        private final PortIntervalIndex srcPorts;
+        private final PortIntervalIndex dstPorts;
+        // (port) -> rules, mimicking the port mapping of the DefaultClassificationEngine
+        private final PortIntervalIndex portBuckets;
+        private final IpPrefixTrie srcAddresses;
+        private final IpPrefixTrie dstAddresses;
+
+        private CompiledRules(List<CompiledRule> rules, List<Rule> invalidRules) {
+            final Comparator<RuleDefinition> positionComparator = new RulePositionComparator();
+            final Comparator<CompiledRule> comparator = Comparator.<CompiledRule, RuleDefinition>comparing(r -> r.definition, positionComparator)
+                    .thenComparing(CompiledRule::isAnyPort)
+                    .thenComparingInt(r -> r.index);
+            this.rules = rules.stream().sorted(comparator).toArray(CompiledRule[]::new);
+            this.invalidRules = Collections.unmodifiableList(new ArrayList<>(invalidRules));
+
+            this.tieEnd = new int[this.rules.length];
+            for (int i = this.rules.length - 1; i >= 0; i--) {
+                this.tieEnd[i] = i + 1 < this.rules.length && positionComparator.compare(this.rules[i].definition, this.rules[i + 1].definition) == 0
+                        ? this.tieEnd[i + 1]
+                        : i + 1;
+            }
+
+            final PortIntervalIndex.Builder srcPorts = PortIntervalIndex.builder();
+            final PortIntervalIndex.Builder dstPorts = PortIntervalIndex.builder();
+            final PortIntervalIndex.Builder portBuckets = PortIntervalIndex.builder();
+            final IpPrefixTrie.Builder srcAddresses = IpPrefixTrie.builder();
+            final IpPrefixTrie.Builder dstAddresses = IpPrefixTrie.builder();
+            for (int i=0; i<this.rules.length; i++) {
+                final RuleDefinition rule = this.rules[i].definition;
+                if (rule.hasProtocolDefinition()) {
+                    for (StringValue protocol : new StringValue(rule.getProtocol()).splitBy(",")) {
+                        final Protocol eachProtocol = Protocols.getProtocol(protocol.getValue());
+                        if (eachProtocol != null) {
+                            protocolRules.computeIfAbsent(eachProtocol.getDecimal(), key -> new BitSet()).set(i);
+                        }
+                    }
+                } else {
+                    anyProtocolRules.set(i);
+                }
+
+                final PortValue srcPortValue = rule.hasSrcPortDefinition() ? new PortValue(rule.getSrcPort()) : null;
+                final PortValue dstPortValue = rule.hasDstPortDefinition() ? new PortValue(rule.getDstPort()) : null;
+                if (srcPortValue != null) {
+                    srcPorts.withPorts(i, srcPortValue.getPorts());
+                } else {
+                    srcPorts.withWildcard(i);
+                }
+                if (dstPortValue != null) {
+                    dstPorts.withPorts(i, dstPortValue.getPorts());
+                } else {
+                    dstPorts.withWildcard(i);
+                }
+                if (dstPortValue != null || srcPortValue != null) {
+                    portBuckets.withPorts(i, (dstPortValue != null ? dstPortValue : srcPortValue).getPorts());
+                } else {
+                    portBuckets.withWildcard(i);
+                }
+
+                if (rule.hasSrcAddressDefinition()) {
+                    final int rank = i;
+                    new IpValue(rule.getSrcAddress()).getRanges().forEach(range -> srcAddresses.withRange(rank, range));
+                } else {
+                    srcAddresses.withWildcard(i);
+                }
+                if (rule.hasDstAddressDefinition()) {
+                    final int rank = i;
+                    new IpValue(rule.getDstAddress()).getRanges().forEach(range -> dstAddresses.withRange(rank, range));
+                } else {
+                    dstAddresses.withWildcard(i);
+                }
+            }
+            protocolRules.values().forEach(eachProtocolRules -> eachProtocolRules.or(anyProtocolRules));
+
+            this.srcPorts = srcPorts.build();
+            this.dstPorts = dstPorts.build();
+            this.portBuckets = portBuckets.build();
+            this.srcAddresses = srcAddresses.build();
+            this.dstAddresses = dstAddresses.build();
+        }
+
+        private BitSet getProtocolRules(Protocol protocol) {
+            return protocolRules.getOrDefault(protocol.getDecimal(), anyProtocolRules);
+        }
+
+        private boolean matches(int rule, ClassificationRequest request) {
+            return rules[rule].classifier.classify(request) != null;
+        }
+
+        private String getName(int rule) {
+            return rules[rule].definition.getName();
+        }
+    }
+}
@@ -116,6 +116,18 @@ public class DefaultClassificationEngine implements ClassificationEngine {
         }
     }
 
+    /**
+     * Expands each omnidirectional rule which defines a src or dst port or address into the rule itself,
+     * followed by its reversed counterpart.
+     */
+    static List<RuleDefinition> expandOmnidirectionalRules(final List<Rule> rules) {
+        return rules.stream()
+                .flatMap(rule -> rule.isOmnidirectional() && (rule.hasSrcPortDefinition() || rule.hasSrcAddressDefinition() || rule.hasDstPortDefinition() || rule.hasDstAddressDefinition())
+                        ? Stream.of(rule, reverseRule(rule))
+                        : Stream.of(rule))
+                .collect(Collectors.toList());
+    }
+
     private static RuleDefinition reverseRule(final RuleDefinition rule) {
         final DefaultRuleDefinition result = new DefaultRuleDefinition();
         result.setName(rule.getName());
@@ -150,11 +162,7 @@ public class DefaultClassificationEngine implements ClassificationEngine {
         });
 
         // Expand omnidirectional rules to reversed ones
-        final List<RuleDefinition> rules = validRules.stream()
-                .flatMap(rule -> rule.isOmnidirectional() && (rule.hasSrcPortDefinition() || rule.hasSrcAddressDefinition() || rule.hasDstPortDefinition() || rule.hasDstAddressDefinition())
-                        ? Stream.of(rule, reverseRule(rule))
-                        : Stream.of(rule))
-                .collect(Collectors.toList());
+        final List<RuleDefinition> rules = expandOmnidirectionalRules(validRules);
 
         // Rules which are not bound to a src OR dst port are stored here temporarily
         final List<RuleDefinition> anyPortRules = new ArrayList<>();
@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal.index;
+
+import java.math.BigInteger;
+import java.util.BitSet;
+
+import org.opennms.core.network.IPAddress;
+import org.opennms.core.network.IPAddressRange;
+
+/**
+ * Immutable binary radix trie over IPv4 and IPv6 prefixes.
+ *
+ * Address ranges are decomposed into the minimal set of covering prefixes. Each node holds the rules
+ * (identified by their index) of its own prefix and of all its ancestors, so a lookup only has to descend
+ * to the longest matching prefix.
+ *
+ * Lookups are a pre-filter only: addresses which can not be parsed yield all rules, leaving the decision
+ * to the actual matchers.
+ */
+public class IpPrefixTrie {
+
+    private final Node ipv4Root;
+    private final Node ipv6Root;
+    private final BitSet all;
+    private final boolean empty;
+
+    private IpPrefixTrie(Node ipv4Root, Node ipv6Root, BitSet all, boolean empty) {
+        this.ipv4Root = ipv4Root;
+        this.ipv6Root = ipv6Root;
+        this.all = all;
+        this.empty = empty;
+    }
+
+    /**
+     * Returns the rules which may match the given address. The returned set must not be modified.
+     */
+    public BitSet lookup(String address) {
+        // Avoid parsing (and potentially resolving) the address if there is nothing to look up
+        if (empty || address == null) {
+            return all;
+        }
+        final byte[] octets;
+        try {
+            octets = new IPAddress(address).toOctets();
+        } catch (RuntimeException ex) {
+            return all;
+        }
+        Node node = octets.length == 4 ? ipv4Root : octets.length == 16 ? ipv6Root : null;
+        if (node == null) {
+            return all;
+        }
+        for (int bit=0; bit<octets.length * 8; bit++) {
+            final Node child = node.children[bit(octets, bit)];
+            if (child == null) {
+                break;
+            }
+            node = child;
+        }
+        return node.rules;
+    }
+
+    private static int bit(byte[] octets, int bit) {
+        return (octets[bit / 8] >> (7 - bit % 8)) & 1;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    private static class Node {
+        private final Node[] children = new Node[2];
+        private BitSet rules;
+    }
+
+    public static class Builder {
+        private final Node ipv4Root = new Node();
+        private final Node ipv6Root = new Node();
+        private final BitSet wildcards = new BitSet();
+        private final BitSet all = new BitSet();
+        private boolean empty = true;
+
+        private Builder() {}
+
+        /**
+         * Rules added as wildcard match any address.
+         */
+        public Builder withWildcard(int rule) {
+            wildcards.set(rule);
+            all.set(rule);
+            return this;
+        }
+
+        public Builder withRange(int rule, IPAddressRange range) {
+            final byte[] begin = range.getBegin().toOctets();
+            final byte[] end = range.getEnd().toOctets();
+            all.set(rule);
+            if (begin.length != end.length || (begin.length != 4 && begin.length != 16)) {
+                // Ranges spanning address families can not be expressed as prefixes
+                wildcards.set(rule);
+                return this;
+            }
+            empty = false;
+
+            final Node root = begin.length == 4 ? ipv4Root : ipv6Root;
+            final int width = begin.length * 8;
+            BigInteger lower = new BigInteger(1, begin);
+            final BigInteger upper = new BigInteger(1, end);
+            while (lower.compareTo(upper) <= 0) {
+                // Use the largest prefix aligned at the lower bound which does not exceed the upper bound
+                int hostBits = lower.signum() == 0 ? width : Math.min(lower.getLowestSetBit(), width);
+                while (hostBits > 0 && lower.add(BigInteger.ONE.shiftLeft(hostBits)).subtract(BigInteger.ONE).compareTo(upper) > 0) {
+                    hostBits--;
+                }
+                insert(root, lower, width, width - hostBits, rule);
+                lower = lower.add(BigInteger.ONE.shiftLeft(hostBits));
+            }
+            return this;
+        }
+
+        private static void insert(Node root, BigInteger prefix, int width, int prefixLength, int rule) {
+            Node node = root;
+            for (int bit=0; bit<prefixLength; bit++) {
+                final int index = prefix.testBit(width - 1 - bit) ? 1 : 0;
+                if (node.children[index] == null) {
+                    node.children[index] = new Node();
+                }
+                node = node.children[index];
+            }
+            if (node.rules == null) {
+                node.rules = new BitSet();
+            }
+            node.rules.set(rule);
+        }
+
+        public IpPrefixTrie build() {
+            accumulate(ipv4Root, wildcards);
+            accumulate(ipv6Root, wildcards);
+            return new IpPrefixTrie(ipv4Root, ipv6Root, all, empty);
+        }
+
+        private static void accumulate(Node node, BitSet inherited) {
+            // Only nodes holding a prefix get their own set, all others share the one of their parent
+            if (node.rules == null) {
+                node.rules = inherited;
+            } else {
+                node.rules.or(inherited);
+            }
+            for (Node child : node.children) {
+                if (child != null) {
+                    accumulate(child, node.rules);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * Immutable interval index over ports.
+ *
+ * The port ranges of all rules are cut into elementary, non-overlapping segments. Each segment holds the set of
+ * rules (identified by their index) covering it, so a lookup is a binary search over the segment boundaries.
+ */
+public class PortIntervalIndex {
+
+    // Sorted start of each segment. The first segment always starts at Integer.MIN_VALUE
+    private final int[] starts;
+    private final BitSet[] segments;
+
+    private PortIntervalIndex(int[] starts, BitSet[] segments) {
+        this.starts = starts;
+        this.segments = segments;
+    }
+
+    /**
+     * Returns the rules covering the given port. The returned set must not be modified.
+     */
+    public BitSet lookup(int port) {
+        int index = Arrays.binarySearch(starts, port);
+        if (index < 0) {
+            index = -index - 2;
+        }
+        return segments[index];
+    }
+
+    public int getSegmentCount() {
+        return segments.length;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private final BitSet wildcards = new BitSet();
+        private final List<int[]> ranges = new ArrayList<>();
+
+        private Builder() {}
+
+        /**
+         * Rules added as wildcard match any port.
+         */
+        public Builder withWildcard(int rule) {
+            wildcards.set(rule);
+            return this;
+        }
+
+        public Builder withPorts(int rule, Collection<Integer> ports) {
+            // Collapse the ports into continuous ranges
+            int start = 0;
+            int end = -1;
+            for (int port : new TreeSet<>(ports)) {
+                if (end >= start && port == end + 1) {
+                    end = port;
+                    continue;
+                }
+                if (end >= start) {
+                    ranges.add(new int[]{start, end, rule});
+                }
+                start = port;
+                end = port;
+            }
+            if (end >= start) {
+                ranges.add(new int[]{start, end, rule});
+            }
+            return this;
+        }
+
+        public PortIntervalIndex build() {
+            final TreeSet<Integer> boundaries = new TreeSet<>();
+            boundaries.add(Integer.MIN_VALUE);
+            for (int[] range : ranges) {
+                boundaries.add(range[0]);
+                if (range[1] != Integer.MAX_VALUE) {
+                    boundaries.add(range[1] + 1);
+                }
+            }
+            final int[] starts = boundaries.stream().mapToInt(Integer::intValue).toArray();
+            final BitSet[] segments = new BitSet[starts.length];
+            for (int i=0; i<segments.length; i++) {
+                segments[i] = (BitSet) wildcards.clone();
+            }
+            for (int[] range : ranges) {
+                final int from = Arrays.binarySearch(starts, range[0]);
+                final int to = range[1] == Integer.MAX_VALUE ? starts.length : Arrays.binarySearch(starts, range[1] + 1);
+                for (int i=from; i<to; i++) {
+                    segments[i].set(range[2]);
+                }
+            }
+
+            // Merge adjacent segments covered by the same rules
+            final List<Integer> mergedStarts = new ArrayList<>();
+            final List<BitSet> mergedSegments = new ArrayList<>();
+            for (int i=0; i<segments.length; i++) {
+                if (i > 0 && segments[i].equals(mergedSegments.get(mergedSegments.size() - 1))) {
+                    continue;
+                }
+                mergedStarts.add(starts[i]);
+                mergedSegments.add(segments[i]);
+            }
+            return new PortIntervalIndex(
+                    mergedStarts.stream().mapToInt(Integer::intValue).toArray(),
+                    mergedSegments.toArray(new BitSet[0]));
+        }
+    }
+}
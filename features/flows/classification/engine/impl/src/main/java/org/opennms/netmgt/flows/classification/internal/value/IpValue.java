@@ -29,6 +29,7 @@
 package org.opennms.netmgt.flows.classification.internal.value;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 
@@ -86,6 +87,10 @@ public class IpValue {
         return ranges.stream().anyMatch(r -> r.contains(address));
     }
 
+    public List<IPAddressRange> getRanges() {
+        return Collections.unmodifiableList(ranges);
+    }
+
     public static IPAddressRange parseCIDR(final String cidr) {
         final int slashIndex = cidr.indexOf('/');
         if (slashIndex == -1) {
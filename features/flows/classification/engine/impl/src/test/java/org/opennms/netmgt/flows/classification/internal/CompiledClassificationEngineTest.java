@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.flows.classification.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import org.opennms.netmgt.flows.classification.ClassificationEngine;
+import org.opennms.netmgt.flows.classification.ClassificationRequest;
+import org.opennms.netmgt.flows.classification.ClassificationRequestBuilder;
+import org.opennms.netmgt.flows.classification.FilterService;
+import org.opennms.netmgt.flows.classification.exception.InvalidFilterException;
+import org.opennms.netmgt.flows.classification.persistence.api.Group;
+import org.opennms.netmgt.flows.classification.persistence.api.GroupBuilder;
+import org.opennms.netmgt.flows.classification.persistence.api.ProtocolType;
+import org.opennms.netmgt.flows.classification.persistence.api.Protocols;
+import org.opennms.netmgt.flows.classification.persistence.api.Rule;
+import org.opennms.netmgt.flows.classification.persistence.api.RuleBuilder;
+
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+public class CompiledClassificationEngineTest {
+
+    private static final String[] PORTS = { "22", "53", "80", "443", "8000-8010", "80,443", "1000-1100,8080", "0-1023" };
+    private static final String[] ADDRESSES = { "10.0.0.1", "10.0.0.0/24", "10.0.0.5-10.0.1.7", "10.0.0.0/8,192.168.0.1",
+            "192.168.0.0/16", "fe80::1", "fe80::/64", "2001:db8::1-2001:db8::ff" };
+    private static final String[] PROTOCOLS = { "tcp", "udp", "tcp,udp", "icmp" };
+
+    // Exporters matching a filter expression have the expression as address
+    private static final FilterService FILTER_SERVICE = new FilterService() {
+        @Override
+        public void validate(String filterExpression) throws InvalidFilterException {
+        }
+
+        @Override
+        public boolean matches(String address, String filterExpression) {
+            return filterExpression.equals(address);
+        }
+    };
+
+    @Test
+    public void verifyRuleEngineBasic() {
+        final ClassificationEngine engine = new CompiledClassificationEngine(() ->
+                Lists.newArrayList(
+                        new RuleBuilder().withName("rule1").withPosition(1).withSrcPort(80).build(),
+                        new RuleBuilder().withName("rule2").withPosition(2).withDstPort(443).build(),
+                        new RuleBuilder().withName("rule3").withPosition(3).withSrcPort(8888).withDstPort(9999).build(),
+                        new RuleBuilder().withName("rule4").withPosition(4).withSrcPort(8888).withDstPort(80).build(),
+                        new RuleBuilder().withName("rule5").withPosition(5).build()
+                ), FilterService.NOOP);
+
+        assertEquals("rule2", engine.classify(new ClassificationRequestBuilder().withSrcPort(9999).withDstPort(443).withProtocol(ProtocolType.TCP).build()));
+        assertEquals("rule3", engine.classify(new ClassificationRequestBuilder().withSrcPort(8888).withDstPort(9999).withProtocol(ProtocolType.TCP).build()));
+        assertEquals("rule4", engine.classify(new ClassificationRequestBuilder().withSrcPort(8888).withDstPort(80).withProtocol(ProtocolType.TCP).build()));
+        assertEquals("rule5", engine.classify(new ClassificationRequestBuilder().withSrcPort(1).withDstPort(2).withProtocol(ProtocolType.TCP).build()));
+    }
+
+    @Test
+    public void verifyAddressRuleWins() {
+        final ClassificationEngine engine = new CompiledClassificationEngine(() -> Lists.newArrayList(
+                new RuleBuilder().withName("HTTP").withDstPort(80).build(),
+                new RuleBuilder().withName("XXX2").withSrcAddress("192.168.2.1").withSrcPort(4789).build(),
+                new RuleBuilder().withName("XXX").withDstAddress("192.168.2.1").build()
+        ), FilterService.NOOP);
+
+        assertEquals("XXX", engine.classify(new ClassificationRequest("Default", 0, null, 80, "192.168.2.1", ProtocolType.TCP)));
+        assertEquals("XXX2", engine.classify(new ClassificationRequestBuilder()
+                .withLocation("Default")
+                .withProtocol(ProtocolType.TCP)
+                .withSrcAddress("192.168.2.1").withSrcPort(4789)
+                .withDstAddress("52.31.45.219").withDstPort(80)
+                .build()));
+    }
+
+    @Test
+    public void verifyReloadSwapsRules() {
+        final List<Rule> rules = Lists.newArrayList(new RuleBuilder().withName("HTTP").withDstPort(80).build());
+        final ClassificationEngine engine = new CompiledClassificationEngine(() -> new ArrayList<>(rules), FilterService.NOOP);
+        final ClassificationRequest request = new ClassificationRequest("Default", 0, null, 80, "127.0.0.1", ProtocolType.TCP);
+        assertEquals("HTTP", engine.classify(request));
+
+        rules.set(0, new RuleBuilder().withName("WEB").withDstPort(80).build());
+        assertEquals("HTTP", engine.classify(request));
+        engine.reload();
+        assertEquals("WEB", engine.classify(request));
+
+        rules.clear();
+        engine.reload();
+        assertNull(engine.classify(request));
+    }
+
+    @Test
+    public void verifyConcurrentReloadsKeepLatestRules() throws InterruptedException {
+        final CountDownLatch firstLoading = new CountDownLatch(1);
+        final CountDownLatch releaseFirst = new CountDownLatch(1);
+        final AtomicInteger loads = new AtomicInteger();
+        final ClassificationEngine engine = new CompiledClassificationEngine(() -> {
+            if (loads.incrementAndGet() == 1) {
+                // The first reload still sees the old rules, and finishes last
+                firstLoading.countDown();
+                Uninterruptibles.awaitUninterruptibly(releaseFirst);
+                return Lists.newArrayList(new RuleBuilder().withName("OLD").withDstPort(80).build());
+            }
+            return Lists.newArrayList(new RuleBuilder().withName("NEW").withDstPort(80).build());
+        }, FilterService.NOOP, false);
+
+        final Thread first = new Thread(engine::reload);
+        first.start();
+        firstLoading.await();
+        final Thread second = new Thread(engine::reload);
+        second.start();
+
+        // Give the second reload the chance to overtake the first one
+        final long deadline = System.currentTimeMillis() + 2000;
+        while (second.getState() != Thread.State.BLOCKED && second.isAlive() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        releaseFirst.countDown();
+        first.join();
+        second.join();
+
+        assertEquals("NEW", engine.classify(new ClassificationRequest("Default", 0, null, 80, "127.0.0.1", ProtocolType.TCP)));
+    }
+
+    @Test
+    public void verifyIdenticalResultsToDefaultEngine() {
+        final Random random = new Random(42);
+        for (int run=0; run<10; run++) {
+            final List<Rule> rules = createRules(random, 50 + random.nextInt(150));
+            final ClassificationEngine expected = new DefaultClassificationEngine(() -> rules, FILTER_SERVICE);
+            final ClassificationEngine actual = new CompiledClassificationEngine(() -> rules, FILTER_SERVICE);
+            for (int i=0; i<5000; i++) {
+                final ClassificationRequest request = createRequest(random);
+                assertEquals(request.toString(), expected.classify(request), actual.classify(request));
+            }
+        }
+    }
+
+    private static List<Rule> createRules(Random random, int count) {
+        final List<Group> groups = Lists.newArrayList(
+                new GroupBuilder().withName("group1").withPosition(0).build(),
+                new GroupBuilder().withName("group2").withPosition(1).build());
+        final List<Rule> rules = new ArrayList<>();
+        for (int i=0; i<count; i++) {
+            final RuleBuilder builder = new RuleBuilder()
+                    .withName("rule" + i)
+                    // Keep positions low to provoke rules sharing the same position
+                    .withPosition(random.nextInt(4))
+                    .withGroup(groups.get(random.nextInt(groups.size())))
+                    .withOmnidirectional(random.nextInt(3) == 0);
+            if (random.nextInt(3) == 0) {
+                builder.withSrcPort(PORTS[random.nextInt(PORTS.length)]);
+            }
+            if (random.nextInt(2) == 0) {
+                builder.withDstPort(PORTS[random.nextInt(PORTS.length)]);
+            }
+            if (random.nextInt(4) == 0) {
+                builder.withSrcAddress(ADDRESSES[random.nextInt(ADDRESSES.length)]);
+            }
+            if (random.nextInt(3) == 0) {
+                builder.withDstAddress(ADDRESSES[random.nextInt(ADDRESSES.length)]);
+            }
+            if (random.nextInt(2) == 0) {
+                builder.withProtocol(PROTOCOLS[random.nextInt(PROTOCOLS.length)]);
+            }
+            if (random.nextInt(8) == 0) {
+                builder.withExporterFilter("10.0.0.1");
+            }
+            rules.add(builder.build());
+        }
+        return rules;
+    }
+
+    private static ClassificationRequest createRequest(Random random) {
+        final int[] ports = { 22, 53, 80, 443, 1000, 1050, 8005, 8080, 9999, 50000 };
+        final String[] addresses = { "10.0.0.1", "10.0.0.6", "10.0.1.8", "10.1.2.3", "192.168.0.1", "192.168.7.7",
+                "172.16.0.1", "fe80::1", "fe80::2", "2001:db8::10", "2001:db8::1:0" };
+        return new ClassificationRequestBuilder()
+                .withLocation("Default")
+                .withProtocol(Protocols.getProtocol(PROTOCOLS[random.nextInt(PROTOCOLS.length)].split(",")[0]))
+                .withSrcPort(ports[random.nextInt(ports.length)])
+                .withDstPort(ports[random.nextInt(ports.length)])
+                .withSrcAddress(addresses[random.nextInt(addresses.length)])
+                .withDstAddress(addresses[random.nextInt(addresses.length)])
+                .withExporterAddress(random.nextBoolean() ? "10.0.0.1" : "10.0.0.2")
+                .build();
+    }
+}
@@ -53,7 +53,9 @@ public class DefaultMeasurementsService implements MeasurementsService {
 
     @Autowired
     public DefaultMeasurementsService(MeasurementFetchStrategy fetchStrategy, ExpressionEngine expressionEngine, FilterEngine filterEngine) {
-        this.fetchStrategy = Preconditions.checkNotNull(fetchStrategy);
+        Preconditions.checkNotNull(fetchStrategy);
+        // Fan out the fetches by resource when enabled, unless the caller already did
+        this.fetchStrategy = fetchStrategy instanceof ParallelFetchStrategy ? fetchStrategy : new ParallelFetchStrategy(fetchStrategy);
         this.expressionEngine = Preconditions.checkNotNull(expressionEngine);
         this.filterEngine = Preconditions.checkNotNull(filterEngine);
     }
@@ -0,0 +1,278 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.api;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.opennms.netmgt.measurements.model.QueryMetadata;
+import org.opennms.netmgt.measurements.model.QueryResource;
+import org.opennms.netmgt.measurements.model.QuerySourceTiming;
+import org.opennms.netmgt.measurements.model.Source;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Scatter-gather wrapper around a {@link MeasurementFetchStrategy}.
+ *
+ * The sources of a query are grouped by resource and every group is fetched
+ * by the delegate on a bounded thread pool. The partial results are then merged
+ * into a single {@link FetchResults}, aligned on the timestamps of the first
+ * group that returned any rows. All groups must complete before the per-query
+ * deadline, otherwise the query fails, or, when relaxed, the sources of the
+ * groups that did not complete are filled with {@link Double#NaN}.
+ *
+ * The time spent fetching every source is added to the {@link QueryMetadata}.
+ *
+ * Parallel fetches are opt-in, and are disabled when ACLs are enabled: the delegate
+ * resolves the resources on the pool threads, whose sessions are not filtered by the
+ * ACLs of the user that issued the query.
+ */
+public class ParallelFetchStrategy implements MeasurementFetchStrategy {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ParallelFetchStrategy.class);
+
+    public static final String THREADS_PROPERTY = "org.opennms.measurements.fetch.threads";
+
+    public static final String TIMEOUT_PROPERTY = "org.opennms.measurements.fetch.timeout";
+
+    public static final String ACLS_ENABLED_PROPERTY = "org.opennms.web.aclsEnabled";
+
+    public static final int DEFAULT_THREADS = 1;
+
+    public static final long DEFAULT_TIMEOUT_MS = 60000;
+
+    private final MeasurementFetchStrategy delegate;
+
+    private final long timeoutMs;
+
+    private final ExecutorService executor;
+
+    public ParallelFetchStrategy(MeasurementFetchStrategy delegate) {
+        this(delegate, getThreads(), Long.getLong(TIMEOUT_PROPERTY, DEFAULT_TIMEOUT_MS));
+    }
+
+    private static int getThreads() {
+        final int threads = Integer.getInteger(THREADS_PROPERTY, DEFAULT_THREADS);
+        if (threads > 1 && Boolean.getBoolean(ACLS_ENABLED_PROPERTY)) {
+            LOG.warn("Ignoring {}={}, the sources of measurements queries are fetched sequentially when ACLs are enabled.",
+                    THREADS_PROPERTY, threads);
+            return 1;
+        }
+        return threads;
+    }
+
+    /**
+     * @param delegate   strategy used to fetch every group of sources
+     * @param threads    maximum number of concurrent fetches, fetches are done sequentially when <= 1
+     * @param timeoutMs  deadline for all of the fetches of a single query in milliseconds
+     */
+    public ParallelFetchStrategy(MeasurementFetchStrategy delegate, int threads, long timeoutMs) {
+        this.delegate = Preconditions.checkNotNull(delegate);
+        Preconditions.checkArgument(timeoutMs > 0, "timeout must be positive");
+        this.timeoutMs = timeoutMs;
+
+        if (threads > 1) {
+            final ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(threads * 64),
+                    new ThreadFactoryBuilder().setNameFormat("measurements-fetch-%d").setDaemon(true).build(),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+            pool.allowCoreThreadTimeOut(true);
+            this.executor = pool;
+        } else {
+            this.executor = null;
+        }
+    }
+
+    @Override
+    public FetchResults fetch(long start, long end, long step, int maxrows, Long interval, Long heartbeat,
+                              List<Source> sources, boolean relaxed) throws Exception {
+        final Map<String, List<Source>> sourcesByResource = new LinkedHashMap<>();
+        for (final Source source : sources) {
+            sourcesByResource.computeIfAbsent(source.getResourceId(), r -> new ArrayList<>()).add(source);
+        }
+
+        if (executor == null || sourcesByResource.size() < 2) {
+            final long before = System.currentTimeMillis();
+            final FetchResults results = delegate.fetch(start, end, step, maxrows, interval, heartbeat, sources, relaxed);
+            if (results == null) {
+                return null;
+            }
+            final List<QuerySourceTiming> timings = new ArrayList<>(sources.size());
+            addTimings(timings, sources, System.currentTimeMillis() - before, false);
+            final QueryMetadata metadata = results.getMetadata();
+            return new FetchResults(results.getTimestamps(), results.getColumns(), results.getStep(), results.getConstants(),
+                    new QueryMetadata(metadata != null ? metadata.getResources() : null, timings));
+        }
+
+        // Scatter
+        final long began = System.currentTimeMillis();
+        final List<List<Source>> groups = new ArrayList<>(sourcesByResource.values());
+        final List<Future<FetchResults>> futures = new ArrayList<>(groups.size());
+        final long[] fetchTimes = new long[groups.size()];
+        for (int i = 0; i < groups.size(); i++) {
+            final int k = i;
+            final List<Source> group = groups.get(i);
+            futures.add(executor.submit(() -> {
+                final long before = System.currentTimeMillis();
+                try {
+                    return delegate.fetch(start, end, step, maxrows, interval, heartbeat, group, relaxed);
+                } finally {
+                    fetchTimes[k] = System.currentTimeMillis() - before;
+                }
+            }));
+        }
+
+        // Gather
+        final long deadline = began + timeoutMs;
+        final FetchResults[] partials = new FetchResults[groups.size()];
+        final boolean[] timedOut = new boolean[groups.size()];
+        try {
+            for (int i = 0; i < groups.size(); i++) {
+                try {
+                    partials[i] = futures.get(i).get(Math.max(0, deadline - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException | CancellationException e) {
+                    // Don't keep a pool thread busy with a result that won't be used
+                    futures.get(i).cancel(true);
+                    if (!relaxed) {
+                        throw new TimeoutException(String.format("Fetching %d source(s) of resource %s did not complete within %d ms.",
+                                groups.get(i).size(), groups.get(i).get(0).getResourceId(), timeoutMs));
+                    }
+                    LOG.warn("Fetching {} source(s) of resource {} did not complete within {} ms. Values will be filled with NaN.",
+                            groups.get(i).size(), groups.get(i).get(0).getResourceId(), timeoutMs);
+                    timedOut[i] = true;
+                    continue;
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception) {
+                        throw (Exception)e.getCause();
+                    }
+                    throw e;
+                }
+                if (partials[i] == null) {
+                    // Missing resource or attribute, fail fast like the delegate would
+                    return null;
+                }
+            }
+        } finally {
+            for (final Future<FetchResults> future : futures) {
+                future.cancel(true);
+            }
+        }
+
+        return merge(step, sources, groups, partials, fetchTimes, timedOut, System.currentTimeMillis() - began);
+    }
+
+    private static FetchResults merge(long step, List<Source> sources, List<List<Source>> groups, FetchResults[] partials,
+                                      long[] fetchTimes, boolean[] timedOut, long elapsed) {
+        // Use the first group with rows as the reference for the timestamps
+        FetchResults reference = null;
+        for (final FetchResults partial : partials) {
+            if (partial != null && (reference == null || (reference.getTimestamps().length == 0 && partial.getTimestamps().length > 0))) {
+                reference = partial;
+            }
+        }
+
+        final long[] timestamps = reference != null ? reference.getTimestamps() : new long[0];
+        final long mergedStep = reference != null ? reference.getStep() : step;
+        final Map<String, double[]> columns = new LinkedHashMap<>();
+        final Map<String, Object> constants = Maps.newHashMap();
+        final List<QueryResource> resources = new ArrayList<>();
+        final List<QuerySourceTiming> timings = new ArrayList<>(sources.size());
+
+        for (int i = 0; i < partials.length; i++) {
+            final FetchResults partial = partials[i];
+            if (partial != null) {
+                for (final Map.Entry<String, double[]> column : partial.getColumns().entrySet()) {
+                    columns.put(column.getKey(), align(timestamps, partial.getTimestamps(), partial.getStep(), column.getValue()));
+                }
+                constants.putAll(partial.getConstants());
+                if (partial.getMetadata() != null) {
+                    resources.addAll(partial.getMetadata().getResources());
+                }
+            }
+            addTimings(timings, groups.get(i), timedOut[i] ? elapsed : fetchTimes[i], timedOut[i]);
+        }
+
+        // Sources which were skipped or did not complete in time
+        for (final Source source : sources) {
+            if (!columns.containsKey(source.getLabel())) {
+                final double[] values = new double[timestamps.length];
+                Arrays.fill(values, Double.NaN);
+                columns.put(source.getLabel(), values);
+            }
+        }
+
+        return new FetchResults(timestamps, columns, mergedStep, constants, new QueryMetadata(resources, timings));
+    }
+
+    /**
+     * Maps the values of a column onto the given timestamps. A value stored at timestamp t
+     * covers the interval (t - step, t], rows which are not covered by any value are set to NaN.
+     */
+    static double[] align(long[] timestamps, long[] columnTimestamps, long columnStep, double[] values) {
+        if (Arrays.equals(timestamps, columnTimestamps)) {
+            return values;
+        }
+
+        final double[] aligned = new double[timestamps.length];
+        int k = 0;
+        for (int i = 0; i < timestamps.length; i++) {
+            while (k < columnTimestamps.length && columnTimestamps[k] < timestamps[i]) {
+                k++;
+            }
+            if (k < columnTimestamps.length && columnTimestamps[k] - columnStep < timestamps[i]) {
+                aligned[i] = values[k];
+            } else {
+                aligned[i] = Double.NaN;
+            }
+        }
+        return aligned;
+    }
+
+    private static void addTimings(List<QuerySourceTiming> timings, List<Source> sources, long fetchTime, boolean timedOut) {
+        for (final Source source : sources) {
+            timings.add(new QuerySourceTiming(source.getLabel(), source.getResourceId(), fetchTime, timedOut));
+        }
+    }
+}
@@ -53,13 +53,23 @@ public class QueryMetadata {
     @XmlElement(name="node")
     private final Set<QueryNode> nodes;
 
+    @XmlElementWrapper(name="timings")
+    @XmlElement(name="timing")
+    private final List<QuerySourceTiming> timings;
+
     public QueryMetadata() {
         this.resources = null;
         this.nodes = null;
+        this.timings = null;
     }
 
     public QueryMetadata(final List<QueryResource> resources) {
+        this(resources, null);
+    }
+
+    public QueryMetadata(final List<QueryResource> resources, final List<QuerySourceTiming> timings) {
         this.resources = resources;
+        this.timings = timings;
         if (resources != null) {
             final Set<QueryNode> nodes = Sets.newTreeSet();
             for (final QueryResource resource : resources) {
@@ -82,6 +92,14 @@ public class QueryMetadata {
         return this.nodes == null? new HashSet<QueryNode>() : this.nodes;
     }
 
+    /**
+     * Per-source fetch timings, these are not considered by {@link #equals(Object)}
+     * since they differ from one query to the next.
+     */
+    public List<QuerySourceTiming> getTimings() {
+        return this.timings == null? new ArrayList<QuerySourceTiming>() : this.timings;
+    }
+
     @Override
     public boolean equals(final Object obj) {
         if (obj == null) {
@@ -103,6 +121,7 @@ public class QueryMetadata {
         return com.google.common.base.MoreObjects.toStringHelper(this)
                 .add("resources", this.resources)
                 .add("nodes", this.nodes)
+                .add("timings", this.timings)
                 .toString();
     }
 }
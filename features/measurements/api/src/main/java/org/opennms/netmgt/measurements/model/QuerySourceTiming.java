@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.model;
+
+import java.util.Objects;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+import javax.xml.bind.annotation.XmlAttribute;
+import javax.xml.bind.annotation.XmlRootElement;
+
+/**
+ * Time spent fetching a single source, exposed in the {@link QueryMetadata}
+ * for profiling slow queries.
+ */
+@XmlAccessorType(XmlAccessType.NONE)
+@XmlRootElement(name="timing")
+public class QuerySourceTiming {
+    @XmlAttribute private String label;
+    @XmlAttribute(name="resource-id") private String resourceId;
+    @XmlAttribute(name="fetch-time") private long fetchTime;
+    @XmlAttribute(name="timed-out") private boolean timedOut;
+
+    public QuerySourceTiming() {
+        this.label = null;
+        this.resourceId = null;
+        this.fetchTime = 0;
+        this.timedOut = false;
+    }
+
+    public QuerySourceTiming(final String label, final String resourceId, final long fetchTime, final boolean timedOut) {
+        this.label = label;
+        this.resourceId = resourceId;
+        this.fetchTime = fetchTime;
+        this.timedOut = timedOut;
+    }
+
+    public String getLabel() {
+        return this.label;
+    }
+
+    public String getResourceId() {
+        return this.resourceId;
+    }
+
+    /**
+     * @return time spent fetching the source in milliseconds
+     */
+    public long getFetchTime() {
+        return this.fetchTime;
+    }
+
+    public boolean isTimedOut() {
+        return this.timedOut;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final QuerySourceTiming other = (QuerySourceTiming) obj;
+
+        return Objects.equals(this.label, other.label)
+                && Objects.equals(this.resourceId, other.resourceId)
+                && this.fetchTime == other.fetchTime
+                && this.timedOut == other.timedOut;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(this.label, this.resourceId, this.fetchTime, this.timedOut);
+    }
+
+    @Override
+    public String toString() {
+        return com.google.common.base.MoreObjects.toStringHelper(this)
+                .add("label", this.label)
+                .add("resourceId", this.resourceId)
+                .add("fetchTime", this.fetchTime)
+                .add("timedOut", this.timedOut)
+                .toString();
+    }
+}
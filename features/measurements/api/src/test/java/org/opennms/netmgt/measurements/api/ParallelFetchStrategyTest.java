@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.api;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.Test;
+import org.opennms.netmgt.measurements.model.QueryMetadata;
+import org.opennms.netmgt.measurements.model.QuerySourceTiming;
+import org.opennms.netmgt.measurements.model.Source;
+
+import com.google.common.collect.Maps;
+
+public class ParallelFetchStrategyTest {
+
+    private static final double DELTA = 0.0000001;
+
+    private final List<Source> sources = Arrays.asList(
+            new Source("a", "node[1].nodeSnmp[]", "x", "x", false),
+            new Source("b", "node[2].nodeSnmp[]", "x", "x", false),
+            new Source("c", "node[2].nodeSnmp[]", "y", "y", false));
+
+    @Test
+    public void canFetchResourcesInParallel() throws Exception {
+        // Every resource blocks until all of them are being fetched
+        final CountDownLatch latch = new CountDownLatch(2);
+        final Set<String> threads = ConcurrentHashMap.newKeySet();
+        final MeasurementFetchStrategy delegate = (start, end, step, maxrows, interval, heartbeat, sources, relaxed) -> {
+            threads.add(Thread.currentThread().getName());
+            latch.countDown();
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            return results(new long[]{300, 600, 900}, 300, sources);
+        };
+
+        final FetchResults results = new ParallelFetchStrategy(delegate, 4, 10000).fetch(0, 900, 300, 0, null, null, sources, false);
+
+        assertEquals(2, threads.size());
+        assertArrayEquals(new long[]{300, 600, 900}, results.getTimestamps());
+        assertEquals(3, results.getColumns().size());
+        assertArrayEquals(new double[]{1, 2, 3}, results.getColumns().get("c"), DELTA);
+        assertEquals(3, results.getConstants().size());
+
+        final List<QuerySourceTiming> timings = results.getMetadata().getTimings();
+        assertEquals(3, timings.size());
+        assertEquals("a", timings.get(0).getLabel());
+        assertEquals("node[2].nodeSnmp[]", timings.get(1).getResourceId());
+        assertFalse(timings.get(2).isTimedOut());
+    }
+
+    @Test
+    public void canAlignResultsWithDifferentSteps() throws Exception {
+        final MeasurementFetchStrategy delegate = (start, end, step, maxrows, interval, heartbeat, sources, relaxed) -> {
+            if ("node[1].nodeSnmp[]".equals(sources.get(0).getResourceId())) {
+                return results(new long[]{300, 600, 900, 1200}, 300, sources);
+            }
+            return results(new long[]{600, 1200}, 600, sources);
+        };
+
+        final FetchResults results = new ParallelFetchStrategy(delegate, 4, 10000).fetch(0, 1200, 300, 0, null, null, sources, false);
+
+        assertArrayEquals(new long[]{300, 600, 900, 1200}, results.getTimestamps());
+        assertArrayEquals(new double[]{1, 2, 3, 4}, results.getColumns().get("a"), DELTA);
+        assertArrayEquals(new double[]{1, 1, 2, 2}, results.getColumns().get("b"), DELTA);
+    }
+
+    @Test
+    public void failsWhenTheDeadlineIsExceeded() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch cancelled = new CountDownLatch(2);
+        final MeasurementFetchStrategy delegate = (start, end, step, maxrows, interval, heartbeat, sources, relaxed) -> {
+            if ("node[2].nodeSnmp[]".equals(sources.get(0).getResourceId())) {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    cancelled.countDown();
+                    throw e;
+                }
+            }
+            return results(new long[]{300}, 300, sources);
+        };
+        final ParallelFetchStrategy strategy = new ParallelFetchStrategy(delegate, 4, 100);
+
+        try {
+            strategy.fetch(0, 300, 300, 0, null, null, sources, false);
+            fail("fetch should have timed out");
+        } catch (TimeoutException e) {
+            // expected
+        }
+
+        // Relaxed queries return what was fetched in time
+        final FetchResults results = strategy.fetch(0, 300, 300, 0, null, null, sources, true);
+        release.countDown();
+        assertArrayEquals(new double[]{1}, results.getColumns().get("a"), DELTA);
+        assertTrue(Double.isNaN(results.getColumns().get("b")[0]));
+        assertTrue(Double.isNaN(results.getColumns().get("c")[0]));
+        assertTrue(results.getMetadata().getTimings().get(2).isTimedOut());
+
+        // Both fetches that timed out were cancelled
+        assertTrue(cancelled.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void fetchesSequentiallyByDefaultAndWhenAclsAreEnabled() throws Exception {
+        final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        final MeasurementFetchStrategy delegate = (start, end, step, maxrows, interval, heartbeat, sources, relaxed) -> {
+            threads.add(Thread.currentThread());
+            return results(new long[]{300}, 300, sources);
+        };
+
+        new ParallelFetchStrategy(delegate).fetch(0, 300, 300, 0, null, null, sources, false);
+        assertEquals(Collections.singleton(Thread.currentThread()), threads);
+
+        System.setProperty(ParallelFetchStrategy.THREADS_PROPERTY, "4");
+        System.setProperty(ParallelFetchStrategy.ACLS_ENABLED_PROPERTY, "true");
+        try {
+            new ParallelFetchStrategy(delegate).fetch(0, 300, 300, 0, null, null, sources, false);
+            assertEquals(Collections.singleton(Thread.currentThread()), threads);
+        } finally {
+            System.clearProperty(ParallelFetchStrategy.THREADS_PROPERTY);
+            System.clearProperty(ParallelFetchStrategy.ACLS_ENABLED_PROPERTY);
+        }
+    }
+
+    @Test
+    public void returnsNullWhenAResourceIsMissing() throws Exception {
+        final MeasurementFetchStrategy delegate = (start, end, step, maxrows, interval, heartbeat, sources, relaxed) ->
+            "node[2].nodeSnmp[]".equals(sources.get(0).getResourceId()) ? null : results(new long[]{300}, 300, sources);
+
+        assertNull(new ParallelFetchStrategy(delegate, 4, 10000).fetch(0, 300, 300, 0, null, null, sources, false));
+        // Also when fetching sequentially
+        assertNull(new ParallelFetchStrategy(delegate, 1, 10000).fetch(0, 300, 300, 0, null, null, sources.subList(1, 3), false));
+    }
+
+    private static FetchResults results(long[] timestamps, long step, List<Source> sources) {
+        final Map<String, double[]> columns = Maps.newHashMap();
+        final Map<String, Object> constants = Maps.newHashMap();
+        for (final Source source : sources) {
+            final double[] values = new double[timestamps.length];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = i + 1;
+            }
+            columns.put(source.getLabel(), values);
+            constants.put(source.getLabel() + ".ifSpeed", 1000d);
+        }
+        return new FetchResults(timestamps, columns, step, constants, new QueryMetadata());
+    }
+}
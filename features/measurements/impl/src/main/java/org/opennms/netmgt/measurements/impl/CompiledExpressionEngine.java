@@ -0,0 +1,1075 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+import org.apache.commons.jexl2.JexlEngine;
+import org.apache.commons.jexl2.parser.ASTAdditiveNode;
+import org.apache.commons.jexl2.parser.ASTAndNode;
+import org.apache.commons.jexl2.parser.ASTDivNode;
+import org.apache.commons.jexl2.parser.ASTEQNode;
+import org.apache.commons.jexl2.parser.ASTFalseNode;
+import org.apache.commons.jexl2.parser.ASTFunctionNode;
+import org.apache.commons.jexl2.parser.ASTGENode;
+import org.apache.commons.jexl2.parser.ASTGTNode;
+import org.apache.commons.jexl2.parser.ASTIdentifier;
+import org.apache.commons.jexl2.parser.ASTJexlScript;
+import org.apache.commons.jexl2.parser.ASTLENode;
+import org.apache.commons.jexl2.parser.ASTLTNode;
+import org.apache.commons.jexl2.parser.ASTModNode;
+import org.apache.commons.jexl2.parser.ASTMulNode;
+import org.apache.commons.jexl2.parser.ASTNENode;
+import org.apache.commons.jexl2.parser.ASTNotNode;
+import org.apache.commons.jexl2.parser.ASTNumberLiteral;
+import org.apache.commons.jexl2.parser.ASTOrNode;
+import org.apache.commons.jexl2.parser.ASTReference;
+import org.apache.commons.jexl2.parser.ASTReferenceExpression;
+import org.apache.commons.jexl2.parser.ASTStringLiteral;
+import org.apache.commons.jexl2.parser.ASTTernaryNode;
+import org.apache.commons.jexl2.parser.ASTTrueNode;
+import org.apache.commons.jexl2.parser.ASTUnaryMinusNode;
+import org.apache.commons.jexl2.parser.JexlNode;
+import org.apache.commons.jexl2.parser.Parser;
+import org.opennms.netmgt.measurements.api.ExpressionEngine;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * An expression engine which compiles the expressions to operations on whole columns.
+ *
+ * The expressions are parsed with the JEXL parser, and the resulting syntax trees are
+ * compiled to evaluators over the primitive columns of the {@link FetchResults},
+ * evaluating each expression once for all of the rows instead of interpreting it for
+ * every row. The compiled evaluators replicate the semantics of the JEXL arithmetic
+ * used by the {@link JEXLExpressionEngine}, including its handling of integer types,
+ * NaN comparisons and the short-circuiting of conditionals.
+ *
+ * Arithmetic, comparisons, logical operators, conditionals, the math: and strictmath:
+ * functions, the fn: sample array functions and jexl:evaluate() are supported. When
+ * any of the expressions of a request uses another construct, or when the evaluation
+ * hits a case which JEXL reports as an error (i.e. a division by zero), the request
+ * is evaluated by the {@link JEXLExpressionEngine} instead.
+ */
+@Component("expressionEngine")
+public class CompiledExpressionEngine implements ExpressionEngine {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompiledExpressionEngine.class);
+
+    public static final String COMPILE_PROPERTY = "org.opennms.measurements.expressions.compile";
+
+    /**
+     * Maximum depth of nested jexl:evaluate() calls that are compiled.
+     */
+    private static final int MAX_EVALUATE_DEPTH = 8;
+
+    private static final Map<String, DoubleUnaryOperator> MATH_UNARY = ImmutableMap.<String, DoubleUnaryOperator>builder()
+            .put("sqrt", Math::sqrt).put("cbrt", Math::cbrt)
+            .put("exp", Math::exp).put("expm1", Math::expm1)
+            .put("log", Math::log).put("log10", Math::log10).put("log1p", Math::log1p)
+            .put("sin", Math::sin).put("cos", Math::cos).put("tan", Math::tan)
+            .put("asin", Math::asin).put("acos", Math::acos).put("atan", Math::atan)
+            .put("sinh", Math::sinh).put("cosh", Math::cosh).put("tanh", Math::tanh)
+            .put("toDegrees", Math::toDegrees).put("toRadians", Math::toRadians)
+            .put("floor", Math::floor).put("ceil", Math::ceil).put("rint", Math::rint)
+            .build();
+
+    private static final Map<String, DoubleUnaryOperator> STRICTMATH_UNARY = ImmutableMap.<String, DoubleUnaryOperator>builder()
+            .put("sqrt", StrictMath::sqrt).put("cbrt", StrictMath::cbrt)
+            .put("exp", StrictMath::exp).put("expm1", StrictMath::expm1)
+            .put("log", StrictMath::log).put("log10", StrictMath::log10).put("log1p", StrictMath::log1p)
+            .put("sin", StrictMath::sin).put("cos", StrictMath::cos).put("tan", StrictMath::tan)
+            .put("asin", StrictMath::asin).put("acos", StrictMath::acos).put("atan", StrictMath::atan)
+            .put("sinh", StrictMath::sinh).put("cosh", StrictMath::cosh).put("tanh", StrictMath::tanh)
+            .put("toDegrees", StrictMath::toDegrees).put("toRadians", StrictMath::toRadians)
+            .put("floor", StrictMath::floor).put("ceil", StrictMath::ceil).put("rint", StrictMath::rint)
+            .build();
+
+    private static final Map<String, DoubleBinaryOperator> MATH_BINARY = ImmutableMap.<String, DoubleBinaryOperator>builder()
+            .put("pow", Math::pow).put("atan2", Math::atan2).put("hypot", Math::hypot).put("IEEEremainder", Math::IEEEremainder)
+            .build();
+
+    private static final Map<String, DoubleBinaryOperator> STRICTMATH_BINARY = ImmutableMap.<String, DoubleBinaryOperator>builder()
+            .put("pow", StrictMath::pow).put("atan2", StrictMath::atan2).put("hypot", StrictMath::hypot).put("IEEEremainder", StrictMath::IEEEremainder)
+            .build();
+
+    /**
+     * Overloaded functions, which are only compiled when all of their arguments are doubles
+     * so that JEXL resolves the same method.
+     */
+    private static final Map<String, DoubleUnaryOperator> MATH_UNARY_OVERLOADED = ImmutableMap.of(
+            "abs", Math::abs, "signum", Math::signum);
+
+    private static final Map<String, DoubleUnaryOperator> STRICTMATH_UNARY_OVERLOADED = ImmutableMap.of(
+            "abs", StrictMath::abs, "signum", StrictMath::signum);
+
+    private static final Map<String, DoubleBinaryOperator> MATH_BINARY_OVERLOADED = ImmutableMap.of(
+            "max", Math::max, "min", Math::min);
+
+    private static final Map<String, DoubleBinaryOperator> STRICTMATH_BINARY_OVERLOADED = ImmutableMap.of(
+            "max", StrictMath::max, "min", StrictMath::min);
+
+    private final JEXLExpressionEngine fallback;
+
+    private final boolean compile;
+
+    /**
+     * Parsed expressions, the syntax trees are not modified once parsed.
+     */
+    private final Cache<String, ASTJexlScript> scripts = CacheBuilder.newBuilder()
+            .maximumSize(1024)
+            .build();
+
+    private final Parser parser = new Parser(new StringReader(";"));
+
+    public CompiledExpressionEngine() {
+        this(new JEXLExpressionEngine(), !"false".equalsIgnoreCase(System.getProperty(COMPILE_PROPERTY, "true")));
+    }
+
+    public CompiledExpressionEngine(final JEXLExpressionEngine fallback, final boolean compile) {
+        this.fallback = Preconditions.checkNotNull(fallback, "fallback argument");
+        this.compile = compile;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void applyExpressions(final QueryRequest request, final FetchResults results) throws ExpressionException {
+        Preconditions.checkNotNull(request, "request argument");
+        Preconditions.checkNotNull(results, "results argument");
+
+        if (request.getExpressions().isEmpty()) {
+            return;
+        }
+
+        if (!compile || !applyCompiledExpressions(request, results)) {
+            fallback.applyExpressions(request, results);
+        }
+    }
+
+    /**
+     * Compiles and evaluates the expressions of the request.
+     *
+     * @return <code>false</code> if the expressions must be evaluated by JEXL instead,
+     *         in which case the results are left untouched
+     */
+    protected boolean applyCompiledExpressions(final QueryRequest request, final FetchResults results) {
+        final List<Expression> expressions = request.getExpressions();
+        final Frame frame = new Frame(expressions, results);
+        final Node[] nodes = new Node[expressions.size()];
+        try {
+            if (expressions.stream().map(Expression::getLabel).distinct().count() != expressions.size()) {
+                throw new Unsupported("the labels of the expressions are not unique");
+            }
+
+            // Compile all of the expressions before evaluating any of them
+            for (int k = 0; k < nodes.length; k++) {
+                final Node node = compile(parse(expressions.get(k).getExpression()), new Scope(frame, k), 0);
+                if (node.type != Type.DOUBLE && node.type != Type.LONG && node.type != Type.NUMBER) {
+                    throw new Unsupported("the expression does not return a number");
+                }
+                nodes[k] = node;
+            }
+
+            // Evaluate the expressions in order, so that they can reference the values of previous ones
+            for (int k = 0; k < nodes.length; k++) {
+                frame.values[k] = doubles(nodes[k], frame, null);
+            }
+        } catch (Unsupported e) {
+            LOG.debug("Evaluating the expressions with JEXL: {}.", e.getMessage());
+            return false;
+        }
+
+        // Store the results
+        final Map<String, double[]> columns = results.getColumns();
+        for (int k = 0; k < nodes.length; k++) {
+            final Expression expression = expressions.get(k);
+            if (!expression.getTransient()) {
+                columns.put(expression.getLabel(), frame.values[k]);
+            }
+        }
+        return true;
+    }
+
+    private ASTJexlScript parse(final String expression) throws Unsupported {
+        final String cleaned = JexlEngine.cleanExpression(expression);
+        try {
+            return scripts.get(cleaned, () -> {
+                synchronized (parser) {
+                    return parser.parse(new StringReader(cleaned), null);
+                }
+            });
+        } catch (ExecutionException | RuntimeException | Error e) {
+            throw new Unsupported("failed to parse '" + expression + "'");
+        }
+    }
+
+    private Node compile(final ASTJexlScript script, final Scope scope, final int depth) throws Unsupported {
+        if (script.jjtGetNumChildren() != 1) {
+            throw new Unsupported("the expression must contain a single statement");
+        }
+        return compile(script.jjtGetChild(0), scope, depth);
+    }
+
+    private Node compile(final JexlNode node, final Scope scope, final int depth) throws Unsupported {
+        if (node instanceof ASTNumberLiteral) {
+            return constant(((ASTNumberLiteral) node).getLiteral());
+        } else if (node instanceof ASTTrueNode || node instanceof ASTFalseNode) {
+            final boolean value = node instanceof ASTTrueNode;
+            return new Node(Type.BOOLEAN) {
+                @Override
+                Object evaluate(Frame frame, boolean[] mask) {
+                    final boolean[] values = new boolean[frame.rows];
+                    Arrays.fill(values, value);
+                    return values;
+                }
+            };
+        } else if (node instanceof ASTReference) {
+            return compileReference((ASTReference) node, scope, depth);
+        } else if (node instanceof ASTAdditiveNode) {
+            Node left = compile(node.jjtGetChild(0), scope, depth);
+            for (int c = 2; c < node.jjtGetNumChildren(); c += 2) {
+                final String operator = node.jjtGetChild(c - 1).image;
+                if (!"+".equals(operator) && !"-".equals(operator)) {
+                    throw new Unsupported("unknown operator " + operator);
+                }
+                left = arithmetic(operator.charAt(0), left, compile(node.jjtGetChild(c), scope, depth));
+            }
+            return left;
+        } else if (node instanceof ASTMulNode) {
+            return arithmetic('*', compile(node.jjtGetChild(0), scope, depth), compile(node.jjtGetChild(1), scope, depth));
+        } else if (node instanceof ASTDivNode) {
+            return arithmetic('/', compile(node.jjtGetChild(0), scope, depth), compile(node.jjtGetChild(1), scope, depth));
+        } else if (node instanceof ASTModNode) {
+            return arithmetic('%', compile(node.jjtGetChild(0), scope, depth), compile(node.jjtGetChild(1), scope, depth));
+        } else if (node instanceof ASTUnaryMinusNode) {
+            return negate(node.jjtGetChild(0), scope, depth);
+        } else if (node instanceof ASTLTNode) {
+            return comparison(node, scope, depth, cmp -> cmp < 0);
+        } else if (node instanceof ASTGTNode) {
+            return comparison(node, scope, depth, cmp -> cmp > 0);
+        } else if (node instanceof ASTLENode) {
+            return comparison(node, scope, depth, cmp -> cmp <= 0);
+        } else if (node instanceof ASTGENode) {
+            return comparison(node, scope, depth, cmp -> cmp >= 0);
+        } else if (node instanceof ASTEQNode) {
+            return comparison(node, scope, depth, cmp -> cmp == 0);
+        } else if (node instanceof ASTNENode) {
+            return comparison(node, scope, depth, cmp -> cmp != 0);
+        } else if (node instanceof ASTAndNode || node instanceof ASTOrNode) {
+            return logical(node instanceof ASTAndNode, compile(node.jjtGetChild(0), scope, depth), compile(node.jjtGetChild(1), scope, depth));
+        } else if (node instanceof ASTNotNode) {
+            final Node operand = compile(node.jjtGetChild(0), scope, depth);
+            checkBoolean(operand);
+            return new Node(Type.BOOLEAN) {
+                @Override
+                Object evaluate(Frame frame, boolean[] mask) throws Unsupported {
+                    final boolean[] values = booleans(operand, frame, mask);
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = !values[i];
+                    }
+                    return values;
+                }
+            };
+        } else if (node instanceof ASTTernaryNode && node.jjtGetNumChildren() == 3) {
+            return ternary(compile(node.jjtGetChild(0), scope, depth), compile(node.jjtGetChild(1), scope, depth), compile(node.jjtGetChild(2), scope, depth));
+        }
+        throw new Unsupported("unsupported construct " + node.getClass().getSimpleName());
+    }
+
+    private Node compileReference(final ASTReference node, final Scope scope, final int depth) throws Unsupported {
+        final int numChildren = node.jjtGetNumChildren();
+        if (numChildren == 1) {
+            final JexlNode child = node.jjtGetChild(0);
+            if (child instanceof ASTReferenceExpression && child.jjtGetNumChildren() == 1) {
+                // Parenthesized expression
+                return compile(child.jjtGetChild(0), scope, depth);
+            } else if (child instanceof ASTFunctionNode) {
+                return compileFunction((ASTFunctionNode) child, scope, depth);
+            } else if (child instanceof ASTStringLiteral) {
+                return new StringNode(((ASTStringLiteral) child).getLiteral());
+            }
+        }
+
+        // Variables, including ant-style variables such as 'ds.ifSpeed', which JEXL resolves
+        // by looking up every identifier on its own and the dotted names of all of the prefixes
+        final StringBuilder variableName = new StringBuilder();
+        for (int c = 0; c < numChildren; c++) {
+            final JexlNode child = node.jjtGetChild(c);
+            if (!(child instanceof ASTIdentifier)) {
+                throw new Unsupported("unsupported reference");
+            }
+            if (c > 0) {
+                variableName.append('.');
+                if (scope.resolve(child.image) != null) {
+                    throw new Unsupported("ambiguous variable " + child.image);
+                }
+            }
+            variableName.append(child.image);
+            final Node variable = scope.resolve(variableName.toString());
+            if (variable != null) {
+                if (c != numChildren - 1) {
+                    throw new Unsupported("unsupported property access on " + variableName);
+                }
+                return variable;
+            }
+        }
+        throw new Unsupported("unknown variable " + variableName);
+    }
+
+    private Node compileFunction(final ASTFunctionNode node, final Scope scope, final int depth) throws Unsupported {
+        final String namespace = node.jjtGetChild(0).image;
+        final String function = node.jjtGetChild(1).image;
+        final int numArgs = node.jjtGetNumChildren() - 2;
+
+        if ("math".equals(namespace) || "strictmath".equals(namespace)) {
+            final boolean strict = "strictmath".equals(namespace);
+            if (numArgs == 1) {
+                final DoubleUnaryOperator overloaded = (strict ? STRICTMATH_UNARY_OVERLOADED : MATH_UNARY_OVERLOADED).get(function);
+                final DoubleUnaryOperator op = overloaded != null ? overloaded : (strict ? STRICTMATH_UNARY : MATH_UNARY).get(function);
+                if (op != null) {
+                    final Node arg = argument(node.jjtGetChild(2), scope, depth, overloaded != null);
+                    return new Node(Type.DOUBLE) {
+                        @Override
+                        Object evaluate(Frame frame, boolean[] mask) throws Unsupported {
+                            final double[] values = doubles(arg, frame, mask);
+                            for (int i = 0; i < values.length; i++) {
+                                values[i] = op.applyAsDouble(values[i]);
+                            }
+                            return values;
+                        }
+                    };
+                }
+                if ("round".equals(function)) {
+                    final Node arg = argument(node.jjtGetChild(2), scope, depth, true);
+                    return new Node(Type.LONG) {
+                        @Override
+                        Object evaluate(Frame frame, boolean[] mask) throws Unsupported {
+                            final double[] values = doubles(arg, frame, mask);
+                            final long[] rounded = new long[values.length];
+                            for (int i = 0; i < values.length; i++) {
+                                rounded[i] = strict ? StrictMath.round(values[i]) : Math.round(values[i]);
+                            }
+                            return rounded;
+                        }
+                    };
+                }
+            } else if (numArgs == 2) {
+                final DoubleBinaryOperator overloaded = (strict ? STRICTMATH_BINARY_OVERLOADED : MATH_BINARY_OVERLOADED).get(function);
+                final DoubleBinaryOperator op = overloaded != null ? overloaded : (strict ? STRICTMATH_BINARY : MATH_BINARY).get(function);
+                if (op != null) {
+                    final Node left = argument(node.jjtGetChild(2), scope, depth, overloaded != null);
+                    final Node right = argument(node.jjtGetChild(3), scope, depth, overloaded != null);
+                    return new Node(Type.DOUBLE) {
+                        @Override
+                        Object evaluate(Frame frame, boolean[] mask) throws Unsupported {
+                            final double[] values = doubles(left, frame, mask);
+                            final double[] rightValues = doubles(right, frame, mask);
+                            for (int i = 0; i < values.length; i++) {
+                                values[i] = op.applyAsDouble(values[i], rightValues[i]);
+                            }
+                            return values;
+                        }
+                    };
+                }
+            }
+        } else if ("fn".equals(namespace)) {
+            return compileSampleArrayFunction(node, function, numArgs, scope, depth);
+        } else if ("jexl".equals(namespace) && "evaluate".equals(function) && numArgs == 1) {
+            return compileEvaluate(node.jjtGetChild(2), scope, depth);
+        }
+        throw new Unsupported("unsupported function " + namespace + ":" + function);
+    }
+
+    /**
+     * @see SampleArrayFunctions
+     */
+    private Node compileSampleArrayFunction(final ASTFunctionNode node, final String function, final int numArgs,
+                                            final Scope scope, final int depth) throws Unsupported {
+        if (numArgs != ("arrayStart".equals(function) ? 3 : 2)) {
+            throw new Unsupported("unsupported function fn:" + function);
+        }
+        final String sampleName = string(node.jjtGetChild(2), scope, depth);
+        final Number n = literal(node.jjtGetChild(3));
+        if (!(n instanceof Integer)) {
+            throw new Unsupported("the sample offset must be an integer literal");
+        }
+        final int offset = n.intValue();
+
+        final double before;
+        if ("arrayZero".equals(function)) {
+            before = 0d;
+        } else if ("arrayNaN".equals(function)) {
+            before = Double.NaN;
+        } else if ("arrayStart".equals(function)) {
+            final Number start = literal(node.jjtGetChild(4));
+            if (start == null || start instanceof java.math.BigInteger || start instanceof java.math.BigDecimal) {
+                throw new Unsupported("the start value must be a number literal");
+            }
+            before = start.doubleValue();
+        } else if (!"arrayFirst".equals(function)) {
+            throw new Unsupported("unsupported function fn:" + function);
+        } else {
+            before = Double.NaN; // replaced by the first sample
+        }
+        final boolean first = "arrayFirst".equals(function);
+
+        final String sample = scope.sampleArray(sampleName);
+        return new Node(Type.DOUBLE) {
+            @Override
+            Object evaluate(Frame frame, boolean[] mask) {
+                final double[] values = new double[frame.rows];
+                final double[] samples = sample != null ? frame.columns.get(sample) : null;
+                for (int i = 0; i < values.length; i++) {
+                    if (samples == null) {
+                        // Not in the context
+                        values[i] = Double.NaN;
+                    } else if (i - offset < 0) {
+                        values[i] = first ? samples[0] : before;
+                    } else if (i - offset < samples.length) {
+                        values[i] = samples[i - offset];
+                    } else {
+                        values[i] = Double.NaN;
+                    }
+                }
+                return values;
+            }
+        };
+    }
+
+    /**
+     * @see JexlEvaluateFunctions
+     */
+    private Node compileEvaluate(final JexlNode arg, final Scope scope, final int depth) throws Unsupported {
+        if (depth >= MAX_EVALUATE_DEPTH) {
+            throw new Unsupported("too many nested evaluations");
+        }
+        final ASTJexlScript script = parse(string(arg, scope, depth));
+        if (script.jjtGetNumChildren() == 1 && mayReturnFloat(script.jjtGetChild(0))) {
+            throw new Unsupported("unsupported float result of jexl:evaluate()");
+        }
+        final Node formula = compile(script, scope, depth + 1);
+        if (formula.type == Type.DOUBLE) {
+            return formula;
+        } else if (formula.type == Type.LONG || formula.type == Type.BOOLEAN) {
+            // The result cannot be cast to a Double
+            return constant(Double.NaN);
+        }
+        throw new Unsupported("unsupported result of jexl:evaluate()");
+    }
+
+    /**
+     * Float literals are treated as doubles by the arithmetic, but cannot be cast to a Double.
+     */
+    private static boolean mayReturnFloat(final JexlNode node) {
+        if (node instanceof ASTTernaryNode) {
+            for (int c = 1; c < node.jjtGetNumChildren(); c++) {
+                if (mayReturnFloat(node.jjtGetChild(c))) {
+                    return true;
+                }
+            }
+            return false;
+        } else if (node instanceof ASTReference && node.jjtGetNumChildren() == 1
+                && node.jjtGetChild(0) instanceof ASTReferenceExpression && node.jjtGetChild(0).jjtGetNumChildren() == 1) {
+            return mayReturnFloat(node.jjtGetChild(0).jjtGetChild(0));
+        } else if (node instanceof ASTUnaryMinusNode) {
+            return mayReturnFloat(node.jjtGetChild(0));
+        }
+        return node instanceof ASTNumberLiteral && ((ASTNumberLiteral) node).getLiteral() instanceof Float;
+    }
+
+    /**
+     * Compiles an argument of a function which takes doubles.
+     *
+     * @param exact when <code>true</code> the argument must be a double, otherwise it is widened
+     */
+    private Node argument(final JexlNode node, final Scope scope, final int depth, final boolean exact) throws Unsupported {
+        if (mayReturnFloat(node)) {
+            // Reflection widens the float itself, whereas the JEXL arithmetic goes through its string representation
+            final Number literal = literal(node);
+            if (exact || !(literal instanceof Float)) {
+                throw new Unsupported("unsupported float argument");
+            }
+            return constant(literal.doubleValue());
+        }
+        final Node arg = compile(node, scope, depth);
+        if (arg.type == Type.DOUBLE || (!exact && arg.type == Type.LONG)) {
+            return arg;
+        }
+        throw new Unsupported("unsupported function argument");
+    }
+
+    private String string(final JexlNode node, final Scope scope, final int depth) throws Unsupported {
+        final Node value = compile(node, scope, depth);
+        if (value instanceof StringNode) {
+            return ((StringNode) value).value;
+        }
+        throw new Unsupported("expected a string");
+    }
+
+    /**
+     * @return the value of a number literal, possibly negated, or <code>null</code>
+     */
+    private static Number literal(final JexlNode node) {
+        if (node instanceof ASTNumberLiteral) {
+            return ((ASTNumberLiteral) node).getLiteral();
+        } else if (node instanceof ASTUnaryMinusNode && node.jjtGetChild(0) instanceof ASTNumberLiteral) {
+            final Number value = ((ASTNumberLiteral) node.jjtGetChild(0)).getLiteral();
+            if (value instanceof Integer) {
+                return -value.intValue();
+            } else if (value instanceof Long) {
+                return -value.longValue();
+            } else if (value instanceof Float) {
+                return -value.floatValue();
+            } else if (value instanceof Double) {
+                return -value.doubleValue();
+            }
+        }
+        return null;
+    }
+
+    private static Node constant(final Object value) throws Unsupported {
+        final Type type;
+        final double doubleValue;
+        final long longValue;
+        if (value instanceof Double) {
+            type = Type.DOUBLE;
+            doubleValue = (Double) value;
+            longValue = 0;
+        } else if (value instanceof Float) {
+            // Same conversion as JexlArithmetic.toDouble()
+            type = Type.DOUBLE;
+            doubleValue = Double.parseDouble(String.valueOf(value));
+            longValue = 0;
+        } else if (value instanceof Integer || value instanceof Long) {
+            type = Type.LONG;
+            doubleValue = 0;
+            longValue = ((Number) value).longValue();
+        } else {
+            throw new Unsupported("unsupported constant of type " + (value == null ? null : value.getClass().getSimpleName()));
+        }
+        return new Node(type) {
+            @Override
+            Object evaluate(Frame frame, boolean[] mask) {
+                if (type == Type.DOUBLE) {
+                    final double[] values = new double[frame.rows];
+                    Arrays.fill(values, doubleValue);
+                    return values;
+                }
+                final long[] values = new long[frame.rows];
+                Arrays.fill(values, longValue);
+                return values;
+            }
+        };
+    }
+
+    private Node negate(final JexlNode operandNode, final Scope scope, final int depth) throws Unsupported {
+        final Number literal = literal(operandNode.jjtGetParent());
+        if (literal != null) {
+            return constant(literal);
+        }
+        final Node operand = compile(operandNode, scope, depth);
+        if (operand.type == Type.DOUBLE) {
+            return new Node(Type.DOUBLE) {
+                @Override
+                Object evaluate(Frame frame, boolean[] mask) throws Unsupported {
+                    final double[] values = doubles(operand, frame, mask);
+                    for (int i = 0; i < values.length; i++) {
+                        values[i] = -values[i];
+                    }
+                    return values;
+                }
+            };
+        } else if (operand.type == Type.LONG) {
+            return new Node(Type.LONG) {
+                @Override
+                Object evaluate(Frame frame, boolean[] mask) throws Unsupported {
+                    final long[] values = (long[]) operand.evaluate(frame, mask);
+                    for (int i = 0; i < values.length; i++) {
+                        if (values[i] == Integer.MIN_VALUE || values[i] == Long.MIN_VALUE) {
+                            // Integers wrap around in JEXL
+                            frame.unsupported(mask, i, "negation overflow");
+                            values[i] = 0;
+                        } else {
+                            values[i] = -values[i];
+                        }
+                    }
+                    return values;
+                }
+            };
+        }
+        throw new Unsupported("unsupported negation");
+    }
+
+    /**
+     * JEXL uses doubles as soon as either operand is a floating point number, and big integers otherwise.
+     */
+    private static Node arithmetic(final char operator, final Node left, final Node right) throws Unsupported {
+        if ((left.type == Type.DOUBLE && isNumber(right)) || (right.type == Type.DOUBLE && isNumber(left))) {
+            return new Node(Type.DOUBLE) {
+                @Override
+                Object evaluate(Frame frame, boolean[] mask) throws Unsupported {
+                    final double[] l = doubles(left, frame, mask);
+                    final double[] r = doubles(right, frame, mask);
+                    for (int i = 0; i < l.length; i++) {
+                        switch (operator) {
+                            case '+': l[i] = l[i] + r[i]; break;
+                            case '-': l[i] = l[i] - r[i]; break;
+                            case '*': l[i] = l[i] * r[i]; break;
+                            case '/':
+                            case '%':
+                                if (r[i] == 0.0) {
+                                    frame.unsupported(mask, i, "division by zero");
+                                    l[i] = Double.NaN;
+                                } else {
+                                    l[i] = operator == '/' ? l[i] / r[i] : l[i] % r[i];
+                                }
+                                break;
+                        }
+                    }
+                    return l;
+                }
+            };
+        } else if (left.type == Type.LONG && right.type == Type.LONG) {
+            return new Node(Type.LONG) {
+                @Override
+                Object evaluate(Frame frame, boolean[] mask) throws Unsupported {
+                    final long[] l = (long[]) left.evaluate(frame, mask);
+                    final long[] r = (long[]) right.evaluate(frame, mask);
+                    for (int i = 0; i < l.length; i++) {
+                        try {
+                            switch (operator) {
+                                case '+': l[i] = Math.addExact(l[i], r[i]); break;
+                                case '-': l[i] = Math.subtractExact(l[i], r[i]); break;
+                                case '*': l[i] = Math.multiplyExact(l[i], r[i]); break;
+                                case '/':
+                                    if (r[i] == 0 || (l[i] == Long.MIN_VALUE && r[i] == -1)) {
+                                        throw new ArithmeticException("/");
+                                    }
+                                    l[i] = l[i] / r[i];
+                                    break;
+                                case '%':
+                                    // BigInteger.mod() requires a positive modulus
+                                    if (r[i] <= 0) {
+                                        throw new ArithmeticException("%");
+                                    }
+                                    l[i] = Math.floorMod(l[i], r[i]);
+                                    break;
+                            }
+                        } catch (ArithmeticException e) {
+                            // Either an error, or a result which requires a BigInteger
+                            frame.unsupported(mask, i, "integer overflow or division by zero");
+                            l[i] = 0;
+                        }
+                    }
+                    return l;
+                }
+            };
+        }
+        throw new Unsupported("unsupported operands for " + operator);
+    }
+
+    private interface Comparison {
+        boolean test(int cmp);
+    }
+
+    private Node comparison(final JexlNode node, final Scope scope, final int depth, final Comparison comparison) throws Unsupported {
+        final Node left = compile(node.jjtGetChild(0), scope, depth);
+        final Node right = compile(node.jjtGetChild(1), scope, depth);
+        if ((left.type == Type.DOUBLE && isNumber(right)) || (right.type == Type.DOUBLE && isNumber(left))) {
+            return new Node(Type.BOOLEAN) {
+                @Override
+                Object evaluate(Frame frame, boolean[] mask) throws Unsupported {
+                    final double[] l = doubles(left, frame, mask);
+                    final double[] r = doubles(right, frame, mask);
+                    final boolean[] values = new boolean[l.length];
+                    for (int i = 0; i < l.length; i++) {
+                        // Same ordering as JexlArithmetic.compare(), where NaN is smaller than any other value
+                        final int cmp;
+                        if (Double.isNaN(l[i])) {
+                            cmp = Double.isNaN(r[i]) ? 0 : -1;
+                        } else if (Double.isNaN(r[i])) {
+                            cmp = 1;
+                        } else {
+                            cmp = l[i] < r[i] ? -1 : (l[i] > r[i] ? 1 : 0);
+                        }
+                        values[i] = comparison.test(cmp);
+                    }
+                    return values;
+                }
+            };
+        } else if (left.type == Type.LONG && right.type == Type.LONG) {
+            return new Node(Type.BOOLEAN) {
+                @Override
+                Object evaluate(Frame frame, boolean[] mask) throws Unsupported {
+                    final long[] l = (long[]) left.evaluate(frame, mask);
+                    final long[] r = (long[]) right.evaluate(frame, mask);
+                    final boolean[] values = new boolean[l.length];
+                    for (int i = 0; i < l.length; i++) {
+                        values[i] = comparison.test(Long.compare(l[i], r[i]));
+                    }
+                    return values;
+                }
+            };
+        }
+        throw new Unsupported("unsupported comparison");
+    }
+
+    private static Node logical(final boolean and, final Node left, final Node right) throws Unsupported {
+        checkBoolean(left);
+        checkBoolean(right);
+        return new Node(Type.BOOLEAN) {
+            @Override
+            Object evaluate(Frame frame, boolean[] mask) throws Unsupported {
+                final boolean[] values = booleans(left, frame, mask);
+                // Only evaluate the right operand for the rows where it is needed
+                final boolean[] rightMask = new boolean[values.length];
+                for (int i = 0; i < values.length; i++) {
+                    rightMask[i] = (mask == null || mask[i]) && values[i] == and;
+                }
+                final boolean[] rightValues = booleans(right, frame, rightMask);
+                for (int i = 0; i < values.length; i++) {
+                    if (values[i] == and) {
+                        values[i] = rightValues[i];
+                    }
+                }
+                return values;
+            }
+        };
+    }
+
+    private static Node ternary(final Node condition, final Node then, final Node otherwise) throws Unsupported {
+        checkBoolean(condition);
+        final Type type;
+        if (then.type == otherwise.type && then.type != Type.STRING) {
+            type = then.type;
+        } else if (isNumber(then) && isNumber(otherwise)) {
+            // The type differs from one row to the next
+            type = Type.NUMBER;
+        } else {
+            throw new Unsupported("unsupported conditional");
+        }
+        return new Node(type) {
+            @Override
+            Object evaluate(Frame frame, boolean[] mask) throws Unsupported {
+                final boolean[] conditions = booleans(condition, frame, mask);
+                final boolean[] thenMask = new boolean[conditions.length];
+                final boolean[] otherwiseMask = new boolean[conditions.length];
+                for (int i = 0; i < conditions.length; i++) {
+                    thenMask[i] = (mask == null || mask[i]) && conditions[i];
+                    otherwiseMask[i] = (mask == null || mask[i]) && !conditions[i];
+                }
+                if (type == Type.BOOLEAN) {
+                    final boolean[] values = booleans(then, frame, thenMask);
+                    final boolean[] otherwiseValues = booleans(otherwise, frame, otherwiseMask);
+                    for (int i = 0; i < values.length; i++) {
+                        if (!conditions[i]) {
+                            values[i] = otherwiseValues[i];
+                        }
+                    }
+                    return values;
+                } else if (type == Type.LONG) {
+                    final long[] values = (long[]) then.evaluate(frame, thenMask);
+                    final long[] otherwiseValues = (long[]) otherwise.evaluate(frame, otherwiseMask);
+                    for (int i = 0; i < values.length; i++) {
+                        if (!conditions[i]) {
+                            values[i] = otherwiseValues[i];
+                        }
+                    }
+                    return values;
+                }
+                final double[] values = doubles(then, frame, thenMask);
+                final double[] otherwiseValues = doubles(otherwise, frame, otherwiseMask);
+                for (int i = 0; i < values.length; i++) {
+                    if (!conditions[i]) {
+                        values[i] = otherwiseValues[i];
+                    }
+                }
+                return values;
+            }
+        };
+    }
+
+    private static boolean isNumber(final Node node) {
+        return node.type == Type.DOUBLE || node.type == Type.LONG || node.type == Type.NUMBER;
+    }
+
+    private static void checkBoolean(final Node node) throws Unsupported {
+        if (node.type == Type.STRING) {
+            throw new Unsupported("unsupported boolean coercion");
+        }
+    }
+
+    /**
+     * Evaluates a numeric node to doubles, the returned array can be modified by the caller.
+     */
+    private static double[] doubles(final Node node, final Frame frame, final boolean[] mask) throws Unsupported {
+        final Object values = node.evaluate(frame, mask);
+        if (values instanceof double[]) {
+            return (double[]) values;
+        }
+        final long[] longs = (long[]) values;
+        final double[] doubles = new double[longs.length];
+        for (int i = 0; i < longs.length; i++) {
+            doubles[i] = longs[i];
+        }
+        return doubles;
+    }
+
+    /**
+     * Same coercion as JexlArithmetic.toBoolean(), the returned array can be modified by the caller.
+     */
+    private static boolean[] booleans(final Node node, final Frame frame, final boolean[] mask) throws Unsupported {
+        final Object values = node.evaluate(frame, mask);
+        if (values instanceof boolean[]) {
+            return (boolean[]) values;
+        }
+        final boolean[] booleans = new boolean[frame.rows];
+        if (values instanceof long[]) {
+            final long[] longs = (long[]) values;
+            for (int i = 0; i < booleans.length; i++) {
+                booleans[i] = longs[i] != 0;
+            }
+        } else {
+            final double[] doubles = (double[]) values;
+            for (int i = 0; i < booleans.length; i++) {
+                booleans[i] = !Double.isNaN(doubles[i]) && doubles[i] != 0.d;
+            }
+        }
+        return booleans;
+    }
+
+    private enum Type {
+        DOUBLE,
+        LONG,
+        /**
+         * Either a double or an integer, depending on the row.
+         */
+        NUMBER,
+        BOOLEAN,
+        STRING
+    }
+
+    /**
+     * A compiled node, evaluated for all of the rows at once.
+     */
+    private static abstract class Node {
+        final Type type;
+
+        Node(final Type type) {
+            this.type = type;
+        }
+
+        /**
+         * Evaluates the node for all of the rows. The mask selects the rows for which JEXL would evaluate
+         * the node, errors on other rows are ignored.
+         *
+         * @return a new double[], long[] or boolean[] depending on the type
+         */
+        abstract Object evaluate(Frame frame, boolean[] mask) throws Unsupported;
+    }
+
+    private static class StringNode extends Node {
+        final String value;
+
+        StringNode(final String value) {
+            super(Type.STRING);
+            this.value = value;
+        }
+
+        @Override
+        Object evaluate(Frame frame, boolean[] mask) throws Unsupported {
+            throw new Unsupported("unsupported string");
+        }
+    }
+
+    /**
+     * The columns and values available to the expressions of a request.
+     */
+    private static class Frame {
+        final List<Expression> expressions;
+        final int rows;
+        final long[] timestamps;
+        final Map<String, double[]> columns;
+        final Map<String, Object> constants;
+        final long step;
+        final double[][] values;
+
+        Frame(final List<Expression> expressions, final FetchResults results) {
+            this.expressions = expressions;
+            this.timestamps = results.getTimestamps();
+            this.rows = timestamps.length;
+            this.columns = results.getColumns();
+            this.constants = results.getConstants();
+            this.step = results.getStep();
+            this.values = new double[expressions.size()][];
+        }
+
+        void unsupported(final boolean[] mask, final int row, final String reason) throws Unsupported {
+            if (mask == null || mask[row]) {
+                throw new Unsupported(reason + " on row " + row);
+            }
+        }
+    }
+
+    /**
+     * Resolves variables the same way as the JEXL context built by the {@link JEXLExpressionEngine}
+     * when evaluating a given expression.
+     */
+    private static class Scope {
+        final Frame frame;
+        final int expression;
+
+        Scope(final Frame frame, final int expression) {
+            this.frame = frame;
+            this.expression = expression;
+        }
+
+        /**
+         * @return the node for the variable, or <code>null</code> if the variable is not in the context
+         */
+        Node resolve(final String name) throws Unsupported {
+            // The values of the row are added to the context before evaluating every expression
+            final double[] column = frame.columns.get(name);
+            if (column != null) {
+                if (name.startsWith("__") && frame.columns.containsKey(name.substring(2))) {
+                    throw new Unsupported("ambiguous variable " + name);
+                }
+                return new Node(Type.DOUBLE) {
+                    @Override
+                    Object evaluate(Frame frame, boolean[] mask) {
+                        return column.clone();
+                    }
+                };
+            }
+            if (name.startsWith("__") && frame.columns.containsKey(name.substring(2))) {
+                throw new Unsupported("the sample array " + name + " can only be used with fn:");
+            }
+            if ("timestamp".equals(name) || "__i".equals(name)) {
+                final boolean index = "__i".equals(name);
+                return new Node(Type.LONG) {
+                    @Override
+                    Object evaluate(Frame frame, boolean[] mask) {
+                        if (!index) {
+                            return frame.timestamps.clone();
+                        }
+                        final long[] values = new long[frame.rows];
+                        for (int i = 0; i < values.length; i++) {
+                            values[i] = i;
+                        }
+                        return values;
+                    }
+                };
+            }
+
+            // Values of the previous expressions in the row
+            for (int k = expression - 1; k >= 0; k--) {
+                if (name.equals(frame.expressions.get(k).getLabel())) {
+                    final int previous = k;
+                    return new Node(Type.DOUBLE) {
+                        @Override
+                        Object evaluate(Frame frame, boolean[] mask) {
+                            return frame.values[previous].clone();
+                        }
+                    };
+                }
+            }
+            for (int k = expression; k < frame.expressions.size(); k++) {
+                if (name.equals(frame.expressions.get(k).getLabel())) {
+                    throw new Unsupported("reference to the value of " + name + " in the previous row");
+                }
+            }
+
+            switch (name) {
+                case "__inf": return constant(Double.POSITIVE_INFINITY);
+                case "__neg_inf": return constant(Double.NEGATIVE_INFINITY);
+                case "NaN": return constant(Double.NaN);
+                case "__E": return constant(Math.E);
+                case "__PI": return constant(Math.PI);
+                case "__diff_time": return constant(frame.rows < 1 ? 0d : (double) (frame.timestamps[frame.rows - 1] - frame.timestamps[0]));
+                case "__step": return constant(frame.step);
+            }
+
+            final Object value = frame.constants.get(name);
+            if (value instanceof String) {
+                return new StringNode((String) value);
+            } else if (value != null && !(value instanceof Float)) {
+                return constant(value);
+            } else if (value != null) {
+                throw new Unsupported("unsupported constant " + name);
+            }
+            return null;
+        }
+
+        /**
+         * @return the label of the column used by the fn: functions for the given sample name, or
+         *         <code>null</code> if the sample array is not in the context
+         */
+        String sampleArray(final String sampleName) throws Unsupported {
+            if (frame.columns.containsKey("__" + sampleName) || frame.columns.containsKey("__i")) {
+                throw new Unsupported("ambiguous sample array " + sampleName);
+            }
+            if (frame.columns.containsKey(sampleName)) {
+                return sampleName;
+            }
+            if (resolve("__" + sampleName) != null) {
+                throw new Unsupported("the sample array " + sampleName + " is not an array");
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Thrown when the expressions must be evaluated by JEXL instead.
+     */
+    private static class Unsupported extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        Unsupported(final String reason) {
+            super(reason, null, false, false);
+        }
+    }
+}
@@ -44,7 +44,6 @@ import org.opennms.netmgt.measurements.model.QueryRequest;
 import org.opennms.netmgt.measurements.utils.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.stereotype.Component;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Maps;
@@ -52,9 +51,10 @@ import com.google.common.collect.Maps;
 /**
  * An expression engine implemented using JEXL.
  *
+ * Used by the {@link CompiledExpressionEngine} for the expressions it cannot compile.
+ *
  * @author jwhite
  */
-@Component("expressionEngine")
 public class JEXLExpressionEngine implements ExpressionEngine {
 
     private static final Logger LOG = LoggerFactory.getLogger(JEXLExpressionEngine.class);
@@ -0,0 +1,206 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import org.opennms.netmgt.measurements.api.FetchResults;
+import org.opennms.netmgt.measurements.api.exceptions.ExpressionException;
+import org.opennms.netmgt.measurements.model.Expression;
+import org.opennms.netmgt.measurements.model.QueryRequest;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+/**
+ * Verifies that the compiled expressions return the same results as JEXL.
+ */
+public class CompiledExpressionEngineTest {
+
+    private static final int NUM_ROWS = 500;
+
+    private final JEXLExpressionEngine jexlExpressionEngine = new JEXLExpressionEngine();
+
+    private final CompiledExpressionEngine compiledExpressionEngine = new CompiledExpressionEngine(jexlExpressionEngine, true);
+
+    @Test
+    public void canCompileCommonExpressions() throws ExpressionException {
+        for (final String expression : Arrays.asList(
+                "a * 8",
+                "a * 8 / 1000",
+                "8 / 1000 * a",
+                "(a + b) * 2 - c",
+                "-a + -5 - -0.1",
+                "a % 7 + a * 0.1",
+                "b != 0 ? a / b : 0",
+                "a < b && c > 0 ? 1 : 0.5",
+                "!(a > 1) || b == c ? 1.5 : -1",
+                "a == NaN ? 0 : a",
+                "a > NaN || b < __inf ? 1 : 2",
+                "( ( a == __inf ) || ( a == __neg_inf ) || ( c < a ) || ( c > b ) ) ? NaN : c",
+                "( ( a == NaN ) ? b : ( ( b == NaN ) ? a : math:min(a,b) ) )",
+                "math:abs(a) + math:sqrt(b) + math:pow(a, 2) + math:pow(b, 0.1) + math:max(a, b)",
+                "strictmath:sin(a) + math:log10(__step) + math:round(c)",
+                "fn:arrayNaN('a', 1) + fn:arrayZero('a', 1)",
+                "fn:arrayFirst('b', 2) - fn:arrayStart('c', 1, 0.1) + fn:arrayNaN('c', -1)",
+                "fn:arrayNaN('missing', 1)",
+                "timestamp / 1000 + __i % 3",
+                "__diff_time / __step * __E - __PI",
+                "speed.ifSpeed > 0 ? a * 8 / speed.ifSpeed : NaN",
+                "jexl:evaluate(formula) + jexl:evaluate('a * 2')",
+                "jexl:evaluate('1 + 1')",
+                "__i > 10 ? timestamp * 2 : a")) {
+            assertTrue(expression, compiles(expression));
+            assertSameResults(expression);
+        }
+    }
+
+    @Test
+    public void fallsBackToJexl() throws ExpressionException {
+        for (final String expression : Arrays.asList(
+                // Division by zero
+                "a / b",
+                "__i / (__i % 2)",
+                // Integer overflow
+                "timestamp * timestamp * 1000",
+                // Unknown variables and properties
+                "x + 1",
+                "a.ifSpeed",
+                // Booleans and strings are not numbers
+                "a > 1",
+                "'a' + 1",
+                // Unsupported constructs
+                "a = 1",
+                "a; b",
+                "a =~ 'b'",
+                "size(a)",
+                "math:abs(__i)",
+                "fn:arrayNaN('a', __i)",
+                "/")) {
+            assertFalse(expression, compiles(expression));
+            assertSameResults(expression);
+        }
+    }
+
+    @Test
+    public void canReferencePreviousExpressions() throws ExpressionException {
+        final List<Expression> expressions = Lists.newArrayList(
+                new Expression("x", "a * 2", true),
+                new Expression("y", "x + b", false),
+                new Expression("z", "x > y ? x : y", false));
+
+        final FetchResults jexlResults = createResults();
+        jexlExpressionEngine.applyExpressions(createRequest(expressions), jexlResults);
+        final FetchResults compiledResults = createResults();
+        assertTrue(compiledExpressionEngine.applyCompiledExpressions(createRequest(expressions), compiledResults));
+
+        assertFalse(compiledResults.getColumns().containsKey("x"));
+        assertArrayEquals(jexlResults.getColumns().get("y"), compiledResults.getColumns().get("y"), 0);
+        assertArrayEquals(jexlResults.getColumns().get("z"), compiledResults.getColumns().get("z"), 0);
+
+        // References to expressions which are evaluated later use the value from the previous row
+        expressions.add(0, new Expression("w", "z", false));
+        assertFalse(compiledExpressionEngine.applyCompiledExpressions(createRequest(expressions), createResults()));
+    }
+
+    private boolean compiles(String expression) {
+        final List<Expression> expressions = Lists.newArrayList(new Expression("result", expression, false));
+        return compiledExpressionEngine.applyCompiledExpressions(createRequest(expressions), createResults());
+    }
+
+    private void assertSameResults(String expression) {
+        final List<Expression> expressions = Lists.newArrayList(new Expression("result", expression, false));
+
+        double[] expected = null;
+        try {
+            final FetchResults results = createResults();
+            jexlExpressionEngine.applyExpressions(createRequest(expressions), results);
+            expected = results.getColumns().get("result");
+        } catch (ExpressionException e) {
+            // expected is null
+        }
+
+        try {
+            final FetchResults results = createResults();
+            compiledExpressionEngine.applyExpressions(createRequest(expressions), results);
+            if (expected == null) {
+                fail("JEXL failed to evaluate " + expression);
+            }
+            final double[] actual = results.getColumns().get("result");
+            assertEquals(expression, expected.length, actual.length);
+            for (int i = 0; i < expected.length; i++) {
+                assertEquals(expression + " on row " + i, Double.doubleToLongBits(expected[i]), Double.doubleToLongBits(actual[i]));
+            }
+        } catch (ExpressionException e) {
+            if (expected != null) {
+                throw new AssertionError("Failed to evaluate " + expression, e);
+            }
+        }
+    }
+
+    private static QueryRequest createRequest(List<Expression> expressions) {
+        final QueryRequest request = new QueryRequest();
+        request.setExpressions(expressions);
+        return request;
+    }
+
+    private static FetchResults createResults() {
+        final Random random = new Random(42);
+        final long[] timestamps = new long[NUM_ROWS];
+        final double[] a = new double[NUM_ROWS];
+        final double[] b = new double[NUM_ROWS];
+        final double[] c = new double[NUM_ROWS];
+        for (int i = 0; i < NUM_ROWS; i++) {
+            timestamps[i] = 1600000000000L + i * 300000L;
+            a[i] = i % 11 == 0 ? Double.NaN : random.nextGaussian() * 1000;
+            b[i] = i % 13 == 0 ? 0 : Math.floor(random.nextDouble() * 10);
+            c[i] = i % 17 == 0 ? Double.POSITIVE_INFINITY : random.nextDouble() - 0.5;
+        }
+
+        final Map<String, double[]> columns = Maps.newHashMap();
+        columns.put("a", a);
+        columns.put("b", b);
+        columns.put("c", c);
+
+        final Map<String, Object> constants = Maps.newHashMap();
+        constants.put("speed.ifSpeed", 100000000d);
+        constants.put("formula", "a * 2 + b");
+        return new FetchResults(timestamps, columns, 300000L, constants, null);
+    }
+}
@@ -0,0 +1,57 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.measurements.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+import org.opennms.core.utils.TimeSeries;
+import org.opennms.netmgt.rrd.jrobin.CoalescingJRobinRrdStrategy;
+import org.opennms.netmgt.rrd.jrobin.JRobinRrdStrategy;
+import org.opennms.netmgt.rrd.rrdtool.JniRrdStrategy;
+
+public class JrobinFetchStrategyProviderTest {
+
+    private final JrobinFetchStrategyProvider provider = new JrobinFetchStrategyProvider();
+
+    @Test
+    public void canProvideForJRobinStrategies() {
+        assertEquals(JrobinFetchStrategy.class, provider.getStrategyClass(TimeSeries.RRD_TIME_SERIES_STRATEGY_NAME,
+                JRobinRrdStrategy.class.getCanonicalName()));
+        assertEquals(JrobinFetchStrategy.class, provider.getStrategyClass(TimeSeries.RRD_TIME_SERIES_STRATEGY_NAME,
+                CoalescingJRobinRrdStrategy.class.getCanonicalName()));
+    }
+
+    @Test
+    public void doesNotProvideForOtherStrategies() {
+        assertNull(provider.getStrategyClass(TimeSeries.RRD_TIME_SERIES_STRATEGY_NAME, JniRrdStrategy.class.getCanonicalName()));
+        assertNull(provider.getStrategyClass("newts", JRobinRrdStrategy.class.getCanonicalName()));
+    }
+}
@@ -30,9 +30,14 @@ package org.opennms.netmgt.newts;
 
 import java.time.Duration;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.stream.Collectors;
 
@@ -40,10 +45,13 @@ import javax.inject.Inject;
 import javax.inject.Named;
 
 import org.opennms.core.logging.Logging;
+import org.opennms.netmgt.newts.support.ContextConfigurationFactory;
 import org.opennms.netmgt.newts.support.NewtsUtils;
+import org.opennms.newts.api.Context;
 import org.opennms.newts.api.Sample;
 import org.opennms.newts.api.SampleRepository;
 import org.opennms.newts.api.search.Indexer;
+import org.opennms.newts.cassandra.ContextConfigurations;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.DisposableBean;
@@ -70,6 +78,12 @@ import com.swrve.ratelimitedlogger.RateLimitedLog;
  * Calls to {@link #insert()} publish the samples to a ring buffer so
  * that they don't block while the data is being persisted.
  *
+ * Unless the batch linger is disabled, the consumers regroup the samples
+ * by Cassandra partition using a {@link PartitionedSampleBuffer} so that
+ * every batch handed to the repository targets a single partition. Partial
+ * batches are written as soon as the ring buffer is empty, or once they
+ * have been held for longer than the linger.
+ *
  * @author jwhite
  */
 public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBean {
@@ -87,6 +101,9 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
     @Autowired
     private Indexer m_indexer;
 
+    @Autowired(required=false)
+    private ContextConfigurations m_contextConfigurations = ContextConfigurationFactory.getContextConfigurations();
+
     private WorkerPool<SampleBatchEvent> m_workerPool;
 
     private RingBuffer<SampleBatchEvent> m_ringBuffer;
@@ -99,6 +116,19 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
 
     private final Meter m_droppedSamples;
 
+    /**
+     * Samples held by each of the consumer threads, keyed by thread.
+     */
+    private final Map<Thread, PartitionedSampleBuffer> m_buffers = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService m_flusher;
+
+    private ScheduledFuture<?> m_flushTask;
+
+    private volatile long m_batchLingerMs = DEFAULT_BATCH_LINGER_MS;
+
+    public static final long DEFAULT_BATCH_LINGER_MS = 250;
+
     /**
      * The {@link RingBuffer} doesn't appear to expose any methods that indicate the number
      * of elements that are currently "queued", so we keep track of them with this atomic counter.
@@ -138,6 +168,10 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
 
         LOG.debug("Using max_batch_size: {} and ring_buffer_size: {}", maxBatchSize, m_ringBufferSize);
         setUpWorkerPool();
+
+        m_flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+                .setNameFormat("NewtsWriter-Flusher-%d").setDaemon(true).build());
+        setBatchLingerMs(m_batchLingerMs);
     }
 
     private void setUpWorkerPool() {
@@ -168,6 +202,13 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
         if (m_workerPool != null) {
             m_workerPool.drainAndHalt();
         }
+        m_flusher.shutdownNow();
+        // Write out whatever the consumers were still holding on to
+        for (PartitionedSampleBuffer buffer : m_buffers.values()) {
+            for (List<Sample> batch : buffer.drain()) {
+                write(batch, false);
+            }
+        }
     }
 
     public void insert(List<Sample> samples) {
@@ -209,30 +250,70 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
         // Decrement our entry counter
         m_numEntriesOnRingBuffer.decrementAndGet();
 
-        // Partition the samples into collections smaller then max_batch_size
-        for (List<Sample> batch : Lists.partition(samples, m_maxBatchSize)) {
-            try {
-                if (event.isIndexOnly() && !NewtsUtils.DISABLE_INDEXING) {
-                    LOG.debug("Indexing {} samples", batch.size());
-                    m_indexer.update(batch);
-                } else {
-                    LOG.debug("Inserting {} samples", batch.size());
-                    m_sampleRepository.insert(batch);
-                }
+        final long batchLingerMs = m_batchLingerMs;
+        if (event.isIndexOnly() || batchLingerMs <= 0) {
+            // Partition the samples into collections smaller then max_batch_size
+            for (List<Sample> batch : Lists.partition(samples, m_maxBatchSize)) {
+                write(batch, event.isIndexOnly());
+            }
+            return;
+        }
+
+        // Regroup the samples by partition, writing out the partitions which fill a complete batch
+        final PartitionedSampleBuffer buffer = m_buffers.computeIfAbsent(Thread.currentThread(),
+                t -> new PartitionedSampleBuffer(m_maxBatchSize, this::getResourceShard));
+        for (List<Sample> batch : buffer.add(samples)) {
+            write(batch, false);
+        }
+
+        // Don't hold on to the partial batches when there is nothing left to combine them with
+        if (m_numEntriesOnRingBuffer.get() < 1 || buffer.isOlderThan(TimeUnit.MILLISECONDS.toNanos(batchLingerMs))) {
+            for (List<Sample> batch : buffer.drain()) {
+                write(batch, false);
+            }
+        }
+    }
+
+    private void write(List<Sample> batch, boolean indexOnly) {
+        try {
+            if (indexOnly && !NewtsUtils.DISABLE_INDEXING) {
+                LOG.debug("Indexing {} samples", batch.size());
+                m_indexer.update(batch);
+            } else {
+                LOG.debug("Inserting {} samples", batch.size());
+                m_sampleRepository.insert(batch);
+            }
+
+            if (LOG.isDebugEnabled()) {
+                String uniqueResourceIds = batch.stream()
+                    .map(s -> s.getResource().getId())
+                    .distinct()
+                    .collect(Collectors.joining(", "));
+                LOG.debug("Successfully inserted samples for resources with ids {}", uniqueResourceIds);
+            }
+        } catch (Throwable t) {
+            RATE_LIMITED_LOGGER.error("An error occurred while inserting samples. Some sample may be lost.", t);
+        }
+    }
 
-                if (LOG.isDebugEnabled()) {
-                    String uniqueResourceIds = batch.stream()
-                        .map(s -> s.getResource().getId())
-                        .distinct()
-                        .collect(Collectors.joining(", "));
-                    LOG.debug("Successfully inserted samples for resources with ids {}", uniqueResourceIds);
+    /**
+     * Writes out the partial batches of the consumers which have been
+     * idle for longer than the linger.
+     */
+    private void flushIdleBuffers(long lingerNanos) {
+        for (PartitionedSampleBuffer buffer : m_buffers.values()) {
+            if (buffer.isOlderThan(lingerNanos)) {
+                for (List<Sample> batch : buffer.drain()) {
+                    write(batch, false);
                 }
-            } catch (Throwable t) {
-                RATE_LIMITED_LOGGER.error("An error occurred while inserting samples. Some sample may be lost.", t);
             }
         }
     }
 
+    private org.opennms.newts.api.Duration getResourceShard(Context context) {
+        return m_contextConfigurations.getResourceShard(context);
+    }
+
     private static final EventTranslatorOneArg<SampleBatchEvent, List<Sample>> TRANSLATOR =
             new EventTranslatorOneArg<SampleBatchEvent, List<Sample>>() {
                 public void translateTo(SampleBatchEvent event, long sequence, List<Sample> samples) {
@@ -256,4 +337,31 @@ public class NewtsWriter implements WorkHandler<SampleBatchEvent>, DisposableBea
     public void setIndexer(Indexer indexer) {
         m_indexer = indexer;
     }
+
+    public void setContextConfigurations(ContextConfigurations contextConfigurations) {
+        m_contextConfigurations = contextConfigurations;
+    }
+
+    /**
+     * Sets the maximum amount of time partial batches are held in order to
+     * be combined with other samples from the same partition. Use 0 to
+     * disable the regrouping altogether.
+     */
+    public synchronized void setBatchLingerMs(long batchLingerMs) {
+        m_batchLingerMs = batchLingerMs;
+        if (m_flushTask != null) {
+            m_flushTask.cancel(false);
+            m_flushTask = null;
+        }
+        if (batchLingerMs > 0) {
+            final long lingerNanos = TimeUnit.MILLISECONDS.toNanos(batchLingerMs);
+            m_flushTask = m_flusher.scheduleWithFixedDelay(() -> {
+                Logging.putPrefix("collectd");
+                flushIdleBuffers(lingerNanos);
+            }, batchLingerMs, batchLingerMs, TimeUnit.MILLISECONDS);
+        } else {
+            // Write out anything that was being held
+            flushIdleBuffers(0);
+        }
+    }
 }
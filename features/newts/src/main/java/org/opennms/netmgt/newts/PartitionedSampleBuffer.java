@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.newts;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Function;
+
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Duration;
+import org.opennms.newts.api.Sample;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Groups samples by the Cassandra partition they are stored in.
+ *
+ * Newts stores samples in partitions keyed by the context, the resource
+ * and the resource shard the timestamp falls into. Batches that only
+ * contain samples from a single partition are routed to the replicas that
+ * own it, instead of having the coordinator fan out the writes.
+ *
+ * Samples are held until the partition fills a complete batch, or until
+ * the buffer is drained. This class is thread-safe.
+ */
+public class PartitionedSampleBuffer {
+
+    private static class PartitionKey {
+        private final String context;
+        private final long partition;
+        private final String resourceId;
+
+        private PartitionKey(Sample sample, Duration resourceShard) {
+            context = sample.getContext().getId();
+            partition = sample.getTimestamp().stepFloor(resourceShard).asSeconds();
+            resourceId = sample.getResource().getId();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof PartitionKey)) {
+                return false;
+            }
+            final PartitionKey other = (PartitionKey) obj;
+            return partition == other.partition
+                    && Objects.equals(resourceId, other.resourceId)
+                    && Objects.equals(context, other.context);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(context, partition, resourceId);
+        }
+    }
+
+    private final int m_maxBatchSize;
+
+    private final Function<Context, Duration> m_resourceShards;
+
+    private final Map<PartitionKey, List<Sample>> m_partitions = new LinkedHashMap<>();
+
+    private int m_size = 0;
+
+    private long m_firstAddedAt;
+
+    public PartitionedSampleBuffer(int maxBatchSize, Function<Context, Duration> resourceShards) {
+        m_maxBatchSize = maxBatchSize;
+        m_resourceShards = Objects.requireNonNull(resourceShards);
+    }
+
+    /**
+     * Adds the given samples to the buffer.
+     *
+     * @return the batches of partitions which are complete, these are no longer held by the buffer
+     */
+    public synchronized List<List<Sample>> add(List<Sample> samples) {
+        List<List<Sample>> batches = Collections.emptyList();
+        for (Sample sample : samples) {
+            final PartitionKey key = new PartitionKey(sample, m_resourceShards.apply(sample.getContext()));
+            final List<Sample> partition = m_partitions.computeIfAbsent(key, k -> new ArrayList<>());
+            partition.add(sample);
+            if (m_size++ == 0) {
+                m_firstAddedAt = System.nanoTime();
+            }
+
+            if (partition.size() >= m_maxBatchSize) {
+                m_partitions.remove(key);
+                m_size -= partition.size();
+                if (batches.isEmpty()) {
+                    batches = new ArrayList<>();
+                }
+                batches.add(partition);
+            }
+        }
+        return batches;
+    }
+
+    /**
+     * Removes all of the samples from the buffer.
+     *
+     * @return the held samples, in one batch per partition
+     */
+    public synchronized List<List<Sample>> drain() {
+        final List<List<Sample>> batches = new ArrayList<>(m_partitions.size());
+        for (Iterator<List<Sample>> it = m_partitions.values().iterator(); it.hasNext(); ) {
+            batches.addAll(Lists.partition(it.next(), m_maxBatchSize));
+            it.remove();
+        }
+        m_size = 0;
+        return batches;
+    }
+
+    /**
+     * Returns true if the buffer holds samples which were added
+     * more than the given number of nanoseconds ago.
+     */
+    public synchronized boolean isOlderThan(long nanos) {
+        return m_size > 0 && System.nanoTime() - m_firstAddedAt >= nanos;
+    }
+
+    public synchronized int size() {
+        return m_size;
+    }
+}
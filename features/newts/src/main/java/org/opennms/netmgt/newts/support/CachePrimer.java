@@ -44,7 +44,7 @@ public class CachePrimer implements InitializingBean, Runnable {
     private static final Logger LOG = LoggerFactory.getLogger(CachePrimer.class);
 
     @Autowired(required=false)
-    private GuavaSearchableResourceMetadataCache resourceMetadataCache;
+    private SearchableResourceMetadataCache resourceMetadataCache;
 
     @Autowired
     private CassandraSession session;
@@ -75,8 +75,11 @@ public class CachePrimer implements InitializingBean, Runnable {
             return;
         }
 
-        if (resourceMetadataCache == null) {
-            LOG.debug("Resource meta-data cache is not of type {}. Skipping cache priming.", GuavaSearchableResourceMetadataCache.class.getCanonicalName());
+        if (!(resourceMetadataCache instanceof GuavaSearchableResourceMetadataCache)
+                && !(resourceMetadataCache instanceof MappedSearchableResourceMetadataCache)) {
+            LOG.debug("Resource meta-data cache is not of type {} or {}. Skipping cache priming.",
+                    GuavaSearchableResourceMetadataCache.class.getCanonicalName(),
+                    MappedSearchableResourceMetadataCache.class.getCanonicalName());
             return;
         }
 
@@ -96,7 +99,7 @@ public class CachePrimer implements InitializingBean, Runnable {
                     LOG.info("Cache is not yet done priming after waiting for {}ms. Current size is: {}." +
                             " The operation will continue in the background.",
                             blockWhilePrimingMs,
-                            resourceMetadataCache.getSize());
+                            getCacheSize());
                 }
             } catch (InterruptedException e) {
                 LOG.info("Thread was interrupted while waiting for the cache to be primed.");
@@ -111,10 +114,17 @@ public class CachePrimer implements InitializingBean, Runnable {
         primer.setFetchMoreThreshold(fetchMoreThreshold);
         LOG.info("Starting to prime the cache.");
         primer.prime(resourceMetadataCache, context);
-        LOG.info("Done priming cache. Cache size: {}", resourceMetadataCache.getSize());
+        LOG.info("Done priming cache. Cache size: {}", getCacheSize());
     }
 
-    public void setResourceMetadataCache(GuavaSearchableResourceMetadataCache resourceMetadataCache) {
+    private long getCacheSize() {
+        if (resourceMetadataCache instanceof MappedSearchableResourceMetadataCache) {
+            return ((MappedSearchableResourceMetadataCache)resourceMetadataCache).getSize();
+        }
+        return ((GuavaSearchableResourceMetadataCache)resourceMetadataCache).getSize();
+    }
+
+    public void setResourceMetadataCache(SearchableResourceMetadataCache resourceMetadataCache) {
         this.resourceMetadataCache = resourceMetadataCache;
     }
 
@@ -0,0 +1,384 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.newts.support;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * A hash store that keeps both its records and its index in memory-mapped
+ * files, outside of the Java heap.
+ *
+ * Records are appended to a log made up of fixed size segments. The index is an
+ * open addressing hash table which maps the 64-bit hash of a key to the address
+ * of the latest record for that key. Besides plain values, the store supports
+ * lists of strings which are kept as chains of records, the index pointing to
+ * the head of the chain.
+ *
+ * Space used by replaced or removed records is only reclaimed by {@link #clear()},
+ * the store is meant to back a cache that is rebuilt on startup. The files are
+ * (re)created when the store is opened. They are prefixed with the name of the
+ * store, and other files in the directory are left untouched.
+ *
+ * This class is not thread-safe.
+ */
+public class MappedHashStore implements Closeable {
+
+    /**
+     * keyLen (int), valLen (int), link (long)
+     */
+    private static final int RECORD_HEADER_SIZE = 16;
+
+    /**
+     * hash (long), address + 1 (long)
+     */
+    private static final int SLOT_SIZE = 16;
+
+    private static final long EMPTY = 0;
+    private static final long DELETED = -1;
+    private static final long NO_LINK = -1;
+
+    private static final int INITIAL_CAPACITY = 1 << 16;
+    /**
+     * Largest power of two for which the index fits in a single mapping.
+     */
+    private static final int MAX_CAPACITY = 1 << 26;
+    private static final double MAX_LOAD = 0.7;
+
+    private static final HashFunction HASH = Hashing.murmur3_128();
+
+    private final Path m_directory;
+    private final String m_name;
+    private final Pattern m_filePattern;
+    private final int m_segmentSize;
+    private final List<MappedByteBuffer> m_segments = new ArrayList<>();
+
+    private long m_writeAddress = 0;
+
+    private MappedByteBuffer m_index;
+    private int m_capacity;
+    private int m_generation = 0;
+    private int m_size = 0;
+    private int m_deleted = 0;
+
+    public MappedHashStore(Path directory, String name, int segmentSize) throws IOException {
+        Preconditions.checkArgument(segmentSize > RECORD_HEADER_SIZE, "segmentSize must be greater than " + RECORD_HEADER_SIZE);
+        m_directory = directory;
+        m_name = Preconditions.checkNotNull(name, "name argument");
+        m_filePattern = Pattern.compile(Pattern.quote(name) + "-(segment|index)-\\d+\\.dat");
+        m_segmentSize = segmentSize;
+
+        Files.createDirectories(directory);
+        // Drop whatever was left behind by a previous instance
+        deleteFiles();
+        m_index = createIndex(INITIAL_CAPACITY);
+        m_capacity = INITIAL_CAPACITY;
+    }
+
+    public byte[] get(String key) {
+        final long address = find(key);
+        return address < 0 ? null : readValue(address);
+    }
+
+    public boolean containsKey(String key) {
+        return find(key) >= 0;
+    }
+
+    public void put(String key, byte[] value) throws IOException {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final long hash = hash(keyBytes);
+        final long address = append(keyBytes, value, NO_LINK);
+        setSlot(keyBytes, hash, address);
+    }
+
+    public boolean remove(String key) {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final int slot = findSlot(keyBytes, hash(keyBytes));
+        if (slot < 0) {
+            return false;
+        }
+        m_index.putLong(slot * SLOT_SIZE + 8, DELETED);
+        m_size--;
+        m_deleted++;
+        return true;
+    }
+
+    /**
+     * Adds the given value to the front of the list stored at key.
+     */
+    public void push(String key, String value) throws IOException {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final long hash = hash(keyBytes);
+        final int slot = findSlot(keyBytes, hash);
+        final long head = slot < 0 ? NO_LINK : m_index.getLong(slot * SLOT_SIZE + 8) - 1;
+        final long address = append(keyBytes, value.getBytes(StandardCharsets.UTF_8), head);
+        if (slot < 0) {
+            setSlot(keyBytes, hash, address);
+        } else {
+            m_index.putLong(slot * SLOT_SIZE + 8, address + 1);
+        }
+    }
+
+    /**
+     * Retrieves the list stored at key, most recently pushed values first.
+     */
+    public List<String> list(String key) {
+        final List<String> values = new ArrayList<>();
+        for (long address = find(key); address >= 0; address = segment(address).getLong(offset(address) + 8)) {
+            values.add(new String(readValue(address), StandardCharsets.UTF_8));
+        }
+        return values;
+    }
+
+    /**
+     * Number of keys in the store.
+     */
+    public int size() {
+        return m_size;
+    }
+
+    /**
+     * Number of bytes used by the records, including the ones that were replaced or removed.
+     */
+    public long getUsedBytes() {
+        return m_writeAddress;
+    }
+
+    /**
+     * Removes all of the keys and makes the space used by the records available again.
+     */
+    public void clear() throws IOException {
+        m_writeAddress = 0;
+        m_size = 0;
+        m_deleted = 0;
+        final Path previous = indexFile(m_generation);
+        m_index = createIndex(INITIAL_CAPACITY);
+        m_capacity = INITIAL_CAPACITY;
+        Files.deleteIfExists(previous);
+    }
+
+    @Override
+    public void close() throws IOException {
+        // The mappings are released once the buffers are collected
+        m_segments.clear();
+        m_index = null;
+        deleteFiles();
+    }
+
+    private long find(String key) {
+        final byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        final int slot = findSlot(keyBytes, hash(keyBytes));
+        return slot < 0 ? -1 : m_index.getLong(slot * SLOT_SIZE + 8) - 1;
+    }
+
+    /**
+     * Returns the slot holding the given key, or -1 if the key is not present.
+     */
+    private int findSlot(byte[] keyBytes, long hash) {
+        final int mask = m_capacity - 1;
+        for (int slot = (int)hash & mask, probes = 0; probes < m_capacity; slot = (slot + 1) & mask, probes++) {
+            final long entry = m_index.getLong(slot * SLOT_SIZE + 8);
+            if (entry == EMPTY) {
+                return -1;
+            } else if (entry != DELETED && m_index.getLong(slot * SLOT_SIZE) == hash && keyEquals(entry - 1, keyBytes)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private void setSlot(byte[] keyBytes, long hash, long address) throws IOException {
+        final int existing = findSlot(keyBytes, hash);
+        if (existing >= 0) {
+            m_index.putLong(existing * SLOT_SIZE + 8, address + 1);
+            return;
+        }
+
+        if (m_size + m_deleted + 1 > m_capacity * MAX_LOAD) {
+            resize();
+        }
+        final int mask = m_capacity - 1;
+        int slot = (int)hash & mask;
+        while (true) {
+            final long entry = m_index.getLong(slot * SLOT_SIZE + 8);
+            if (entry == EMPTY || entry == DELETED) {
+                if (entry == DELETED) {
+                    m_deleted--;
+                }
+                m_index.putLong(slot * SLOT_SIZE, hash);
+                m_index.putLong(slot * SLOT_SIZE + 8, address + 1);
+                m_size++;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private void resize() throws IOException {
+        // Only grow if the table is filled with live entries, otherwise rehashing drops the deleted ones
+        int capacity = m_capacity;
+        while ((m_size + 1) > capacity * MAX_LOAD / 2 && capacity < MAX_CAPACITY) {
+            capacity <<= 1;
+        }
+        if (capacity == m_capacity && m_deleted == 0) {
+            throw new IOException("The index is full, it holds " + m_size + " keys.");
+        }
+
+        final MappedByteBuffer previousIndex = m_index;
+        final int previousCapacity = m_capacity;
+        final Path previousFile = indexFile(m_generation);
+
+        m_index = createIndex(capacity);
+        m_capacity = capacity;
+        m_deleted = 0;
+
+        final int mask = capacity - 1;
+        for (int i = 0; i < previousCapacity; i++) {
+            final long entry = previousIndex.getLong(i * SLOT_SIZE + 8);
+            if (entry == EMPTY || entry == DELETED) {
+                continue;
+            }
+            final long hash = previousIndex.getLong(i * SLOT_SIZE);
+            int slot = (int)hash & mask;
+            while (m_index.getLong(slot * SLOT_SIZE + 8) != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            m_index.putLong(slot * SLOT_SIZE, hash);
+            m_index.putLong(slot * SLOT_SIZE + 8, entry);
+        }
+        Files.deleteIfExists(previousFile);
+    }
+
+    private long append(byte[] keyBytes, byte[] value, long link) throws IOException {
+        final int length = RECORD_HEADER_SIZE + keyBytes.length + value.length;
+        Preconditions.checkArgument(length <= m_segmentSize, "record of %s bytes does not fit in a segment", length);
+
+        if (offset(m_writeAddress) + length > m_segmentSize) {
+            // Start the record at the beginning of the next segment
+            m_writeAddress = (m_writeAddress / m_segmentSize + 1) * m_segmentSize;
+        }
+        final int segmentIndex = (int)(m_writeAddress / m_segmentSize);
+        while (m_segments.size() <= segmentIndex) {
+            m_segments.add(map(m_directory.resolve(m_name + "-segment-" + m_segments.size() + ".dat"), m_segmentSize));
+        }
+
+        final long address = m_writeAddress;
+        final ByteBuffer buffer = m_segments.get(segmentIndex).duplicate();
+        buffer.position(offset(address));
+        buffer.putInt(keyBytes.length);
+        buffer.putInt(value.length);
+        buffer.putLong(link);
+        buffer.put(keyBytes);
+        buffer.put(value);
+        m_writeAddress += length;
+        return address;
+    }
+
+    private boolean keyEquals(long address, byte[] keyBytes) {
+        final MappedByteBuffer segment = segment(address);
+        final int offset = offset(address);
+        if (segment.getInt(offset) != keyBytes.length) {
+            return false;
+        }
+        final byte[] stored = new byte[keyBytes.length];
+        final ByteBuffer buffer = segment.duplicate();
+        buffer.position(offset + RECORD_HEADER_SIZE);
+        buffer.get(stored);
+        return Arrays.equals(stored, keyBytes);
+    }
+
+    private byte[] readValue(long address) {
+        final MappedByteBuffer segment = segment(address);
+        final int offset = offset(address);
+        final byte[] value = new byte[segment.getInt(offset + 4)];
+        final ByteBuffer buffer = segment.duplicate();
+        buffer.position(offset + RECORD_HEADER_SIZE + segment.getInt(offset));
+        buffer.get(value);
+        return value;
+    }
+
+    private MappedByteBuffer segment(long address) {
+        return m_segments.get((int)(address / m_segmentSize));
+    }
+
+    private int offset(long address) {
+        return (int)(address % m_segmentSize);
+    }
+
+    private static long hash(byte[] keyBytes) {
+        return HASH.hashBytes(keyBytes).asLong();
+    }
+
+    private MappedByteBuffer createIndex(int capacity) throws IOException {
+        m_generation++;
+        // Newly mapped regions of a sparse file read as zeros, which marks all of the slots as empty
+        return map(indexFile(m_generation), capacity * SLOT_SIZE);
+    }
+
+    private Path indexFile(int generation) {
+        return m_directory.resolve(m_name + "-index-" + generation + ".dat");
+    }
+
+    /**
+     * Deletes the segment and index files of this store, other files in the directory are kept.
+     */
+    private void deleteFiles() throws IOException {
+        try (Stream<Path> files = Files.list(m_directory)) {
+            for (Path file : (Iterable<Path>)files::iterator) {
+                if (m_filePattern.matcher(file.getFileName().toString()).matches()) {
+                    Files.deleteIfExists(file);
+                }
+            }
+        }
+    }
+
+    private static MappedByteBuffer map(Path file, int size) throws IOException {
+        Files.deleteIfExists(file);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+    }
+}
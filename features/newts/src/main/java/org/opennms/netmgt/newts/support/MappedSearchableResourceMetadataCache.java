@@ -0,0 +1,271 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.newts.support;
+
+import static com.codahale.metrics.MetricRegistry.name;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Collectors;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.nustaq.serialization.FSTConfiguration;
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.cassandra.search.ResourceIdSplitter;
+import org.opennms.newts.cassandra.search.ResourceMetadata;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Strings;
+import com.google.common.collect.Lists;
+
+/**
+ * A caching strategy that stores the {@link org.opennms.newts.cassandra.search.ResourceMetadata}
+ * in memory-mapped files using a {@link MappedHashStore}.
+ *
+ * Can be used when the number of resources is too large to comfortably keep the cache on the heap,
+ * without requiring an external Redis database. The entries are serialized like they are with the
+ * {@link RedisResourceMetadataCache}, and the keys are indexed element by element in order to support
+ * calls to {@link #getResourceIdsWithPrefix(Context, String)}.
+ *
+ * The cache is emptied when the files grow past the configured size and is not persisted across
+ * restarts, it is filled by the {@link CachePrimer} at startup.
+ */
+public class MappedSearchableResourceMetadataCache implements SearchableResourceMetadataCache, DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MappedSearchableResourceMetadataCache.class);
+
+    private static final String METADATA_PREFIX = "_M";
+
+    private static final String SEARCH_PREFIX = "_S";
+
+    private static final int SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    private static final String STORE_NAME = "resource-metadata";
+
+    private static final FSTConfiguration conf = FSTConfiguration.createDefaultConfiguration();
+
+    private static final Joiner m_keyJoiner = Joiner.on(ResourceIdSplitter.SEPARATOR);
+
+    private final ResourceIdSplitter m_resourceIdSplitter;
+
+    private final MappedHashStore m_store;
+
+    private final long m_maxSizeInBytes;
+
+    private final ReadWriteLock m_lock = new ReentrantReadWriteLock();
+
+    private long m_size = 0;
+
+    @Inject
+    public MappedSearchableResourceMetadataCache(@Named("cache.mapped.directory") String directory, @Named("cache.mapped.max_size_mb") Long maxSizeInMb,
+            @Named("newtsMetricRegistry") MetricRegistry registry, ResourceIdSplitter resourceIdSplitter) {
+        Preconditions.checkArgument(maxSizeInMb > 0, "maxSizeInMb must be positive");
+        Preconditions.checkNotNull(registry, "registry argument");
+        m_resourceIdSplitter = Preconditions.checkNotNull(resourceIdSplitter, "resourceIdSplitter argument");
+        m_maxSizeInBytes = maxSizeInMb * 1024 * 1024;
+
+        final Path path = getCacheDirectory(directory);
+        LOG.info("Initializing resource metadata cache in {} ({} MB max size)", path, maxSizeInMb);
+        try {
+            m_store = new MappedHashStore(path, STORE_NAME, (int)Math.min(SEGMENT_SIZE, m_maxSizeInBytes));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        registry.register(name("cache", "size"),
+                new Gauge<Long>() {
+                    @Override
+                    public Long getValue() {
+                        return getSize();
+                    }
+                });
+        registry.register(name("cache", "max-bytes"),
+                new Gauge<Long>() {
+                    @Override
+                    public Long getValue() {
+                        return m_maxSizeInBytes;
+                    }
+                });
+        registry.register(name("cache", "used-bytes"),
+                new Gauge<Long>() {
+                    @Override
+                    public Long getValue() {
+                        m_lock.readLock().lock();
+                        try {
+                            return m_store.getUsedBytes();
+                        } finally {
+                            m_lock.readLock().unlock();
+                        }
+                    }
+                });
+    }
+
+    @Override
+    public void merge(Context context, Resource resource, ResourceMetadata metadata) {
+        final String key = key(METADATA_PREFIX, context.getId(), resource.getId());
+        m_lock.writeLock().lock();
+        try {
+            final Optional<ResourceMetadata> o = doGet(key);
+            if (!o.isPresent()) {
+                if (m_store.getUsedBytes() >= m_maxSizeInBytes) {
+                    LOG.warn("The resource metadata cache has reached its maximum size of {} bytes with {} entries. Clearing the cache.",
+                            m_maxSizeInBytes, m_size);
+                    m_store.clear();
+                    m_size = 0;
+                }
+
+                final ResourceMetadata newMetadata = new ResourceMetadata();
+                newMetadata.merge(metadata);
+                m_store.put(key, conf.asByteArray(newMetadata));
+                m_size++;
+
+                // Index the key, element by element, in order to support calls to getResourceIdsWithPrefix()
+                final List<String> elements = Lists.newArrayList(SEARCH_PREFIX, context.getId());
+                for (String el : m_resourceIdSplitter.splitIdIntoElements(resource.getId())) {
+                    elements.add(el);
+                    m_store.push(m_resourceIdSplitter.joinElementsToId(elements), resource.getId());
+                }
+            } else if (o.get().merge(metadata)) {
+                // Update the value stored in the cache if it was changed as a result of the merge
+                m_store.put(key, conf.asByteArray(o.get()));
+            }
+        } catch (IOException e) {
+            LOG.warn("Failed to store the metadata for resource {}. Clearing the cache.", resource.getId(), e);
+            clear();
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Optional<ResourceMetadata> get(Context context, Resource resource) {
+        m_lock.readLock().lock();
+        try {
+            return doGet(key(METADATA_PREFIX, context.getId(), resource.getId()));
+        } finally {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void delete(final Context context, final Resource resource) {
+        m_lock.writeLock().lock();
+        try {
+            if (m_store.remove(key(METADATA_PREFIX, context.getId(), resource.getId()))) {
+                m_size--;
+            }
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public List<String> getResourceIdsWithPrefix(Context context, String resourceIdPrefix) {
+        final List<String> elements = Lists.newArrayList(SEARCH_PREFIX, context.getId());
+        elements.addAll(m_resourceIdSplitter.splitIdIntoElements(resourceIdPrefix));
+        m_lock.readLock().lock();
+        try {
+            // Resources that were deleted, and possibly added again, can still be referenced by the index
+            final Set<String> resourceIds = new LinkedHashSet<>(m_store.list(m_resourceIdSplitter.joinElementsToId(elements)));
+            return resourceIds.stream()
+                    .filter(resourceId -> m_store.containsKey(key(METADATA_PREFIX, context.getId(), resourceId)))
+                    .collect(Collectors.toList());
+        } finally {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    public long getSize() {
+        m_lock.readLock().lock();
+        try {
+            return m_size;
+        } finally {
+            m_lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void destroy() throws IOException {
+        m_lock.writeLock().lock();
+        try {
+            m_store.close();
+        } finally {
+            m_lock.writeLock().unlock();
+        }
+    }
+
+    private Optional<ResourceMetadata> doGet(String key) {
+        final byte[] bytes = m_store.get(key);
+        return (bytes != null) ? Optional.of((ResourceMetadata)conf.asObject(bytes)) : Optional.absent();
+    }
+
+    private void clear() {
+        try {
+            m_store.clear();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        m_size = 0;
+    }
+
+    /**
+     * Defaults to a folder in Karaf's data directory when no directory is configured.
+     */
+    private static Path getCacheDirectory(String directory) {
+        if (!Strings.isNullOrEmpty(directory)) {
+            return Paths.get(directory);
+        }
+        return Paths.get(System.getProperty("karaf.data", System.getProperty("java.io.tmpdir")), "newts-cache");
+    }
+
+    /**
+     * Creates a unique key for the (prefix, contextId, resourceId) tuple
+     */
+    private static String key(String prefix, String contextId, String resourceId) {
+        return m_keyJoiner.join(prefix, contextId, resourceId);
+    }
+}
@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.newts.support.osgi;
+
+import java.util.Objects;
+
+import org.opennms.netmgt.newts.support.MappedSearchableResourceMetadataCache;
+import org.opennms.newts.cassandra.search.ResourceIdSplitter;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class MappedCacheFactory implements CacheFactory<MappedSearchableResourceMetadataCache> {
+
+    private final String directory;
+    private final long maxSizeInMb;
+    private final MetricRegistry metricRegistry;
+    private final ResourceIdSplitter resourceIdSplitter;
+
+    public MappedCacheFactory(String directory, long maxSizeInMb, MetricRegistry metricRegistry, ResourceIdSplitter resourceIdSplitter) {
+        this.directory = directory;
+        this.maxSizeInMb = maxSizeInMb;
+        this.metricRegistry = Objects.requireNonNull(metricRegistry);
+        this.resourceIdSplitter = Objects.requireNonNull(resourceIdSplitter);
+    }
+
+    @Override
+    public Class<MappedSearchableResourceMetadataCache> supportedType() {
+        return MappedSearchableResourceMetadataCache.class;
+    }
+
+    @Override
+    public MappedSearchableResourceMetadataCache createCache() {
+        return new MappedSearchableResourceMetadataCache(directory, maxSizeInMb, metricRegistry, resourceIdSplitter);
+    }
+}
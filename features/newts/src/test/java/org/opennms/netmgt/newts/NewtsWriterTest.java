@@ -31,6 +31,7 @@ package org.opennms.netmgt.newts;
 import static org.junit.Assert.assertEquals;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
@@ -119,6 +120,36 @@ public class NewtsWriterTest {
         assertEquals(ringBufferSize, sampleRepo.getNumSamplesInserted());
     }
 
+    /**
+     * Verifies that the samples are regrouped so that
+     * each insert only targets a single partition.
+     */
+    @Test
+    public void samplesAreInsertedByPartition() throws Exception {
+        int ringBufferSize = 1024;
+        int numWriterThreads = 4;
+
+        Lock lock = new ReentrantLock();
+        LockedSampleRepository sampleRepo = new LockedSampleRepository(lock);
+        MetricRegistry registry = new MetricRegistry();
+        NewtsWriter writer = new NewtsWriter(4, ringBufferSize, numWriterThreads, registry);
+        writer.setSampleRepository(sampleRepo);
+
+        // Interleave the samples of many resources in each call
+        for (int i = 0; i < 100; i++) {
+            List<Sample> samples = Lists.newArrayList();
+            for (int j = 0; j < 10; j++) {
+                Resource x = new Resource("x" + j);
+                samples.add(new Sample(Timestamp.now(), x, "y", MetricType.COUNTER, new Counter(i)));
+            }
+            writer.insert(samples);
+        }
+        writer.destroy();
+
+        assertEquals(1000, sampleRepo.getNumSamplesInserted());
+        assertEquals(1, sampleRepo.getMaxResourcesPerInsert());
+    }
+
     private static class LatchedSampleRepository extends MockSampleRepository {
         private final CountDownLatch latch;
 
@@ -141,6 +172,7 @@ public class NewtsWriterTest {
         private final Lock lock;
         private final AtomicInteger numThreadsLocked = new AtomicInteger(0);
         private final AtomicInteger numSamplesInserted = new AtomicInteger(0);
+        private final AtomicInteger maxResourcesPerInsert = new AtomicInteger(0);
 
         public LockedSampleRepository(Lock lock) {
             this.lock = lock;
@@ -151,6 +183,7 @@ public class NewtsWriterTest {
             numThreadsLocked.incrementAndGet();
             lock.lock();
             numSamplesInserted.addAndGet(samples.size());
+            maxResourcesPerInsert.accumulateAndGet((int)samples.stream().map(s -> s.getResource().getId()).distinct().count(), Math::max);
             lock.unlock();
             numThreadsLocked.decrementAndGet();
         }
@@ -162,6 +195,10 @@ public class NewtsWriterTest {
         public int getNumSamplesInserted() {
             return numSamplesInserted.get();
         }
+
+        public int getMaxResourcesPerInsert() {
+            return maxResourcesPerInsert.get();
+        }
     }
 
     private static class MockSampleRepository implements SampleRepository {
@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.newts;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.opennms.newts.api.Counter;
+import org.opennms.newts.api.Duration;
+import org.opennms.newts.api.MetricType;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.api.Sample;
+import org.opennms.newts.api.Timestamp;
+
+import com.google.common.collect.Lists;
+
+public class PartitionedSampleBufferTest {
+
+    private static final Duration RESOURCE_SHARD = Duration.seconds(600);
+
+    @Test
+    public void canGroupSamplesByPartition() {
+        PartitionedSampleBuffer buffer = new PartitionedSampleBuffer(3, c -> RESOURCE_SHARD);
+
+        // Interleave the samples from two resources
+        List<List<Sample>> batches = buffer.add(Lists.newArrayList(
+                sample("a", 0), sample("b", 0), sample("a", 1), sample("b", 1)));
+        assertEquals(0, batches.size());
+        assertEquals(4, buffer.size());
+
+        // The third sample for 'a' completes a batch, the last sample for 'b' falls in the next shard
+        batches = buffer.add(Lists.newArrayList(sample("a", 2), sample("b", 600)));
+        assertEquals(1, batches.size());
+        assertEquals(Lists.newArrayList("a"), resourceIds(batches.get(0)));
+        assertEquals(3, batches.get(0).size());
+        assertEquals(3, buffer.size());
+
+        // 'b' makes up two partitions
+        batches = buffer.drain();
+        assertEquals(2, batches.size());
+        assertEquals(2, batches.get(0).size());
+        assertEquals(1, batches.get(1).size());
+        assertEquals(600, batches.get(1).get(0).getTimestamp().asSeconds());
+        assertEquals(0, buffer.size());
+        assertEquals(0, buffer.drain().size());
+    }
+
+    @Test
+    public void canTrackAge() throws InterruptedException {
+        PartitionedSampleBuffer buffer = new PartitionedSampleBuffer(2, c -> RESOURCE_SHARD);
+        assertFalse(buffer.isOlderThan(0));
+
+        buffer.add(Lists.newArrayList(sample("a", 0)));
+        Thread.sleep(5);
+        assertTrue(buffer.isOlderThan(TimeUnit.MILLISECONDS.toNanos(1)));
+        assertFalse(buffer.isOlderThan(TimeUnit.MINUTES.toNanos(1)));
+
+        // Completing the only partition empties the buffer
+        buffer.add(Lists.newArrayList(sample("a", 1)));
+        assertFalse(buffer.isOlderThan(0));
+    }
+
+    private static Sample sample(String resourceId, long seconds) {
+        return new Sample(Timestamp.fromEpochSeconds(seconds), new Resource(resourceId), "m", MetricType.COUNTER, new Counter(seconds));
+    }
+
+    private static List<String> resourceIds(List<Sample> samples) {
+        return samples.stream().map(s -> s.getResource().getId()).distinct().collect(Collectors.toList());
+    }
+}
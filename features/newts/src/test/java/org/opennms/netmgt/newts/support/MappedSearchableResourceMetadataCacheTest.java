@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.newts.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.newts.api.Context;
+import org.opennms.newts.api.Resource;
+import org.opennms.newts.cassandra.search.EscapableResourceIdSplitter;
+import org.opennms.newts.cassandra.search.ResourceMetadata;
+
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Optional;
+import com.google.common.collect.Lists;
+
+public class MappedSearchableResourceMetadataCacheTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private final Context ctx = Context.DEFAULT_CONTEXT;
+
+    private MappedSearchableResourceMetadataCache cache;
+
+    @Before
+    public void setUp() throws IOException {
+        cache = new MappedSearchableResourceMetadataCache(folder.newFolder().getAbsolutePath(), 1L,
+                new MetricRegistry(), new EscapableResourceIdSplitter());
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        cache.destroy();
+    }
+
+    @Test
+    public void canGetEntriesWithPrefix() {
+        assertTrue(cache.getResourceIdsWithPrefix(ctx, "a").isEmpty());
+
+        Resource resource = new Resource("a:b:c");
+        ResourceMetadata resourceMetadata = new ResourceMetadata();
+        cache.merge(ctx, resource, resourceMetadata);
+
+        assertTrue(cache.getResourceIdsWithPrefix(ctx, "a").contains("a:b:c"));
+        assertTrue(cache.getResourceIdsWithPrefix(ctx, "a:b").contains("a:b:c"));
+        assertTrue(cache.getResourceIdsWithPrefix(ctx, "a:b:c").contains("a:b:c"));
+        assertTrue(cache.getResourceIdsWithPrefix(ctx, "a:b:c:d").isEmpty());
+        assertTrue(cache.getResourceIdsWithPrefix(new Context("other"), "a").isEmpty());
+    }
+
+    @Test
+    public void canMergeAndDelete() {
+        Resource resource = new Resource("snmp:1:eth0");
+        cache.merge(ctx, resource, new ResourceMetadata().putMetric("ifInOctets").putAttribute("ifName", "eth0"));
+        cache.merge(ctx, resource, new ResourceMetadata().putMetric("ifOutOctets"));
+        cache.merge(ctx, new Resource("snmp:1:eth1"), new ResourceMetadata());
+        assertEquals(2, cache.getSize());
+
+        Optional<ResourceMetadata> metadata = cache.get(ctx, resource);
+        assertTrue(metadata.isPresent());
+        assertTrue(metadata.get().containsMetric("ifInOctets"));
+        assertTrue(metadata.get().containsMetric("ifOutOctets"));
+        assertTrue(metadata.get().containsAttribute("ifName", "eth0"));
+
+        cache.delete(ctx, resource);
+        assertFalse(cache.get(ctx, resource).isPresent());
+        assertEquals(1, cache.getSize());
+        assertEquals(Lists.newArrayList("snmp:1:eth1"), cache.getResourceIdsWithPrefix(ctx, "snmp:1"));
+
+        // Adding the resource again should not make it appear twice
+        cache.merge(ctx, resource, new ResourceMetadata());
+        List<String> resourceIds = cache.getResourceIdsWithPrefix(ctx, "snmp:1");
+        assertEquals(2, resourceIds.size());
+        assertTrue(resourceIds.contains("snmp:1:eth0"));
+    }
+
+    @Test
+    public void canHoldManyEntriesAndClearsWhenFull() {
+        // Fill the cache well past its 1 MB limit
+        for (int i = 0; i < 20000; i++) {
+            cache.merge(ctx, new Resource(String.format("snmp:%d:eth0-x:ifHcInOctets", i)), new ResourceMetadata().putMetric("ifHcInOctets"));
+            assertTrue(cache.get(ctx, new Resource(String.format("snmp:%d:eth0-x:ifHcInOctets", i))).isPresent());
+        }
+        assertTrue(cache.getSize() > 0);
+        assertTrue(cache.getSize() < 20000);
+        assertEquals(1, cache.getResourceIdsWithPrefix(ctx, "snmp:19999").size());
+        assertTrue(cache.getResourceIdsWithPrefix(ctx, "snmp:0").isEmpty());
+    }
+
+    @Test
+    public void onlyDeletesItsOwnFiles() throws IOException {
+        File directory = folder.newFolder();
+        File otherFile = new File(directory, "other.dat");
+        Files.write(otherFile.toPath(), new byte[] { 1, 2, 3 });
+
+        MappedSearchableResourceMetadataCache otherCache = new MappedSearchableResourceMetadataCache(directory.getAbsolutePath(), 1L,
+                new MetricRegistry(), new EscapableResourceIdSplitter());
+        otherCache.merge(ctx, new Resource("a:b:c"), new ResourceMetadata());
+        assertTrue(otherFile.exists());
+        assertTrue(directory.list().length > 1);
+
+        otherCache.destroy();
+        assertEquals(Lists.newArrayList("other.dat"), Lists.newArrayList(directory.list()));
+    }
+}
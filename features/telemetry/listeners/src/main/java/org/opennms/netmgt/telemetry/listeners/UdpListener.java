@@ -29,8 +29,10 @@
 package org.opennms.netmgt.telemetry.listeners;
 
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ThreadFactory;
 
 import org.opennms.netmgt.telemetry.api.receiver.Listener;
 import org.opennms.netmgt.telemetry.api.receiver.Parser;
@@ -43,6 +45,7 @@ import com.codahale.metrics.MetricRegistry;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import io.netty.bootstrap.Bootstrap;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelFuture;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
@@ -51,6 +54,10 @@ import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.FixedRecvByteBufAllocator;
 import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollDatagramChannel;
+import io.netty.channel.epoll.EpollEventLoopGroup;
 import io.netty.channel.nio.NioEventLoopGroup;
 import io.netty.channel.socket.DatagramChannel;
 import io.netty.channel.socket.DatagramPacket;
@@ -67,11 +74,13 @@ public class UdpListener implements Listener {
     private final Meter packetsReceived;
 
     private EventLoopGroup bossGroup;
-    private ChannelFuture socketFuture;
+    private final List<Channel> channels = new ArrayList<>();
 
     private String host = null;
     private int port = 50000;
     private int maxPacketSize = 8096;
+    private int sockets = 1;
+    private int receiveBufferSize = Integer.MAX_VALUE;
 
     public UdpListener(final String name, final List<UdpParser> parsers, final MetricRegistry metrics) {
         this.name = Objects.requireNonNull(name);
@@ -91,33 +100,66 @@ public class UdpListener implements Listener {
     }
 
     public void start() throws InterruptedException {
-        // Netty defaults to 2 * num cores when the number of threads is set to 0
-        this.bossGroup = new NioEventLoopGroup(0, new ThreadFactoryBuilder()
+        final ThreadFactory threadFactory = new ThreadFactoryBuilder()
                 .setNameFormat("telemetryd-nio-" + name + "-%d")
-                .build() );
-
-        this.parsers.forEach(parser -> parser.start(this.bossGroup));
+                .build();
 
         final InetSocketAddress address = this.host != null
                 ? SocketUtils.socketAddress(this.host, this.port)
                 : new InetSocketAddress(this.port);
 
-        this.socketFuture = new Bootstrap()
+        // Multiple sockets can only be bound to the same port using SO_REUSEPORT, which requires the native transport
+        if (this.sockets > 1 && !Epoll.isAvailable()) {
+            LOG.warn("Listener {} is configured to use {} sockets, but the native epoll transport is not available. Using a single socket instead.",
+                    this.name, this.sockets, Epoll.unavailabilityCause());
+        }
+
+        if (this.sockets > 1 && Epoll.isAvailable()) {
+            // Netty defaults to 2 * num cores when the number of threads is set to 0, but make sure there are enough
+            // threads to give each socket its own event loop
+            this.bossGroup = new EpollEventLoopGroup(Math.max(this.sockets, 2 * Runtime.getRuntime().availableProcessors()), threadFactory);
+
+            this.parsers.forEach(parser -> parser.start(this.bossGroup));
+
+            // The kernel distributes the packets among the sockets by hashing the source and destination
+            // address, so all the packets from an exporter end up on the same socket and are parsed in order
+            final Bootstrap bootstrap = this.bootstrap()
+                    .channel(EpollDatagramChannel.class)
+                    .option(EpollChannelOption.SO_REUSEPORT, true);
+            for (int i = 0; i < this.sockets; i++) {
+                this.channels.add(bootstrap.bind(address).sync().channel());
+            }
+
+            LOG.info("Listener {} bound {} sockets to {} using the native epoll transport.", this.name, this.sockets, address);
+        } else {
+            // Netty defaults to 2 * num cores when the number of threads is set to 0
+            this.bossGroup = new NioEventLoopGroup(0, threadFactory);
+
+            this.parsers.forEach(parser -> parser.start(this.bossGroup));
+
+            this.channels.add(this.bootstrap()
+                    .channel(NioDatagramChannel.class)
+                    .bind(address)
+                    .sync()
+                    .channel());
+        }
+    }
+
+    private Bootstrap bootstrap() {
+        return new Bootstrap()
                 .group(this.bossGroup)
-                .channel(NioDatagramChannel.class)
                 .option(ChannelOption.SO_REUSEADDR, true)
-                .option(ChannelOption.SO_RCVBUF, Integer.MAX_VALUE)
+                .option(ChannelOption.SO_RCVBUF, this.receiveBufferSize)
                 .option(ChannelOption.RCVBUF_ALLOCATOR, new FixedRecvByteBufAllocator(this.maxPacketSize))
-                .handler(new DefaultChannelInitializer())
-                .bind(address)
-                .sync();
+                .handler(new DefaultChannelInitializer());
     }
 
     public void stop() throws InterruptedException {
         LOG.info("Closing channel...");
-        if (this.socketFuture != null) {
-            this.socketFuture.channel().close().sync();
+        for (final Channel channel : this.channels) {
+            channel.close().sync();
         }
+        this.channels.clear();
 
         if (this.parsers != null) {
             this.parsers.forEach(Parser::stop);
@@ -153,6 +195,28 @@ public class UdpListener implements Listener {
         this.maxPacketSize = maxPacketSize;
     }
 
+    public int getSockets() {
+        return sockets;
+    }
+
+    public void setSockets(int sockets) {
+        if (sockets < 1) {
+            throw new IllegalArgumentException("Sockets must be >= 1");
+        }
+        this.sockets = sockets;
+    }
+
+    public int getReceiveBufferSize() {
+        return receiveBufferSize;
+    }
+
+    public void setReceiveBufferSize(int receiveBufferSize) {
+        if (receiveBufferSize < 1) {
+            throw new IllegalArgumentException("Receive buffer size must be >= 1");
+        }
+        this.receiveBufferSize = receiveBufferSize;
+    }
+
     @Override
     public String getName() {
         return name;
@@ -41,15 +41,24 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
 import java.util.function.Supplier;
 import java.util.stream.Collectors;
 
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.MissingTemplateException;
 import org.opennms.netmgt.telemetry.protocols.netflow.parser.ie.Value;
 
-import com.google.common.collect.Iterables;
-import com.google.common.collect.Maps;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 
+/**
+ * Keeps track of the templates, options and sequence numbers for all exporters sending to a UDP listener.
+ *
+ * The state is sharded by session and observation domain, so that packets from different exporters can be parsed
+ * concurrently and never have to look at each others templates.
+ */
 public class UdpSessionManager {
     public interface SessionKey {
         InetAddress getRemoteAddress();
@@ -57,19 +66,16 @@ public class UdpSessionManager {
 
     private final class UdpSession implements Session {
         private final class Resolver implements Session.Resolver {
-            private final long observationDomainId;
+            private final DomainKey domainKey;
 
             private Resolver(final long observationDomainId) {
-                this.observationDomainId = observationDomainId;
-            }
-
-            private TemplateKey key(final int templateId) {
-                return new TemplateKey(UdpSession.this.sessionKey, this.observationDomainId, templateId);
+                this.domainKey = new DomainKey(UdpSession.this.sessionKey, observationDomainId);
             }
 
             @Override
             public Template lookupTemplate(final int templateId) throws MissingTemplateException {
-                final TemplateWrapper templateWrapper = UdpSessionManager.this.templates.get(key(templateId));
+                final Domain domain = UdpSessionManager.this.domains.get(this.domainKey);
+                final TemplateWrapper templateWrapper = domain != null ? domain.templates.get(templateId) : null;
                 if (templateWrapper != null) {
                     return templateWrapper.template;
                 } else {
@@ -79,24 +85,32 @@ public class UdpSessionManager {
 
             @Override
             public List<Value<?>> lookupOptions(final List<Value<?>> values) {
+                final Domain domain = UdpSessionManager.this.domains.get(this.domainKey);
+                if (domain == null) {
+                    return Collections.emptyList();
+                }
+
                 final LinkedHashMap<String, Value<?>> options = new LinkedHashMap<>();
 
                 final Set<String> scoped = values.stream().map(Value::getName).collect(Collectors.toSet());
 
-                for (final Map.Entry<TemplateKey, Map<Set<Value<?>>, List<Value<?>>>> e : Iterables.filter(UdpSessionManager.this.options.entrySet(),
-                                                                                                   e -> Objects.equals(e.getKey().domain.sessionKey, UdpSession.this.sessionKey) &&
-                                                                                                        Objects.equals(e.getKey().domain.observationDomainId, this.observationDomainId))) {
-                    final Template template = UdpSessionManager.this.templates.get(e.getKey()).template;
-
-                    if (scoped.containsAll(template.scopeNames)) {
-                        // Found option template where scoped fields is subset of actual data fields
+                for (final Map.Entry<Set<String>, List<Integer>> e : domain.optionTemplatesByScope.entrySet()) {
+                    if (scoped.containsAll(e.getKey())) {
+                        // Found option templates where scoped fields is subset of actual data fields
 
                         final Set<Value<?>> scopeValues = values.stream()
-                                .filter(s -> template.scopeNames.contains(s.getName()))
+                                .filter(s -> e.getKey().contains(s.getName()))
                                 .collect(Collectors.toSet());
 
-                        for (final Value<?> value : e.getValue().getOrDefault(scopeValues, Collections.emptyList())) {
-                            options.put(value.getName(), value);
+                        for (final Integer templateId : e.getValue()) {
+                            final Map<Set<Value<?>>, List<Value<?>>> templateOptions = domain.options.get(templateId);
+                            if (templateOptions == null) {
+                                continue;
+                            }
+
+                            for (final Value<?> value : templateOptions.getOrDefault(scopeValues, Collections.emptyList())) {
+                                options.put(value.getName(), value);
+                            }
                         }
                     }
                 }
@@ -111,21 +125,44 @@ public class UdpSessionManager {
             this.sessionKey = sessionKey;
         }
 
+        private Domain domain(final long observationDomainId) {
+            return UdpSessionManager.this.domains.computeIfAbsent(new DomainKey(this.sessionKey, observationDomainId), (k) -> new Domain());
+        }
+
+        /**
+         * Applies the given modification to a domain, retrying with a new domain if the housekeeping retired it in
+         * the meantime, so that nothing is added to a domain that is no longer reachable.
+         */
+        private void modify(final long observationDomainId, final Predicate<Domain> modification) {
+            final DomainKey domainKey = new DomainKey(this.sessionKey, observationDomainId);
+            while (true) {
+                final Domain domain = UdpSessionManager.this.domains.computeIfAbsent(domainKey, (k) -> new Domain());
+                if (modification.test(domain)) {
+                    return;
+                }
+                UdpSessionManager.this.domains.remove(domainKey, domain);
+            }
+        }
+
         @Override
         public void addTemplate(final long observationDomainId, final Template template) {
-            final TemplateKey key = new TemplateKey(this.sessionKey, observationDomainId, template.id);
-            UdpSessionManager.this.templates.put(key, new TemplateWrapper(template));
+            this.modify(observationDomainId, (domain) -> domain.addTemplate(template));
         }
 
         @Override
         public void removeTemplate(final long observationDomainId, final int templateId) {
-            final TemplateKey key = new TemplateKey(this.sessionKey, observationDomainId, templateId);
-            UdpSessionManager.this.templates.remove(key);
+            final Domain domain = UdpSessionManager.this.domains.get(new DomainKey(this.sessionKey, observationDomainId));
+            if (domain != null) {
+                domain.removeTemplates(e -> e.getKey() == templateId);
+            }
         }
 
         @Override
         public void removeAllTemplate(final long observationDomainId, final Template.Type type) {
-            UdpSessionManager.this.templates.entrySet().removeIf(e -> e.getKey().domain.observationDomainId == observationDomainId && e.getValue().template.type == type);
+            final Domain domain = UdpSessionManager.this.domains.get(new DomainKey(this.sessionKey, observationDomainId));
+            if (domain != null) {
+                domain.removeTemplates(e -> e.getValue().template.type == type);
+            }
         }
 
         @Override
@@ -133,8 +170,7 @@ public class UdpSessionManager {
                                final int templateId,
                                final Collection<Value<?>> scopes,
                                final List<Value<?>> values) {
-            final TemplateKey key = new TemplateKey(this.sessionKey, observationDomainId, templateId);
-            UdpSessionManager.this.options.computeIfAbsent(key, (k) -> new HashMap<>()).put(new HashSet<>(scopes), values);
+            this.modify(observationDomainId, (domain) -> domain.addOptions(templateId, new HashSet<>(scopes), values));
         }
 
         @Override
@@ -149,9 +185,7 @@ public class UdpSessionManager {
 
         @Override
         public boolean verifySequenceNumber(final long observationDomainId, final long sequenceNumber) {
-            final DomainKey key = new DomainKey(this.sessionKey, observationDomainId);
-            final SequenceNumberTracker tracker = UdpSessionManager.this.sequenceNumbers.computeIfAbsent(key, (k) -> UdpSessionManager.this.sequenceNumberTracker.get());
-            return tracker.verify(sequenceNumber);
+            return this.domain(observationDomainId).sequenceNumberTracker().verify(sequenceNumber);
         }
     }
 
@@ -181,46 +215,111 @@ public class UdpSessionManager {
         }
     }
 
-    private final static class TemplateKey {
-        public final DomainKey domain;
-        public final int templateId;
+    private final static class TemplateWrapper {
+        public final Instant insertionTime;
+        public final Template template;
 
-        TemplateKey(final SessionKey sessionKey,
-                    final long observationDomainId,
-                    final int templateId) {
-            this.domain = new DomainKey(sessionKey, observationDomainId);
-            this.templateId = templateId;
+        private TemplateWrapper(final Template template) {
+            this.insertionTime = Instant.now();
+            this.template = template;
         }
+    }
 
-        @Override
-        public boolean equals(final Object o) {
-            if (this == o) return true;
-            if (!(o instanceof TemplateKey)) return false;
+    /**
+     * The state of a single observation domain of an exporter.
+     *
+     * Lookups are lock-free. Modifications of the templates are serialized on the domain, as the index of options
+     * templates by scope is rebuilt whenever the templates change. This happens rarely compared to the lookups.
+     *
+     * A domain is retired before it is removed from the manager, after which it refuses any additions.
+     */
+    private final class Domain {
+        private final ConcurrentMap<Integer, TemplateWrapper> templates = new ConcurrentHashMap<>();
+        private final ConcurrentMap<Integer, Map<Set<Value<?>>, List<Value<?>>>> options = new ConcurrentHashMap<>();
+
+        /**
+         * The IDs of the options templates in this domain, grouped by the names of their scope fields.
+         */
+        private volatile Map<Set<String>, List<Integer>> optionTemplatesByScope = Collections.emptyMap();
+
+        private volatile SequenceNumberTracker sequenceNumberTracker;
+
+        private boolean retired = false;
+
+        private synchronized boolean addTemplate(final Template template) {
+            if (this.retired) {
+                return false;
+            }
+            final TemplateWrapper previous = this.templates.put(template.id, new TemplateWrapper(template));
+            if (template.type == Template.Type.OPTIONS_TEMPLATE
+                    || (previous != null && previous.template.type == Template.Type.OPTIONS_TEMPLATE)) {
+                this.reindex();
+            }
+            return true;
+        }
 
-            final TemplateKey that = (TemplateKey) o;
-            return Objects.equals(this.domain, that.domain) &&
-                   Objects.equals(this.templateId, that.templateId);
+        private synchronized boolean addOptions(final int templateId, final Set<Value<?>> scopes, final List<Value<?>> values) {
+            if (this.retired) {
+                return false;
+            }
+            this.options.computeIfAbsent(templateId, (k) -> new ConcurrentHashMap<>()).put(scopes, values);
+            return true;
         }
 
-        @Override
-        public int hashCode() {
-            return Objects.hash(this.domain, this.templateId);
+        private synchronized void retire() {
+            this.retired = true;
         }
-    }
 
-    private final static class TemplateWrapper {
-        public final Instant insertionTime;
-        public final Template template;
+        private synchronized boolean retireIfEmpty() {
+            if (this.templates.isEmpty() && this.options.isEmpty()) {
+                this.retired = true;
+            }
+            return this.retired;
+        }
 
-        private TemplateWrapper(final Template template) {
-            this.insertionTime = Instant.now();
-            this.template = template;
+        private synchronized void removeTemplates(final Predicate<Map.Entry<Integer, TemplateWrapper>> predicate) {
+            final Set<Integer> removed = this.templates.entrySet().stream()
+                    .filter(predicate)
+                    .map(Map.Entry::getKey)
+                    .collect(Collectors.toSet());
+            if (removed.isEmpty()) {
+                return;
+            }
+
+            removed.forEach(this.templates::remove);
+            // Options are only meaningful as long as their template exists
+            removed.forEach(this.options::remove);
+            this.reindex();
+        }
+
+        private void reindex() {
+            final Map<Set<String>, List<Integer>> index = new HashMap<>();
+            for (final TemplateWrapper wrapper : this.templates.values()) {
+                if (wrapper.template.type == Template.Type.OPTIONS_TEMPLATE) {
+                    index.computeIfAbsent(wrapper.template.scopeNames, (k) -> new ArrayList<>()).add(wrapper.template.id);
+                }
+            }
+
+            final ImmutableMap.Builder<Set<String>, List<Integer>> builder = ImmutableMap.builder();
+            index.forEach((scopeNames, templateIds) -> builder.put(scopeNames, ImmutableList.copyOf(templateIds)));
+            this.optionTemplatesByScope = builder.build();
+        }
+
+        private SequenceNumberTracker sequenceNumberTracker() {
+            SequenceNumberTracker tracker = this.sequenceNumberTracker;
+            if (tracker == null) {
+                synchronized (this) {
+                    tracker = this.sequenceNumberTracker;
+                    if (tracker == null) {
+                        tracker = this.sequenceNumberTracker = UdpSessionManager.this.sequenceNumberTracker.get();
+                    }
+                }
+            }
+            return tracker;
         }
     }
 
-    private final Map<TemplateKey, TemplateWrapper> templates = Maps.newHashMap();
-    private final Map<TemplateKey, Map<Set<Value<?>>, List<Value<?>>>> options = Maps.newHashMap();
-    private final Map<DomainKey, SequenceNumberTracker> sequenceNumbers = Maps.newHashMap();
+    private final ConcurrentMap<DomainKey, Domain> domains = new ConcurrentHashMap<>();
 
     private final Duration timeout;
 
@@ -233,7 +332,15 @@ public class UdpSessionManager {
 
     public void doHousekeeping() {
         final Instant timeout = Instant.now().minus(this.timeout);
-        UdpSessionManager.this.templates.entrySet().removeIf(e -> e.getValue().insertionTime.isBefore(timeout));
+        for (final Domain domain : this.domains.values()) {
+            domain.removeTemplates(e -> e.getValue().insertionTime.isBefore(timeout));
+        }
+        // Remove the domain only if it is still mapped, as it may have been replaced since it was retired
+        for (final Map.Entry<DomainKey, Domain> e : this.domains.entrySet()) {
+            if (e.getValue().retireIfEmpty()) {
+                this.domains.remove(e.getKey(), e.getValue());
+            }
+        }
     }
 
     public Session getSession(final SessionKey sessionKey) {
@@ -241,10 +348,19 @@ public class UdpSessionManager {
     }
 
     public void drop(final SessionKey sessionKey) {
-        this.templates.entrySet().removeIf(e -> Objects.equals(e.getKey().domain.sessionKey, sessionKey));
+        for (final Map.Entry<DomainKey, Domain> e : this.domains.entrySet()) {
+            if (Objects.equals(e.getKey().sessionKey, sessionKey)) {
+                e.getValue().retire();
+                this.domains.remove(e.getKey(), e.getValue());
+            }
+        }
     }
 
     public int count() {
-        return this.templates.size();
+        return this.domains.values().stream().mapToInt(d -> d.templates.size()).sum();
+    }
+
+    public int countDomains() {
+        return this.domains.size();
     }
 }
@@ -31,8 +31,15 @@ package org.opennms.netmgt.telemetry.protocols.netflow.parser;
 import java.net.InetSocketAddress;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Assert;
 import org.junit.Test;
@@ -183,4 +190,182 @@ public class UdpSessionManagerTest {
         testIpFixSessionKeys(remoteAddress1, localAddress1, remoteAddress4, localAddress1, false);
         testIpFixSessionKeys(remoteAddress1, localAddress1, remoteAddress4, localAddress2, false);
     }
+
+    private Template optionsTemplate(final int templateId, final String... scopeNames) {
+        final List<Scope> scopes = new ArrayList<>();
+        for (final String scopeName : scopeNames) {
+            scopes.add(scope(scopeName, null));
+        }
+
+        final List<Field> fields = new ArrayList<>();
+        fields.add(field("field1", null));
+
+        return Template.builder(templateId, Template.Type.OPTIONS_TEMPLATE).withFields(fields).withScopes(scopes).build();
+    }
+
+    @Test
+    public void testOptionsAreRemovedWithTemplate() throws Exception {
+        final UdpSessionManager udpSessionManager = new UdpSessionManager(Duration.ofMinutes(30), () -> new SequenceNumberTracker(32));
+        final Session session = udpSessionManager.getSession(new IpfixUdpParser.SessionKey(remoteAddress1, localAddress1));
+
+        session.addTemplate(observationId1, optionsTemplate(100, "scope1"));
+        session.addTemplate(observationId1, optionsTemplate(101, "scope1", "scope2"));
+        session.addOptions(observationId1, 100, Collections.singletonList(value("scope1", "a")), Collections.singletonList(value("option1", "x")));
+        session.addOptions(observationId1, 101, Arrays.asList(value("scope1", "a"), value("scope2", "b")), Collections.singletonList(value("option2", "y")));
+        Assert.assertEquals(2, udpSessionManager.count());
+
+        final List<Value<?>> values = Arrays.asList(value("scope1", "a"), value("scope2", "b"), value("other", "c"));
+        Assert.assertEquals(Arrays.asList(value("option1", "x"), value("option2", "y")),
+                sorted(session.getResolver(observationId1).lookupOptions(values)));
+
+        // Only the options of the matching scope should be returned
+        Assert.assertEquals(Collections.singletonList(value("option1", "x")),
+                session.getResolver(observationId1).lookupOptions(Arrays.asList(value("scope1", "a"), value("other", "c"))));
+
+        session.removeTemplate(observationId1, 100);
+        Assert.assertEquals(1, udpSessionManager.count());
+        Assert.assertEquals(Collections.singletonList(value("option2", "y")),
+                session.getResolver(observationId1).lookupOptions(values));
+
+        session.removeAllTemplate(observationId1, Template.Type.OPTIONS_TEMPLATE);
+        Assert.assertEquals(0, udpSessionManager.count());
+        Assert.assertEquals(0, session.getResolver(observationId1).lookupOptions(values).size());
+
+        try {
+            session.getResolver(observationId1).lookupTemplate(101);
+            Assert.fail("Template should have been removed");
+        } catch (final MissingTemplateException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testRemoveAllTemplateOnlyAffectsSession() throws Exception {
+        final UdpSessionManager udpSessionManager = new UdpSessionManager(Duration.ofMinutes(30), () -> new SequenceNumberTracker(32));
+        final Session session1 = udpSessionManager.getSession(new IpfixUdpParser.SessionKey(remoteAddress1, localAddress1));
+        final Session session2 = udpSessionManager.getSession(new IpfixUdpParser.SessionKey(remoteAddress3, localAddress1));
+
+        session1.addTemplate(observationId1, optionsTemplate(100, "scope1"));
+        session2.addTemplate(observationId1, optionsTemplate(100, "scope1"));
+
+        session1.removeAllTemplate(observationId1, Template.Type.OPTIONS_TEMPLATE);
+
+        Assert.assertEquals(1, udpSessionManager.count());
+        Assert.assertEquals(100, session2.getResolver(observationId1).lookupTemplate(100).id);
+    }
+
+    @Test
+    public void testDropAndHousekeeping() throws Exception {
+        final UdpSessionManager udpSessionManager = new UdpSessionManager(Duration.ZERO, () -> new SequenceNumberTracker(32));
+        final UdpSessionManager.SessionKey sessionKey1 = new IpfixUdpParser.SessionKey(remoteAddress1, localAddress1);
+        final UdpSessionManager.SessionKey sessionKey2 = new IpfixUdpParser.SessionKey(remoteAddress3, localAddress1);
+
+        udpSessionManager.getSession(sessionKey1).addTemplate(observationId1, optionsTemplate(100, "scope1"));
+        udpSessionManager.getSession(sessionKey1).addTemplate(observationId2, optionsTemplate(100, "scope1"));
+        udpSessionManager.getSession(sessionKey2).addTemplate(observationId1, optionsTemplate(100, "scope1"));
+        Assert.assertEquals(3, udpSessionManager.count());
+
+        Assert.assertEquals(3, udpSessionManager.countDomains());
+
+        udpSessionManager.drop(sessionKey1);
+        Assert.assertEquals(1, udpSessionManager.count());
+        Assert.assertEquals(1, udpSessionManager.countDomains());
+
+        Thread.sleep(5);
+        udpSessionManager.doHousekeeping();
+        Assert.assertEquals(0, udpSessionManager.count());
+        Assert.assertEquals(0, udpSessionManager.countDomains());
+
+        // The session is usable again after its domains were removed
+        udpSessionManager.getSession(sessionKey1).addTemplate(observationId1, optionsTemplate(100, "scope1"));
+        Assert.assertEquals(100, udpSessionManager.getSession(sessionKey1).getResolver(observationId1).lookupTemplate(100).id);
+        Assert.assertEquals(1, udpSessionManager.countDomains());
+    }
+
+    @Test
+    public void testHousekeepingKeepsDomainsWithTemplates() throws Exception {
+        final UdpSessionManager udpSessionManager = new UdpSessionManager(Duration.ofMinutes(30), () -> new SequenceNumberTracker(32));
+        final Session session = udpSessionManager.getSession(new IpfixUdpParser.SessionKey(remoteAddress1, localAddress1));
+
+        session.addTemplate(observationId1, optionsTemplate(100, "scope1"));
+        session.verifySequenceNumber(observationId2, 1);
+        Assert.assertEquals(2, udpSessionManager.countDomains());
+
+        udpSessionManager.doHousekeeping();
+        Assert.assertEquals(1, udpSessionManager.countDomains());
+        Assert.assertEquals(100, session.getResolver(observationId1).lookupTemplate(100).id);
+    }
+
+    @Test
+    public void testConcurrentHousekeeping() throws Exception {
+        final UdpSessionManager udpSessionManager = new UdpSessionManager(Duration.ofMinutes(30), () -> new SequenceNumberTracker(32));
+        final int numExporters = 16;
+
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < numExporters; i++) {
+                final UdpSessionManager.SessionKey sessionKey = new IpfixUdpParser.SessionKey(new InetSocketAddress("10.10.12." + i, 51001), localAddress1);
+                futures.add(CompletableFuture.runAsync(() -> {
+                    final Session session = udpSessionManager.getSession(sessionKey);
+                    for (int n = 0; n < 500; n++) {
+                        session.removeTemplate(observationId1, 100);
+                        udpSessionManager.doHousekeeping();
+                        session.addTemplate(observationId1, optionsTemplate(100, "scope1"));
+                        try {
+                            Assert.assertEquals(100, session.getResolver(observationId1).lookupTemplate(100).id);
+                        } catch (final MissingTemplateException e) {
+                            throw new AssertionError("Template added to a removed domain", e);
+                        }
+                    }
+                }, executor));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(1, TimeUnit.MINUTES);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertEquals(numExporters, udpSessionManager.count());
+        Assert.assertEquals(numExporters, udpSessionManager.countDomains());
+    }
+
+    @Test
+    public void testConcurrentSessions() throws Exception {
+        final UdpSessionManager udpSessionManager = new UdpSessionManager(Duration.ofMinutes(30), () -> new SequenceNumberTracker(32));
+        final int numExporters = 64;
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < numExporters; i++) {
+                final InetSocketAddress remoteAddress = new InetSocketAddress("10.10.11." + i, 51001);
+                futures.add(CompletableFuture.runAsync(() -> {
+                    final Session session = udpSessionManager.getSession(new IpfixUdpParser.SessionKey(remoteAddress, localAddress1));
+                    final String scopeValue = remoteAddress.getAddress().getHostAddress();
+                    for (int n = 0; n < 500; n++) {
+                        session.addTemplate(observationId1, optionsTemplate(100 + (n % 5), "scope1"));
+                        session.addOptions(observationId1, 100 + (n % 5), Collections.singletonList(value("scope1", scopeValue)),
+                                Collections.singletonList(value("option" + (n % 5), scopeValue)));
+
+                        final List<Value<?>> options = session.getResolver(observationId1).lookupOptions(Collections.singletonList(value("scope1", scopeValue)));
+                        Assert.assertFalse(options.isEmpty());
+                        for (final Value<?> option : options) {
+                            Assert.assertEquals(scopeValue, option.getValue());
+                        }
+                    }
+                }, executor));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(1, TimeUnit.MINUTES);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Assert.assertEquals(numExporters * 5, udpSessionManager.count());
+    }
+
+    private static List<Value<?>> sorted(final List<Value<?>> values) {
+        final List<Value<?>> sorted = new ArrayList<>(values);
+        sorted.sort(Comparator.comparing(Value::getName));
+        return sorted;
+    }
 }
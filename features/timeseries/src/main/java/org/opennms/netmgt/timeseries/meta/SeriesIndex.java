@@ -0,0 +1,419 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.timeseries.meta;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.google.common.base.Strings;
+import com.google.common.hash.BloomFilter;
+import com.google.common.hash.Funnels;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+/**
+ * A persistent index of the meta data that is already known to be stored, used to avoid writing it to the
+ * database again after a restart.
+ *
+ * The index is an open addressing hash table kept in a memory mapped file, fronted by an in-memory Bloom
+ * filter which answers most negative lookups without touching the mapped pages. Each slot holds the 64 bit
+ * fingerprint of a key and the fingerprint of its value. Meta data is keyed on its resource and name, with the
+ * value that was last written. The Bloom filter is warmed from the file when the index is opened.
+ *
+ * Only what this process wrote is recorded. Lookups that found nothing are not, since other writers sharing
+ * the database may add the data at any time. Callers must add entries after they were successfully written.
+ *
+ * The file is discarded if it was not closed cleanly, since entries that were added shortly before a crash
+ * may not have made it to disk. An index without a file is disabled: it never contains anything.
+ */
+public class SeriesIndex implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SeriesIndex.class);
+
+    private static final long MAGIC = 0x4f4e4d5349445831L; // "ONMSIDX1"
+    private static final int VERSION = 3;
+
+    private static final int HEADER_SIZE = 64;
+    private static final int OFFSET_VERSION = 8;
+    private static final int OFFSET_CAPACITY = 12;
+    private static final int OFFSET_SIZE = 16;
+    private static final int OFFSET_STATE = 20;
+
+    private static final int STATE_CLOSED = 0;
+    private static final int STATE_OPEN = 1;
+
+    private static final int SLOT_SIZE = 16;
+
+    private static final int MIN_CAPACITY = 1024;
+    // keeps the whole file addressable by a single mapped buffer
+    private static final int MAX_CAPACITY = 1 << 26;
+
+    private static final double BLOOM_FPP = 0.01;
+
+    private static final byte META_DATA = 1;
+    private static final byte VALUE = 2;
+
+    private final Path file;
+    private final int expectedEntries;
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private BloomFilter<Long> bloomFilter;
+    private int capacity;
+    private int size;
+    private boolean full;
+
+    private final Meter hits;
+    private final Meter bloomRejects;
+
+    public SeriesIndex() {
+        this.file = null;
+        this.expectedEntries = 0;
+        this.hits = new Meter();
+        this.bloomRejects = new Meter();
+    }
+
+    /**
+     * @param file the file backing the index, the index is disabled when empty
+     * @param expectedEntries used to size the index when it is created
+     */
+    public SeriesIndex(final String file, final Integer expectedEntries, final MetricRegistry registry) throws IOException {
+        this.file = Strings.isNullOrEmpty(file) ? null : Paths.get(file);
+        this.expectedEntries = Math.max(expectedEntries, 1);
+        this.hits = registry.meter("index.hits");
+        this.bloomRejects = registry.meter("index.bloom.rejects");
+        if (this.file != null) {
+            open();
+            registry.register("index.entries", (Gauge<Integer>) this::size);
+            registry.register("index.capacity", (Gauge<Integer>) () -> {
+                lock.readLock().lock();
+                try {
+                    return capacity;
+                } finally {
+                    lock.readLock().unlock();
+                }
+            });
+        }
+    }
+
+    public boolean isEnabled() {
+        return file != null;
+    }
+
+    /**
+     * @return true if the value of the given meta data is the one that was last stored for its resource and name
+     */
+    public boolean containsMetaData(final MetaData metaData) {
+        return hit(get(fingerprint(META_DATA, metaData.getResourceId(), metaData.getName())) == fingerprint(VALUE, metaData.getValue()));
+    }
+
+    public void addMetaData(final Collection<MetaData> metaDataCollection) {
+        if (!isEnabled()) {
+            return;
+        }
+        for (MetaData metaData : metaDataCollection) {
+            put(fingerprint(META_DATA, metaData.getResourceId(), metaData.getName()), fingerprint(VALUE, metaData.getValue()));
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        lock.writeLock().lock();
+        try {
+            if (buffer == null) {
+                return;
+            }
+            buffer.force();
+            buffer.putInt(OFFSET_STATE, STATE_CLOSED);
+            buffer.force();
+            channel.close();
+            buffer = null;
+            channel = null;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private boolean hit(boolean hit) {
+        if (hit) {
+            hits.mark();
+        }
+        return hit;
+    }
+
+    /**
+     * @return the value stored for the given key, or 0 if there is none
+     */
+    private long get(final long key) {
+        lock.readLock().lock();
+        try {
+            if (buffer == null) {
+                return 0;
+            }
+            if (!bloomFilter.mightContain(key)) {
+                bloomRejects.mark();
+                return 0;
+            }
+            final int slot = find(buffer, capacity, key);
+            return slot >= 0 ? buffer.getLong(offset(slot) + 8) : 0;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private void put(final long key, final long value) {
+        if (get(key) == value) {
+            return;
+        }
+        lock.writeLock().lock();
+        try {
+            if (buffer == null) {
+                return;
+            }
+            final int slot = find(buffer, capacity, key);
+            if (slot >= 0) {
+                buffer.putLong(offset(slot) + 8, value);
+                return;
+            }
+            if (size + 1 > capacity / 2) {
+                if (capacity >= MAX_CAPACITY) {
+                    if (!full) {
+                        LOG.warn("The series index {} is full. No further entries will be added.", file);
+                        full = true;
+                    }
+                    return;
+                }
+                grow();
+            }
+            put(buffer, capacity, key, value);
+            size++;
+            buffer.putInt(OFFSET_SIZE, size);
+            bloomFilter.put(key);
+        } catch (IOException e) {
+            LOG.error("Failed to grow the series index {}. No further entries will be added.", file, e);
+            full = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void open() throws IOException {
+        Files.createDirectories(file.toAbsolutePath().getParent());
+        if (Files.exists(file) && !load()) {
+            Files.delete(file);
+        }
+        if (buffer == null) {
+            capacity = capacityFor(expectedEntries);
+            size = 0;
+            final Path tmp = tempFile();
+            channel = create(tmp, capacity);
+            buffer = map(channel, capacity);
+            Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        buffer.putInt(OFFSET_STATE, STATE_OPEN);
+        buffer.force();
+        warmBloomFilter();
+        LOG.info("Opened series index {} with {} entries.", file, size);
+    }
+
+    /**
+     * Maps an existing index file.
+     *
+     * @return false if the file is not usable and should be replaced
+     */
+    private boolean load() throws IOException {
+        final FileChannel existing = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        boolean usable = false;
+        try {
+            if (existing.size() < HEADER_SIZE) {
+                LOG.warn("The series index {} is truncated. Creating a new one.", file);
+                return false;
+            }
+            final MappedByteBuffer header = existing.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_SIZE);
+            final int fileCapacity = header.getInt(OFFSET_CAPACITY);
+            if (header.getLong(0) != MAGIC || header.getInt(OFFSET_VERSION) != VERSION
+                    || Integer.bitCount(fileCapacity) != 1 || fileCapacity > MAX_CAPACITY
+                    || existing.size() != HEADER_SIZE + fileCapacity * (long) SLOT_SIZE) {
+                LOG.warn("The series index {} is invalid. Creating a new one.", file);
+                return false;
+            }
+            if (header.getInt(OFFSET_STATE) != STATE_CLOSED) {
+                LOG.warn("The series index {} was not closed cleanly. Creating a new one.", file);
+                return false;
+            }
+            capacity = fileCapacity;
+            size = header.getInt(OFFSET_SIZE);
+            channel = existing;
+            buffer = map(channel, capacity);
+            usable = true;
+            return true;
+        } finally {
+            if (!usable) {
+                existing.close();
+            }
+        }
+    }
+
+    /**
+     * Rehashes the index into a file of twice the size and replaces the current file with it.
+     */
+    private void grow() throws IOException {
+        final int newCapacity = capacity * 2;
+        final Path tmp = tempFile();
+        final FileChannel newChannel = create(tmp, newCapacity);
+        final MappedByteBuffer newBuffer = map(newChannel, newCapacity);
+        for (int i = 0; i < capacity; i++) {
+            final long key = buffer.getLong(offset(i));
+            if (key != 0) {
+                put(newBuffer, newCapacity, key, buffer.getLong(offset(i) + 8));
+            }
+        }
+        newBuffer.putInt(OFFSET_SIZE, size);
+        newBuffer.putInt(OFFSET_STATE, STATE_OPEN);
+        newBuffer.force();
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel.close();
+
+        channel = newChannel;
+        buffer = newBuffer;
+        capacity = newCapacity;
+        warmBloomFilter();
+        LOG.debug("Grew series index {} to {} slots.", file, capacity);
+    }
+
+    /**
+     * Rebuilds the Bloom filter from the fingerprints in the mapped file.
+     */
+    private void warmBloomFilter() {
+        bloomFilter = BloomFilter.create(Funnels.longFunnel(), Math.max(expectedEntries, capacity / 2), BLOOM_FPP);
+        for (int i = 0; i < capacity; i++) {
+            final long fingerprint = buffer.getLong(offset(i));
+            if (fingerprint != 0) {
+                bloomFilter.put(fingerprint);
+            }
+        }
+    }
+
+    private Path tempFile() {
+        return file.resolveSibling(file.getFileName() + ".tmp");
+    }
+
+    private static FileChannel create(final Path path, final int capacity) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(path.toFile(), "rw")) {
+            raf.setLength(0);
+            raf.setLength(HEADER_SIZE + capacity * (long) SLOT_SIZE);
+            raf.writeLong(MAGIC);
+            raf.writeInt(VERSION);
+            raf.writeInt(capacity);
+            raf.writeInt(0);
+            raf.writeInt(STATE_CLOSED);
+        }
+        return FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    private static MappedByteBuffer map(final FileChannel channel, final int capacity) throws IOException {
+        return channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity * (long) SLOT_SIZE);
+    }
+
+    private static int find(final MappedByteBuffer buffer, final int capacity, final long key) {
+        final int mask = capacity - 1;
+        int slot = (int) key & mask;
+        while (true) {
+            final long current = buffer.getLong(offset(slot));
+            if (current == key) {
+                return slot;
+            } else if (current == 0) {
+                return -1;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    private static void put(final MappedByteBuffer buffer, final int capacity, final long key, final long value) {
+        final int mask = capacity - 1;
+        int slot = (int) key & mask;
+        while (buffer.getLong(offset(slot)) != 0) {
+            slot = (slot + 1) & mask;
+        }
+        buffer.putLong(offset(slot), key);
+        buffer.putLong(offset(slot) + 8, value);
+    }
+
+    private static int offset(final int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private static int capacityFor(final int expectedEntries) {
+        final long slots = Math.max(MIN_CAPACITY, Long.highestOneBit(expectedEntries * 2L - 1) << 1);
+        return (int) Math.min(slots, MAX_CAPACITY);
+    }
+
+    private static long fingerprint(final byte type, final String... values) {
+        final Hasher hasher = Hashing.murmur3_128().newHasher().putByte(type);
+        for (String value : values) {
+            // the length keeps ("ab", "c") and ("a", "bc") apart, a null value is distinct from any string
+            hasher.putInt(value == null ? -1 : value.length());
+            if (value != null) {
+                hasher.putString(value, StandardCharsets.UTF_8);
+            }
+        }
+        final long fingerprint = hasher.hash().asLong();
+        // 0 marks an empty slot
+        return fingerprint == 0 ? 1 : fingerprint;
+    }
+}
@@ -63,6 +63,8 @@ import com.google.common.cache.CacheLoader;
  * TimeSeriesMetaDataDao stores string values associated with resourceids in the database. It leverages a Guava cache.
  * Design choice: for speed and high throughput we don't keep the cache and the database 100% in sync at the time of writing.
  * Latest 'cache_duration' after writing they will be the same.
+ * The optional {@link SeriesIndex} remembers what was written across restarts so that known meta data doesn't need
+ * to be written again when the cache is cold.
  */
 @Service
 public class TimeSeriesMetaDataDao {
@@ -79,13 +81,24 @@ public class TimeSeriesMetaDataDao {
     private final Timer metadataWriteTimer;
     private final Timer metadataReadTimer;
 
+    private final SeriesIndex index;
+
+    public TimeSeriesMetaDataDao(final DataSource dataSource,
+                                 CacheConfig cacheConfig,
+                                 MetricRegistry registry
+    ) {
+        this(dataSource, cacheConfig, registry, new SeriesIndex());
+    }
+
     @Autowired
     public TimeSeriesMetaDataDao(final DataSource dataSource,
                                  @Named("timeseriesMetaDataCache") CacheConfig cacheConfig,
-                                 @Named("timeseriesMetricRegistry") MetricRegistry registry
+                                 @Named("timeseriesMetricRegistry") MetricRegistry registry,
+                                 @Named("timeseriesSeriesIndex") SeriesIndex index
     ) {
         this.dataSource = Objects.requireNonNull(dataSource, "dataSource cannot be null.");
         Objects.requireNonNull(registry, "registry cannot be null.");
+        this.index = Objects.requireNonNull(index, "index cannot be null.");
 
         CacheLoader<String, Map<String, String>> loader = new CacheLoader<String, Map<String, String>>(){
             @Override
@@ -109,13 +122,16 @@ public class TimeSeriesMetaDataDao {
         for(MetaData meta : metaDataCollection) {
             Map<String, String> attributesForResource = cache.get(meta.getResourceId(), HashMap::new);
             if(attributesForResource.get(meta.getName()) == null) {
-                writeToDb.add(meta);
+                if (!index.containsMetaData(meta)) {
+                    writeToDb.add(meta);
+                }
                 attributesForResource.put(meta.getName(), meta.getValue()); // add to cache
             }
         }
         // store the uncached meta data
         if(!writeToDb.isEmpty()) {
             storeUncached(writeToDb);
+            index.addMetaData(writeToDb);
         }
     }
 
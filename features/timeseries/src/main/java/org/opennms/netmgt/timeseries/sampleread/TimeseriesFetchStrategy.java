@@ -39,6 +39,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Optional;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
@@ -74,10 +75,13 @@ import org.opennms.netmgt.model.ResourceTypeUtils;
 import org.opennms.netmgt.model.RrdGraphAttribute;
 import org.opennms.netmgt.timeseries.TimeseriesStorageManager;
 import org.opennms.netmgt.timeseries.sampleread.aggregation.NewtsLikeSampleAggregator;
+import org.opennms.netmgt.timeseries.util.RollupTiers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.orm.ObjectRetrievalFailureException;
 
+import com.codahale.metrics.Meter;
 import com.codahale.metrics.MetricRegistry;
 import com.codahale.metrics.Timer;
 import com.google.common.base.Strings;
@@ -98,6 +102,10 @@ import com.google.common.util.concurrent.ThreadFactoryBuilder;
  * cores, but can be reduced if the operator wishes to ensure cores are available
  * for other purposes.
  *
+ * If rollup tiers are configured and the storage doesn't aggregate natively, the samples are read
+ * from the coarsest tier that isn't coarser than the step, rather than from the raw metric.
+ * The part of the range that precedes the first rollup sample is read from the raw metric.
+ *
  * @author jwhite
  */
 public class TimeseriesFetchStrategy implements MeasurementFetchStrategy {
@@ -118,6 +126,8 @@ public class TimeseriesFetchStrategy implements MeasurementFetchStrategy {
     private TimeseriesStorageManager storageManager;
     private Timer sampleReadTsTimer;
     private Timer sampleReadIntegrationTimer;
+    private Meter sampleReadRollupMeter;
+    private RollupTiers rollupTiers = new RollupTiers(null);
 
     // we can only have a non args constructor in order for MeasurementFetchStrategyFactory to instantiate us
     public TimeseriesFetchStrategy(){}
@@ -283,10 +293,25 @@ public class TimeseriesFetchStrategy implements MeasurementFetchStrategy {
                     .aggregation(aggregationToUse)
                     .build();
 
-            List<Sample> samples;
-            try (Timer.Context context = sampleReadTsTimer.time()) {
-                LOG.debug("Querying TimeseriesStorage for resource id {} with request: {}", resourceId, request);
-                samples = storageManager.get().getTimeseries(request);
+            List<Sample> samples = null;
+            LateAggregationParams lagToUse = lag;
+            final Optional<Duration> tier = shouldAggregateNatively ? Optional.empty() : rollupTiers.select(lag.getStep());
+            if (tier.isPresent()) {
+                samples = getRollupSamples(request, tier.get(), aggregation);
+                if (samples != null) {
+                    // the rollup samples are a tier apart, don't treat the gaps between them as missing data
+                    lagToUse = LateAggregationParams.builder()
+                            .step(lag.getStep())
+                            .interval(lag.getInterval())
+                            .heartbeat(lag.getHeartbeat() + tier.get().toMillis())
+                            .build();
+                }
+            }
+            if (samples == null) {
+                try (Timer.Context context = sampleReadTsTimer.time()) {
+                    LOG.debug("Querying TimeseriesStorage for resource id {} with request: {}", resourceId, request);
+                    samples = storageManager.get().getTimeseries(request);
+                }
             }
             // aggregate if timeseries implementation didn't do it natively
             if (!shouldAggregateNatively) {
@@ -297,7 +322,7 @@ public class TimeseriesFetchStrategy implements MeasurementFetchStrategy {
                         .end(end)
                         .metric(metric)
                         .currentSources(currentSources)
-                        .lag(lag)
+                        .lag(lagToUse)
                         .build().process(samplesToNewtsRowIterator(samples));
             }
             allSamples.put(source, samples);
@@ -305,6 +330,50 @@ public class TimeseriesFetchStrategy implements MeasurementFetchStrategy {
         return allSamples;
     }
 
+    /**
+     * Reads the samples of the given request from the given rollup tier. The part of the range before the
+     * first rollup sample is filled in with the raw samples.
+     *
+     * @return null if the tier has no samples in the range
+     */
+    private List<Sample> getRollupSamples(final TimeSeriesFetchRequest request, final Duration tier, final Aggregation aggregation) throws StorageException {
+        final TimeSeriesFetchRequest rollupRequest = ImmutableTimeSeriesFetchRequest.builder()
+                .metric(RollupTiers.toRollupMetric(request.getMetric(), tier, aggregation))
+                .start(request.getStart())
+                .end(request.getEnd())
+                .step(request.getStep())
+                .aggregation(Aggregation.NONE)
+                .build();
+        final List<Sample> rollups;
+        try (Timer.Context context = sampleReadTsTimer.time()) {
+            LOG.debug("Querying TimeseriesStorage for rollups with request: {}", rollupRequest);
+            rollups = storageManager.get().getTimeseries(rollupRequest);
+        }
+        if (rollups.isEmpty()) {
+            return null;
+        }
+        sampleReadRollupMeter.mark();
+
+        // a rollup sample covers the tier that precedes its timestamp
+        final Instant covered = rollups.get(0).getTime().minus(tier);
+        if (!covered.isAfter(request.getStart())) {
+            return rollups;
+        }
+        final TimeSeriesFetchRequest rawRequest = ImmutableTimeSeriesFetchRequest.builder()
+                .metric(request.getMetric())
+                .start(request.getStart())
+                .end(covered)
+                .step(request.getStep())
+                .aggregation(Aggregation.NONE)
+                .build();
+        final List<Sample> samples = new ArrayList<>();
+        try (Timer.Context context = sampleReadTsTimer.time()) {
+            samples.addAll(storageManager.get().getTimeseries(rawRequest));
+        }
+        samples.addAll(rollups);
+        return samples;
+    }
+
     private static Aggregation toAggregation(String fn) {
         if ("average".equalsIgnoreCase(fn) || "avg".equalsIgnoreCase(fn)) {
             return Aggregation.AVERAGE;
@@ -346,6 +415,12 @@ public class TimeseriesFetchStrategy implements MeasurementFetchStrategy {
     protected void setMetricRegistry(@Named("timeseriesMetricRegistry") MetricRegistry registry) {
         this.sampleReadTsTimer = registry.timer("samples.read.ts");
         this.sampleReadIntegrationTimer = registry.timer("samples.read.integration");
+        this.sampleReadRollupMeter = registry.meter("samples.read.rollups");
+    }
+
+    @Autowired(required = false)
+    protected void setRollupTiers(@Named("timeseriesRollupTiers") RollupTiers rollupTiers) {
+        this.rollupTiers = rollupTiers;
     }
 
     private OnmsNode getNode(final OnmsResource resource, final Source source) {
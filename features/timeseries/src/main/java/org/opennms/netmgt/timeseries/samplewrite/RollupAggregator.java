@@ -0,0 +1,255 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.timeseries.samplewrite;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.inject.Named;
+
+import org.opennms.integration.api.v1.timeseries.Aggregation;
+import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.Sample;
+import org.opennms.integration.api.v1.timeseries.Tag;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableSample;
+import org.opennms.netmgt.timeseries.util.RollupTiers;
+import org.springframework.beans.factory.annotation.Autowired;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+/**
+ * Maintains the {@link RollupTiers} of the samples that are written.
+ *
+ * For every metric and tier we keep the minimum, maximum, sum and count of the samples of the
+ * current interval. Once a sample for a later interval arrives, the aggregates of the current
+ * interval are returned as samples of the rollup metrics, to be written along with the raw samples.
+ * Samples that arrive after their interval was completed are not included in the rollups.
+ *
+ * Only gauges are rolled up. The samples of counters are cumulative, their rates are derived
+ * when reading, so counters are always read from the raw samples.
+ *
+ * The series of metrics that receive no samples for longer than the coarsest tier are completed
+ * and evicted, so that metrics which are no longer collected do not accumulate.
+ */
+public class RollupAggregator {
+
+    private final RollupTiers tiers;
+
+    private final Map<Metric, Series> seriesByMetric = new ConcurrentHashMap<>();
+
+    private final long idleMs;
+
+    /**
+     * The time of the latest sample, which serves as the clock for evicting idle series.
+     */
+    private final AtomicLong latest = new AtomicLong(Long.MIN_VALUE);
+
+    private final AtomicLong nextEviction = new AtomicLong(Long.MIN_VALUE);
+
+    private final Meter rollupSamples;
+
+    private final Meter lateSamples;
+
+    @Autowired
+    public RollupAggregator(@Named("timeseriesRollupTiers") RollupTiers tiers,
+                            @Named("timeseriesMetricRegistry") MetricRegistry registry) {
+        this.tiers = Objects.requireNonNull(tiers, "tiers cannot be null.");
+        this.idleMs = tiers.isEnabled() ? tiers.getTiers().get(tiers.getTiers().size() - 1).toMillis() : 0;
+        this.rollupSamples = registry.meter("rollups.samples");
+        this.lateSamples = registry.meter("rollups.late-samples");
+        registry.register("rollups.series", (Gauge<Integer>) seriesByMetric::size);
+    }
+
+    /**
+     * Adds the given samples to the rollups.
+     *
+     * @return the rollup samples of the intervals that were completed by the given samples
+     */
+    public List<Sample> aggregate(final List<Sample> samples) {
+        if (!tiers.isEnabled()) {
+            return Collections.emptyList();
+        }
+        final List<Sample> completed = new ArrayList<>();
+        for (Sample sample : samples) {
+            if (sample.getValue() == null || Double.isNaN(sample.getValue()) || !isGauge(sample.getMetric())
+                    || RollupTiers.isRollup(sample.getMetric())) {
+                continue;
+            }
+            // the series may be evicted concurrently, in which case we start a new one
+            Series series;
+            while (!(series = seriesByMetric.computeIfAbsent(sample.getMetric(), Series::new)).add(sample, completed)) {
+                seriesByMetric.remove(sample.getMetric(), series);
+            }
+            latest.accumulateAndGet(sample.getTime().toEpochMilli(), Math::max);
+        }
+        evictIdleSeries(completed);
+        rollupSamples.mark(completed.size());
+        return completed;
+    }
+
+    /**
+     * @return the rollup samples of all intervals that are in progress
+     */
+    public List<Sample> flush() {
+        final List<Sample> completed = new ArrayList<>();
+        for (Series series : seriesByMetric.values()) {
+            series.flush(completed);
+        }
+        seriesByMetric.clear();
+        rollupSamples.mark(completed.size());
+        return completed;
+    }
+
+    /**
+     * Completes and removes the series that have been idle for longer than the coarsest tier. Checked
+     * once per coarsest tier.
+     */
+    private void evictIdleSeries(final List<Sample> completed) {
+        final long now = latest.get();
+        final long next = nextEviction.get();
+        if (now < next || !nextEviction.compareAndSet(next, now + idleMs)) {
+            return;
+        }
+        seriesByMetric.values().removeIf(series -> series.evictIfIdleSince(now - idleMs, completed));
+    }
+
+    private static boolean isGauge(final Metric metric) {
+        final Tag mtype = metric.getFirstTagByKey(IntrinsicTagNames.mtype);
+        return mtype != null && Metric.Mtype.gauge.name().equals(mtype.getValue());
+    }
+
+    private class Series {
+        private final Metric metric;
+        private final Bucket[] buckets;
+        private long lastTime = Long.MIN_VALUE;
+        private boolean evicted = false;
+
+        private Series(final Metric metric) {
+            this.metric = metric;
+            buckets = new Bucket[tiers.getTiers().size()];
+            for (int i = 0; i < buckets.length; i++) {
+                buckets[i] = new Bucket(tiers.getTiers().get(i));
+            }
+        }
+
+        /**
+         * @return false if the series was evicted and the sample was not added
+         */
+        private synchronized boolean add(final Sample sample, final List<Sample> completed) {
+            if (evicted) {
+                return false;
+            }
+            final long time = sample.getTime().toEpochMilli();
+            for (Bucket bucket : buckets) {
+                bucket.add(metric, time, sample.getValue(), completed);
+            }
+            lastTime = Math.max(lastTime, time);
+            return true;
+        }
+
+        private synchronized boolean evictIfIdleSince(final long time, final List<Sample> completed) {
+            if (lastTime >= time) {
+                return false;
+            }
+            flush(completed);
+            evicted = true;
+            return true;
+        }
+
+        private synchronized void flush(final List<Sample> completed) {
+            for (Bucket bucket : buckets) {
+                bucket.complete(metric, completed);
+            }
+        }
+    }
+
+    private class Bucket {
+        private final Duration tier;
+        private final long resolution;
+
+        private long end = Long.MIN_VALUE;
+        private double min;
+        private double max;
+        private double sum;
+        private int count;
+
+        private Bucket(final Duration tier) {
+            this.tier = tier;
+            this.resolution = tier.toMillis();
+        }
+
+        private void add(final Metric metric, final long time, final double value, final List<Sample> completed) {
+            // like a primary data point, an interval includes its end but not its start
+            final long sampleEnd = time + Math.floorMod(-time, resolution);
+            if (sampleEnd < end) {
+                lateSamples.mark();
+                return;
+            }
+            if (sampleEnd > end) {
+                complete(metric, completed);
+                end = sampleEnd;
+            }
+            if (count == 0) {
+                min = value;
+                max = value;
+            } else {
+                min = Math.min(min, value);
+                max = Math.max(max, value);
+            }
+            sum += value;
+            count++;
+        }
+
+        private void complete(final Metric metric, final List<Sample> completed) {
+            if (count == 0) {
+                return;
+            }
+            final Instant time = Instant.ofEpochMilli(end);
+            completed.add(ImmutableSample.builder().metric(RollupTiers.toRollupMetric(metric, tier, Aggregation.AVERAGE))
+                    .time(time).value(sum / count).build());
+            completed.add(ImmutableSample.builder().metric(RollupTiers.toRollupMetric(metric, tier, Aggregation.MIN))
+                    .time(time).value(min).build());
+            completed.add(ImmutableSample.builder().metric(RollupTiers.toRollupMetric(metric, tier, Aggregation.MAX))
+                    .time(time).value(max).build());
+            sum = 0;
+            count = 0;
+        }
+    }
+}
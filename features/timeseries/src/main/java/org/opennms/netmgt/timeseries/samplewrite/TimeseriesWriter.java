@@ -30,6 +30,7 @@ package org.opennms.netmgt.timeseries.samplewrite;
 
 import java.sql.SQLException;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -47,6 +48,8 @@ import org.opennms.core.logging.Logging;
 import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
 import org.opennms.integration.api.v1.timeseries.Metric;
 import org.opennms.integration.api.v1.timeseries.Sample;
+import org.opennms.integration.api.v1.timeseries.StorageException;
+import org.opennms.integration.api.v1.timeseries.Tag;
 import org.opennms.netmgt.timeseries.TimeseriesStorageManager;
 import org.opennms.netmgt.timeseries.sampleread.SampleBatchEvent;
 import org.opennms.netmgt.timeseries.meta.MetaData;
@@ -63,8 +66,11 @@ import com.codahale.metrics.Timer;
 import com.google.common.base.Preconditions;
 import com.google.common.math.DoubleMath;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.lmax.disruptor.BatchEventProcessor;
+import com.lmax.disruptor.EventHandler;
 import com.lmax.disruptor.EventTranslatorOneArg;
 import com.lmax.disruptor.FatalExceptionHandler;
+import com.lmax.disruptor.LifecycleAware;
 import com.lmax.disruptor.RingBuffer;
 import com.lmax.disruptor.WorkHandler;
 import com.lmax.disruptor.WorkerPool;
@@ -76,6 +82,17 @@ import com.swrve.ratelimitedlogger.RateLimitedLog;
  * Calls to  publish the samples to a ring buffer so
  * that they don't block while the data is being persisted.
  *
+ * By default, all of the samples go through a single ring buffer that is consumed
+ * by a pool of writer threads. When a number of shards is configured instead, the
+ * samples are routed by resource id to one of as many ring buffers, each consumed
+ * by a single thread. The samples of a given resource are then written in order,
+ * the writer threads no longer contend on a shared sequence, and a shard's thread
+ * combines the samples it finds on its ring buffer into batches of up to
+ * maxBatchSize samples before handing them to the storage.
+ *
+ * If rollup tiers are configured, the writer threads also pass the samples they
+ * wrote to the {@link RollupAggregator} and write the rollups it completes.
+ *
  * @author jwhite
  */
 public class TimeseriesWriter implements WorkHandler<SampleBatchEvent>, DisposableBean {
@@ -87,15 +104,24 @@ public class TimeseriesWriter implements WorkHandler<SampleBatchEvent>, Disposab
             .maxRate(5).every(Duration.ofSeconds(30))
             .build();
 
+    public static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+
     private WorkerPool<SampleBatchEvent> workerPool;
 
     private RingBuffer<SampleBatchEvent> ringBuffer;
 
+    private Shard[] shards;
 
     private final int ringBufferSize;
 
     private final int numWriterThreads;
 
+    private final int numShards;
+
+    private final int maxBatchSize;
+
+    private final MetricRegistry registry;
+
     private final Meter droppedSamples;
 
     private final Timer sampleWriteTsTimer;
@@ -106,22 +132,44 @@ public class TimeseriesWriter implements WorkHandler<SampleBatchEvent>, Disposab
     @Autowired
     private TimeSeriesMetaDataDao timeSeriesMetaDataDao;
 
+    @Autowired(required = false)
+    private RollupAggregator rollupAggregator;
+
     /**
      * The {@link RingBuffer} doesn't appear to expose any methods that indicate the number
      * of elements that are currently "queued", so we keep track of them with this atomic counter.
      */
     private final AtomicLong numEntriesOnRingBuffer = new AtomicLong();
 
+    public TimeseriesWriter(Integer ringBufferSize, Integer numWriterThreads, MetricRegistry registry) {
+        this(ringBufferSize, numWriterThreads, 0, DEFAULT_MAX_BATCH_SIZE, registry);
+    }
+
+    /**
+     * @param ringBufferSize the size of the ring buffer, shared between the shards if any
+     * @param numWriterThreads the number of threads consuming the ring buffer when not sharded
+     * @param numShards the number of shards, or 0 to use a single ring buffer
+     * @param maxBatchSize the maximum number of samples a shard hands to the storage at once
+     * @param registry the registry for the metrics
+     */
     @Inject
     public TimeseriesWriter(@Named("timeseries.ring_buffer_size") Integer ringBufferSize,
-                            @Named("timeseries.writer_threads") Integer numWriterThreads, @Named("timeseriesMetricRegistry") MetricRegistry registry) {
+                            @Named("timeseries.writer_threads") Integer numWriterThreads,
+                            @Named("timeseries.writer_shards") Integer numShards,
+                            @Named("timeseries.max_batch_size") Integer maxBatchSize,
+                            @Named("timeseriesMetricRegistry") MetricRegistry registry) {
         Preconditions.checkArgument(ringBufferSize > 0, "ringBufferSize must be positive");
         Preconditions.checkArgument(DoubleMath.isMathematicalInteger(Math.log(ringBufferSize) / Math.log(2)), "ringBufferSize must be a power of two");
         Preconditions.checkArgument(numWriterThreads > 0, "numWriterThreads must be positive");
+        Preconditions.checkArgument(numShards >= 0, "numShards must be positive or 0");
+        Preconditions.checkArgument(maxBatchSize > 0, "maxBatchSize must be positive");
         Preconditions.checkNotNull(registry, "metric registry");
 
         this.ringBufferSize = ringBufferSize;
         this.numWriterThreads = numWriterThreads;
+        this.numShards = numShards;
+        this.maxBatchSize = maxBatchSize;
+        this.registry = registry;
         numEntriesOnRingBuffer.set(0L);
 
         registry.register(MetricRegistry.name("ring-buffer", "size"),
@@ -142,9 +190,13 @@ public class TimeseriesWriter implements WorkHandler<SampleBatchEvent>, Disposab
         droppedSamples = registry.meter(MetricRegistry.name("ring-buffer", "dropped-samples"));
         sampleWriteTsTimer = registry.timer("samples.write.ts");
 
-        LOG.debug("Using ring_buffer_size: {}", this.ringBufferSize);
-        setUpWorkerPool();
-
+        if (numShards > 0) {
+            LOG.debug("Using ring_buffer_size: {}, writer_shards: {} and max_batch_size: {}", this.ringBufferSize, this.numShards, this.maxBatchSize);
+            setUpShards();
+        } else {
+            LOG.debug("Using ring_buffer_size: {}", this.ringBufferSize);
+            setUpWorkerPool();
+        }
     }
 
     private void setUpWorkerPool() {
@@ -170,11 +222,41 @@ public class TimeseriesWriter implements WorkHandler<SampleBatchEvent>, Disposab
         workerPool.start(executor);
     }
 
+    private void setUpShards() {
+        final ThreadFactory namedThreadFactory = new ThreadFactoryBuilder()
+                .setNameFormat("TimeseriesWriter-Shard-%d").build();
+        final Executor executor = Executors.newFixedThreadPool(numShards, namedThreadFactory);
+
+        // Split the ring buffer between the shards, keeping the size of each one a power of two
+        final int shardRingBufferSize = Math.max(1, Integer.highestOneBit(ringBufferSize / numShards));
+        shards = new Shard[numShards];
+        for (int i = 0; i < numShards; i++) {
+            shards[i] = new Shard(i, shardRingBufferSize);
+            executor.execute(shards[i].processor);
+        }
+    }
+
     @Override
     public void destroy() {
         if (workerPool != null) {
             workerPool.drainAndHalt();
         }
+        if (shards != null) {
+            for (Shard shard : shards) {
+                shard.drainAndHalt();
+            }
+        }
+        if (rollupAggregator != null) {
+            // Write the intervals in progress, rather than losing them
+            List<Sample> rollups = rollupAggregator.flush();
+            if (!rollups.isEmpty()) {
+                try {
+                    this.storage.get().store(rollups);
+                } catch (Throwable t) {
+                    LOG.error("An error occurred while inserting {} rollup samples.", rollups.size(), t);
+                }
+            }
+        }
     }
 
     public void insert(List<Sample> samples) {
@@ -186,6 +268,10 @@ public class TimeseriesWriter implements WorkHandler<SampleBatchEvent>, Disposab
     }
 
     private void pushToRingBuffer(List<Sample> samples, EventTranslatorOneArg<SampleBatchEvent, List<Sample>> translator) {
+        if (shards != null) {
+            pushToShards(samples, translator);
+            return;
+        }
         // Add the samples to the ring buffer
         if (!ringBuffer.tryPublishEvent(translator, samples)) {
             RATE_LIMITED_LOGGER.error("The ring buffer is full. {} samples associated with resource ids {} will be dropped.",
@@ -207,6 +293,45 @@ public class TimeseriesWriter implements WorkHandler<SampleBatchEvent>, Disposab
         numEntriesOnRingBuffer.incrementAndGet();
     }
 
+    private void pushToShards(List<Sample> samples, EventTranslatorOneArg<SampleBatchEvent, List<Sample>> translator) {
+        if (samples.isEmpty()) {
+            return;
+        }
+        // Most batches only contain the samples of a single resource, avoid splitting them up if we can
+        final int first = getShard(samples.get(0));
+        List<Sample>[] samplesByShard = null;
+        for (int i = 1; i < samples.size(); i++) {
+            final int shard = getShard(samples.get(i));
+            if (samplesByShard == null && shard != first) {
+                @SuppressWarnings("unchecked")
+                final List<Sample>[] lists = new List[numShards];
+                lists[first] = new ArrayList<>(samples.subList(0, i));
+                samplesByShard = lists;
+            }
+            if (samplesByShard != null) {
+                if (samplesByShard[shard] == null) {
+                    samplesByShard[shard] = new ArrayList<>();
+                }
+                samplesByShard[shard].add(samples.get(i));
+            }
+        }
+
+        if (samplesByShard == null) {
+            shards[first].publish(samples, translator);
+        } else {
+            for (int i = 0; i < numShards; i++) {
+                if (samplesByShard[i] != null) {
+                    shards[i].publish(samplesByShard[i], translator);
+                }
+            }
+        }
+    }
+
+    private int getShard(Sample sample) {
+        final Tag resourceId = sample.getMetric().getFirstTagByKey(IntrinsicTagNames.resourceId);
+        return resourceId == null ? 0 : (resourceId.getValue().hashCode() & Integer.MAX_VALUE) % numShards;
+    }
+
     @Override
     public void onEvent(SampleBatchEvent event) throws Exception {
         // We'd expect the logs from this thread to be in collectd.log
@@ -222,6 +347,7 @@ public class TimeseriesWriter implements WorkHandler<SampleBatchEvent>, Disposab
                 try(Timer.Context context = this.sampleWriteTsTimer.time()) {
                     this.storage.get().store(event.getSamples());
                 }
+                storeRollups(event.getSamples());
             }
         } catch (Throwable t) {
             RATE_LIMITED_LOGGER.error("An error occurred while inserting samples. Some sample may be lost.", t);
@@ -229,9 +355,13 @@ public class TimeseriesWriter implements WorkHandler<SampleBatchEvent>, Disposab
     }
 
     private void storeMetadata(SampleBatchEvent event) throws SQLException, ExecutionException {
+        storeMetadata(event.getSamples());
+    }
+
+    private void storeMetadata(List<Sample> samples) throws SQLException, ExecutionException {
         // dedouble attributes
         Set<MetaData> metaData = new HashSet<>();
-        for(Sample sample : event.getSamples()) {
+        for(Sample sample : samples) {
             Metric metric = sample.getMetric();
             String resourceId = metric.getFirstTagByKey(IntrinsicTagNames.resourceId).getValue();
             metric.getMetaTags().forEach(tag -> metaData.add(new MetaData(resourceId, tag.getKey(), tag.getValue())));
@@ -239,6 +369,16 @@ public class TimeseriesWriter implements WorkHandler<SampleBatchEvent>, Disposab
         this.timeSeriesMetaDataDao.store(metaData);
     }
 
+    private void storeRollups(List<Sample> samples) throws StorageException {
+        if (rollupAggregator == null) {
+            return;
+        }
+        List<Sample> rollups = rollupAggregator.aggregate(samples);
+        if (!rollups.isEmpty()) {
+            this.storage.get().store(rollups);
+        }
+    }
+
     private static final EventTranslatorOneArg<SampleBatchEvent, List<Sample>> TRANSLATOR =
             new EventTranslatorOneArg<SampleBatchEvent, List<Sample>>() {
                 public void translateTo(SampleBatchEvent event, long sequence, List<Sample> samples) {
@@ -255,6 +395,110 @@ public class TimeseriesWriter implements WorkHandler<SampleBatchEvent>, Disposab
                 }
             };
 
+    /**
+     * A ring buffer consumed by a single thread, which batches the samples it finds
+     * on the ring buffer until it catches up or reaches maxBatchSize samples.
+     */
+    private class Shard implements EventHandler<SampleBatchEvent>, LifecycleAware {
+        private final int index;
+        private final RingBuffer<SampleBatchEvent> ringBuffer;
+        private final BatchEventProcessor<SampleBatchEvent> processor;
+        private final Meter droppedSamples;
+        private List<Sample> batch = new ArrayList<>();
+
+        private Shard(int index, int size) {
+            this.index = index;
+            ringBuffer = RingBuffer.createMultiProducer(SampleBatchEvent::new, size);
+            processor = new BatchEventProcessor<>(ringBuffer, ringBuffer.newBarrier(), this);
+            processor.setExceptionHandler(new FatalExceptionHandler());
+            ringBuffer.addGatingSequences(processor.getSequence());
+
+            final String shard = "shard-" + index;
+            registry.register(MetricRegistry.name("ring-buffer", shard, "size"),
+                    (Gauge<Long>) () -> ringBuffer.getBufferSize() - ringBuffer.remainingCapacity());
+            droppedSamples = registry.meter(MetricRegistry.name("ring-buffer", shard, "dropped-samples"));
+        }
+
+        private void publish(List<Sample> samples, EventTranslatorOneArg<SampleBatchEvent, List<Sample>> translator) {
+            if (!ringBuffer.tryPublishEvent(translator, samples)) {
+                RATE_LIMITED_LOGGER.error("The ring buffer of shard {} is full. {} samples associated with resource ids {} will be dropped.",
+                        index, samples.size(), new Object() {
+                            @Override
+                            public String toString() {
+                                return samples.stream()
+                                        .map(s -> s.getMetric().getFirstTagByKey(IntrinsicTagNames.resourceId).getValue())
+                                        .distinct()
+                                        .collect(Collectors.joining(", "));
+                            }
+                        });
+                droppedSamples.mark(samples.size());
+                TimeseriesWriter.this.droppedSamples.mark(samples.size());
+                return;
+            }
+            numEntriesOnRingBuffer.incrementAndGet();
+        }
+
+        @Override
+        public void onEvent(SampleBatchEvent event, long sequence, boolean endOfBatch) {
+            numEntriesOnRingBuffer.decrementAndGet();
+
+            final List<Sample> samples = event.getSamples();
+            // Don't hold on to the samples until the slot gets reused
+            event.setSamples(null);
+            if (event.isMetadata()) {
+                try {
+                    storeMetadata(samples);
+                } catch (Throwable t) {
+                    RATE_LIMITED_LOGGER.error("An error occurred while inserting samples. Some sample may be lost.", t);
+                }
+            } else {
+                batch.addAll(samples);
+            }
+
+            if (endOfBatch || batch.size() >= maxBatchSize) {
+                flush();
+            }
+        }
+
+        private void flush() {
+            if (batch.isEmpty()) {
+                return;
+            }
+            // The storage may hold on to the list, so we start a new one
+            final List<Sample> samples = batch;
+            batch = new ArrayList<>();
+            try(Timer.Context context = sampleWriteTsTimer.time()) {
+                storage.get().store(samples);
+                storeRollups(samples);
+            } catch (Throwable t) {
+                RATE_LIMITED_LOGGER.error("An error occurred while inserting samples. Some sample may be lost.", t);
+            }
+        }
+
+        @Override
+        public void onStart() {
+            // We'd expect the logs from this thread to be in collectd.log
+            Logging.putPrefix("collectd");
+        }
+
+        @Override
+        public void onShutdown() {
+            flush();
+        }
+
+        private void drainAndHalt() {
+            while (processor.getSequence().get() < ringBuffer.getCursor()) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            processor.halt();
+        }
+    }
+
     public void setTimeSeriesStorage(final TimeseriesStorageManager timeseriesStorage) {
         this.storage = timeseriesStorage;
     }
@@ -262,4 +506,8 @@ public class TimeseriesWriter implements WorkHandler<SampleBatchEvent>, Disposab
     public void setTimeSeriesMetaDataDao(final TimeSeriesMetaDataDao timeSeriesMetaDataDao) {
         this.timeSeriesMetaDataDao = timeSeriesMetaDataDao;
     }
+
+    public void setRollupAggregator(final RollupAggregator rollupAggregator) {
+        this.rollupAggregator = rollupAggregator;
+    }
 }
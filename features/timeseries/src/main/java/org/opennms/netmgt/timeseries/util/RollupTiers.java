@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.timeseries.util;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import org.opennms.integration.api.v1.timeseries.Aggregation;
+import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.Tag;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableMetric;
+
+import com.google.common.base.Strings;
+
+/**
+ * The resolutions at which samples are pre-aggregated when they are written, i.e. "5m,1h,1d".
+ *
+ * Each tier keeps the minimum, maximum and average of the samples of a gauge per interval in
+ * a separate metric, which has the intrinsic tags of the original metric and an additional
+ * {@link #ROLLUP_TAG} like "1h_avg". The samples of a rollup metric are stamped with the end of
+ * their interval.
+ */
+public class RollupTiers {
+
+    public static final String ROLLUP_TAG = "_rollup";
+
+    private final List<Duration> tiers;
+
+    public RollupTiers(final String tiers) {
+        final List<Duration> parsed = new ArrayList<>();
+        if (!Strings.isNullOrEmpty(tiers)) {
+            for (String tier : tiers.split(",")) {
+                if (!tier.trim().isEmpty()) {
+                    parsed.add(parse(tier.trim()));
+                }
+            }
+        }
+        Collections.sort(parsed);
+        this.tiers = Collections.unmodifiableList(parsed);
+    }
+
+    public boolean isEnabled() {
+        return !tiers.isEmpty();
+    }
+
+    /**
+     * @return the resolutions, finest first
+     */
+    public List<Duration> getTiers() {
+        return tiers;
+    }
+
+    /**
+     * @return the coarsest tier that is not coarser than the given step
+     */
+    public Optional<Duration> select(final long stepMs) {
+        Duration selected = null;
+        for (Duration tier : tiers) {
+            if (tier.toMillis() <= stepMs) {
+                selected = tier;
+            }
+        }
+        return Optional.ofNullable(selected);
+    }
+
+    /**
+     * @return the metric holding the given aggregate of the given metric
+     */
+    public static Metric toRollupMetric(final Metric metric, final Duration tier, final Aggregation aggregation) {
+        final ImmutableMetric.MetricBuilder builder = ImmutableMetric.builder();
+        for (Tag tag : metric.getIntrinsicTags()) {
+            builder.intrinsicTag(tag);
+        }
+        return builder.intrinsicTag(ROLLUP_TAG, toString(tier) + "_" + toSuffix(aggregation))
+                .metaTag(IntrinsicTagNames.mtype, Metric.Mtype.gauge.name())
+                .build();
+    }
+
+    public static boolean isRollup(final Metric metric) {
+        return metric.getFirstTagByKey(ROLLUP_TAG) != null;
+    }
+
+    private static String toSuffix(final Aggregation aggregation) {
+        switch (aggregation) {
+            case AVERAGE:
+                return "avg";
+            case MIN:
+                return "min";
+            case MAX:
+                return "max";
+            default:
+                throw new IllegalArgumentException("Unsupported rollup aggregation: " + aggregation);
+        }
+    }
+
+    private static Duration parse(final String tier) {
+        final long value;
+        try {
+            value = Long.parseLong(tier.substring(0, tier.length() - 1));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid rollup tier: " + tier, e);
+        }
+        if (value <= 0) {
+            throw new IllegalArgumentException("Invalid rollup tier: " + tier);
+        }
+        switch (tier.charAt(tier.length() - 1)) {
+            case 's':
+                return Duration.ofSeconds(value);
+            case 'm':
+                return Duration.ofMinutes(value);
+            case 'h':
+                return Duration.ofHours(value);
+            case 'd':
+                return Duration.ofDays(value);
+            default:
+                throw new IllegalArgumentException("Invalid rollup tier: " + tier);
+        }
+    }
+
+    private static String toString(final Duration tier) {
+        final long seconds = tier.getSeconds();
+        if (seconds % 86400 == 0) {
+            return seconds / 86400 + "d";
+        } else if (seconds % 3600 == 0) {
+            return seconds / 3600 + "h";
+        } else if (seconds % 60 == 0) {
+            return seconds / 60 + "m";
+        }
+        return seconds + "s";
+    }
+
+    @Override
+    public String toString() {
+        return tiers.toString();
+    }
+}
@@ -0,0 +1,136 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.timeseries.meta;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class SeriesIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void shouldRememberEntriesAcrossRestarts() throws IOException {
+        File file = new File(folder.getRoot(), "series.idx");
+        MetaData meta = new MetaData("a:b", "key", "value");
+
+        SeriesIndex index = new SeriesIndex(file.getAbsolutePath(), 10, new MetricRegistry());
+        assertFalse(index.containsMetaData(meta));
+        index.addMetaData(Collections.singletonList(meta));
+        index.close();
+
+        index = new SeriesIndex(file.getAbsolutePath(), 10, new MetricRegistry());
+        assertTrue(index.containsMetaData(meta));
+        assertFalse(index.containsMetaData(new MetaData("a:b", "key", "other value")));
+        assertFalse(index.containsMetaData(new MetaData("a:b", "other key", "value")));
+        assertFalse(index.containsMetaData(new MetaData("c:d", "key", "value")));
+        index.close();
+    }
+
+    @Test
+    public void shouldGrow() throws IOException {
+        File file = new File(folder.getRoot(), "series.idx");
+        SeriesIndex index = new SeriesIndex(file.getAbsolutePath(), 1, new MetricRegistry());
+        List<MetaData> metaData = new ArrayList<>();
+        for (int i = 0; i < 10000; i++) {
+            metaData.add(new MetaData("resource" + i, "key", "value" + i));
+        }
+        index.addMetaData(metaData);
+        assertEquals(10000, index.size());
+        index.close();
+
+        index = new SeriesIndex(file.getAbsolutePath(), 1, new MetricRegistry());
+        assertEquals(10000, index.size());
+        for (MetaData meta : metaData) {
+            assertTrue(index.containsMetaData(meta));
+        }
+        index.close();
+    }
+
+    @Test
+    public void shouldKeepLastValueOfMetaData() throws IOException {
+        File file = new File(folder.getRoot(), "series.idx");
+        MetaData valueA = new MetaData("a:b", "key", "A");
+        MetaData valueB = new MetaData("a:b", "key", "B");
+        SeriesIndex index = new SeriesIndex(file.getAbsolutePath(), 10, new MetricRegistry());
+        index.addMetaData(Collections.singletonList(valueA));
+        index.addMetaData(Collections.singletonList(valueB));
+        assertFalse(index.containsMetaData(valueA));
+        assertTrue(index.containsMetaData(valueB));
+        index.addMetaData(Collections.singletonList(valueA));
+        index.close();
+
+        index = new SeriesIndex(file.getAbsolutePath(), 10, new MetricRegistry());
+        // the value is replaced in place
+        assertEquals(1, index.size());
+        assertTrue(index.containsMetaData(valueA));
+        assertFalse(index.containsMetaData(valueB));
+        index.close();
+    }
+
+    @Test
+    public void shouldDiscardIndexThatWasNotClosed() throws IOException {
+        File file = new File(folder.getRoot(), "series.idx");
+        MetaData meta = new MetaData("a:b", "key", "value");
+        SeriesIndex index = new SeriesIndex(file.getAbsolutePath(), 10, new MetricRegistry());
+        index.addMetaData(Collections.singletonList(meta));
+
+        // reopen without closing, as after a crash
+        SeriesIndex reopened = new SeriesIndex(file.getAbsolutePath(), 10, new MetricRegistry());
+        assertEquals(0, reopened.size());
+        assertFalse(reopened.containsMetaData(meta));
+        reopened.close();
+        index.close();
+    }
+
+    @Test
+    public void shouldDoNothingWhenDisabled() throws IOException {
+        MetaData meta = new MetaData("a:b", "key", "value");
+        SeriesIndex index = new SeriesIndex("", 10, new MetricRegistry());
+        assertFalse(index.isEnabled());
+        index.addMetaData(Collections.singletonList(meta));
+        assertFalse(index.containsMetaData(meta));
+        index.close();
+    }
+}
@@ -29,11 +29,20 @@
 
 package org.opennms.netmgt.timeseries.meta;
 
+import static org.junit.Assert.assertEquals;
 import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.when;
 import static org.opennms.netmgt.timeseries.util.TimeseriesUtils.toResourceId;
 
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.Collections;
@@ -41,7 +50,9 @@ import java.util.concurrent.ExecutionException;
 
 import javax.sql.DataSource;
 
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mockito.Mockito;
 import org.opennms.core.cache.CacheConfig;
 import org.opennms.core.cache.CacheConfigBuilder;
@@ -52,6 +63,9 @@ import com.codahale.metrics.MetricRegistry;
 
 public class TimeSeriesMetaDataDaoTest {
 
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void cachingShouldWork() throws SQLException, StorageException, ExecutionException {
         CacheConfig config = new CacheConfigBuilder().withName(TimeSeriesMetaDataDaoTest.class.getSimpleName()).build();
@@ -66,4 +80,92 @@ public class TimeSeriesMetaDataDaoTest {
         // if the cache works correctly we should have only one database call:
         Mockito.verify(dao, times(1)).storeUncached(anyCollection());
     }
+
+    @Test
+    public void indexShouldSkipKnownMetaDataAfterRestart() throws SQLException, StorageException, ExecutionException, IOException {
+        File file = new File(folder.getRoot(), "series.idx");
+        ResourcePath resourcePathA = new ResourcePath("a", "b", "c");
+        ResourcePath resourcePathB = new ResourcePath("a", "b", "d");
+        MetaData meta = new MetaData(toResourceId(resourcePathA), "key", "value");
+
+        SeriesIndex index = new SeriesIndex(file.getAbsolutePath(), 10, new MetricRegistry());
+        DataSource dataSource = createDataSourceWithoutMetaData();
+        TimeSeriesMetaDataDao dao = createDaoWithIndex(dataSource, index);
+        dao.store(Collections.singletonList(meta));
+        assertEquals(Collections.emptyMap(), dao.getForResourcePath(resourcePathB));
+        Mockito.verify(dao, times(1)).storeUncached(anyCollection());
+        Mockito.verify(dataSource, times(1)).getConnection();
+        index.close();
+
+        // after a restart the caches are cold but the index still knows what was written
+        index = new SeriesIndex(file.getAbsolutePath(), 10, new MetricRegistry());
+        dataSource = createDataSourceWithMetaData("key", "value");
+        dao = createDaoWithIndex(dataSource, index);
+        dao.store(Collections.singletonList(meta));
+        Mockito.verify(dao, never()).storeUncached(anyCollection());
+        Mockito.verify(dataSource, never()).getConnection();
+
+        // resources without meta data are looked up again, another writer may have stored it since
+        assertEquals(Collections.singletonMap("key", "value"), dao.getForResourcePath(resourcePathB));
+        Mockito.verify(dataSource, times(1)).getConnection();
+
+        // new meta data is still written
+        dao.store(Collections.singletonList(new MetaData(toResourceId(resourcePathA), "other key", "value")));
+        Mockito.verify(dao, times(1)).storeUncached(anyCollection());
+        index.close();
+    }
+
+    @Test
+    public void indexShouldWriteMetaDataThatChangedBackAfterRestart() throws SQLException, StorageException, ExecutionException, IOException {
+        File file = new File(folder.getRoot(), "series.idx");
+        ResourcePath resourcePathA = new ResourcePath("a", "b", "c");
+        MetaData metaA = new MetaData(toResourceId(resourcePathA), "key", "A");
+        MetaData metaB = new MetaData(toResourceId(resourcePathA), "key", "B");
+
+        // each store happens after a restart, with cold caches and the same index
+        for (MetaData meta : Arrays.asList(metaA, metaB, metaA)) {
+            SeriesIndex index = new SeriesIndex(file.getAbsolutePath(), 10, new MetricRegistry());
+            TimeSeriesMetaDataDao dao = createDaoWithIndex(createDataSourceWithoutMetaData(), index);
+            dao.store(Collections.singletonList(meta));
+            // the database holds the previous value, so it has to be overwritten
+            Mockito.verify(dao, times(1)).storeUncached(Collections.singleton(meta));
+            index.close();
+        }
+
+        // the value that was written last is skipped again
+        SeriesIndex index = new SeriesIndex(file.getAbsolutePath(), 10, new MetricRegistry());
+        TimeSeriesMetaDataDao dao = createDaoWithIndex(createDataSourceWithoutMetaData(), index);
+        dao.store(Collections.singletonList(metaA));
+        Mockito.verify(dao, never()).storeUncached(anyCollection());
+        index.close();
+    }
+
+    private DataSource createDataSourceWithoutMetaData() throws SQLException {
+        return createDataSource(mock(ResultSet.class));
+    }
+
+    private DataSource createDataSourceWithMetaData(String name, String value) throws SQLException {
+        ResultSet resultSet = mock(ResultSet.class);
+        when(resultSet.next()).thenReturn(true, false);
+        when(resultSet.getString("name")).thenReturn(name);
+        when(resultSet.getString("value")).thenReturn(value);
+        return createDataSource(resultSet);
+    }
+
+    private DataSource createDataSource(ResultSet resultSet) throws SQLException {
+        DataSource dataSource = mock(DataSource.class);
+        Connection connection = mock(Connection.class);
+        PreparedStatement statement = mock(PreparedStatement.class);
+        when(dataSource.getConnection()).thenReturn(connection);
+        when(connection.prepareStatement(anyString())).thenReturn(statement);
+        when(statement.executeQuery()).thenReturn(resultSet);
+        return dataSource;
+    }
+
+    private TimeSeriesMetaDataDao createDaoWithIndex(DataSource dataSource, SeriesIndex index) throws SQLException {
+        CacheConfig config = new CacheConfigBuilder().withName(TimeSeriesMetaDataDaoTest.class.getSimpleName()).build();
+        TimeSeriesMetaDataDao dao = Mockito.spy(new TimeSeriesMetaDataDao(dataSource, config, new MetricRegistry(), index));
+        Mockito.doNothing().when(dao).storeUncached(anyCollection());
+        return dao;
+    }
 }
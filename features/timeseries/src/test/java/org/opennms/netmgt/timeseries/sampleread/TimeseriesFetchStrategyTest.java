@@ -32,6 +32,10 @@ import static org.easymock.EasyMock.expect;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.time.Duration;
@@ -51,6 +55,7 @@ import org.junit.Test;
 import org.mockito.Mockito;
 import org.opennms.integration.api.v1.timeseries.Aggregation;
 import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
+import org.opennms.integration.api.v1.timeseries.Metric;
 import org.opennms.integration.api.v1.timeseries.Sample;
 import org.opennms.integration.api.v1.timeseries.StorageException;
 import org.opennms.integration.api.v1.timeseries.TimeSeriesFetchRequest;
@@ -69,6 +74,9 @@ import org.opennms.netmgt.model.ResourceId;
 import org.opennms.netmgt.model.ResourcePath;
 import org.opennms.netmgt.model.RrdGraphAttribute;
 import org.opennms.netmgt.timeseries.TimeseriesStorageManager;
+import org.opennms.netmgt.timeseries.memory.InMemoryStorage;
+import org.opennms.netmgt.timeseries.samplewrite.RollupAggregator;
+import org.opennms.netmgt.timeseries.util.RollupTiers;
 import org.opennms.newts.api.Measurement;
 import org.opennms.newts.api.Resource;
 import org.opennms.newts.api.Results.Row;
@@ -217,6 +225,55 @@ public class TimeseriesFetchStrategyTest {
         assertTrue(fetchResults.getColumns().containsKey("ping1Micro"));
     }
 
+    @Test
+    public void canFetchFromRollups() throws Exception {
+        // a storage that doesn't aggregate natively
+        final TimeSeriesStorage storage = Mockito.spy(new InMemoryStorage());
+        when(storageManager.get()).thenReturn(storage);
+        final Source source = createMockResource("icmplocalhost", "icmp", "127.0.0.1", false);
+        replay();
+
+        // write a day of samples, once every 5 minutes, and their rollups
+        final long start = 1431043200000L; // midnight
+        final long end = start + Duration.ofDays(1).toMillis();
+        final ImmutableMetric metric = ImmutableMetric.builder()
+                .intrinsicTag(IntrinsicTagNames.resourceId, "response:127.0.0.1:icmp")
+                .intrinsicTag(IntrinsicTagNames.name, "icmp")
+                .metaTag(IntrinsicTagNames.mtype, Metric.Mtype.gauge.name())
+                .build();
+        final List<Sample> samples = new ArrayList<>();
+        for (long time = start; time < end; time += STEP) {
+            samples.add(ImmutableSample.builder().metric(metric).time(Instant.ofEpochMilli(time)).value((double) (time - start) / STEP).build());
+        }
+        final RollupTiers tiers = new RollupTiers("5m,1h");
+        storage.store(samples);
+        storage.store(new RollupAggregator(tiers, new MetricRegistry()).aggregate(samples));
+
+        final long step = Duration.ofHours(1).toMillis();
+        final FetchResults raw = fetchStrategy.fetch(start, end, step, 0, null, null, Lists.newArrayList(source), false);
+        Mockito.reset(storage);
+
+        fetchStrategy.setRollupTiers(tiers);
+        final FetchResults rollups = fetchStrategy.fetch(start, end, step, 0, null, null, Lists.newArrayList(source), false);
+
+        // the hourly rollups were used instead of the raw samples
+        verify(storage, times(1)).getTimeseries(any());
+        verify(storage).getTimeseries(argThat(request -> "1h_avg".equals(request.getMetric().getFirstTagByKey(RollupTiers.ROLLUP_TAG).getValue())));
+
+        // and give the same results for the hours they cover
+        assertEquals(raw.getTimestamps().length, rollups.getTimestamps().length);
+        final double[] expected = raw.getColumns().get("icmplocalhost");
+        final double[] actual = rollups.getColumns().get("icmplocalhost");
+        int numValues = 0;
+        for (int i = 0; i < actual.length; i++) {
+            if (!Double.isNaN(actual[i])) {
+                assertEquals(expected[i], actual[i], 0.0001);
+                numValues++;
+            }
+        }
+        assertTrue(numValues >= 22);
+    }
+
     public Source createMockResource(final String label, final String attr, final String node) throws StorageException {
         return createMockResource(label, attr, node, true);
     }
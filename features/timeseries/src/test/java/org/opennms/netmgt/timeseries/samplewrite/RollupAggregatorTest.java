@@ -0,0 +1,155 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.timeseries.samplewrite;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.opennms.integration.api.v1.timeseries.Aggregation;
+import org.opennms.integration.api.v1.timeseries.IntrinsicTagNames;
+import org.opennms.integration.api.v1.timeseries.Metric;
+import org.opennms.integration.api.v1.timeseries.Sample;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableMetric;
+import org.opennms.integration.api.v1.timeseries.immutables.ImmutableSample;
+import org.opennms.netmgt.timeseries.util.RollupTiers;
+
+import com.codahale.metrics.MetricRegistry;
+
+public class RollupAggregatorTest {
+
+    private final Metric metric = ImmutableMetric.builder()
+            .intrinsicTag(IntrinsicTagNames.resourceId, "a:b")
+            .intrinsicTag(IntrinsicTagNames.name, "c")
+            .metaTag(IntrinsicTagNames.mtype, Metric.Mtype.gauge.name())
+            .build();
+
+    @Test
+    public void shouldCompleteIntervalsOnceTheNextOneStarts() {
+        RollupAggregator aggregator = new RollupAggregator(new RollupTiers("5m,1h"), new MetricRegistry());
+
+        // 00:01, 00:05 and 00:03 fall into the interval that ends at 00:05
+        assertEquals(Collections.emptyList(), aggregator.aggregate(Arrays.asList(sample(1, 4.0), sample(5, 2.0))));
+        assertEquals(Collections.emptyList(), aggregator.aggregate(Collections.singletonList(sample(3, 6.0))));
+
+        Map<Metric, Sample> completed = byMetric(aggregator.aggregate(Collections.singletonList(sample(6, 1.0))));
+        assertEquals(3, completed.size());
+        assertEquals(4.0, completed.get(rollup("5m", Aggregation.AVERAGE)).getValue(), 0.0001);
+        assertEquals(2.0, completed.get(rollup("5m", Aggregation.MIN)).getValue(), 0.0001);
+        assertEquals(6.0, completed.get(rollup("5m", Aggregation.MAX)).getValue(), 0.0001);
+        assertEquals(Instant.ofEpochMilli(Duration.ofMinutes(5).toMillis()), completed.get(rollup("5m", Aggregation.AVERAGE)).getTime());
+
+        // samples are ignored by the tiers that already completed their interval
+        assertEquals(Collections.emptyList(), aggregator.aggregate(Collections.singletonList(sample(4, 100.0))));
+
+        // the intervals in progress are completed when flushing
+        completed = byMetric(aggregator.flush());
+        assertEquals(6, completed.size());
+        assertEquals(1.0, completed.get(rollup("5m", Aggregation.AVERAGE)).getValue(), 0.0001);
+        assertEquals(113.0 / 5, completed.get(rollup("1h", Aggregation.AVERAGE)).getValue(), 0.0001);
+        assertEquals(1.0, completed.get(rollup("1h", Aggregation.MIN)).getValue(), 0.0001);
+        assertEquals(100.0, completed.get(rollup("1h", Aggregation.MAX)).getValue(), 0.0001);
+        assertEquals(Instant.ofEpochMilli(Duration.ofHours(1).toMillis()), completed.get(rollup("1h", Aggregation.MAX)).getTime());
+    }
+
+    @Test
+    public void shouldNotRollupCounters() {
+        RollupAggregator aggregator = new RollupAggregator(new RollupTiers("5m"), new MetricRegistry());
+        Metric counter = ImmutableMetric.builder()
+                .intrinsicTag(IntrinsicTagNames.resourceId, "a:b")
+                .intrinsicTag(IntrinsicTagNames.name, "d")
+                .metaTag(IntrinsicTagNames.mtype, Metric.Mtype.count.name())
+                .build();
+
+        // the rates of counters are derived when reading, averaging their cumulative values would be meaningless
+        assertTrue(aggregator.aggregate(Arrays.asList(sample(counter, 1, 100.0), sample(counter, 6, 200.0), sample(counter, 11, 300.0))).isEmpty());
+        assertTrue(aggregator.flush().isEmpty());
+    }
+
+    @Test
+    public void shouldEvictIdleSeries() {
+        MetricRegistry registry = new MetricRegistry();
+        RollupAggregator aggregator = new RollupAggregator(new RollupTiers("5m,1h"), registry);
+        Metric other = ImmutableMetric.builder()
+                .intrinsicTag(IntrinsicTagNames.resourceId, "a:b")
+                .intrinsicTag(IntrinsicTagNames.name, "e")
+                .metaTag(IntrinsicTagNames.mtype, Metric.Mtype.gauge.name())
+                .build();
+
+        aggregator.aggregate(Arrays.asList(sample(1, 4.0), sample(other, 1, 1.0)));
+        assertEquals(2, registry.getGauges().get("rollups.series").getValue());
+
+        // the metric stops receiving samples, its intervals in progress are completed once it has been idle for over an hour
+        aggregator.aggregate(Collections.singletonList(sample(other, 50, 1.0)));
+        Map<Metric, Sample> completed = byMetric(aggregator.aggregate(Collections.singletonList(sample(other, 125, 1.0))));
+        assertEquals(4.0, completed.get(rollup("5m", Aggregation.AVERAGE)).getValue(), 0.0001);
+        assertEquals(4.0, completed.get(rollup("1h", Aggregation.AVERAGE)).getValue(), 0.0001);
+        assertEquals(1, registry.getGauges().get("rollups.series").getValue());
+
+        // and a new series is started if it does receive samples again
+        aggregator.aggregate(Collections.singletonList(sample(126, 2.0)));
+        assertEquals(2, registry.getGauges().get("rollups.series").getValue());
+    }
+
+    @Test
+    public void shouldDoNothingWithoutTiers() {
+        RollupAggregator aggregator = new RollupAggregator(new RollupTiers(""), new MetricRegistry());
+        assertTrue(aggregator.aggregate(Arrays.asList(sample(1, 1.0), sample(10, 1.0), sample(100, 1.0))).isEmpty());
+        assertTrue(aggregator.flush().isEmpty());
+    }
+
+    private Sample sample(int minute, double value) {
+        return sample(metric, minute, value);
+    }
+
+    private static Sample sample(Metric metric, int minute, double value) {
+        return ImmutableSample.builder()
+                .metric(metric)
+                .time(Instant.ofEpochMilli(Duration.ofMinutes(minute).toMillis()))
+                .value(value)
+                .build();
+    }
+
+    private Metric rollup(String tier, Aggregation aggregation) {
+        return RollupTiers.toRollupMetric(metric, new RollupTiers(tier).getTiers().get(0), aggregation);
+    }
+
+    private static Map<Metric, Sample> byMetric(List<Sample> samples) {
+        return samples.stream().collect(Collectors.toMap(Sample::getMetric, s -> s));
+    }
+}
@@ -29,11 +29,17 @@
 package org.opennms.netmgt.timeseries.samplewrite;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.when;
 
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.locks.Lock;
@@ -144,6 +150,131 @@ public class TimeseriesWriterTest {
         assertEquals(ringBufferSize, timeseriesStorage.getNumSamplesInserted());
     }
 
+    /**
+     * Verifies that when sharded, the samples of each resource are all written,
+     * in order, by the same thread.
+     */
+    @Test
+    public void shardedWriterKeepsSamplesOfAResourceInOrder() {
+        int numResources = 10;
+        int numSamplesPerResource = 500;
+
+        RecordingTimeseriesStorage timeseriesStorage = new RecordingTimeseriesStorage();
+        MetricRegistry registry = new MetricRegistry();
+        TimeseriesWriter writer = new TimeseriesWriter(1024, 1, 4, 100, registry);
+        when(storageManager.get()).thenReturn(timeseriesStorage);
+        writer.setTimeSeriesStorage(storageManager);
+        writer.setTimeSeriesMetaDataDao(Mockito.mock(TimeSeriesMetaDataDao.class));
+
+        for (int i = 0; i < numSamplesPerResource; i++) {
+            List<Sample> samples = new ArrayList<>();
+            for (int r = 0; r < numResources; r++) {
+                samples.add(createSample("r" + r, i));
+                // Mix single resource batches with batches spanning several shards
+                if (i % 2 == 0) {
+                    writer.insert(samples);
+                    samples = new ArrayList<>();
+                }
+            }
+            if (!samples.isEmpty()) {
+                writer.insert(samples);
+            }
+        }
+        writer.destroy();
+
+        assertEquals(numResources, timeseriesStorage.getValuesByResource().size());
+        for (Map.Entry<String, List<Double>> entry : timeseriesStorage.getValuesByResource().entrySet()) {
+            List<Double> values = entry.getValue();
+            assertEquals(numSamplesPerResource, values.size());
+            for (int i = 0; i < numSamplesPerResource; i++) {
+                assertEquals(entry.getKey(), (double)i, values.get(i), 0.0);
+            }
+            assertEquals(entry.getKey(), 1, timeseriesStorage.getThreadsByResource().get(entry.getKey()).size());
+        }
+    }
+
+    /**
+     * Locks the writer threads of a sharded writer to verify that the samples
+     * are only dropped by the shard that is full, and that the backlog is
+     * written in a single batch once unlocked.
+     */
+    @Test
+    public void shardedWriterDropsAndBatchesPerShard() throws Exception {
+        // Find two resources that are routed to different shards
+        String resourceA = "r0";
+        String resourceB = null;
+        for (int i = 1; resourceB == null; i++) {
+            if ((resourceA.hashCode() & Integer.MAX_VALUE) % 2 != (("r" + i).hashCode() & Integer.MAX_VALUE) % 2) {
+                resourceB = "r" + i;
+            }
+        }
+        int shardA = (resourceA.hashCode() & Integer.MAX_VALUE) % 2;
+
+        Lock lock = new ReentrantLock();
+        LockedTimeseriesStorage timeseriesStorage = new LockedTimeseriesStorage(lock);
+        MetricRegistry registry = new MetricRegistry();
+        // Each of the two shards gets a ring buffer of 8
+        TimeseriesWriter writer = new TimeseriesWriter(16, 1, 2, 100, registry);
+        when(storageManager.get()).thenReturn(timeseriesStorage);
+        writer.setTimeSeriesStorage(storageManager);
+        writer.setTimeSeriesMetaDataDao(Mockito.mock(TimeSeriesMetaDataDao.class));
+
+        lock.lock();
+        for (int i = 0; i < 11; i++) {
+            writer.insert(Collections.singletonList(createSample(resourceA, i)));
+        }
+        assertEquals(3, registry.meter("ring-buffer.shard-" + shardA + ".dropped-samples").getCount());
+        assertEquals(0, registry.meter("ring-buffer.shard-" + (1 - shardA) + ".dropped-samples").getCount());
+        assertEquals(3, registry.meter("ring-buffer.dropped-samples").getCount());
+        assertEquals(8L, registry.getGauges().get("ring-buffer.shard-" + shardA + ".size").getValue());
+
+        // The other shard isn't affected
+        writer.insert(Collections.singletonList(createSample(resourceB, 0)));
+        assertEquals(0, registry.meter("ring-buffer.shard-" + (1 - shardA) + ".dropped-samples").getCount());
+
+        lock.unlock();
+        writer.destroy();
+
+        assertEquals(9, timeseriesStorage.getNumSamplesInserted());
+        // One call for the sample being written when the lock was taken, at most one more for the backlog
+        // of each shard
+        assertTrue(timeseriesStorage.getNumBatchesInserted() <= 3);
+    }
+
+    private Sample createSample(String resourceId, double value) {
+        Metric metric = ImmutableMetric.builder()
+                .intrinsicTag(IntrinsicTagNames.resourceId, resourceId)
+                .intrinsicTag(IntrinsicTagNames.name, "c")
+                .intrinsicTag(IntrinsicTagNames.mtype, Metric.Mtype.gauge.name())
+                .build();
+        return ImmutableSample.builder()
+                .metric(metric)
+                .time(Instant.now())
+                .value(value).build();
+    }
+
+    private static class RecordingTimeseriesStorage extends MockTimeSeriesStorage {
+        private final Map<String, List<Double>> valuesByResource = new ConcurrentHashMap<>();
+        private final Map<String, Set<String>> threadsByResource = new ConcurrentHashMap<>();
+
+        public Map<String, List<Double>> getValuesByResource() {
+            return valuesByResource;
+        }
+
+        public Map<String, Set<String>> getThreadsByResource() {
+            return threadsByResource;
+        }
+
+        @Override
+        public void store(List<Sample> samples) {
+            for (Sample sample : samples) {
+                String resourceId = sample.getMetric().getFirstTagByKey(IntrinsicTagNames.resourceId).getValue();
+                valuesByResource.computeIfAbsent(resourceId, r -> Collections.synchronizedList(new ArrayList<>())).add(sample.getValue());
+                threadsByResource.computeIfAbsent(resourceId, r -> ConcurrentHashMap.newKeySet()).add(Thread.currentThread().getName());
+            }
+        }
+    }
+
     private static class LatchedTimeseriesStorage extends MockTimeSeriesStorage {
         private final CountDownLatch latch;
 
@@ -166,6 +297,7 @@ public class TimeseriesWriterTest {
         private final Lock lock;
         private final AtomicInteger numThreadsLocked = new AtomicInteger(0);
         private final AtomicInteger numSamplesInserted = new AtomicInteger(0);
+        private final AtomicInteger numBatchesInserted = new AtomicInteger(0);
 
         public LockedTimeseriesStorage(Lock lock) {
             this.lock = lock;
@@ -179,11 +311,16 @@ public class TimeseriesWriterTest {
             return numSamplesInserted.get();
         }
 
+        public int getNumBatchesInserted() {
+            return numBatchesInserted.get();
+        }
+
         @Override
         public void store(List<Sample> samples) throws StorageException {
             numThreadsLocked.incrementAndGet();
             lock.lock();
             numSamplesInserted.addAndGet(samples.size());
+            numBatchesInserted.incrementAndGet();
             lock.unlock();
             numThreadsLocked.decrementAndGet();
         }
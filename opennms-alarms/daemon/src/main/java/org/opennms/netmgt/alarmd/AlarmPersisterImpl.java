@@ -37,10 +37,8 @@ import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.concurrent.locks.Lock;
 import java.util.stream.Collectors;
 
-import org.opennms.core.sysprops.SystemProperties;
 import org.opennms.netmgt.alarmd.api.AlarmPersisterExtension;
 import org.opennms.netmgt.dao.api.AlarmDao;
 import org.opennms.netmgt.dao.api.AlarmEntityNotifier;
@@ -56,11 +54,11 @@ import org.opennms.netmgt.xml.eventconf.LogDestType;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.transaction.support.TransactionOperations;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Sets;
-import com.google.common.util.concurrent.Striped;
 
 /**
  * Singleton to persist OnmsAlarms.
@@ -73,7 +71,6 @@ public class AlarmPersisterImpl implements AlarmPersister {
 
     public static final String RELATED_REDUCTION_KEY_PREFIX = "related-reductionKey";
 
-    protected static final Integer NUM_STRIPE_LOCKS = SystemProperties.getInteger("org.opennms.alarmd.stripe.locks", Alarmd.THREADS * 4);
     protected static boolean NEW_IF_CLEARED = Boolean.getBoolean("org.opennms.alarmd.newIfClearedAlarmExists");
     protected static boolean LEGACY_ALARM_STATE = Boolean.getBoolean("org.opennms.alarmd.legacyAlarmState");
 
@@ -92,7 +89,10 @@ public class AlarmPersisterImpl implements AlarmPersister {
     @Autowired
     private AlarmEntityNotifier m_alarmEntityNotifier;
 
-    private Striped<Lock> lockStripes = StripedExt.fairLock(NUM_STRIPE_LOCKS);
+    @Autowired(required=false)
+    private ReductionKeyIndex m_reductionKeyIndex;
+
+    private final KeyedFairLocks m_locks = new KeyedFairLocks();
 
     private final Set<AlarmPersisterExtension> extensions = Sets.newConcurrentHashSet();
 
@@ -111,23 +111,33 @@ public class AlarmPersisterImpl implements AlarmPersister {
             LOG.debug("process: {}; nodeid: {}; ipaddr: {}; serviceid: {}", event.getUei(), event.getNodeid(), event.getInterface(), event.getService());
         }
 
-        // Lock both the reduction and clear keys (if set) using a fair striped lock
+        // Lock both the reduction and clear keys (if set) using fair per-key locks
         // We do this to ensure that clears and triggers are processed in the same order
         // as the calls are made
-        final Iterable<Lock> locks = lockStripes.bulkGet(getLockKeys(event));
-        final OnmsAlarm alarm;
-        try {
-            locks.forEach(Lock::lock);
-            // Process the alarm inside a transaction
-            alarm = m_transactionOperations.execute((action) -> addOrReduceEventAsAlarm(event));
-        } finally {
-            locks.forEach(Lock::unlock);
-        }
+        return m_locks.withLocks(getLockKeys(event), () -> {
+            OnmsAlarm alarm;
+            try {
+                // Process the alarm inside a transaction
+                alarm = m_transactionOperations.execute((action) -> addOrReduceEventAsAlarm(event, true));
+            } catch (DataIntegrityViolationException e) {
+                if (m_reductionKeyIndex == null) {
+                    throw e;
+                }
+                // An alarm with the same reduction key was created without going through the index, look it up instead
+                LOG.info("Failed to persist alarm for event with reduction key: {}. Retrying without the reduction key index.",
+                        event.getAlarmData().getReductionKey(), e);
+                alarm = m_transactionOperations.execute((action) -> addOrReduceEventAsAlarm(event, false));
+            }
 
-        return alarm;
+            // Index the alarm once the transaction was committed
+            if (alarm != null && m_reductionKeyIndex != null) {
+                m_reductionKeyIndex.put(alarm);
+            }
+            return alarm;
+        });
     }
 
-    private OnmsAlarm addOrReduceEventAsAlarm(Event event) throws IllegalStateException {
+    private OnmsAlarm addOrReduceEventAsAlarm(Event event, boolean useIndex) throws IllegalStateException {
         
         final OnmsEvent persistedEvent = m_eventDao.get(event.getDbid());
         if (persistedEvent == null) {
@@ -146,11 +156,11 @@ public class AlarmPersisterImpl implements AlarmPersister {
             didSwapReductionKeyWithClearKey = true;
         }
 
-        OnmsAlarm alarm = m_alarmDao.findByReductionKey(key);
+        OnmsAlarm alarm = findByReductionKey(key, useIndex);
 
         if (alarm == null && didSwapReductionKeyWithClearKey) {
             // if the clearKey returns null, still need to check the reductionKey
-            alarm = m_alarmDao.findByReductionKey(reductionKey);
+            alarm = findByReductionKey(reductionKey, useIndex);
         }
 
         if (alarm == null || (m_createNewAlarmIfClearedAlarmExists && OnmsSeverity.CLEARED.equals(alarm.getSeverity()))) {
@@ -179,6 +189,11 @@ public class AlarmPersisterImpl implements AlarmPersister {
             }
 
             m_alarmDao.save(alarm);
+            if (useIndex && m_reductionKeyIndex != null) {
+                // Surface a duplicate reduction key now, before the listeners are told about the alarm, so that
+                // the retry without the index does not notify them of an alarm that was never created
+                m_alarmDao.flush();
+            }
             m_eventDao.saveOrUpdate(persistedEvent);
 
             m_alarmEntityNotifier.didCreateAlarm(alarm);
@@ -206,6 +221,33 @@ public class AlarmPersisterImpl implements AlarmPersister {
         return alarm;
     }
 
+    /**
+     * Retrieves the alarm with the given reduction key.
+     *
+     * When the index is used, the alarm is retrieved by id and the database is not queried
+     * at all if the index does not contain the reduction key.
+     */
+    private OnmsAlarm findByReductionKey(String reductionKey, boolean useIndex) {
+        if (!useIndex || m_reductionKeyIndex == null) {
+            return m_alarmDao.findByReductionKey(reductionKey);
+        }
+
+        final Integer alarmId = m_reductionKeyIndex.getAlarmId(reductionKey);
+        if (alarmId == null) {
+            return null;
+        }
+
+        final OnmsAlarm alarm = m_alarmDao.get(alarmId);
+        if (alarm != null && Objects.equals(reductionKey, alarm.getReductionKey())) {
+            return alarm;
+        }
+
+        // The alarm was deleted or archived without us being notified
+        LOG.debug("findByReductionKey: alarm with id: {} no longer matches reduction key: {}. Removing it from the index.", alarmId, reductionKey);
+        m_reductionKeyIndex.remove(reductionKey);
+        return m_alarmDao.findByReductionKey(reductionKey);
+    }
+
     private void reduceEvent(OnmsEvent persistedEvent, OnmsAlarm alarm, Event event) {
         // Always set these
         alarm.setLastEvent(persistedEvent);
@@ -503,6 +545,14 @@ public class AlarmPersisterImpl implements AlarmPersister {
         m_alarmEntityNotifier = alarmEntityNotifier;
     }
 
+    public ReductionKeyIndex getReductionKeyIndex() {
+        return m_reductionKeyIndex;
+    }
+
+    public void setReductionKeyIndex(ReductionKeyIndex reductionKeyIndex) {
+        m_reductionKeyIndex = reductionKeyIndex;
+    }
+
     public void onExtensionRegistered(final AlarmPersisterExtension ext, final Map<String,String> properties) {
         LOG.debug("onExtensionRegistered: {} with properties: {}", ext, properties);
         extensions.add(ext);
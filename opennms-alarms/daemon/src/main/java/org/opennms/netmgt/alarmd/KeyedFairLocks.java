@@ -0,0 +1,114 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.alarmd;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Supplier;
+
+/**
+ * Fair reentrant locks, allocated on demand for every key.
+ *
+ * Unlike with striped locking, threads working on different keys never contend
+ * with each other. Locks are released from the map once no thread holds or waits
+ * on them, so the number of locks is bounded by the number of threads.
+ *
+ * The locks are fair in order to ensure that operations on the same key are
+ * performed in the same order as the calls are made.
+ */
+public class KeyedFairLocks {
+
+    private final Map<String, KeyLock> locks = new ConcurrentHashMap<>();
+
+    /**
+     * Invokes the given supplier while holding the locks for all of the given keys.
+     *
+     * The keys are locked in their natural order to avoid deadlocks between
+     * callers that lock overlapping sets of keys.
+     *
+     * @param keys the keys to lock
+     * @param supplier the operation to perform while holding the locks
+     * @return the value returned by the supplier
+     */
+    public <T> T withLocks(Collection<String> keys, Supplier<T> supplier) {
+        final List<String> acquired = new ArrayList<>(keys.size());
+        try {
+            for (String key : new TreeSet<>(keys)) {
+                lock(key);
+                acquired.add(key);
+            }
+            return supplier.get();
+        } finally {
+            for (int i = acquired.size() - 1; i >= 0; i--) {
+                unlock(acquired.get(i));
+            }
+        }
+    }
+
+    /**
+     * @return the number of keys for which a lock is currently held or waited on
+     */
+    public int size() {
+        return locks.size();
+    }
+
+    private void lock(String key) {
+        // Reference the lock before acquiring it, so that it is not released while we wait
+        final KeyLock lock = locks.compute(key, (k, l) -> {
+            final KeyLock keyLock = l != null ? l : new KeyLock();
+            keyLock.references++;
+            return keyLock;
+        });
+        lock.lock();
+    }
+
+    private void unlock(String key) {
+        locks.computeIfPresent(key, (k, l) -> {
+            l.unlock();
+            return --l.references == 0 ? null : l;
+        });
+    }
+
+    private static class KeyLock extends ReentrantLock {
+        private static final long serialVersionUID = 1L;
+
+        // Guarded by the map
+        private int references = 0;
+
+        KeyLock() {
+            super(true);
+        }
+    }
+}
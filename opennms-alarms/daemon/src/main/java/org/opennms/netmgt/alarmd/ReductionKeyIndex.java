@@ -0,0 +1,127 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.alarmd;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.opennms.netmgt.dao.api.AlarmDao;
+import org.opennms.netmgt.dao.api.DefaultAlarmEntityListener;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.transaction.support.TransactionOperations;
+
+/**
+ * In-memory index of alarm ids by reduction key.
+ *
+ * Used by the {@link AlarmPersisterImpl} to find the alarm an event should be reduced
+ * to by primary key, and to avoid querying the database altogether when no alarm
+ * exists for the reduction key.
+ *
+ * The index is built from the database on startup and maintained by the persister as
+ * alarms are created. Alarms that are archived or deleted through the {@link org.opennms.netmgt.dao.api.AlarmEntityNotifier}
+ * are removed from the index. Alarms that are modified or deleted by other means are
+ * detected by the persister, which repairs the index when it finds it out of sync.
+ */
+public class ReductionKeyIndex extends DefaultAlarmEntityListener implements InitializingBean {
+    private static final Logger LOG = LoggerFactory.getLogger(ReductionKeyIndex.class);
+
+    @Autowired
+    private AlarmDao m_alarmDao;
+
+    @Autowired
+    private TransactionOperations m_transactionOperations;
+
+    private final Map<String, Integer> m_alarmIdsByReductionKey = new ConcurrentHashMap<>();
+
+    @Override
+    public void afterPropertiesSet() {
+        rebuild();
+    }
+
+    /**
+     * Replaces the content of the index with the alarms currently stored in the database.
+     */
+    public void rebuild() {
+        final Map<String, Integer> alarmIdsByReductionKey = m_transactionOperations.execute(status -> m_alarmDao.getAlarmIdsByReductionKey());
+        m_alarmIdsByReductionKey.clear();
+        m_alarmIdsByReductionKey.putAll(alarmIdsByReductionKey);
+        LOG.info("Indexed {} alarms by reduction key.", m_alarmIdsByReductionKey.size());
+    }
+
+    /**
+     * @param reductionKey the reduction key
+     * @return the id of the alarm with the given reduction key, or {@code null} if there is none
+     */
+    public Integer getAlarmId(String reductionKey) {
+        return reductionKey != null ? m_alarmIdsByReductionKey.get(reductionKey) : null;
+    }
+
+    public void put(OnmsAlarm alarm) {
+        Objects.requireNonNull(alarm.getId(), "alarm must be saved before being indexed");
+        m_alarmIdsByReductionKey.put(alarm.getReductionKey(), alarm.getId());
+    }
+
+    public void remove(String reductionKey) {
+        if (reductionKey != null) {
+            m_alarmIdsByReductionKey.remove(reductionKey);
+        }
+    }
+
+    public int size() {
+        return m_alarmIdsByReductionKey.size();
+    }
+
+    @Override
+    public void onAlarmArchived(OnmsAlarm alarm, String previousReductionKey) {
+        if (previousReductionKey != null) {
+            m_alarmIdsByReductionKey.remove(previousReductionKey, alarm.getId());
+        }
+    }
+
+    @Override
+    public void onAlarmDeleted(OnmsAlarm alarm) {
+        if (alarm.getReductionKey() != null) {
+            m_alarmIdsByReductionKey.remove(alarm.getReductionKey(), alarm.getId());
+        }
+    }
+
+    public void setAlarmDao(AlarmDao alarmDao) {
+        m_alarmDao = alarmDao;
+    }
+
+    public void setTransactionOperations(TransactionOperations transactionOperations) {
+        m_transactionOperations = transactionOperations;
+    }
+}
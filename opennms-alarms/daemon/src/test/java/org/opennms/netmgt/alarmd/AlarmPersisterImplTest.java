@@ -0,0 +1,197 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.alarmd;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.opennms.netmgt.dao.api.AlarmDao;
+import org.opennms.netmgt.dao.api.AlarmEntityNotifier;
+import org.opennms.netmgt.dao.api.EventDao;
+import org.opennms.netmgt.model.OnmsAlarm;
+import org.opennms.netmgt.model.OnmsEvent;
+import org.opennms.netmgt.model.OnmsSeverity;
+import org.opennms.netmgt.xml.event.AlarmData;
+import org.opennms.netmgt.xml.event.Event;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionOperations;
+
+public class AlarmPersisterImplTest {
+
+    private static final String REDUCTION_KEY = "uei.opennms.org/nodes/nodeDown::1";
+
+    private AlarmDao alarmDao = mock(AlarmDao.class);
+
+    private EventDao eventDao = mock(EventDao.class);
+
+    private TransactionOperations transactionOperations = mock(TransactionOperations.class);
+
+    private ReductionKeyIndex reductionKeyIndex = new ReductionKeyIndex();
+
+    private AlarmEntityNotifier alarmEntityNotifier = mock(AlarmEntityNotifier.class);
+
+    private AlarmPersisterImpl alarmPersister = new AlarmPersisterImpl();
+
+    @Before
+    public void setUp() {
+        when(transactionOperations.execute(any())).thenAnswer(invocation ->
+                invocation.getArgument(0, TransactionCallback.class).doInTransaction(null));
+
+        final OnmsEvent persistedEvent = new OnmsEvent();
+        persistedEvent.setId(1);
+        persistedEvent.setEventUei("uei.opennms.org/nodes/nodeDown");
+        persistedEvent.setEventTime(new Date());
+        persistedEvent.setEventSeverity(OnmsSeverity.MAJOR.getId());
+        when(eventDao.get(1)).thenReturn(persistedEvent);
+
+        when(alarmDao.save(any(OnmsAlarm.class))).thenAnswer(invocation -> {
+            invocation.getArgument(0, OnmsAlarm.class).setId(42);
+            return 42;
+        });
+
+        reductionKeyIndex.setAlarmDao(alarmDao);
+        reductionKeyIndex.setTransactionOperations(transactionOperations);
+        when(alarmDao.getAlarmIdsByReductionKey()).thenReturn(Collections.emptyMap());
+        reductionKeyIndex.rebuild();
+
+        alarmPersister.setAlarmDao(alarmDao);
+        alarmPersister.setEventDao(eventDao);
+        alarmPersister.setTransactionOperations(transactionOperations);
+        alarmPersister.setAlarmChangeListener(alarmEntityNotifier);
+        alarmPersister.setReductionKeyIndex(reductionKeyIndex);
+    }
+
+    @Test
+    public void canCreateAlarmWithoutLookupWhenNotIndexed() {
+        final OnmsAlarm alarm = alarmPersister.persist(createEvent());
+
+        assertThat(alarm.getId(), equalTo(42));
+        assertThat(reductionKeyIndex.getAlarmId(REDUCTION_KEY), equalTo(42));
+        verify(alarmDao, never()).findByReductionKey(anyString());
+    }
+
+    @Test
+    public void canReduceIndexedAlarmById() {
+        final OnmsAlarm existingAlarm = createAlarm(7);
+        when(alarmDao.getAlarmIdsByReductionKey()).thenReturn(Collections.singletonMap(REDUCTION_KEY, 7));
+        when(alarmDao.get(7)).thenReturn(existingAlarm);
+        reductionKeyIndex.rebuild();
+
+        final OnmsAlarm alarm = alarmPersister.persist(createEvent());
+
+        assertThat(alarm.getId(), equalTo(7));
+        assertThat(alarm.getCounter(), equalTo(2));
+        verify(alarmDao, never()).findByReductionKey(anyString());
+        verify(alarmDao, never()).save(any(OnmsAlarm.class));
+    }
+
+    @Test
+    public void canRecoverWhenIndexIsOutOfSync() {
+        // Simulate an alarm that was created without going through the index
+        final AtomicBoolean failedOnce = new AtomicBoolean(false);
+        doAnswer(invocation -> {
+            if (failedOnce.compareAndSet(false, true)) {
+                throw new DataIntegrityViolationException("duplicate key value violates unique constraint");
+            }
+            return invocation.getArgument(0, TransactionCallback.class).doInTransaction(null);
+        }).when(transactionOperations).execute(any());
+        when(alarmDao.findByReductionKey(REDUCTION_KEY)).thenReturn(createAlarm(9));
+
+        final OnmsAlarm alarm = alarmPersister.persist(createEvent());
+
+        assertThat(alarm.getId(), equalTo(9));
+        assertThat(reductionKeyIndex.getAlarmId(REDUCTION_KEY), equalTo(9));
+    }
+
+    @Test
+    public void doesNotNotifyListenersOfAlarmsFailingToInsert() {
+        // The insert of the new alarm violates the unique reduction key when it is flushed
+        final AtomicBoolean failedOnce = new AtomicBoolean(false);
+        doAnswer(invocation -> {
+            if (failedOnce.compareAndSet(false, true)) {
+                throw new DataIntegrityViolationException("duplicate key value violates unique constraint");
+            }
+            return null;
+        }).when(alarmDao).flush();
+        when(alarmDao.findByReductionKey(REDUCTION_KEY)).thenReturn(createAlarm(9));
+
+        final OnmsAlarm alarm = alarmPersister.persist(createEvent());
+
+        assertThat(alarm.getId(), equalTo(9));
+        verify(alarmEntityNotifier, never()).didCreateAlarm(any(OnmsAlarm.class));
+        verify(alarmEntityNotifier, times(1)).didUpdateAlarmWithReducedEvent(alarm);
+    }
+
+    @Test
+    public void canRemoveDeletedAlarmsFromIndex() {
+        final OnmsAlarm alarm = alarmPersister.persist(createEvent());
+        assertThat(reductionKeyIndex.size(), equalTo(1));
+
+        reductionKeyIndex.onAlarmDeleted(alarm);
+        assertThat(reductionKeyIndex.size(), equalTo(0));
+    }
+
+    private static Event createEvent() {
+        final AlarmData alarmData = new AlarmData();
+        alarmData.setAlarmType(1);
+        alarmData.setReductionKey(REDUCTION_KEY);
+
+        final Event event = new Event();
+        event.setDbid(1);
+        event.setUei("uei.opennms.org/nodes/nodeDown");
+        event.setAlarmData(alarmData);
+        return event;
+    }
+
+    private static OnmsAlarm createAlarm(int id) {
+        final OnmsAlarm alarm = new OnmsAlarm();
+        alarm.setId(id);
+        alarm.setReductionKey(REDUCTION_KEY);
+        alarm.setAlarmType(1);
+        alarm.setCounter(1);
+        alarm.setSeverity(OnmsSeverity.MAJOR);
+        return alarm;
+    }
+}
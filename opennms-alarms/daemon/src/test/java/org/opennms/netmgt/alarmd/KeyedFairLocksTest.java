@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.alarmd;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class KeyedFairLocksTest {
+
+    private final KeyedFairLocks locks = new KeyedFairLocks();
+
+    @Test
+    public void canSerializeCallsForTheSameKey() throws Exception {
+        final AtomicInteger concurrentCalls = new AtomicInteger(0);
+        final AtomicInteger maxConcurrentCalls = new AtomicInteger(0);
+
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            final Future<?>[] futures = new Future<?>[64];
+            for (int i = 0; i < futures.length; i++) {
+                // Every call locks a shared key, possibly along with a second key
+                final String otherKey = "key" + (i % 4);
+                futures[i] = executor.submit(() -> locks.withLocks(Arrays.asList(otherKey, "shared"), () -> {
+                    maxConcurrentCalls.accumulateAndGet(concurrentCalls.incrementAndGet(), Math::max);
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return concurrentCalls.decrementAndGet();
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertThat(maxConcurrentCalls.get(), equalTo(1));
+        // All of the locks should have been released
+        assertThat(locks.size(), equalTo(0));
+    }
+
+    @Test
+    public void doesNotBlockCallsForOtherKeys() throws Exception {
+        final CountDownLatch holdingLock = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> locks.withLocks(Collections.singletonList("a"), () -> {
+                holdingLock.countDown();
+                try {
+                    return release.await(1, TimeUnit.MINUTES);
+                } catch (InterruptedException e) {
+                    return false;
+                }
+            }));
+            holdingLock.await(1, TimeUnit.MINUTES);
+
+            // A different key should be available while the first one is held
+            assertThat(locks.withLocks(Collections.singletonList("b"), () -> locks.size()), equalTo(2));
+            release.countDown();
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+
+        assertThat(locks.size(), equalTo(0));
+    }
+}
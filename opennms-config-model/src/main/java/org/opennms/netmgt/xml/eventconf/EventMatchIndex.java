@@ -0,0 +1,452 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.xml.eventconf;
+
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_SNMP_EID;
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_SNMP_GENERIC;
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_SNMP_SPECIFIC;
+import static org.opennms.netmgt.xml.eventconf.Maskelement.TAG_UEI;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Precompiled index used to find the first event definition that matches an event.
+ *
+ * All of the event definitions are laid out once, in the same order in which
+ * {@link Events#findFirstMatchingEvent(org.opennms.netmgt.xml.event.Event)} would
+ * visit them, and are referenced by their position in that order. Each event file
+ * starts with the definitions it matches by UEI alone, which are looked up by the
+ * UEI of the event.
+ *
+ * The other definitions are indexed along several dimensions: their partition, and
+ * their id, uei, specific and generic mask elements. For every dimension, exact values
+ * are hashed and values ending with '%' are stored in a character trie, so that
+ * enterprise id prefixes keep matching the way they always have. Definitions that
+ * don't constrain a dimension, or only do so with regular expressions, are candidates
+ * for all of its values. The candidates of all dimensions are intersected, and only
+ * the survivors are evaluated with their complete matcher, in order, so the first
+ * match is the same definition that a full scan would have returned.
+ *
+ * Instances are immutable and are rebuilt from scratch whenever the event
+ * configuration is initialized.
+ */
+class EventMatchIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(EventMatchIndex.class);
+
+    private static final String[] INDEXED_MASK_ELEMENTS = new String[] {
+            TAG_SNMP_EID,
+            TAG_UEI,
+            TAG_SNMP_SPECIFIC,
+            TAG_SNMP_GENERIC
+    };
+
+    private final Map<String, Event> m_eventsByUei;
+
+    private final Event[] m_events;
+
+    private final BitSet m_ueiOnlyEvents;
+
+    private final Map<String, EventSet> m_eventsByLevelUei;
+
+    private final List<Dimension> m_dimensions;
+
+    private EventMatchIndex(final Builder builder) {
+        m_eventsByUei = Collections.unmodifiableMap(new HashMap<>(builder.m_eventsByUei));
+        m_events = builder.m_events.toArray(new Event[0]);
+        m_ueiOnlyEvents = (BitSet)builder.m_ueiOnlyEvents.clone();
+        m_eventsByLevelUei = freeze(builder.m_eventsByLevelUei, m_events.length);
+        m_dimensions = new ArrayList<>(builder.m_dimensions.size());
+        for (final Dimension.Builder dimension : builder.m_dimensions) {
+            // Dimensions that no definition constrains can't narrow down the candidates
+            if (!dimension.isEmpty()) {
+                m_dimensions.add(dimension.build(m_events.length));
+            }
+        }
+    }
+
+    public Event findFirstMatchingEvent(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+        // Attempt to match the event definition by UEI
+        final String ueiToMatch = matchingEvent.getUei();
+        if (ueiToMatch != null) {
+            final Event matchedEvent = m_eventsByUei.get(ueiToMatch);
+            if (matchedEvent != null) {
+                return matchedEvent;
+            }
+        }
+
+        // Intersect the candidates of every dimension
+        final BitSet candidates = getIndexedEvents();
+        for (final Dimension dimension : m_dimensions) {
+            candidates.and(dimension.getCandidates(matchingEvent));
+            if (candidates.isEmpty()) {
+                break;
+            }
+        }
+        if (ueiToMatch != null) {
+            addAll(candidates, m_eventsByLevelUei.get(ueiToMatch));
+        }
+
+        // Evaluate them in order
+        for (int i = candidates.nextSetBit(0); i >= 0; i = candidates.nextSetBit(i + 1)) {
+            if (m_ueiOnlyEvents.get(i) || m_events[i].matches(matchingEvent).matched()) {
+                return m_events[i];
+            }
+        }
+        return null;
+    }
+
+    public int getEventCount() {
+        return m_events.length - m_ueiOnlyEvents.cardinality();
+    }
+
+    /**
+     * @return the number of event definitions that are candidates for all events
+     */
+    public int getUnconstrainedEventCount() {
+        final BitSet unconstrained = getIndexedEvents();
+        for (final Dimension dimension : m_dimensions) {
+            unconstrained.and(dimension.m_unconstrained);
+        }
+        return unconstrained.cardinality();
+    }
+
+    private BitSet getIndexedEvents() {
+        final BitSet events = new BitSet(m_events.length);
+        events.set(0, m_events.length);
+        events.andNot(m_ueiOnlyEvents);
+        return events;
+    }
+
+    private static void addAll(final BitSet candidates, final EventSet events) {
+        if (events != null) {
+            events.addTo(candidates);
+        }
+    }
+
+    private static Map<String, EventSet> freeze(final Map<String, List<Integer>> postings, final int eventCount) {
+        final Map<String, EventSet> frozen = new HashMap<>(postings.size());
+        for (final Map.Entry<String, List<Integer>> entry : postings.entrySet()) {
+            frozen.put(entry.getKey(), EventSet.of(entry.getValue(), eventCount));
+        }
+        return frozen;
+    }
+
+    /**
+     * Positions of the event definitions associated with a value.
+     *
+     * Most values only have a few definitions, which are kept as a plain array, while the
+     * values shared by many definitions (generic 6, for example) are kept as a bit set
+     * so that they can be added to the candidates a word at a time.
+     */
+    private static class EventSet {
+        private final int[] m_positions;
+        private final BitSet m_bits;
+
+        private EventSet(final int[] positions, final BitSet bits) {
+            m_positions = positions;
+            m_bits = bits;
+        }
+
+        private static EventSet of(final List<Integer> events, final int eventCount) {
+            final int[] positions = events.stream().mapToInt(Integer::intValue).distinct().toArray();
+            if (positions.length <= Math.max(64, eventCount / 64)) {
+                return new EventSet(positions, null);
+            }
+            final BitSet bits = new BitSet(eventCount);
+            for (final int position : positions) {
+                bits.set(position);
+            }
+            return new EventSet(null, bits);
+        }
+
+        private void addTo(final BitSet candidates) {
+            if (m_bits != null) {
+                candidates.or(m_bits);
+            } else {
+                for (final int position : m_positions) {
+                    candidates.set(position);
+                }
+            }
+        }
+    }
+
+    /**
+     * Collects the event definitions of the configuration, one level
+     * (that is, one event file) at a time and in search order.
+     */
+    static class Builder {
+        private final Map<String, Event> m_eventsByUei;
+        private final List<Event> m_events = new ArrayList<>();
+        private final BitSet m_ueiOnlyEvents = new BitSet();
+        private final Map<String, List<Integer>> m_eventsByLevelUei = new HashMap<>();
+        private final Dimension.Builder m_partition;
+        private final Map<String, Dimension.Builder> m_maskElements = new LinkedHashMap<>();
+        private final List<Dimension.Builder> m_dimensions = new ArrayList<>();
+
+        Builder(final Partition partition, final Map<String, Event> eventsByUei) {
+            m_eventsByUei = eventsByUei;
+            m_partition = new Dimension.Builder(partition::group);
+            m_dimensions.add(m_partition);
+            for (final String name : INDEXED_MASK_ELEMENTS) {
+                final Field field = EventMatchers.field(name);
+                final Dimension.Builder dimension = new Dimension.Builder(field::get);
+                m_maskElements.put(name, dimension);
+                m_dimensions.add(dimension);
+            }
+        }
+
+        /**
+         * Adds the event definitions of a single level, visited after all of the levels
+         * that were previously added.
+         *
+         * @param eventsByUei the definitions matched by UEI alone at this level
+         * @param nullPartitionedEvents the definitions that are candidates for all events
+         * @param partitionedEvents the definitions that are only candidates for the events in their partition
+         */
+        Builder addLevel(final Map<String, Event> eventsByUei, final Collection<Event> nullPartitionedEvents, final Map<String, List<Event>> partitionedEvents) {
+            for (final Map.Entry<String, Event> entry : eventsByUei.entrySet()) {
+                m_ueiOnlyEvents.set(m_events.size());
+                m_eventsByLevelUei.computeIfAbsent(entry.getKey(), k -> new ArrayList<>()).add(m_events.size());
+                m_events.add(entry.getValue());
+            }
+
+            // Definitions are visited in priority order, partitioned or not
+            final TreeSet<Event> level = new TreeSet<>(nullPartitionedEvents);
+            partitionedEvents.values().forEach(level::addAll);
+
+            final Map<Event, Integer> positions = new IdentityHashMap<>();
+            for (final Event event : level) {
+                positions.put(event, m_events.size());
+                m_events.add(event);
+                index(event, m_events.size() - 1);
+            }
+
+            for (final Map.Entry<String, List<Event>> entry : partitionedEvents.entrySet()) {
+                for (final Event event : entry.getValue()) {
+                    m_partition.addExact(entry.getKey(), positions.get(level.ceiling(event)));
+                }
+            }
+            for (final Event event : nullPartitionedEvents) {
+                m_partition.addUnconstrained(positions.get(level.ceiling(event)));
+            }
+            return this;
+        }
+
+        private void index(final Event event, final int position) {
+            final Mask mask = event.getMask();
+            if (mask == null || mask.getMaskelements().isEmpty()) {
+                // These are matched on their UEI alone, if any
+                for (final Map.Entry<String, Dimension.Builder> entry : m_maskElements.entrySet()) {
+                    if (!TAG_UEI.equals(entry.getKey())) {
+                        entry.getValue().addUnconstrained(position);
+                    } else if (event.getUei() != null) {
+                        entry.getValue().addExact(event.getUei(), position);
+                    }
+                }
+                return;
+            }
+
+            for (final Map.Entry<String, Dimension.Builder> entry : m_maskElements.entrySet()) {
+                index(mask.getMaskElement(entry.getKey()), position, entry.getValue());
+            }
+        }
+
+        private static void index(final Maskelement maskElement, final int position, final Dimension.Builder dimension) {
+            if (maskElement == null) {
+                dimension.addUnconstrained(position);
+                return;
+            }
+            for (final String value : maskElement.getMevalues()) {
+                if (value != null && (value.startsWith("~") || value.equals("%"))) {
+                    // Regular expressions are only evaluated by the matcher
+                    dimension.addUnconstrained(position);
+                    return;
+                }
+            }
+
+            // A mask element without any values can never match, and neither can the definition,
+            // in which case it is left out of the dimension altogether
+            for (final String value : maskElement.getMevalues()) {
+                if (value == null) {
+                    continue;
+                }
+                if (value.endsWith("%")) {
+                    dimension.addPrefix(value.substring(0, value.length() - 1), position);
+                } else {
+                    dimension.addExact(value, position);
+                }
+            }
+        }
+
+        EventMatchIndex build() {
+            final EventMatchIndex index = new EventMatchIndex(this);
+            LOG.debug("Indexed {} event definitions, {} of which are evaluated for every event.",
+                    index.getEventCount(), index.getUnconstrainedEventCount());
+            return index;
+        }
+    }
+
+    /**
+     * Index of the event definitions by the values of a single field.
+     */
+    private static class Dimension {
+        private final ValueFunction m_valueFunction;
+        private final BitSet m_unconstrained;
+        private final Map<String, EventSet> m_exactValues;
+        private final PrefixNode m_prefixes;
+
+        private Dimension(final Builder builder, final int eventCount) {
+            m_valueFunction = builder.m_valueFunction;
+            m_unconstrained = (BitSet)builder.m_unconstrained.clone();
+            m_exactValues = freeze(builder.m_exactValues, eventCount);
+            m_prefixes = builder.m_prefixes.isEmpty() ? null : builder.m_prefixes.build(eventCount);
+        }
+
+        private BitSet getCandidates(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+            final BitSet candidates = (BitSet)m_unconstrained.clone();
+            final String value = m_valueFunction.get(matchingEvent);
+            if (value == null) {
+                return candidates;
+            }
+            addAll(candidates, m_exactValues.get(value));
+
+            // Every node on the path of the value holds a prefix of the value
+            PrefixNode node = m_prefixes;
+            for (int i = 0; node != null; i++) {
+                addAll(candidates, node.m_events);
+                if (i >= value.length()) {
+                    break;
+                }
+                node = node.child(value.charAt(i));
+            }
+            return candidates;
+        }
+
+        private interface ValueFunction {
+            String get(org.opennms.netmgt.xml.event.Event matchingEvent);
+        }
+
+        private static class Builder {
+            private final ValueFunction m_valueFunction;
+            private final BitSet m_unconstrained = new BitSet();
+            private final Map<String, List<Integer>> m_exactValues = new HashMap<>();
+            private final PrefixNode.Builder m_prefixes = new PrefixNode.Builder();
+
+            private Builder(final ValueFunction valueFunction) {
+                m_valueFunction = valueFunction;
+            }
+
+            private void addUnconstrained(final int position) {
+                m_unconstrained.set(position);
+            }
+
+            private void addExact(final String value, final int position) {
+                m_exactValues.computeIfAbsent(value, k -> new ArrayList<>()).add(position);
+            }
+
+            private void addPrefix(final String prefix, final int position) {
+                m_prefixes.add(prefix, 0, position);
+            }
+
+            private boolean isEmpty() {
+                return m_exactValues.isEmpty() && m_prefixes.isEmpty();
+            }
+
+            private Dimension build(final int eventCount) {
+                return new Dimension(this, eventCount);
+            }
+        }
+    }
+
+    /**
+     * Node of a character trie, holding the event definitions for the prefix that leads to it.
+     */
+    private static class PrefixNode {
+        private final char[] m_keys;
+        private final PrefixNode[] m_children;
+        private final EventSet m_events;
+
+        private PrefixNode(final char[] keys, final PrefixNode[] children, final EventSet events) {
+            m_keys = keys;
+            m_children = children;
+            m_events = events;
+        }
+
+        private PrefixNode child(final char c) {
+            // Enterprise ids only use a handful of distinct characters, so a scan beats hashing here
+            for (int i = 0; i < m_keys.length; i++) {
+                if (m_keys[i] == c) {
+                    return m_children[i];
+                }
+            }
+            return null;
+        }
+
+        private static class Builder {
+            private final Map<Character, Builder> m_children = new LinkedHashMap<>();
+            private final List<Integer> m_events = new ArrayList<>();
+
+            private void add(final String prefix, final int offset, final int position) {
+                if (offset == prefix.length()) {
+                    m_events.add(position);
+                } else {
+                    m_children.computeIfAbsent(prefix.charAt(offset), k -> new Builder()).add(prefix, offset + 1, position);
+                }
+            }
+
+            private boolean isEmpty() {
+                return m_children.isEmpty() && m_events.isEmpty();
+            }
+
+            private PrefixNode build(final int eventCount) {
+                final char[] keys = new char[m_children.size()];
+                final PrefixNode[] children = new PrefixNode[m_children.size()];
+                int i = 0;
+                for (final Map.Entry<Character, Builder> entry : m_children.entrySet()) {
+                    keys[i] = entry.getKey();
+                    children[i] = entry.getValue().build(eventCount);
+                    i++;
+                }
+                return new PrefixNode(keys, children, m_events.isEmpty() ? null : EventSet.of(m_events, eventCount));
+            }
+        }
+    }
+}
@@ -120,6 +120,9 @@ public class Events implements Serializable {
     @XmlTransient
     private EventOrdering m_ordering;
 
+    @XmlTransient
+    private volatile EventMatchIndex m_matchIndex;
+
     public Global getGlobal() {
         return m_global;
     }
@@ -275,6 +278,18 @@ public class Events implements Serializable {
 
 
     public Event findFirstMatchingEvent(final org.opennms.netmgt.xml.event.Event matchingEvent) {
+        // Use the precompiled index when this configuration was initialized as a whole
+        final EventMatchIndex matchIndex = m_matchIndex;
+        if (matchIndex != null) {
+            return matchIndex.findFirstMatchingEvent(matchingEvent);
+        }
+        return scanForFirstMatchingEvent(matchingEvent);
+    }
+
+    /**
+     * Searches through the partitions without the help of the index.
+     */
+    Event scanForFirstMatchingEvent(final org.opennms.netmgt.xml.event.Event matchingEvent) {
         // Atempt to match the event definition by UEI
         final String ueiToMatch = matchingEvent.getUei();
         if (ueiToMatch != null) {
@@ -302,7 +317,7 @@ public class Events implements Serializable {
         }
 
         for (Events subEvents : m_loadedEventFiles.values()) {
-            final Event event = subEvents.findFirstMatchingEvent(matchingEvent);
+            final Event event = subEvents.scanForFirstMatchingEvent(matchingEvent);
             if (event != null) {
                 return event;
             }
@@ -347,6 +362,16 @@ public class Events implements Serializable {
     }
 
     public void initialize(final Partition partition, final EventOrdering eventOrdering) {
+        initializeEvents(partition, eventOrdering);
+
+        // Build the index from the ordered definitions and swap it in, in a single step,
+        // so that concurrent lookups keep using the previous index until this one is complete
+        final EventMatchIndex.Builder builder = new EventMatchIndex.Builder(partition, m_eventsByUei);
+        addToMatchIndex(builder);
+        m_matchIndex = builder.build();
+    }
+
+    private void initializeEvents(final Partition partition, final EventOrdering eventOrdering) {
         m_ordering = eventOrdering;
 
         for (final Event event : m_events) {
@@ -356,7 +381,7 @@ public class Events implements Serializable {
         partitionEvents(partition);
 
         for (final Events events : m_loadedEventFiles.values()) {
-            events.initialize(partition, m_ordering.subsequence());
+            events.initializeEvents(partition, m_ordering.subsequence());
         }
 
         // roll up all prioritized events and sort all events by priority
@@ -371,6 +396,14 @@ public class Events implements Serializable {
         indexEventsByUei();
     }
 
+    // Recurse through the configuration and add the event definitions in the order in which they are searched
+    private void addToMatchIndex(final EventMatchIndex.Builder builder) {
+        builder.addLevel(m_eventsByUei, m_nullPartitionedEvents, m_partitionedEvents);
+        for (final Events events : m_loadedEventFiles.values()) {
+            events.addToMatchIndex(builder);
+        }
+    }
+
     // Recurse through the configuration and return Event Definitions with priority > 0
     private List<Event> getPrioritizedEvents() {
         List<Event> prioritizedEvents = new ArrayList<Event>();
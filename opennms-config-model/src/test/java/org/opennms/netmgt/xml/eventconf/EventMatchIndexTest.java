@@ -0,0 +1,245 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.xml.eventconf;
+
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.hamcrest.CoreMatchers.sameInstance;
+import static org.hamcrest.MatcherAssert.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+import org.opennms.netmgt.xml.event.Parm;
+import org.opennms.netmgt.xml.event.Snmp;
+import org.opennms.netmgt.xml.event.Value;
+
+public class EventMatchIndexTest {
+
+    private static final String[] IDS = new String[] {
+            ".1.3.6.1.4.1.9", ".1.3.6.1.4.1.9.9.41", ".1.3.6.1.4.1.99", ".1.3.6.1.4.1.2636.4.1",
+            ".1.3.6.1.6.3.1.1.5", ".1.3.6.1.4.1.9.9.41.2"
+    };
+
+    private static final String[] ID_MASKS = new String[] {
+            ".1.3.6.1.4.1.9", ".1.3.6.1.4.1.9.9.41", ".1.3.6.1.4.1.9%", ".1.3.6.1.4.1.9.%", ".1.3.6.1.4.1.2636%",
+            ".1.3.6.1.6.3.1.1.5", "%", "~^\\.1\\.3\\.6\\.1\\.4\\.1\\.9\\..*", "~.*41$"
+    };
+
+    private static final String[] UEIS = new String[] {
+            "uei.opennms.org/traps/a", "uei.opennms.org/traps/b", "uei.opennms.org/syslogd/cisco/a",
+            "uei.opennms.org/syslogd/juniper/b", null
+    };
+
+    private static final String[] UEI_MASKS = new String[] {
+            "uei.opennms.org/traps/a", "uei.opennms.org/syslogd/%", "uei.opennms.org/syslogd/cisco/%", "~.*/b$"
+    };
+
+    /**
+     * Same as the partition used by the DefaultEventConfDao.
+     */
+    private static final Partition WILDCARD_AWARE_PARTITION = new Partition() {
+        private final Field m_field = EventMatchers.field("id");
+
+        @Override
+        public List<String> group(Event eventConf) {
+            final List<String> keys = eventConf.getMaskElementValues("id");
+            if (keys == null) return null;
+            for (String key : keys) {
+                if (key.endsWith("%")) return null;
+                if (key.startsWith("~")) return null;
+            }
+            return keys;
+        }
+
+        @Override
+        public String group(org.opennms.netmgt.xml.event.Event matchingEvent) {
+            return m_field.get(matchingEvent);
+        }
+    };
+
+    @Test
+    public void canMatchByEnterpriseIdPrefix() {
+        final Events events = new Events();
+        events.addEvent(event("uei.opennms.org/traps/cisco", maskElement("id", ".1.3.6.1.4.1.9%")));
+        events.addEvent(event("uei.opennms.org/traps/ciscoSpecific",
+                maskElement("id", ".1.3.6.1.4.1.9.9.41"), maskElement("specific", "1")));
+        events.addEvent(event("uei.opennms.org/traps/any", maskElement("generic", "6")));
+        events.initialize(WILDCARD_AWARE_PARTITION, new EventOrdering());
+
+        assertThat(events.findFirstMatchingEvent(trap(".1.3.6.1.4.1.9.9.41", 6, 1)).getUei(), equalTo("uei.opennms.org/traps/cisco"));
+        assertThat(events.findFirstMatchingEvent(trap(".1.3.6.1.4.1.99", 6, 1)).getUei(), equalTo("uei.opennms.org/traps/cisco"));
+        assertThat(events.findFirstMatchingEvent(trap(".1.3.6.1.4.1.8", 6, 1)).getUei(), equalTo("uei.opennms.org/traps/any"));
+        assertThat(events.findFirstMatchingEvent(trap(".1.3.6.1.4.1.8", 5, 1)), nullValue());
+    }
+
+    @Test
+    public void canMatchPrioritizedEventsFromLoadedFiles() {
+        final Events events = new Events();
+        events.addEvent(event("uei.opennms.org/traps/root", maskElement("id", ".1.3.6.1.4.1.9")));
+
+        final Events vendor = new Events();
+        final Event prioritized = event("uei.opennms.org/traps/prioritized", maskElement("id", ".1.3.6.1.4.1.9"));
+        prioritized.setPriority(10);
+        vendor.addEvent(prioritized);
+        events.addLoadedEventFile("vendor.events.xml", vendor);
+        events.initialize(WILDCARD_AWARE_PARTITION, new EventOrdering());
+
+        assertThat(events.findFirstMatchingEvent(trap(".1.3.6.1.4.1.9", 6, 1)), sameInstance(prioritized));
+    }
+
+    @Test
+    public void canRebuildIndexOnInitialize() {
+        final Events events = new Events();
+        events.addEvent(event("uei.opennms.org/traps/a", maskElement("id", ".1.3.6.1.4.1.9")));
+        events.initialize(WILDCARD_AWARE_PARTITION, new EventOrdering());
+        assertThat(events.findFirstMatchingEvent(trap(".1.3.6.1.4.1.2636", 6, 1)), nullValue());
+
+        events.addEvent(event("uei.opennms.org/traps/b", maskElement("id", ".1.3.6.1.4.1.2636%")));
+        events.initialize(WILDCARD_AWARE_PARTITION, new EventOrdering());
+        assertThat(events.findFirstMatchingEvent(trap(".1.3.6.1.4.1.2636", 6, 1)).getUei(), equalTo("uei.opennms.org/traps/b"));
+    }
+
+    @Test
+    public void matchesSameEventsAsScan() {
+        for (final Partition partition : Arrays.asList(WILDCARD_AWARE_PARTITION, new EnterpriseIdPartition())) {
+            final Random random = new Random(42);
+            for (int run = 0; run < 20; run++) {
+                final Events events = new Events();
+                addRandomEvents(random, events, 30);
+                for (int i = 0; i < 3; i++) {
+                    final Events loaded = new Events();
+                    addRandomEvents(random, loaded, 1 + random.nextInt(30));
+                    events.addLoadedEventFile("events-" + i + ".xml", loaded);
+                }
+                events.initialize(partition, new EventOrdering());
+
+                for (int i = 0; i < 2000; i++) {
+                    final org.opennms.netmgt.xml.event.Event event = randomEvent(random);
+                    assertThat("Run #" + run + " event #" + i, events.findFirstMatchingEvent(event),
+                            sameInstance(events.scanForFirstMatchingEvent(event)));
+                }
+            }
+        }
+    }
+
+    private static void addRandomEvents(final Random random, final Events events, final int count) {
+        for (int i = 0; i < count; i++) {
+            final String uei = UEIS[random.nextInt(UEIS.length - 1)];
+            final Mask mask = new Mask();
+            if (random.nextInt(4) != 0) {
+                mask.addMaskelement(maskElement("id", pick(random, ID_MASKS, 1 + random.nextInt(2))));
+            }
+            if (random.nextInt(4) == 0) {
+                mask.addMaskelement(maskElement("uei", pick(random, UEI_MASKS, 1)));
+            }
+            if (random.nextBoolean()) {
+                mask.addMaskelement(maskElement("generic", Integer.toString(random.nextInt(7))));
+            }
+            if (random.nextBoolean()) {
+                mask.addMaskelement(maskElement("specific", Integer.toString(random.nextInt(4)), "%"));
+            }
+            if (random.nextInt(4) == 0) {
+                final Varbind varbind = new Varbind();
+                varbind.setVbnumber(1);
+                varbind.addVbvalue(Integer.toString(random.nextInt(2)));
+                mask.addVarbind(varbind);
+            }
+
+            final Event event = new Event();
+            event.setUei(uei);
+            event.setEventLabel("label");
+            if (!mask.getMaskelements().isEmpty()) {
+                event.setMask(mask);
+            }
+            if (random.nextInt(10) == 0) {
+                event.setPriority(random.nextInt(3));
+            }
+            events.addEvent(event);
+        }
+    }
+
+    private static org.opennms.netmgt.xml.event.Event randomEvent(final Random random) {
+        final org.opennms.netmgt.xml.event.Event event = new org.opennms.netmgt.xml.event.Event();
+        event.setUei(UEIS[random.nextInt(UEIS.length)]);
+        if (random.nextInt(5) != 0) {
+            final Snmp snmp = new Snmp();
+            snmp.setId(IDS[random.nextInt(IDS.length)]);
+            snmp.setGeneric(random.nextInt(7));
+            snmp.setSpecific(random.nextInt(4));
+            event.setSnmp(snmp);
+        }
+        final Parm parm = new Parm();
+        parm.setParmName("vb1");
+        parm.setValue(new Value(Integer.toString(random.nextInt(2))));
+        event.addParm(parm);
+        return event;
+    }
+
+    private static String[] pick(final Random random, final String[] values, final int count) {
+        final String[] picked = new String[count];
+        for (int i = 0; i < count; i++) {
+            picked[i] = values[random.nextInt(values.length)];
+        }
+        return picked;
+    }
+
+    private static Event event(final String uei, final Maskelement... maskElements) {
+        final Event event = new Event();
+        event.setUei(uei);
+        event.setEventLabel(uei);
+        final Mask mask = new Mask();
+        for (final Maskelement maskElement : maskElements) {
+            mask.addMaskelement(maskElement);
+        }
+        event.setMask(mask);
+        return event;
+    }
+
+    private static Maskelement maskElement(final String name, final String... values) {
+        final Maskelement maskElement = new Maskelement();
+        maskElement.setMename(name);
+        for (final String value : values) {
+            maskElement.addMevalue(value);
+        }
+        return maskElement;
+    }
+
+    private static org.opennms.netmgt.xml.event.Event trap(final String id, final int generic, final int specific) {
+        final org.opennms.netmgt.xml.event.Event event = new org.opennms.netmgt.xml.event.Event();
+        final Snmp snmp = new Snmp();
+        snmp.setId(id);
+        snmp.setGeneric(generic);
+        snmp.setSpecific(specific);
+        event.setSnmp(snmp);
+        return event;
+    }
+}
@@ -69,7 +69,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
      */
     private String m_programmaticStoreRelativePath = DEFAULT_PROGRAMMATIC_STORE_RELATIVE_PATH;
 
-	private Events m_events;
+	private volatile Events m_events;
 
 	private Resource m_configResource;
 
@@ -311,7 +311,7 @@ public class DefaultEventConfDao implements EventConfDao, InitializingBean {
             // Load/reload the event files as necessary
             events.loadEventFilesIfModified(m_configResource, m_lastModifiedEventFiles);
 
-            // Order the events for efficient searching
+            // Order and index the events for efficient searching
             events.initialize(m_partition, new EventOrdering());
 
             m_events = events;
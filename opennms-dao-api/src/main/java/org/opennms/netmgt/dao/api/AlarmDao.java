@@ -40,6 +40,14 @@ public interface AlarmDao extends LegacyOnmsDao<OnmsAlarm, Integer> {
 
     OnmsAlarm findByReductionKey(String reductionKey);
 
+    /**
+     * <p>Get the ids of all the alarms, indexed by reduction key,
+     * without loading the alarms themselves.</p>
+     *
+     * @return A map of alarm ids keyed by reduction key.
+     */
+    Map<String, Integer> getAlarmIdsByReductionKey();
+
     /**
      * <p>Get the list of current - not yet acknowledged - alarms per node with severity greater than normal,
      * reflecting the max severity, the minimum last event time and alarm count;
@@ -93,6 +93,13 @@ public class MockAlarmDao extends AbstractMockDao<OnmsAlarm, Integer> implements
         return null;
     }
 
+    @Override
+    public Map<String, Integer> getAlarmIdsByReductionKey() {
+        return findAll().stream()
+                .filter(alarm -> alarm.getReductionKey() != null && alarm.getId() != null)
+                .collect(Collectors.toMap(OnmsAlarm::getReductionKey, OnmsAlarm::getId, Math::max));
+    }
+
     @Override
     public List<AlarmSummary> getNodeAlarmSummaries() {
         throw new UnsupportedOperationException("Not yet implemented!");
@@ -32,6 +32,7 @@ import java.math.BigInteger;
 import java.sql.SQLException;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -68,6 +69,16 @@ public class AlarmDaoHibernate extends AbstractDaoHibernate<OnmsAlarm, Integer>
         return super.findUnique(hql, reductionKey);
     }
 
+    /** {@inheritDoc} */
+    @Override
+    public Map<String, Integer> getAlarmIdsByReductionKey() {
+        final Map<String, Integer> alarmIdsByReductionKey = new HashMap<>();
+        for (Object[] row : findObjects(Object[].class, "select alarms.reductionKey, alarms.id from OnmsAlarm as alarms")) {
+            alarmIdsByReductionKey.put((String)row[0], (Integer)row[1]);
+        }
+        return alarmIdsByReductionKey;
+    }
+
     /** {@inheritDoc} */
     @Override
     public List<AlarmSummary> getNodeAlarmSummariesIncludeAcknowledgedOnes(List<Integer> nodeIds) {
@@ -0,0 +1,286 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.dao.support;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+import org.opennms.netmgt.dao.api.ResourceStorageDao;
+import org.opennms.netmgt.model.OnmsAttribute;
+import org.opennms.netmgt.model.ResourcePath;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+/**
+ * Keeps an index of the resource tree in front of another {@link ResourceStorageDao}.
+ *
+ * Walking the resource tree results in a large number of {@link #exists(ResourcePath, int)},
+ * {@link #existsWithin(ResourcePath, int)} and {@link #children(ResourcePath, int)} calls
+ * which, for the file-system backed DAO, translate into directory listings. The answers
+ * to these calls are remembered here and kept up to date as follows:
+ * <ul>
+ * <li>{@link #updateMetricToResourceMappings(ResourcePath, Map)}, which is called by the
+ * persisters whenever a group of metrics is stored, adds the path to the index
+ * of all of the cached ancestors,
+ * <li>{@link #delete(ResourcePath)} evicts the path, its descendants and its ancestors,
+ * <li>positive answers expire after {@link #TTL_PROPERTY} and negative answers
+ * after {@link #NEGATIVE_TTL_PROPERTY}, so that changes made behind our back
+ * (i.e. files created by a persister that does not notify us) are eventually picked up.
+ * </ul>
+ *
+ * Attributes are not cached, since the {@link OnmsAttribute} instances are bound to
+ * the resource that loads them.
+ */
+public class CachingResourceStorageDao implements ResourceStorageDao {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CachingResourceStorageDao.class);
+
+    public static final String TTL_PROPERTY = "org.opennms.dao.resource.index.ttl";
+    public static final String NEGATIVE_TTL_PROPERTY = "org.opennms.dao.resource.index.negativeTtl";
+    public static final String MAX_ENTRIES_PROPERTY = "org.opennms.dao.resource.index.maxEntries";
+
+    public static final long DEFAULT_TTL_MS = TimeUnit.MINUTES.toMillis(5);
+    public static final long DEFAULT_NEGATIVE_TTL_MS = TimeUnit.SECONDS.toMillis(30);
+    public static final long DEFAULT_MAX_ENTRIES = 100000;
+
+    private enum Query {
+        EXISTS,
+        EXISTS_WITHIN,
+        CHILDREN
+    }
+
+    private static class Key {
+        private final Query query;
+        private final ResourcePath path;
+        private final int depth;
+
+        private Key(Query query, ResourcePath path, int depth) {
+            this.query = query;
+            this.path = path;
+            this.depth = depth;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) obj;
+            return query == other.query && depth == other.depth && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(query, path, depth);
+        }
+    }
+
+    private static class Entry<T> {
+        private final T value;
+        private final boolean positive;
+        private final long loadedAt;
+
+        private Entry(T value, boolean positive, long loadedAt) {
+            this.value = value;
+            this.positive = positive;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private final ResourceStorageDao m_delegate;
+    private final long m_negativeTtlNanos;
+    private final Cache<Key, Entry<?>> m_index;
+
+    /**
+     * Largest depth that was queried so far, used to bound the
+     * keys we need to look at when applying updates.
+     */
+    private final AtomicInteger m_maxDepth = new AtomicInteger(0);
+
+    public CachingResourceStorageDao(ResourceStorageDao delegate) {
+        this(delegate, Long.getLong(TTL_PROPERTY, DEFAULT_TTL_MS),
+                Long.getLong(NEGATIVE_TTL_PROPERTY, DEFAULT_NEGATIVE_TTL_MS),
+                Long.getLong(MAX_ENTRIES_PROPERTY, DEFAULT_MAX_ENTRIES));
+    }
+
+    public CachingResourceStorageDao(ResourceStorageDao delegate, long ttlMs, long negativeTtlMs, long maxEntries) {
+        m_delegate = Objects.requireNonNull(delegate);
+        m_negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(Math.min(negativeTtlMs, ttlMs));
+        m_index = CacheBuilder.newBuilder()
+                .expireAfterWrite(Math.max(ttlMs, 0), TimeUnit.MILLISECONDS)
+                .maximumSize(Math.max(maxEntries, 0))
+                .build();
+        LOG.debug("Indexing resources with ttl={}ms, negativeTtl={}ms and maxEntries={}.", ttlMs, negativeTtlMs, maxEntries);
+    }
+
+    public ResourceStorageDao getDelegate() {
+        return m_delegate;
+    }
+
+    @Override
+    public boolean exists(ResourcePath path, int depth) {
+        return get(new Key(Query.EXISTS, path, depth), () -> m_delegate.exists(path, depth), b -> b);
+    }
+
+    @Override
+    public boolean existsWithin(ResourcePath path, int depth) {
+        return get(new Key(Query.EXISTS_WITHIN, path, depth), () -> m_delegate.existsWithin(path, depth), b -> b);
+    }
+
+    @Override
+    public Set<ResourcePath> children(ResourcePath path, int depth) {
+        return get(new Key(Query.CHILDREN, path, depth), () -> ImmutableSet.copyOf(m_delegate.children(path, depth)), s -> !s.isEmpty());
+    }
+
+    @Override
+    public boolean delete(ResourcePath path) {
+        try {
+            return m_delegate.delete(path);
+        } finally {
+            evict(path);
+        }
+    }
+
+    @Override
+    public Set<OnmsAttribute> getAttributes(ResourcePath path) {
+        return m_delegate.getAttributes(path);
+    }
+
+    @Override
+    public void setStringAttribute(ResourcePath path, String key, String value) {
+        m_delegate.setStringAttribute(path, key, value);
+    }
+
+    @Override
+    public String getStringAttribute(ResourcePath path, String key) {
+        return m_delegate.getStringAttribute(path, key);
+    }
+
+    @Override
+    public Map<String, String> getStringAttributes(ResourcePath path) {
+        return m_delegate.getStringAttributes(path);
+    }
+
+    @Override
+    public void updateMetricToResourceMappings(ResourcePath path, Map<String, String> metricsNameToResourceNames) {
+        m_delegate.updateMetricToResourceMappings(path, metricsNameToResourceNames);
+        if (!metricsNameToResourceNames.isEmpty()) {
+            // The persister is about to store metrics at this path
+            addMetrics(path);
+        }
+    }
+
+    @Override
+    public Map<String, String> getMetaData(ResourcePath path) {
+        return m_delegate.getMetaData(path);
+    }
+
+    /**
+     * Drops all of the entries from the index.
+     */
+    public void invalidateAll() {
+        m_index.invalidateAll();
+    }
+
+    /**
+     * Updates the cached entries of the path and its ancestors to reflect
+     * the fact that the path contains metrics.
+     */
+    protected void addMetrics(ResourcePath path) {
+        final String[] elements = path.elements();
+        final long now = System.nanoTime();
+        final int maxDepth = m_maxDepth.get();
+        final Map<Key, Entry<?>> index = m_index.asMap();
+        for (int k = 0; k <= elements.length && k <= maxDepth; k++) {
+            final ResourcePath ancestor = ResourcePath.get(Arrays.asList(elements).subList(0, elements.length - k));
+
+            index.computeIfPresent(new Key(Query.EXISTS, ancestor, k), (key, e) -> new Entry<>(true, true, now));
+            for (int d = k; d <= maxDepth; d++) {
+                index.computeIfPresent(new Key(Query.EXISTS_WITHIN, ancestor, d), (key, e) -> new Entry<>(true, true, now));
+            }
+            if (k > 0) {
+                final ResourcePath child = ResourcePath.get(ancestor, elements[elements.length - k]);
+                index.computeIfPresent(new Key(Query.CHILDREN, ancestor, k), (key, e) -> {
+                    @SuppressWarnings("unchecked")
+                    final Set<ResourcePath> children = (Set<ResourcePath>) e.value;
+                    if (children.contains(child)) {
+                        return e;
+                    }
+                    return new Entry<>(ImmutableSet.<ResourcePath>builder().addAll(children).add(child).build(), true, now);
+                });
+            }
+        }
+    }
+
+    /**
+     * Evicts the entries for the path, all of its descendants and
+     * all of its ancestors.
+     */
+    protected void evict(ResourcePath path) {
+        m_index.asMap().keySet().removeIf(key -> path.relativeDepth(key.path) >= 0 || key.path.relativeDepth(path) >= 0);
+    }
+
+    private <T> T get(Key key, Supplier<T> loader, Predicate<T> positive) {
+        m_maxDepth.accumulateAndGet(key.depth, Math::max);
+        try {
+            @SuppressWarnings("unchecked")
+            final Entry<T> entry = (Entry<T>) m_index.get(key, () -> {
+                final T value = loader.get();
+                return new Entry<>(value, positive.test(value), System.nanoTime());
+            });
+            if (entry.positive || System.nanoTime() - entry.loadedAt < m_negativeTtlNanos) {
+                return entry.value;
+            }
+            // The negative answer is stale, go back to the storage and
+            // only replace the entry if it wasn't updated in the meantime
+            final T value = loader.get();
+            m_index.asMap().replace(key, entry, new Entry<>(value, positive.test(value), System.nanoTime()));
+            return value;
+        } catch (ExecutionException|UncheckedExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
+    }
+}
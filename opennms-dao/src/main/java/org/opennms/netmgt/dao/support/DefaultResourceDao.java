@@ -30,11 +30,20 @@ package org.opennms.netmgt.dao.support;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
@@ -59,6 +68,7 @@ import org.springframework.util.Assert;
 
 import com.google.common.base.Throwables;
 import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * Retrieves and enumerates elements from the resource tree.
@@ -88,6 +98,14 @@ public class DefaultResourceDao implements ResourceDao, InitializingBean {
      */
     public static final int MAXIMUM_NODE_METRIC_RESOURCE_DEPTH = 2;
 
+    /**
+     * Number of threads used to resolve the child resources of the
+     * storage backed resource types in parallel, 1 disables this.
+     */
+    public static final String CHILD_RESOURCE_THREADS_PROPERTY = "org.opennms.dao.resource.children.threads";
+
+    public static final int DEFAULT_CHILD_RESOURCE_THREADS = 4;
+
     private ResourceStorageDao m_resourceStorageDao;
     private NodeDao m_nodeDao;
     private IpInterfaceDao m_ipInterfaceDao;
@@ -98,10 +116,26 @@ public class DefaultResourceDao implements ResourceDao, InitializingBean {
     private Map<String, OnmsResourceType> m_resourceTypes = Maps.newHashMap();
     private NodeResourceType m_nodeResourceType;
 
+    private final ExecutorService m_childResourceExecutor;
+
     /**
      * <p>Constructor for DefaultResourceDao.</p>
      */
     public DefaultResourceDao() {
+        this(Integer.getInteger(CHILD_RESOURCE_THREADS_PROPERTY, DEFAULT_CHILD_RESOURCE_THREADS));
+    }
+
+    public DefaultResourceDao(int childResourceThreads) {
+        if (childResourceThreads > 1) {
+            final ThreadPoolExecutor pool = new ThreadPoolExecutor(childResourceThreads, childResourceThreads, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(childResourceThreads * 64),
+                    new ThreadFactoryBuilder().setNameFormat("resource-children-%d").setDaemon(true).build(),
+                    new ThreadPoolExecutor.CallerRunsPolicy());
+            pool.allowCoreThreadTimeOut(true);
+            m_childResourceExecutor = pool;
+        } else {
+            m_childResourceExecutor = null;
+        }
     }
 
     public ResourceTypesDao getResourceTypesDao() {
@@ -258,6 +292,47 @@ public class DefaultResourceDao implements ResourceDao, InitializingBean {
         return resources;
     }
 
+    /**
+     * Gathers the child resources of the given parent from all of the resource types.
+     *
+     * The {@link GenericIndexResourceType}s, which typically make up the bulk of the
+     * types and only query the resource storage, are resolved in parallel. The remaining
+     * types may need the caller's session to access the entities and are resolved
+     * on the calling thread. The children are returned in resource type order.
+     */
+    protected List<OnmsResource> loadChildResources(final OnmsResource parent) {
+        final List<Future<List<OnmsResource>>> futures = new ArrayList<>();
+        try {
+            for (final OnmsResourceType type : getResourceTypes()) {
+                if (m_childResourceExecutor != null && type instanceof GenericIndexResourceType) {
+                    futures.add(m_childResourceExecutor.submit(() -> getChildResourcesOfType(type, parent)));
+                } else {
+                    futures.add(CompletableFuture.completedFuture(getChildResourcesOfType(type, parent)));
+                }
+            }
+
+            final List<OnmsResource> children = new ArrayList<>();
+            for (final Future<List<OnmsResource>> future : futures) {
+                children.addAll(future.get());
+            }
+            return children;
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw Throwables.propagate(e);
+        } catch (final ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        } finally {
+            futures.forEach(f -> f.cancel(true));
+        }
+    }
+
+    private static List<OnmsResource> getChildResourcesOfType(final OnmsResourceType type, final OnmsResource parent) {
+        if (!type.isResourceTypeOnParent(parent)) {
+            return Collections.emptyList();
+        }
+        return type.getResourcesForParent(parent);
+    }
+
     /**
      * Used to determine whether or not the given (parent) resource
      * has any child resources.
@@ -56,10 +56,15 @@ public class LazyChildResourceLoader implements LazyList.Loader<OnmsResource> {
         Preconditions.checkNotNull(m_parent, "parent attribute");
         // Gather the lists of children from all the available resource types and merge them
         // into a single list
-        List<OnmsResource> children = getAvailableResourceTypes().stream()
+        final List<OnmsResource> children;
+        if (m_resourceDao instanceof DefaultResourceDao) {
+            children = ((DefaultResourceDao)m_resourceDao).loadChildResources(m_parent);
+        } else {
+            children = getAvailableResourceTypes().stream()
                 .map(t -> t.getResourcesForParent(m_parent))
                 .flatMap(List::stream)
                 .collect(Collectors.toList());
+        }
 
         // Set the parent field on all of the resources
         children.stream().forEach(c -> c.setParent(m_parent));
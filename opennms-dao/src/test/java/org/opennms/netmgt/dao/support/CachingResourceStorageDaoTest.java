@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.dao.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.netmgt.model.ResourcePath;
+import org.opennms.netmgt.rrd.RrdStrategy;
+import org.opennms.netmgt.rrd.jrobin.JRobinRrdStrategy;
+
+import com.google.common.collect.ImmutableSet;
+
+public class CachingResourceStorageDaoTest {
+
+    private FilesystemResourceStorageDao m_fsResourceStorageDao = new FilesystemResourceStorageDao();
+
+    private String m_rrdFileExtension;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Before
+    public void setUp() throws Exception {
+        RrdStrategy<?, ?> rrdStrategy = new JRobinRrdStrategy();
+        m_rrdFileExtension = rrdStrategy.getDefaultFileExtension();
+
+        m_fsResourceStorageDao.setRrdDirectory(tempFolder.getRoot());
+        m_fsResourceStorageDao.setRrdStrategy(rrdStrategy);
+    }
+
+    @Test
+    public void answersAreCached() throws IOException {
+        final CachingResourceStorageDao dao = new CachingResourceStorageDao(m_fsResourceStorageDao, 60000, 60000, 1000);
+        createRrd("a", "b");
+
+        assertEquals(ImmutableSet.of(ResourcePath.get("a", "b")), dao.children(ResourcePath.get("a"), 1));
+        assertFalse(dao.exists(ResourcePath.get("a", "c"), 0));
+
+        // Changes made behind our back are not visible until the entries expire
+        createRrd("a", "c");
+        assertEquals(ImmutableSet.of(ResourcePath.get("a", "b")), dao.children(ResourcePath.get("a"), 1));
+        assertFalse(dao.exists(ResourcePath.get("a", "c"), 0));
+
+        dao.invalidateAll();
+        assertEquals(ImmutableSet.of(ResourcePath.get("a", "b"), ResourcePath.get("a", "c")), dao.children(ResourcePath.get("a"), 1));
+        assertTrue(dao.exists(ResourcePath.get("a", "c"), 0));
+    }
+
+    @Test
+    public void negativeAnswersExpireFirst() throws IOException {
+        final CachingResourceStorageDao dao = new CachingResourceStorageDao(m_fsResourceStorageDao, 60000, 0, 1000);
+        createRrd("a", "b");
+
+        assertTrue(dao.exists(ResourcePath.get("a", "b"), 0));
+        assertFalse(dao.exists(ResourcePath.get("a", "c"), 0));
+
+        createRrd("a", "c");
+        assertTrue(dao.exists(ResourcePath.get("a", "c"), 0));
+
+        new File(tempFolder.getRoot(), "a/b/ds" + m_rrdFileExtension).delete();
+        assertTrue(dao.exists(ResourcePath.get("a", "b"), 0));
+    }
+
+    @Test
+    public void persistedMetricsAreIndexed() throws IOException {
+        final CachingResourceStorageDao dao = new CachingResourceStorageDao(m_fsResourceStorageDao, 60000, 60000, 1000);
+        createRrd("a", "b");
+        tempFolder.newFolder("a", "c", "d");
+
+        assertEquals(ImmutableSet.of(ResourcePath.get("a", "b")), dao.children(ResourcePath.get("a"), 1));
+        assertEquals(Collections.emptySet(), dao.children(ResourcePath.get("a"), 2));
+        assertFalse(dao.exists(ResourcePath.get("a"), 2));
+        assertFalse(dao.existsWithin(ResourcePath.get("a", "c"), 1));
+        assertFalse(dao.existsWithin(ResourcePath.get("a", "c"), 2));
+        assertFalse(dao.exists(ResourcePath.get("a", "c", "d"), 0));
+
+        dao.updateMetricToResourceMappings(ResourcePath.get("a", "c", "d"), Collections.singletonMap("ds", "group"));
+
+        assertEquals(ImmutableSet.of(ResourcePath.get("a", "b")), dao.children(ResourcePath.get("a"), 1));
+        assertEquals(ImmutableSet.of(ResourcePath.get("a", "c")), dao.children(ResourcePath.get("a"), 2));
+        assertTrue(dao.exists(ResourcePath.get("a"), 2));
+        assertTrue(dao.existsWithin(ResourcePath.get("a", "c"), 1));
+        assertTrue(dao.existsWithin(ResourcePath.get("a", "c"), 2));
+        assertTrue(dao.exists(ResourcePath.get("a", "c", "d"), 0));
+    }
+
+    @Test
+    public void deleteEvictsTheTree() throws IOException {
+        final CachingResourceStorageDao dao = new CachingResourceStorageDao(m_fsResourceStorageDao, 60000, 60000, 1000);
+        createRrd("a", "b", "c");
+        createRrd("a", "d");
+
+        assertEquals(ImmutableSet.of(ResourcePath.get("a", "b")), dao.children(ResourcePath.get("a"), 2));
+        assertTrue(dao.exists(ResourcePath.get("a", "b", "c"), 0));
+        assertTrue(dao.exists(ResourcePath.get("a", "d"), 0));
+
+        assertTrue(dao.delete(ResourcePath.get("a", "b")));
+
+        assertEquals(Collections.emptySet(), dao.children(ResourcePath.get("a"), 2));
+        assertFalse(dao.exists(ResourcePath.get("a", "b", "c"), 0));
+        assertTrue(dao.exists(ResourcePath.get("a", "d"), 0));
+    }
+
+    private void createRrd(String... path) throws IOException {
+        final File folder = tempFolder.newFolder(path);
+        new File(folder, "ds" + m_rrdFileExtension).createNewFile();
+    }
+}
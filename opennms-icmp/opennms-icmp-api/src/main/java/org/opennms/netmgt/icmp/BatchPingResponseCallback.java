@@ -0,0 +1,98 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.icmp;
+
+import java.net.InetAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Tracks the requests of a batch that are sent one at a time, passing the
+ * replies on to the given callback and completing once every request sent
+ * has been handled.
+ */
+public class BatchPingResponseCallback extends CompletableFuture<Void> implements PingResponseCallback {
+
+    private final PingResponseCallback m_callback;
+
+    // Starts at one for the sender, which releases it once everything has been sent
+    private final AtomicInteger m_outstanding = new AtomicInteger(1);
+
+    public BatchPingResponseCallback(final PingResponseCallback callback) {
+        m_callback = callback;
+    }
+
+    /**
+     * Must be called before sending each request of the batch.
+     */
+    public void expectResponse() {
+        m_outstanding.incrementAndGet();
+    }
+
+    /**
+     * Must be called once every request of the batch has been sent.
+     */
+    public void allSent() {
+        afterHandled();
+    }
+
+    @Override
+    public void handleResponse(final InetAddress address, final EchoPacket response) {
+        try {
+            m_callback.handleResponse(address, response);
+        } finally {
+            afterHandled();
+        }
+    }
+
+    @Override
+    public void handleTimeout(final InetAddress address, final EchoPacket request) {
+        try {
+            m_callback.handleTimeout(address, request);
+        } finally {
+            afterHandled();
+        }
+    }
+
+    @Override
+    public void handleError(final InetAddress address, final EchoPacket request, final Throwable t) {
+        try {
+            m_callback.handleError(address, request, t);
+        } finally {
+            afterHandled();
+        }
+    }
+
+    private void afterHandled() {
+        if (m_outstanding.decrementAndGet() == 0) {
+            complete(null);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.icmp;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A range of addresses to ping along with the timeout and retries to use
+ * for each of them.  The addresses are generated as the range is iterated
+ * so that large ranges can be pinged without holding them in memory.
+ */
+public class PingRange implements Iterable<InetAddress> {
+
+    private final byte[] m_begin;
+    private final byte[] m_end;
+    private final long m_timeout;
+    private final int m_retries;
+
+    /**
+     * <p>Constructor for PingRange.</p>
+     *
+     * @param begin the first address of the range
+     * @param end the last address of the range, of the same family as begin
+     * @param timeout the time to wait for a reply, in milliseconds
+     * @param retries the number of times to retry
+     */
+    public PingRange(final InetAddress begin, final InetAddress end, final long timeout, final int retries) {
+        final byte[] from = begin.getAddress();
+        final byte[] to = end.getAddress();
+        if (from.length != to.length) {
+            throw new IllegalArgumentException("The beginning and the end of the range must be of the same address family: " + begin + " - " + end);
+        }
+        // Swap the values like IPAddrRange does if the range was given backwards
+        if (compare(from, to) > 0) {
+            m_begin = to;
+            m_end = from;
+        } else {
+            m_begin = from;
+            m_end = to;
+        }
+        m_timeout = timeout;
+        m_retries = retries;
+    }
+
+    public PingRange(final InetAddress address, final long timeout, final int retries) {
+        this(address, address, timeout, retries);
+    }
+
+    public InetAddress getBegin() {
+        return toInetAddress(m_begin);
+    }
+
+    public InetAddress getEnd() {
+        return toInetAddress(m_end);
+    }
+
+    public long getTimeout() {
+        return m_timeout;
+    }
+
+    public int getRetries() {
+        return m_retries;
+    }
+
+    @Override
+    public Iterator<InetAddress> iterator() {
+        return new Iterator<InetAddress>() {
+            private byte[] m_next = Arrays.copyOf(m_begin, m_begin.length);
+
+            @Override
+            public boolean hasNext() {
+                return m_next != null;
+            }
+
+            @Override
+            public InetAddress next() {
+                if (m_next == null) {
+                    throw new NoSuchElementException("End of range");
+                }
+                final InetAddress address = toInetAddress(m_next);
+                m_next = Arrays.equals(m_next, m_end) ? null : increment(m_next);
+                return address;
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "PingRange[begin=" + getBegin() + ", end=" + getEnd() + ", timeout=" + m_timeout + ", retries=" + m_retries + "]";
+    }
+
+    private static byte[] increment(final byte[] address) {
+        final byte[] next = Arrays.copyOf(address, address.length);
+        for (int i = next.length - 1; i >= 0; i--) {
+            if (++next[i] != 0) {
+                break;
+            }
+        }
+        return next;
+    }
+
+    private static int compare(final byte[] a, final byte[] b) {
+        for (int i = 0; i < a.length; i++) {
+            final int diff = (a[i] & 0xff) - (b[i] & 0xff);
+            if (diff != 0) {
+                return diff;
+            }
+        }
+        return 0;
+    }
+
+    private static InetAddress toInetAddress(final byte[] address) {
+        try {
+            return InetAddress.getByAddress(address);
+        } catch (final UnknownHostException e) {
+            // Only thrown for addresses of an illegal length
+            throw new IllegalStateException(e);
+        }
+    }
+}
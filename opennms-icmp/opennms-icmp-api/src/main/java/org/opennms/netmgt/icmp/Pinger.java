@@ -31,6 +31,9 @@ package org.opennms.netmgt.icmp;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import com.google.common.util.concurrent.RateLimiter;
 
 /**
  * <p>Pinger class.</p>
@@ -133,6 +136,45 @@ public interface Pinger {
          */
         public List<Number> parallelPing(InetAddress host, int count, long timeout, long pingInterval) throws Exception;
         
+        /**
+         * Ping every address of the given ranges, sending no more than the given number
+         * of packets per second, retries included.  The addresses are generated as they
+         * are pinged and the callback is called for each of them as soon as it replies,
+         * times out or fails, so that the results can be streamed while the rest of the
+         * ranges are still being swept.
+         *
+         * The default implementation sends the requests one at a time with
+         * {@link #ping(InetAddress, long, int, int, int, PingResponseCallback)} from the
+         * calling thread, implementations able to do better should override it.
+         *
+         * @param ranges The {@link PingRange} ranges to sweep.
+         * @param packetsize The size in byte of the ICMP packets.
+         * @param packetsPerSecond The maximum rate at which packets are sent.
+         * @param cb the {@link org.opennms.netmgt.icmp.PingResponseCallback} callback to call for each address
+         * @return a future completed once every address has been handled
+         */
+        public default CompletableFuture<Void> ping(Iterable<PingRange> ranges, int packetsize, double packetsPerSecond, PingResponseCallback cb) {
+            final BatchPingResponseCallback batch = new BatchPingResponseCallback(cb);
+            final RateLimiter limiter = RateLimiter.create(packetsPerSecond);
+            try {
+                for (final PingRange range : ranges) {
+                    for (final InetAddress address : range) {
+                        limiter.acquire();
+                        batch.expectResponse();
+                        try {
+                            ping(address, range.getTimeout(), range.getRetries(), packetsize, 1, batch);
+                        } catch (final Exception e) {
+                            batch.handleError(address, null, e);
+                        }
+                    }
+                }
+                batch.allSent();
+            } catch (final Throwable t) {
+                batch.completeExceptionally(t);
+            }
+            return batch;
+        }
+
 	public void setAllowFragmentation(final boolean allow) throws Exception;
 
 	public void setTrafficClass(final int tc) throws Exception;
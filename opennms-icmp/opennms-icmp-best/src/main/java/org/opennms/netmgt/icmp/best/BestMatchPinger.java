@@ -30,8 +30,10 @@ package org.opennms.netmgt.icmp.best;
 
 import java.net.InetAddress;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 
 import org.opennms.netmgt.icmp.NullPinger;
+import org.opennms.netmgt.icmp.PingRange;
 import org.opennms.netmgt.icmp.PingResponseCallback;
 import org.opennms.netmgt.icmp.Pinger;
 import org.slf4j.Logger;
@@ -85,6 +87,12 @@ public class BestMatchPinger implements Pinger {
         return m_pinger.parallelPing(host, count, timeout, pingInterval, size);
     }
 
+    @Override
+    public CompletableFuture<Void> ping(final Iterable<PingRange> ranges, final int packetsize, final double packetsPerSecond, final PingResponseCallback cb) {
+        initialize();
+        return m_pinger.ping(ranges, packetsize, packetsPerSecond, cb);
+    }
+
     @Override
     public void initialize4() throws Exception {
         initialize();
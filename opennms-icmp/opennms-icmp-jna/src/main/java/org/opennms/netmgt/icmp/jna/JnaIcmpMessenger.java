@@ -29,8 +29,13 @@
 package org.opennms.netmgt.icmp.jna;
 
 import java.io.IOException;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
 import java.net.InetAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.opennms.core.utils.InetAddressUtils;
 import org.opennms.netmgt.icmp.EchoPacket;
 import org.opennms.netmgt.icmp.IcmpMessengerIOException;
 import org.opennms.protocols.rt.Messenger;
@@ -52,6 +57,12 @@ public class JnaIcmpMessenger implements Messenger<JnaPingRequest, JnaPingReply>
 	private V6Pinger m_v6;
     private ReplyHandler<JnaPingReply> m_callback = null;
 
+    /**
+     * Batches by the thread ids of their requests, the replies to these are
+     * handed to the batch instead of going through the request tracker
+     */
+    private final Map<Long, JnaPingBatch> m_batches = new ConcurrentHashMap<>();
+
 	public JnaIcmpMessenger(final int pingerId) throws Exception {
 	    Throwable error = null;
 	    try {
@@ -107,9 +118,35 @@ public class JnaIcmpMessenger implements Messenger<JnaPingRequest, JnaPingReply>
 
         @Override
 	public void onPingReply(final InetAddress address, final EchoPacket packet) {
+        final JnaPingBatch batch = m_batches.get(packet.getThreadId());
+        if (batch != null) {
+            batch.handleReply(address, packet);
+            return;
+        }
         m_callback.handleReply(new JnaPingReply(address, packet));
 	}
 
+        /**
+         * Sends a single echo request outside of the request tracker.
+         */
+        public void send(final InetAddress addr, final int identifier, final int sequenceNumber, final long threadId, final int packetSize) throws InterruptedException {
+            if (addr instanceof Inet4Address && m_v4 != null) {
+                m_v4.ping((Inet4Address)addr, identifier, sequenceNumber, threadId, 1, 0, packetSize);
+            } else if (addr instanceof Inet6Address && m_v6 != null) {
+                m_v6.ping((Inet6Address)addr, identifier, sequenceNumber, threadId, 1, 0, packetSize);
+            } else {
+                throw new IllegalStateException("Cannot ping " + InetAddressUtils.str(addr) + ": No pinger found that can handle this address");
+            }
+        }
+
+        void registerBatch(final long threadId, final JnaPingBatch batch) {
+            m_batches.put(threadId, batch);
+        }
+
+        void unregisterBatch(final long threadId) {
+            m_batches.remove(threadId);
+        }
+
         public void setTrafficClass(int tc) throws IOException {
             if (m_v4 != null) m_v4.getPingSocket().setTrafficClass(tc);
             if (m_v6 != null) m_v6.getPingSocket().setTrafficClass(tc);
@@ -0,0 +1,288 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.icmp.jna;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.opennms.netmgt.icmp.EchoPacket;
+import org.opennms.netmgt.icmp.LogPrefixPreservingPingResponseCallback;
+import org.opennms.netmgt.icmp.PingRange;
+import org.opennms.netmgt.icmp.PingResponseCallback;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.RateLimiter;
+
+/**
+ * Sweeps ranges of addresses through the sockets of a {@link JnaIcmpMessenger}
+ * without going through the request tracker.
+ *
+ * A single loop, run by {@link #run()}, sends the requests and retries as
+ * tokens become available in the batch's rate limiter and times them out.
+ * The requests are numbered with a thread id and a sequence number, a new
+ * thread id being taken every 65536 requests, and the messenger hands the
+ * replies carrying one of these thread ids to {@link #handleReply} which
+ * finds the request by its sequence number.
+ *
+ * The timeouts are only ever touched by the send loop, and requests that
+ * have been answered are simply skipped when they reach the head of the
+ * queue, so the reply path does not contend with the sender.
+ *
+ * @see JnaPinger#ping(Iterable, int, double, PingResponseCallback)
+ */
+class JnaPingBatch extends CompletableFuture<Void> implements Runnable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(JnaPingBatch.class);
+
+    private static final int SEQUENCE_NUMBERS = 1 << 16;
+
+    private final JnaIcmpMessenger m_messenger;
+    private final int m_pingerId;
+    private final Iterator<PingRange> m_ranges;
+    private final int m_packetSize;
+    private final RateLimiter m_limiter;
+    private final PingResponseCallback m_callback;
+
+    private final Map<Long, BatchRequest> m_pending = new ConcurrentHashMap<>();
+    private final AtomicInteger m_outstanding = new AtomicInteger(0);
+    private final PriorityQueue<BatchRequest> m_timeouts = new PriorityQueue<>(Comparator.comparingLong(r -> r.m_expiration));
+    private final List<Long> m_threadIds = new ArrayList<>();
+
+    private PingRange m_range;
+    private Iterator<InetAddress> m_addresses = Collections.emptyIterator();
+    private long m_threadId;
+    private int m_nextSequenceNumber = SEQUENCE_NUMBERS;
+    private volatile Thread m_sender;
+
+    JnaPingBatch(final JnaIcmpMessenger messenger, final int pingerId, final Iterable<PingRange> ranges, final int packetSize, final double packetsPerSecond, final PingResponseCallback cb) {
+        m_messenger = messenger;
+        m_pingerId = pingerId;
+        m_ranges = ranges.iterator();
+        m_packetSize = packetSize;
+        m_limiter = RateLimiter.create(packetsPerSecond);
+        m_callback = new LogPrefixPreservingPingResponseCallback(cb);
+    }
+
+    @Override
+    public void run() {
+        m_sender = Thread.currentThread();
+        try {
+            while (true) {
+                final BatchRequest expired = pollExpired(System.nanoTime());
+                if (expired != null) {
+                    retryOrTimeout(expired);
+                    continue;
+                }
+
+                final InetAddress address = nextAddress();
+                if (address != null) {
+                    send(newRequest(address));
+                    continue;
+                }
+
+                final BatchRequest head = m_timeouts.peek();
+                if (head == null) {
+                    break;
+                }
+                // Woken up early by handleReply once everything is answered
+                LockSupport.parkNanos(this, head.m_expiration - System.nanoTime());
+            }
+            complete(null);
+        } catch (final Throwable t) {
+            LOG.warn("Failed to sweep the ranges, {} requests are left unanswered.", m_outstanding.get(), t);
+            completeExceptionally(t);
+        } finally {
+            for (final Long threadId : m_threadIds) {
+                m_messenger.unregisterBatch(threadId);
+            }
+        }
+    }
+
+    void handleReply(final InetAddress address, final EchoPacket packet) {
+        final BatchRequest request = m_pending.get(key(packet.getThreadId(), packet.getSequenceNumber()));
+        if (request == null || !request.m_address.equals(address) || !m_pending.remove(request.m_key, request)) {
+            // Late reply to a request that has timed out already
+            return;
+        }
+        try {
+            m_callback.handleResponse(address, packet);
+        } finally {
+            afterHandled();
+        }
+    }
+
+    private BatchRequest pollExpired(final long now) {
+        BatchRequest head;
+        while ((head = m_timeouts.peek()) != null) {
+            if (m_pending.get(head.m_key) != head) {
+                // Answered already
+                m_timeouts.poll();
+            } else if (head.m_expiration - now <= 0) {
+                return m_timeouts.poll();
+            } else {
+                return null;
+            }
+        }
+        return null;
+    }
+
+    private void retryOrTimeout(final BatchRequest request) {
+        if (request.m_retries > 0) {
+            request.m_retries--;
+            send(request);
+        } else if (m_pending.remove(request.m_key, request)) {
+            try {
+                m_callback.handleTimeout(request.m_address, request);
+            } finally {
+                afterHandled();
+            }
+        }
+    }
+
+    private InetAddress nextAddress() {
+        while (!m_addresses.hasNext()) {
+            if (!m_ranges.hasNext()) {
+                return null;
+            }
+            m_range = m_ranges.next();
+            m_addresses = m_range.iterator();
+        }
+        return m_addresses.next();
+    }
+
+    private BatchRequest newRequest(final InetAddress address) {
+        if (m_nextSequenceNumber == SEQUENCE_NUMBERS) {
+            m_threadId = JnaPingRequest.getNextTID();
+            m_nextSequenceNumber = 0;
+            m_threadIds.add(m_threadId);
+            m_messenger.registerBatch(m_threadId, this);
+        }
+        final BatchRequest request = new BatchRequest(address, m_threadId, m_nextSequenceNumber++, m_range.getTimeout(), m_range.getRetries());
+        m_outstanding.incrementAndGet();
+        m_pending.put(request.m_key, request);
+        return request;
+    }
+
+    private void send(final BatchRequest request) {
+        m_limiter.acquire();
+        request.m_expiration = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(request.m_timeout);
+        m_timeouts.add(request);
+        try {
+            m_messenger.send(request.m_address, m_pingerId, request.m_sequenceNumber, request.m_threadId, m_packetSize);
+        } catch (final Throwable t) {
+            if (m_pending.remove(request.m_key, request)) {
+                try {
+                    m_callback.handleError(request.m_address, request, t);
+                } finally {
+                    afterHandled();
+                }
+            }
+        }
+    }
+
+    private void afterHandled() {
+        if (m_outstanding.decrementAndGet() == 0) {
+            final Thread sender = m_sender;
+            if (sender != null) {
+                LockSupport.unpark(sender);
+            }
+        }
+    }
+
+    private static long key(final long threadId, final int sequenceNumber) {
+        return (threadId << 16) | (sequenceNumber & 0xffff);
+    }
+
+    private final class BatchRequest implements EchoPacket {
+        private final InetAddress m_address;
+        private final long m_threadId;
+        private final int m_sequenceNumber;
+        private final long m_key;
+        private final long m_timeout;
+        private int m_retries;
+        private long m_expiration;
+
+        private BatchRequest(final InetAddress address, final long threadId, final int sequenceNumber, final long timeout, final int retries) {
+            m_address = address;
+            m_threadId = threadId;
+            m_sequenceNumber = sequenceNumber;
+            m_key = key(threadId, sequenceNumber);
+            m_timeout = timeout;
+            m_retries = retries;
+        }
+
+        @Override
+        public boolean isEchoReply() {
+            return false;
+        }
+
+        @Override
+        public int getIdentifier() {
+            return m_pingerId;
+        }
+
+        @Override
+        public int getSequenceNumber() {
+            return m_sequenceNumber;
+        }
+
+        @Override
+        public long getThreadId() {
+            return m_threadId;
+        }
+
+        @Override
+        public long getReceivedTimeNanos() {
+            throw new UnsupportedOperationException("EchoPacket.getReceivedTimeNanos is not yet implemented");
+        }
+
+        @Override
+        public long getSentTimeNanos() {
+            throw new UnsupportedOperationException("EchoPacket.getSentTimeNanos is not yet implemented");
+        }
+
+        @Override
+        public double elapsedTime(final TimeUnit timeUnit) {
+            throw new UnsupportedOperationException("EchoPacket.elapsedTime is not yet implemented");
+        }
+    }
+}
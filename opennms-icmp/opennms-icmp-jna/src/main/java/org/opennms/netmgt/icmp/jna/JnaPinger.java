@@ -37,9 +37,13 @@ import java.net.InetAddress;
 import java.security.SecureRandom;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.opennms.core.logging.Logging;
 import org.opennms.netmgt.icmp.ParallelPingResponseCallback;
+import org.opennms.netmgt.icmp.PingRange;
 import org.opennms.netmgt.icmp.PingResponseCallback;
 import org.opennms.netmgt.icmp.Pinger;
 import org.opennms.netmgt.icmp.SinglePingResponseCallback;
@@ -48,6 +52,8 @@ import org.opennms.protocols.rt.RequestTracker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 
 /**
  * Main
@@ -62,6 +68,11 @@ public class JnaPinger implements Pinger {
     private RequestTracker<JnaPingRequest, JnaPingReply> m_pingTracker;
     private JnaIcmpMessenger m_messenger;
 
+    private final ExecutorService m_batchExecutor = Executors.newCachedThreadPool(new ThreadFactoryBuilder()
+            .setNameFormat("JNA-ICMP-" + m_pingerId + "-Batch-%d")
+            .setDaemon(true)
+            .build());
+
     /**
      * Initializes this singleton
      * @throws Exception 
@@ -257,6 +268,32 @@ public class JnaPinger implements Pinger {
         return parallelPing(host, count, timeout, pingInterval, DEFAULT_PACKET_SIZE);
     }
 
+    /**
+     * Ping every address of the given ranges, sending no more than the given number
+     * of packets per second.  Each batch is swept by its own send loop on the shared
+     * sockets and its replies are matched by thread id and sequence number rather
+     * than through the request tracker, see {@link JnaPingBatch}.
+     *
+     * @param ranges The {@link PingRange} ranges to sweep.
+     * @param packetsize The size in byte of the ICMP packets.
+     * @param packetsPerSecond The maximum rate at which packets are sent.
+     * @param cb the {@link org.opennms.netmgt.icmp.PingResponseCallback} callback to call for each address
+     * @return a future completed once every address has been handled
+     */
+    @Override
+    public CompletableFuture<Void> ping(final Iterable<PingRange> ranges, final int packetsize, final double packetsPerSecond, final PingResponseCallback cb) {
+        try {
+            initialize();
+        } catch (final Exception e) {
+            final CompletableFuture<Void> future = new CompletableFuture<>();
+            future.completeExceptionally(e);
+            return future;
+        }
+        final JnaPingBatch batch = new JnaPingBatch(m_messenger, m_pingerId, ranges, packetsize, packetsPerSecond, cb);
+        m_batchExecutor.execute(batch);
+        return batch;
+    }
+
     @Override
     public void setAllowFragmentation(boolean allow) throws Exception {
         initialize();
@@ -35,8 +35,13 @@ import static org.junit.Assert.assertTrue;
 
 import java.net.InetAddress;
 import java.net.NoRouteToHostException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -44,6 +49,7 @@ import org.junit.runner.RunWith;
 import org.opennms.core.utils.CollectionMath;
 import org.opennms.netmgt.icmp.EchoPacket;
 import org.opennms.netmgt.icmp.PingConstants;
+import org.opennms.netmgt.icmp.PingRange;
 import org.opennms.netmgt.icmp.PingResponseCallback;
 import org.springframework.test.annotation.IfProfileValue;
 import org.springframework.test.context.TestExecutionListeners;
@@ -190,6 +196,36 @@ public class JnaPingIT {
         assertNotNull(cb.getAddress());
     }
 
+    @Test
+    @IfProfileValue(name="runPingTests", value="true")
+    public void testBatchPingIPv4() throws Exception {
+        final Set<InetAddress> responses = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        final Set<InetAddress> timeouts = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        final List<PingRange> ranges = Arrays.asList(
+                new PingRange(m_goodHost, PingConstants.DEFAULT_TIMEOUT, PingConstants.DEFAULT_RETRIES),
+                new PingRange(m_badHost, PingConstants.DEFAULT_TIMEOUT, PingConstants.DEFAULT_RETRIES));
+
+        s_jnaPinger.ping(ranges, PingConstants.DEFAULT_PACKET_SIZE, 100, new PingResponseCallback() {
+            @Override
+            public void handleResponse(InetAddress address, EchoPacket response) {
+                responses.add(address);
+            }
+
+            @Override
+            public void handleTimeout(InetAddress address, EchoPacket request) {
+                timeouts.add(address);
+            }
+
+            @Override
+            public void handleError(InetAddress address, EchoPacket request, Throwable t) {
+                timeouts.add(address);
+            }
+        }).get(1, TimeUnit.MINUTES);
+
+        assertEquals(Collections.singleton(m_goodHost), responses);
+        assertEquals(Collections.singleton(m_badHost), timeouts);
+    }
+
     @Test
     @IfProfileValue(name="runPingTests", value="true")
     public void testSinglePingFailureIPv4() throws Exception {
@@ -30,32 +30,22 @@ package org.opennms.netmgt.icmp.proxy;
 
 import java.net.InetAddress;
 import java.util.ArrayList;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Set;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
 
 import org.opennms.core.rpc.xml.AbstractXmlRpcModule;
-import org.opennms.core.utils.IteratorUtils;
 import org.opennms.netmgt.icmp.EchoPacket;
+import org.opennms.netmgt.icmp.PingRange;
 import org.opennms.netmgt.icmp.PingResponseCallback;
 import org.opennms.netmgt.icmp.Pinger;
 import org.opennms.netmgt.icmp.PingerFactory;
-import org.opennms.netmgt.model.discovery.IPPollAddress;
-import org.opennms.netmgt.model.discovery.IPPollRange;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import com.google.common.base.Throwables;
-import com.google.common.collect.Sets;
-import com.google.common.util.concurrent.RateLimiter;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 @Component
@@ -81,92 +71,48 @@ public class PingSweepRpcModule extends AbstractXmlRpcModule<PingSweepRequestDTO
         final Pinger pinger = pingerFactory.getInstance();
         final PingSweepResultTracker tracker = new PingSweepResultTracker();
 
-        String location = request.getLocation();
-        int packetSize = request.getPacketSize();
-        List<IPPollRange> ranges = new ArrayList<>();
+        // The addresses are generated as they are pinged rather than up front
+        final List<PingRange> ranges = new ArrayList<>();
         for (IPRangeDTO dto : request.getIpRanges()) {
-            IPPollRange pollRange = new IPPollRange(null, location, dto.getBegin(), dto.getEnd(), dto.getTimeout(), dto.getRetries());
-            ranges.add(pollRange);
+            ranges.add(new PingRange(dto.getBegin(), dto.getEnd(), dto.getTimeout(), dto.getRetries()));
         }
 
-        // Use a RateLimiter to limit the ping packets per second that we send
-        RateLimiter limiter = RateLimiter.create(request.getPacketsPerSecond());
-
-        List<IPPollAddress> addresses = StreamSupport.stream(getAddresses(ranges).spliterator(), false)
-                .filter(j -> j.getAddress() != null).collect(Collectors.toList());
-
-        return CompletableFuture.supplyAsync(() -> {
-            addresses.stream().forEach(pollAddress -> {
-                try {
-                    tracker.expectCallbackFor(pollAddress.getAddress());
-                    limiter.acquire();
-                    pinger.ping(pollAddress.getAddress(), pollAddress.getTimeout(), pollAddress.getRetries(), packetSize, 1, tracker);
-                } catch (Exception e) {
-                    tracker.handleError(pollAddress.getAddress(), null, e);
-                    tracker.completeExceptionally(e);
-                }
-            });
-
-            try {
-                tracker.getLatch().await();
-            } catch (InterruptedException e) {
-                throw Throwables.propagate(e);
-            }
-            tracker.complete();
-            return tracker.getResponse();
-        } , executor);
-
+        // The pinger limits the packets per second that we send, and may send from the calling thread
+        return CompletableFuture.supplyAsync(() -> pinger.ping(ranges, request.getPacketSize(), request.getPacketsPerSecond(), tracker), executor)
+                .thenCompose(sweep -> sweep)
+                .thenApply(v -> tracker.getResponse());
     }
 
-    private static class PingSweepResultTracker extends CompletableFuture<PingSweepResponseDTO>
-            implements PingResponseCallback {
+    private static class PingSweepResultTracker implements PingResponseCallback {
 
-        private final Set<InetAddress> waitingFor = Sets.newConcurrentHashSet();
-        private final CountDownLatch m_doneSignal = new CountDownLatch(1);
         private final PingSweepResponseDTO responseDTO = new PingSweepResponseDTO();
 
-        public void expectCallbackFor(InetAddress address) {
-            waitingFor.add(address);
-        }
-
         @Override
         public void handleResponse(InetAddress address, EchoPacket response) {
             if (response != null) {
                 PingSweepResultDTO sweepResult = new PingSweepResultDTO();
                 sweepResult.setAddress(address);
                 sweepResult.setRtt(response.elapsedTime(TimeUnit.MILLISECONDS));
-                responseDTO.addPingSweepResult(sweepResult);
+                synchronized (responseDTO) {
+                    responseDTO.addPingSweepResult(sweepResult);
+                }
             }
-            afterHandled(address);
         }
 
         @Override
         public void handleTimeout(InetAddress address, EchoPacket request) {
-            afterHandled(address);
+            // pass
         }
 
         @Override
         public void handleError(InetAddress address, EchoPacket request, Throwable t) {
-            afterHandled(address);
-        }
-
-        private void afterHandled(InetAddress address) {
-            waitingFor.remove(address);
-            if (waitingFor.isEmpty()) {
-                m_doneSignal.countDown();
-            }
-        }
-
-        public void complete() {
-            complete(responseDTO);
+            // pass
         }
 
         public PingSweepResponseDTO getResponse() {
-            return responseDTO;
-        }
-
-        public CountDownLatch getLatch() {
-            return m_doneSignal;
+            synchronized (responseDTO) {
+                return responseDTO;
+            }
         }
 
     }
@@ -184,13 +130,5 @@ public class PingSweepRpcModule extends AbstractXmlRpcModule<PingSweepRequestDTO
     public void setPingerFactory(PingerFactory pingerFactory) {
         this.pingerFactory = pingerFactory;
     }
-    
-    public Iterable<IPPollAddress> getAddresses(List<IPPollRange> ranges) {
-        final List<Iterator<IPPollAddress>> iters = new ArrayList<>();
-        for(final IPPollRange range : ranges) {
-            iters.add(range.iterator());
-        }
-        return IteratorUtils.concatIterators(iters);
-    }
 
 }
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.icmp.proxy;
+
+import static org.junit.Assert.assertEquals;
+
+import java.net.InetAddress;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.icmp.PingResponseCallback;
+import org.opennms.netmgt.icmp.Pinger;
+import org.opennms.netmgt.icmp.PingerFactory;
+import org.opennms.netmgt.icmp.TestPinger;
+
+public class PingSweepRpcModuleTest {
+
+    /**
+     * Only answers for addresses with an even last octet, and times out
+     * all of the others.
+     */
+    private static class EvenPinger extends TestPinger {
+        @Override
+        public void ping(InetAddress host, long timeout, int retries, int packetsize, int sequenceId, PingResponseCallback cb) throws Exception {
+            final byte[] octets = host.getAddress();
+            if (octets[octets.length - 1] % 2 == 0) {
+                super.ping(host, timeout, retries, packetsize, sequenceId, cb);
+            } else {
+                cb.handleTimeout(host, null);
+            }
+        }
+    }
+
+    @Test
+    public void canSweepRanges() throws Exception {
+        final Pinger pinger = new EvenPinger();
+        final PingSweepRpcModule module = new PingSweepRpcModule();
+        module.setPingerFactory(new PingerFactory() {
+            @Override
+            public Pinger getInstance() {
+                return pinger;
+            }
+
+            @Override
+            public Pinger getInstance(int tc, boolean allowFragmentation) {
+                return pinger;
+            }
+        });
+
+        final PingSweepRequestDTO request = new PingSweepRequestDTO();
+        request.setPacketsPerSecond(1000);
+        // Spans an octet boundary
+        request.addIpRange(new IPRangeDTO("10.0.0.253", "10.0.1.2", 1, 100));
+        // Given in reverse order
+        request.addIpRange(new IPRangeDTO("192.168.0.4", "192.168.0.1", 1, 100));
+
+        final PingSweepResponseDTO response = module.execute(request).get(10, TimeUnit.SECONDS);
+        final List<String> responders = response.getPingSweepResult().stream()
+                .map(result -> InetAddressUtils.str(result.getAddress()))
+                .sorted()
+                .collect(Collectors.toList());
+        assertEquals(5, responders.size());
+        assertEquals("10.0.0.254", responders.get(0));
+        assertEquals("10.0.1.0", responders.get(1));
+        assertEquals("10.0.1.2", responders.get(2));
+        assertEquals("192.168.0.2", responders.get(3));
+        assertEquals("192.168.0.4", responders.get(4));
+    }
+
+}
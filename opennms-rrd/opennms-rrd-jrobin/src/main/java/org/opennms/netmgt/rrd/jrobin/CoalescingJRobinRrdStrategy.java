@@ -0,0 +1,754 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.jrobin.core.RrdBackendFactory;
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.jrobin.core.RrdException;
+import org.jrobin.core.Util;
+import org.opennms.netmgt.rrd.RrdDataSource;
+import org.opennms.netmgt.rrd.RrdGraphDetails;
+import org.opennms.netmgt.rrd.RrdStrategy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.JmxReporter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.Timer;
+
+/**
+ * Provides a JRobin based implementation of RrdStrategy that keeps a pool of
+ * open, memory-mapped RrdDb handles and combines the updates made to each
+ * file before writing them.
+ *
+ * Updates are not written by the calling thread. They are buffered per file
+ * and handed to one of a fixed set of write threads, chosen by hashing the file
+ * name, so that all of the updates for a given file are applied in order by
+ * the same thread. A write thread wakes up at most once per flush interval and
+ * takes every file that has pending updates in a single pass. The files are
+ * visited in on-disk order, approximated by their inode number where the file
+ * system exposes one, and all of the updates for a file are applied to the
+ * same handle one after the other. Consecutive updates that share a timestamp
+ * are collapsed into the first one, since JRobin would reject the others anyway.
+ *
+ * Each write thread owns a LRU pool of open RrdDb handles, so files that are
+ * updated on every collection cycle are opened once and then stay mapped.
+ * Handles are closed, which syncs them to disk, when they fall out of the pool
+ * or when the strategy is destroyed.
+ *
+ * Creating files, fetching values and graphing are delegated to
+ * {@link JRobinRrdStrategy}. Use this strategy with
+ * org.opennms.rrd.usequeue=false: it already does its own queuing.
+ *
+ * Configuration properties:
+ *
+ * org.opennms.rrd.jrobin.coalescing.writeThreads: (default 2) the number of
+ * threads that write to the files
+ *
+ * org.opennms.rrd.jrobin.coalescing.maxOpenFiles: (default 1000) the number of
+ * handles kept open, split evenly between the write threads
+ *
+ * org.opennms.rrd.jrobin.coalescing.flushInterval: (default 1000) the number of
+ * milliseconds a write thread waits for updates to accumulate before a pass
+ *
+ * org.opennms.rrd.jrobin.coalescing.maxPendingUpdates: (default 0) the number
+ * of buffered updates beyond which new updates are discarded, zero means no
+ * limit
+ *
+ * org.opennms.rrd.jrobin.coalescing.backendFactory: (default MAPPED) the
+ * JRobin backend used for the pooled handles, MAPPED being
+ * {@link MappedRrdBackendFactory}
+ *
+ * The pool hit ratio, the number of dirty files and the flush latency, along
+ * with a few other counters, are exposed over JMX in the
+ * org.opennms.netmgt.rrd.jrobin.coalescing domain.
+ */
+public class CoalescingJRobinRrdStrategy implements RrdStrategy<RrdDef,String>, DisposableBean {
+    private static final Logger LOG = LoggerFactory.getLogger(CoalescingJRobinRrdStrategy.class);
+
+    public static final String WRITE_THREADS_PROPERTY = "org.opennms.rrd.jrobin.coalescing.writeThreads";
+    public static final String MAX_OPEN_FILES_PROPERTY = "org.opennms.rrd.jrobin.coalescing.maxOpenFiles";
+    public static final String FLUSH_INTERVAL_PROPERTY = "org.opennms.rrd.jrobin.coalescing.flushInterval";
+    public static final String MAX_PENDING_UPDATES_PROPERTY = "org.opennms.rrd.jrobin.coalescing.maxPendingUpdates";
+    public static final String BACKEND_FACTORY_PROPERTY = "org.opennms.rrd.jrobin.coalescing.backendFactory";
+
+    private static final String JMX_DOMAIN = "org.opennms.netmgt.rrd.jrobin.coalescing";
+
+    private final JRobinRrdStrategy m_delegate;
+
+    private Properties m_configurationProperties;
+
+    private int m_writeThreads = 2;
+
+    private int m_maxOpenFiles = 1000;
+
+    private long m_flushInterval = 1000;
+
+    private long m_maxPendingUpdates = 0;
+
+    private String m_backendFactory = MappedRrdBackendFactory.NAME;
+
+    private final MetricRegistry m_metrics = new MetricRegistry();
+    private final Meter m_poolHits = m_metrics.meter("pool.hits");
+    private final Meter m_poolMisses = m_metrics.meter("pool.misses");
+    private final Meter m_poolEvictions = m_metrics.meter("pool.evictions");
+    private final Meter m_updatesWritten = m_metrics.meter("updates.written");
+    private final Meter m_updatesCoalesced = m_metrics.meter("updates.coalesced");
+    private final Meter m_updatesDropped = m_metrics.meter("updates.dropped");
+    private final Meter m_errors = m_metrics.meter("errors");
+    private final Timer m_flushTimer = m_metrics.timer("flush");
+
+    private final AtomicInteger m_openFiles = new AtomicInteger();
+    private final AtomicInteger m_dirtyFiles = new AtomicInteger();
+    private final AtomicLong m_pendingUpdates = new AtomicLong();
+
+    private volatile Writer[] m_writers;
+
+    private JmxReporter m_reporter;
+
+    /**
+     * <p>Constructor for CoalescingJRobinRrdStrategy.</p>
+     *
+     * @throws java.lang.Exception if any.
+     */
+    public CoalescingJRobinRrdStrategy() throws Exception {
+        m_delegate = new JRobinRrdStrategy();
+
+        m_metrics.register("pool.open", (Gauge<Integer>) m_openFiles::get);
+        m_metrics.register("pool.hitRatio", new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                final long hits = m_poolHits.getCount();
+                return Ratio.of(hits, hits + m_poolMisses.getCount());
+            }
+        });
+        m_metrics.register("dirtyFiles", (Gauge<Integer>) m_dirtyFiles::get);
+        m_metrics.register("pendingUpdates", (Gauge<Long>) m_pendingUpdates::get);
+    }
+
+    /**
+     * <p>getConfigurationProperties</p>
+     *
+     * @return a {@link java.util.Properties} object.
+     */
+    public Properties getConfigurationProperties() {
+        return m_configurationProperties;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void setConfigurationProperties(final Properties configurationParameters) {
+        m_configurationProperties = configurationParameters;
+        m_delegate.setConfigurationProperties(configurationParameters);
+        if (configurationParameters == null) {
+            return;
+        }
+        m_writeThreads = Integer.parseInt(getProperty(WRITE_THREADS_PROPERTY, Integer.toString(m_writeThreads)));
+        m_maxOpenFiles = Integer.parseInt(getProperty(MAX_OPEN_FILES_PROPERTY, Integer.toString(m_maxOpenFiles)));
+        m_flushInterval = Long.parseLong(getProperty(FLUSH_INTERVAL_PROPERTY, Long.toString(m_flushInterval)));
+        m_maxPendingUpdates = Long.parseLong(getProperty(MAX_PENDING_UPDATES_PROPERTY, Long.toString(m_maxPendingUpdates)));
+        m_backendFactory = getProperty(BACKEND_FACTORY_PROPERTY, m_backendFactory);
+    }
+
+    private String getProperty(final String key, final String defaultValue) {
+        final String value = m_configurationProperties.getProperty(key);
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    /**
+     * <p>getWriteThreads</p>
+     *
+     * @return a int.
+     */
+    public int getWriteThreads() {
+        return m_writeThreads;
+    }
+
+    /**
+     * <p>setWriteThreads</p>
+     *
+     * @param writeThreads a int.
+     */
+    public void setWriteThreads(final int writeThreads) {
+        m_writeThreads = writeThreads;
+    }
+
+    /**
+     * <p>getMaxOpenFiles</p>
+     *
+     * @return a int.
+     */
+    public int getMaxOpenFiles() {
+        return m_maxOpenFiles;
+    }
+
+    /**
+     * <p>setMaxOpenFiles</p>
+     *
+     * @param maxOpenFiles a int.
+     */
+    public void setMaxOpenFiles(final int maxOpenFiles) {
+        m_maxOpenFiles = maxOpenFiles;
+    }
+
+    /**
+     * <p>getFlushInterval</p>
+     *
+     * @return a long.
+     */
+    public long getFlushInterval() {
+        return m_flushInterval;
+    }
+
+    /**
+     * <p>setFlushInterval</p>
+     *
+     * @param flushInterval a long.
+     */
+    public void setFlushInterval(final long flushInterval) {
+        m_flushInterval = flushInterval;
+    }
+
+    /**
+     * <p>getMaxPendingUpdates</p>
+     *
+     * @return a long.
+     */
+    public long getMaxPendingUpdates() {
+        return m_maxPendingUpdates;
+    }
+
+    /**
+     * <p>setMaxPendingUpdates</p>
+     *
+     * @param maxPendingUpdates a long.
+     */
+    public void setMaxPendingUpdates(final long maxPendingUpdates) {
+        m_maxPendingUpdates = maxPendingUpdates;
+    }
+
+    /**
+     * <p>getBackendFactory</p>
+     *
+     * @return a {@link java.lang.String} object.
+     */
+    public String getBackendFactory() {
+        return m_backendFactory;
+    }
+
+    /**
+     * <p>setBackendFactory</p>
+     *
+     * @param backendFactory a {@link java.lang.String} object.
+     */
+    public void setBackendFactory(final String backendFactory) {
+        m_backendFactory = backendFactory;
+    }
+
+    /**
+     * <p>getMetrics</p>
+     *
+     * @return a {@link com.codahale.metrics.MetricRegistry} object.
+     */
+    public MetricRegistry getMetrics() {
+        return m_metrics;
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getDefaultFileExtension() {
+        return m_delegate.getDefaultFileExtension();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public RrdDef createDefinition(final String creator, final String directory, final String rrdName, final int step,
+            final List<RrdDataSource> dataSources, final List<String> rraList) throws Exception {
+        return m_delegate.createDefinition(creator, directory, rrdName, step, dataSources, rraList);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Creates the file right away, and makes sure that a handle still pooled
+     * for a previous file at the same path gets closed before the next update.
+     */
+    @Override
+    public void createFile(final RrdDef rrdDef) throws Exception {
+        m_delegate.createFile(rrdDef);
+        final Writer[] writers = m_writers;
+        if (rrdDef != null && writers != null) {
+            getWriter(writers, rrdDef.getPath()).invalidate(rrdDef.getPath());
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * The file isn't opened here, the name serves as the handle for
+     * {@link #updateFile(String, String, String)}.
+     */
+    @Override
+    public String openFile(final String fileName) throws Exception {
+        return fileName;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Buffers the update for one of the write threads. An update using "N"
+     * as its timestamp is stamped with the current time first.
+     */
+    @Override
+    public void updateFile(final String fileName, final String owner, final String data) throws Exception {
+        final Writer[] writers = getWriters();
+        if (m_maxPendingUpdates > 0 && m_pendingUpdates.get() >= m_maxPendingUpdates) {
+            LOG.debug("updateFile: {} updates are pending, discarding update for file {}: {}", m_pendingUpdates.get(), fileName, data);
+            m_updatesDropped.mark();
+            return;
+        }
+        final String update = data.startsWith("N:") ? Util.getTime() + data.substring(1) : data;
+        getWriter(writers, fileName).enqueue(fileName, update);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void closeFile(final String rrd) throws Exception {
+        // the pooled handles are closed by the write threads
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Double fetchLastValue(final String fileName, final String ds, final int interval) throws NumberFormatException, org.opennms.netmgt.rrd.RrdException {
+        return m_delegate.fetchLastValue(fileName, ds, interval);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Double fetchLastValue(final String fileName, final String ds, final String consolidationFunction, final int interval) throws NumberFormatException, org.opennms.netmgt.rrd.RrdException {
+        return m_delegate.fetchLastValue(fileName, ds, consolidationFunction, interval);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public Double fetchLastValueInRange(final String fileName, final String ds, final int interval, final int range) throws NumberFormatException, org.opennms.netmgt.rrd.RrdException {
+        return m_delegate.fetchLastValueInRange(fileName, ds, interval, range);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public InputStream createGraph(final String command, final File workDir) throws IOException, org.opennms.netmgt.rrd.RrdException {
+        return m_delegate.createGraph(command, workDir);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public RrdGraphDetails createGraphReturnDetails(final String command, final File workDir) throws IOException, org.opennms.netmgt.rrd.RrdException {
+        return m_delegate.createGraphReturnDetails(command, workDir);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getGraphLeftOffset() {
+        return m_delegate.getGraphLeftOffset();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getGraphRightOffset() {
+        return m_delegate.getGraphRightOffset();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public int getGraphTopOffsetWithText() {
+        return m_delegate.getGraphTopOffsetWithText();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getStats() {
+        final long hits = m_poolHits.getCount();
+        final long lookups = hits + m_poolMisses.getCount();
+        return String.format("open files: %d, pool hit ratio: %.3f, dirty files: %d, pending updates: %d, updates written: %d, updates coalesced: %d, updates dropped: %d, errors: %d, mean flush: %.3fms",
+                m_openFiles.get(), lookups == 0 ? 0.0 : (double) hits / lookups, m_dirtyFiles.get(), m_pendingUpdates.get(),
+                m_updatesWritten.getCount(), m_updatesCoalesced.getCount(), m_updatesDropped.getCount(), m_errors.getCount(),
+                m_flushTimer.getSnapshot().getMean() / 1000000.0);
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * Wakes up the write threads so that the pending updates of the given
+     * files are written ahead of the others, without waiting for the end of
+     * the flush interval.
+     */
+    @Override
+    public void promoteEnqueuedFiles(final Collection<String> rrdFiles) {
+        final Writer[] writers = m_writers;
+        if (writers == null) {
+            return;
+        }
+        for (final String rrdFile : rrdFiles) {
+            getWriter(writers, rrdFile).promote(rrdFile);
+        }
+    }
+
+    /**
+     * Writes out all of the pending updates, closes the pooled handles and
+     * stops the write threads.
+     *
+     * @throws java.lang.InterruptedException if interrupted while waiting for
+     * the write threads to finish
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        final Writer[] writers;
+        synchronized (this) {
+            writers = m_writers;
+        }
+        if (writers != null) {
+            for (final Writer writer : writers) {
+                writer.stop();
+            }
+            for (final Writer writer : writers) {
+                writer.join();
+            }
+        }
+        synchronized (this) {
+            if (m_reporter != null) {
+                m_reporter.stop();
+                m_reporter = null;
+            }
+        }
+    }
+
+    private Writer[] getWriters() throws RrdException {
+        Writer[] writers = m_writers;
+        if (writers == null) {
+            synchronized (this) {
+                if (m_writers == null) {
+                    m_writers = startWriters();
+                }
+                writers = m_writers;
+            }
+        }
+        return writers;
+    }
+
+    private Writer[] startWriters() throws RrdException {
+        final RrdBackendFactory factory = MappedRrdBackendFactory.NAME.equals(m_backendFactory) ? new MappedRrdBackendFactory() : RrdBackendFactory.getFactory(m_backendFactory);
+        final int writeThreads = Math.max(1, m_writeThreads);
+        final int poolSize = Math.max(1, m_maxOpenFiles / writeThreads);
+        LOG.info("Starting {} write threads with {} pooled {} handles each", writeThreads, poolSize, factory.getFactoryName());
+
+        final Writer[] writers = new Writer[writeThreads];
+        for (int i = 0; i < writers.length; i++) {
+            writers[i] = new Writer(factory, poolSize);
+            writers[i].start(getClass().getSimpleName() + "-" + (i + 1));
+        }
+
+        m_reporter = JmxReporter.forRegistry(m_metrics).inDomain(JMX_DOMAIN).build();
+        m_reporter.start();
+        return writers;
+    }
+
+    private static Writer getWriter(final Writer[] writers, final String fileName) {
+        return writers[(fileName.hashCode() & Integer.MAX_VALUE) % writers.length];
+    }
+
+    /**
+     * Compares the timestamps of two "timestamp:value[:value...]" updates.
+     */
+    private static boolean sameTimestamp(final String update, final String other) {
+        final int colon = update.indexOf(':');
+        return colon > 0 && other.length() > colon && other.charAt(colon) == ':' && update.regionMatches(0, other, 0, colon);
+    }
+
+    /**
+     * Returns the inode number of the file, which follows the allocation of
+     * files on disk closely enough on the common file systems to order the
+     * writes by, or zero when it isn't available.
+     */
+    private static long getPosition(final String fileName) {
+        try {
+            final Object inode = Files.getAttribute(Paths.get(fileName), "unix:ino");
+            if (inode instanceof Number) {
+                return ((Number) inode).longValue();
+            }
+        } catch (final IOException | UnsupportedOperationException | IllegalArgumentException e) {
+            LOG.trace("Could not read the inode number of {}", fileName, e);
+        }
+        return 0L;
+    }
+
+    private static class PooledFile {
+        private final RrdDb m_db;
+        private final long m_position;
+
+        private PooledFile(final RrdDb db, final long position) {
+            m_db = db;
+            m_position = position;
+        }
+    }
+
+    private static class Batch {
+        private final Map<String, List<String>> m_updates;
+        private final Set<String> m_promoted;
+        private final Set<String> m_invalidated;
+
+        private Batch(final Map<String, List<String>> updates, final Set<String> promoted, final Set<String> invalidated) {
+            m_updates = updates;
+            m_promoted = promoted;
+            m_invalidated = invalidated;
+        }
+    }
+
+    /**
+     * Buffers the updates for its share of the files and writes them out
+     * through its own pool of handles. The pool is only ever touched by the
+     * write thread, everything else is guarded by the writer's monitor.
+     */
+    private class Writer implements Runnable {
+        private final RrdBackendFactory m_factory;
+        private final Map<String, PooledFile> m_pool;
+
+        private Map<String, List<String>> m_pending = new HashMap<>();
+        private Set<String> m_promoted = new HashSet<>();
+        private Set<String> m_invalidated = new HashSet<>();
+        private boolean m_running = true;
+        private Thread m_thread;
+
+        private Writer(final RrdBackendFactory factory, final int poolSize) {
+            m_factory = factory;
+            m_pool = new LinkedHashMap<String, PooledFile>(16, 0.75f, true) {
+                private static final long serialVersionUID = 1L;
+
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, PooledFile> eldest) {
+                    if (size() > poolSize) {
+                        m_poolEvictions.mark();
+                        close(eldest.getKey(), eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        private void start(final String name) {
+            m_thread = new Thread(this, name);
+            m_thread.setDaemon(true);
+            m_thread.start();
+        }
+
+        private synchronized void enqueue(final String fileName, final String update) {
+            if (!m_running) {
+                throw new IllegalStateException("Cannot update " + fileName + ", the strategy has been destroyed.");
+            }
+            List<String> updates = m_pending.get(fileName);
+            if (updates == null) {
+                updates = new ArrayList<>(2);
+                m_pending.put(fileName, updates);
+                m_dirtyFiles.incrementAndGet();
+                if (m_pending.size() == 1) {
+                    notifyAll();
+                }
+            }
+            updates.add(update);
+            m_pendingUpdates.incrementAndGet();
+        }
+
+        private synchronized void promote(final String fileName) {
+            if (m_pending.containsKey(fileName) && m_promoted.add(fileName)) {
+                notifyAll();
+            }
+        }
+
+        private synchronized void invalidate(final String fileName) {
+            m_invalidated.add(fileName);
+        }
+
+        private synchronized void stop() {
+            m_running = false;
+            notifyAll();
+        }
+
+        private void join() throws InterruptedException {
+            m_thread.join();
+        }
+
+        @Override
+        public void run() {
+            try {
+                Batch batch;
+                while ((batch = takeBatch()) != null) {
+                    flush(batch);
+                }
+            } finally {
+                for (final Map.Entry<String, PooledFile> entry : m_pool.entrySet()) {
+                    close(entry.getKey(), entry.getValue());
+                }
+                m_pool.clear();
+            }
+        }
+
+        /**
+         * Waits for pending updates, then for the rest of the flush interval
+         * unless files were promoted in the meantime, and takes them all.
+         * Returns null once the writer is stopped and everything is written.
+         */
+        private synchronized Batch takeBatch() {
+            try {
+                while (m_running && m_pending.isEmpty()) {
+                    wait();
+                }
+                final long deadline = System.currentTimeMillis() + m_flushInterval;
+                long remaining;
+                while (m_running && m_promoted.isEmpty() && (remaining = deadline - System.currentTimeMillis()) > 0) {
+                    wait(remaining);
+                }
+            } catch (final InterruptedException e) {
+                LOG.warn("Interrupted while waiting for updates, writing out the pending updates and exiting.");
+                m_running = false;
+            }
+            if (m_pending.isEmpty()) {
+                return null;
+            }
+            final Batch batch = new Batch(m_pending, m_promoted, m_invalidated);
+            m_pending = new HashMap<>();
+            m_promoted = new HashSet<>();
+            m_invalidated = new HashSet<>();
+            return batch;
+        }
+
+        private void flush(final Batch batch) {
+            for (final String fileName : batch.m_invalidated) {
+                final PooledFile file = m_pool.remove(fileName);
+                if (file != null) {
+                    close(fileName, file);
+                }
+            }
+
+            final Map<String, Long> positions = new HashMap<>();
+            for (final String fileName : batch.m_updates.keySet()) {
+                final PooledFile file = m_pool.get(fileName);
+                positions.put(fileName, file != null ? file.m_position : getPosition(fileName));
+            }
+            final List<String> fileNames = new ArrayList<>(batch.m_updates.keySet());
+            fileNames.sort(Comparator.comparing((String fileName) -> !batch.m_promoted.contains(fileName))
+                    .thenComparing(positions::get)
+                    .thenComparing(Comparator.naturalOrder()));
+
+            try (Timer.Context ctx = m_flushTimer.time()) {
+                for (final String fileName : fileNames) {
+                    final List<String> updates = batch.m_updates.get(fileName);
+                    try {
+                        write(fileName, positions.get(fileName), updates);
+                    } finally {
+                        m_pendingUpdates.addAndGet(-updates.size());
+                        m_dirtyFiles.decrementAndGet();
+                    }
+                }
+            }
+        }
+
+        private void write(final String fileName, final long position, final List<String> updates) {
+            PooledFile file = m_pool.get(fileName);
+            if (file != null) {
+                m_poolHits.mark();
+            } else {
+                m_poolMisses.mark();
+                try {
+                    file = new PooledFile(new RrdDb(fileName, m_factory), position);
+                } catch (final IOException | RrdException e) {
+                    m_errors.mark();
+                    LOG.error("Failed to open file {}, discarding {} updates", fileName, updates.size(), e);
+                    return;
+                }
+                m_openFiles.incrementAndGet();
+                m_pool.put(fileName, file);
+            }
+
+            for (int i = 0; i < updates.size(); i++) {
+                final String update = updates.get(i);
+                if (i > 0 && sameTimestamp(updates.get(i - 1), update)) {
+                    m_updatesCoalesced.mark();
+                    continue;
+                }
+                try {
+                    file.m_db.createSample().setAndUpdate(update);
+                    m_updatesWritten.mark();
+                } catch (final RrdException | RuntimeException e) {
+                    m_errors.mark();
+                    LOG.warn("Error processing update for file {}: {}", fileName, update, e);
+                } catch (final IOException e) {
+                    m_errors.mark();
+                    LOG.error("Failed to write to file {}, discarding {} updates", fileName, updates.size() - i, e);
+                    m_pool.remove(fileName);
+                    close(fileName, file);
+                    return;
+                }
+            }
+        }
+
+        private void close(final String fileName, final PooledFile file) {
+            m_openFiles.decrementAndGet();
+            try {
+                file.m_db.close();
+            } catch (final IOException e) {
+                m_errors.mark();
+                LOG.error("Failed to close file {}", fileName, e);
+            }
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.jrobin.core.RrdBackend;
+import org.jrobin.core.RrdFileBackend;
+import org.jrobin.core.RrdFileBackendFactory;
+
+/**
+ * A JRobin backend factory that memory-maps the files it opens.
+ *
+ * Unlike JRobin's own NIO backend, the files aren't synced to disk on a timer
+ * or when they are closed: like with the FILE backend, writing the dirty pages
+ * out is left to the kernel. The mappings are not released explicitly either,
+ * which requires internal JDK classes, but when the buffer is garbage
+ * collected.
+ */
+public class MappedRrdBackendFactory extends RrdFileBackendFactory {
+    public static final String NAME = "MAPPED";
+
+    /** {@inheritDoc} */
+    @Override
+    protected RrdBackend open(final String path, final boolean readOnly) throws IOException {
+        return new MappedRrdBackend(path, readOnly);
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public String getFactoryName() {
+        return NAME;
+    }
+
+    private static class MappedRrdBackend extends RrdFileBackend {
+        private MappedByteBuffer m_buffer;
+
+        private MappedRrdBackend(final String path, final boolean readOnly) throws IOException {
+            super(path, readOnly);
+            map(file.length());
+        }
+
+        private void map(final long length) throws IOException {
+            m_buffer = file.getChannel().map(readOnly ? FileChannel.MapMode.READ_ONLY : FileChannel.MapMode.READ_WRITE, 0, length);
+        }
+
+        @Override
+        protected synchronized void setLength(final long length) throws IOException {
+            super.setLength(length);
+            map(length);
+        }
+
+        @Override
+        protected synchronized void write(final long offset, final byte[] b) throws IOException {
+            m_buffer.position((int) offset);
+            m_buffer.put(b);
+        }
+
+        @Override
+        protected synchronized void read(final long offset, final byte[] b) throws IOException {
+            m_buffer.position((int) offset);
+            m_buffer.get(b);
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            m_buffer = null;
+            super.close();
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+package org.opennms.netmgt.rrd.jrobin;
+
+import static com.jayway.awaitility.Awaitility.await;
+import static org.hamcrest.CoreMatchers.equalTo;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.jrobin.core.RrdBackendFactory;
+import org.jrobin.core.RrdDb;
+import org.jrobin.core.RrdDef;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opennms.netmgt.rrd.RrdAttributeType;
+import org.opennms.netmgt.rrd.RrdDataSource;
+
+/**
+ * Unit tests for the CoalescingJRobinRrdStrategy.
+ */
+public class CoalescingJRobinRrdStrategyTest {
+
+    @Rule
+    public TemporaryFolder m_tempFolder = new TemporaryFolder();
+
+    private CoalescingJRobinRrdStrategy m_strategy;
+
+    @Before
+    public void setUp() throws Exception {
+        final Properties properties = new Properties();
+        properties.setProperty("org.jrobin.core.RrdBackendFactory", "FILE");
+
+        m_strategy = new CoalescingJRobinRrdStrategy();
+        m_strategy.setConfigurationProperties(properties);
+        m_strategy.setWriteThreads(1);
+        m_strategy.setMaxOpenFiles(1);
+        m_strategy.setFlushInterval(TimeUnit.MINUTES.toMillis(1));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        m_strategy.destroy();
+    }
+
+    @Test
+    public void testUpdatesAreCoalescedAndWrittenOnDestroy() throws Exception {
+        final String foo = createRrdFile("foo");
+        final String bar = createRrdFile("bar");
+        final String baz = createRrdFile("baz");
+
+        m_strategy.updateFile(m_strategy.openFile(foo), "test", "1200:1");
+        m_strategy.updateFile(m_strategy.openFile(foo), "test", "1500:2");
+        m_strategy.updateFile(m_strategy.openFile(foo), "test", "1500:3");
+        m_strategy.updateFile(m_strategy.openFile(bar), "test", "1200:4");
+        m_strategy.updateFile(m_strategy.openFile(baz), "test", "1200:5");
+
+        // nothing gets written before the end of the flush interval
+        assertEquals(0, m_strategy.getMetrics().meter("updates.written").getCount());
+        assertEquals(3, m_strategy.getMetrics().getGauges().get("dirtyFiles").getValue());
+
+        m_strategy.destroy();
+
+        // like JRobin, the first of the updates that share a timestamp wins
+        assertLastUpdate(foo, 1500, 2.0);
+        assertLastUpdate(bar, 1200, 4.0);
+        assertLastUpdate(baz, 1200, 5.0);
+
+        assertEquals(4, m_strategy.getMetrics().meter("updates.written").getCount());
+        assertEquals(1, m_strategy.getMetrics().meter("updates.coalesced").getCount());
+        assertEquals(3, m_strategy.getMetrics().meter("pool.misses").getCount());
+        assertEquals(2, m_strategy.getMetrics().meter("pool.evictions").getCount());
+        assertEquals(0, m_strategy.getMetrics().getGauges().get("pool.open").getValue());
+        assertEquals(0, m_strategy.getMetrics().getGauges().get("dirtyFiles").getValue());
+        assertEquals(0L, m_strategy.getMetrics().getGauges().get("pendingUpdates").getValue());
+    }
+
+    @Test
+    public void testPromotedFilesAreWrittenRightAway() throws Exception {
+        final String foo = createRrdFile("foo");
+
+        m_strategy.updateFile(m_strategy.openFile(foo), "test", "1200:1");
+        m_strategy.promoteEnqueuedFiles(Collections.singleton(foo));
+
+        await().atMost(10, TimeUnit.SECONDS).until(() -> m_strategy.getMetrics().meter("updates.written").getCount(), equalTo(1L));
+
+        // the pooled handle is still open, the update must be visible to readers anyway
+        assertLastUpdate(foo, 1200, 1.0);
+        assertEquals(1, m_strategy.getMetrics().getGauges().get("pool.open").getValue());
+    }
+
+    @Test
+    public void testHandlesAreReused() throws Exception {
+        m_strategy.setFlushInterval(0);
+        final String foo = createRrdFile("foo");
+
+        for (int i = 1; i <= 3; i++) {
+            m_strategy.updateFile(m_strategy.openFile(foo), "test", (900 + 300 * i) + ":" + i);
+            final long written = i;
+            await().atMost(10, TimeUnit.SECONDS).until(() -> m_strategy.getMetrics().meter("updates.written").getCount(), equalTo(written));
+        }
+
+        assertLastUpdate(foo, 1800, 3.0);
+        assertEquals(1, m_strategy.getMetrics().meter("pool.misses").getCount());
+        assertEquals(2, m_strategy.getMetrics().meter("pool.hits").getCount());
+    }
+
+    @Test
+    public void testBadUpdatesDoNotAffectTheOthers() throws Exception {
+        final String foo = createRrdFile("foo");
+
+        m_strategy.updateFile(m_strategy.openFile(foo), "test", "1500:1");
+        // older than the previous update
+        m_strategy.updateFile(m_strategy.openFile(foo), "test", "1200:2");
+        m_strategy.updateFile(m_strategy.openFile(foo), "test", "1800:3");
+        m_strategy.destroy();
+
+        assertLastUpdate(foo, 1800, 3.0);
+        assertEquals(2, m_strategy.getMetrics().meter("updates.written").getCount());
+        assertEquals(1, m_strategy.getMetrics().meter("errors").getCount());
+    }
+
+    @Test
+    public void testUpdatesAreDroppedAboveTheHighWaterMark() throws Exception {
+        m_strategy.setMaxPendingUpdates(2);
+        final String foo = createRrdFile("foo");
+
+        for (int i = 1; i <= 3; i++) {
+            m_strategy.updateFile(m_strategy.openFile(foo), "test", (900 + 300 * i) + ":" + i);
+        }
+        m_strategy.destroy();
+
+        assertLastUpdate(foo, 1500, 2.0);
+        assertEquals(1, m_strategy.getMetrics().meter("updates.dropped").getCount());
+    }
+
+    @Test(expected=IllegalStateException.class)
+    public void testUpdatesAreRejectedOnceDestroyed() throws Exception {
+        final String foo = createRrdFile("foo");
+
+        m_strategy.updateFile(m_strategy.openFile(foo), "test", "1200:1");
+        m_strategy.destroy();
+        m_strategy.updateFile(m_strategy.openFile(foo), "test", "1500:2");
+    }
+
+    private String createRrdFile(final String name) throws Exception {
+        final RrdDef def = m_strategy.createDefinition("test", m_tempFolder.getRoot().getAbsolutePath(), name, 300,
+                Collections.singletonList(new RrdDataSource("value", RrdAttributeType.GAUGE, 600, "U", "U")),
+                Collections.singletonList("RRA:AVERAGE:0.5:1:100"));
+        m_strategy.createFile(def);
+        return def.getPath();
+    }
+
+    private static void assertLastUpdate(final String fileName, final long timestamp, final double value) throws Exception {
+        final RrdDb db = new RrdDb(fileName, true, RrdBackendFactory.getFactory("FILE"));
+        try {
+            assertEquals(timestamp, db.getLastUpdateTime());
+            assertEquals(value, db.getDatasource("value").getLastValue(), 0.0);
+        } finally {
+            db.close();
+        }
+    }
+}
@@ -31,6 +31,9 @@ package org.opennms.netmgt.collectd;
 import java.io.File;
 import java.net.InetAddress;
 import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 import org.opennms.core.logging.Logging;
 import org.opennms.core.utils.InetAddressUtils;
@@ -139,6 +142,11 @@ class CollectableService implements ReadyRunnable {
 
     private ThresholdingSession m_thresholdingSession;
 
+    /**
+     * Used to persist and threshold the collection sets when collecting asynchronously
+     */
+    private final Executor m_executor;
+
     /**
      * Constructs a new instance of a CollectableService object.
      *
@@ -153,6 +161,21 @@ class CollectableService implements ReadyRunnable {
     protected CollectableService(OnmsIpInterface iface, IpInterfaceDao ifaceDao, CollectionSpecification spec,
             Scheduler scheduler, SchedulingCompletedFlag schedulingCompletedFlag, PlatformTransactionManager transMgr,
             PersisterFactory persisterFactory, ThresholdingService thresholdingService) throws CollectionInitializationException {
+        this(iface, ifaceDao, spec, scheduler, schedulingCompletedFlag, transMgr, persisterFactory, thresholdingService, null);
+    }
+
+    /**
+     * Constructs a new instance of a CollectableService object.
+     *
+     * When an executor is given, the scheduler thread only starts the collection and is released
+     * while waiting for the collector. The collection set is then persisted and thresholded on
+     * the executor, and the service is rescheduled once it completes.
+     *
+     * @param executor executor used to complete asynchronous collections, or null to collect synchronously
+     */
+    protected CollectableService(OnmsIpInterface iface, IpInterfaceDao ifaceDao, CollectionSpecification spec,
+            Scheduler scheduler, SchedulingCompletedFlag schedulingCompletedFlag, PlatformTransactionManager transMgr,
+            PersisterFactory persisterFactory, ThresholdingService thresholdingService, Executor executor) throws CollectionInitializationException {
 
         m_agent = DefaultSnmpCollectionAgent.create(iface.getId(), ifaceDao, transMgr);
         m_spec = spec;
@@ -161,6 +184,7 @@ class CollectableService implements ReadyRunnable {
         m_ifaceDao = ifaceDao;
         m_transMgr = transMgr;
         m_persisterFactory = persisterFactory;
+        m_executor = executor;
 
         m_nodeId = iface.getNode().getId().intValue();
         m_status = CollectionStatus.SUCCEEDED;
@@ -319,6 +343,10 @@ class CollectableService implements ReadyRunnable {
      */
     @Override
     public void run() {
+        withLoggingContext(this::doRun);
+    }
+
+    private void withLoggingContext(Runnable runnable) {
         Logging.withPrefix(Collectd.LOG4J_CATEGORY, () -> {
             Logging.putThreadContext("service", m_spec.getServiceName());
             Logging.putThreadContext("ipAddress", m_agent.getAddress().getHostAddress());
@@ -326,7 +354,7 @@ class CollectableService implements ReadyRunnable {
             Logging.putThreadContext("nodeLabel", m_agent.getNodeLabel());
             Logging.putThreadContext("foreignSource", m_agent.getForeignSource());
             Logging.putThreadContext("foreignId", m_agent.getForeignId());
-            doRun();
+            runnable.run();
         });
     }
 
@@ -351,27 +379,49 @@ class CollectableService implements ReadyRunnable {
          * that the collection should be skipped.
          */
         if (!m_spec.scheduledOutage(m_agent)) {
+            if (m_executor != null) {
+                // Reschedule once the collection, persistence and thresholding are complete
+                doCollectionAsync().whenComplete((v, e) -> withLoggingContext(() -> {
+                    if (e == null) {
+                        updateStatus(CollectionStatus.SUCCEEDED, null);
+                    } else {
+                        handleFailure(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                    }
+                    reschedule();
+                }));
+                return;
+            }
             try {
                 doCollection();
                 updateStatus(CollectionStatus.SUCCEEDED, null);
-            } catch (CollectionTimedOut e) {
-                LOG.info(e.getMessage());
-                updateStatus(CollectionStatus.FAILED, e);
-            } catch (CollectionWarning e) {
-                LOG.warn(e.getMessage(), e);
-                updateStatus(CollectionStatus.FAILED, e);
-            } catch (CollectionUnknown e) {
-                LOG.warn(e.getMessage(), e);
-                // Omit any status updates
-            } catch (CollectionException e) {
-                LOG.error(e.getMessage(), e);
-                updateStatus(CollectionStatus.FAILED, e);
             } catch (Throwable e) {
-                LOG.error(e.getMessage(), e);
-                updateStatus(CollectionStatus.FAILED, new CollectionException("Collection failed unexpectedly: " + e.getClass().getSimpleName() + ": " + e.getMessage(), e));
+                handleFailure(e);
             }
         }
 
+        reschedule();
+    }
+
+    private void handleFailure(Throwable e) {
+        if (e instanceof CollectionTimedOut) {
+            LOG.info(e.getMessage());
+            updateStatus(CollectionStatus.FAILED, (CollectionException)e);
+        } else if (e instanceof CollectionWarning) {
+            LOG.warn(e.getMessage(), e);
+            updateStatus(CollectionStatus.FAILED, (CollectionException)e);
+        } else if (e instanceof CollectionUnknown) {
+            LOG.warn(e.getMessage(), e);
+            // Omit any status updates
+        } else if (e instanceof CollectionException) {
+            LOG.error(e.getMessage(), e);
+            updateStatus(CollectionStatus.FAILED, (CollectionException)e);
+        } else {
+            LOG.error(e.getMessage(), e);
+            updateStatus(CollectionStatus.FAILED, new CollectionException("Collection failed unexpectedly: " + e.getClass().getSimpleName() + ": " + e.getMessage(), e));
+        }
+    }
+
+    private void reschedule() {
         // If we are doing strict interval, determine how long the collection
         // has taken, so we can cut that off of the service interval
         long diff = 0;
@@ -416,49 +466,103 @@ class CollectableService implements ReadyRunnable {
     /**
      * Perform data collection.
      */
-	private void doCollection() throws CollectionException {
-		LOG.info("run: starting new collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
-		CollectionSet result = null;
-		try {
-		    result = m_spec.collect(m_agent);
-		    if (result != null) {
-                        Collectd.instrumentation().beginPersistingServiceData(m_spec.getPackageName(), m_nodeId, getHostAddress(), m_spec.getServiceName());
-                        try {
-                            CollectionSetVisitor persister = m_persisterFactory.createPersister(m_params, m_repository, result.ignorePersist(), false, false);
-                            if (Boolean.getBoolean(USE_COLLECTION_START_TIME_SYS_PROP)) {
-                                final ConstantTimeKeeper timeKeeper = new ConstantTimeKeeper(new Date(m_lastScheduledCollectionTime));
-                                // Wrap the persister visitor such that calls to CollectionResource.getTimeKeeper() return the given timeKeeper
-                                persister = wrapResourcesWithTimekeeper(persister, timeKeeper);
-                            }
-                            result.visit(persister);
-                        } finally {
-                            Collectd.instrumentation().endPersistingServiceData(m_spec.getPackageName(), m_nodeId, getHostAddress(), m_spec.getServiceName());
-                        }
+    private void doCollection() throws CollectionException {
+        LOG.info("run: starting new collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
+        try {
+            CollectionSet result = m_spec.collect(m_agent);
+            if (result != null) {
+                persist(result);
+                threshold(result);
+                if (!CollectionStatus.SUCCEEDED.equals(result.getStatus())) {
+                    throw new CollectionFailed(result.getStatus());
+                }
+            }
+        } catch (CollectionException e) {
+            LOG.warn("run: failed collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
+            throw e;
+        } catch (Throwable t) {
+            LOG.warn("run: failed collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
+            throw new CollectionException("An undeclared throwable was caught during data collection for interface " + m_nodeId + "/" + getHostAddress() + "/" + m_spec.getServiceName(), t);
+        }
+        LOG.info("run: finished collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
+    }
 
-                        // Do thresholding
-                        if (m_thresholdingSession != null) {
-                            try {
-                                m_thresholdingSession.accept(result);
-                            } catch (ThresholdInitializationException e) {
-                                LOG.warn("ThresholdInitializationException for {}. Thresholding skipped.", this, e);
-                            }
-                        } else {
-                            LOG.warn("No thresholding session for {}. Thresholding skipped.", this);
-                        }
+    /**
+     * Perform data collection without blocking the calling thread. The persistence and
+     * thresholding are chained to the collection and run on the executor.
+     *
+     * @return a future completed when the collection set was persisted and thresholded,
+     *         or completed exceptionally with a {@link CollectionException}
+     */
+    private CompletableFuture<Void> doCollectionAsync() {
+        LOG.info("run: starting new collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
+        CompletableFuture<CollectionSet> future;
+        try {
+            future = m_spec.collectAsync(m_agent);
+        } catch (Throwable t) {
+            future = new CompletableFuture<>();
+            future.completeExceptionally(t);
+        }
+        return future
+            .thenApplyAsync(result -> {
+                withLoggingContext(() -> persist(result));
+                return result;
+            }, m_executor)
+            .thenApply(result -> {
+                withLoggingContext(() -> threshold(result));
+                return result;
+            })
+            .thenAccept(result -> {
+                if (result != null && !CollectionStatus.SUCCEEDED.equals(result.getStatus())) {
+                    throw new CompletionException(new CollectionFailed(result.getStatus()));
+                }
+            })
+            .handle((v, e) -> {
+                if (e == null) {
+                    LOG.info("run: finished collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
+                    return null;
+                }
+                LOG.warn("run: failed collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
+                final Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+                if (cause instanceof CollectionException) {
+                    throw new CompletionException(cause);
+                }
+                throw new CompletionException(new CollectionException("An undeclared throwable was caught during data collection for interface " + m_nodeId + "/" + getHostAddress() + "/" + m_spec.getServiceName(), cause));
+            });
+    }
 
-                        if (!CollectionStatus.SUCCEEDED.equals(result.getStatus())) {
-                            throw new CollectionFailed(result.getStatus());
-                        }
-                    }
-                } catch (CollectionException e) {
-                    LOG.warn("run: failed collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
-                    throw e;
-		} catch (Throwable t) {
-                    LOG.warn("run: failed collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
-                    throw new CollectionException("An undeclared throwable was caught during data collection for interface " + m_nodeId + "/" + getHostAddress() + "/" + m_spec.getServiceName(), t);
-		}
-		LOG.info("run: finished collection for {}/{}/{}/{}", m_nodeId, getHostAddress(), m_spec.getServiceName(), m_spec.getPackageName());
-	}
+    private void persist(CollectionSet result) {
+        if (result == null) {
+            return;
+        }
+        Collectd.instrumentation().beginPersistingServiceData(m_spec.getPackageName(), m_nodeId, getHostAddress(), m_spec.getServiceName());
+        try {
+            CollectionSetVisitor persister = m_persisterFactory.createPersister(m_params, m_repository, result.ignorePersist(), false, false);
+            if (Boolean.getBoolean(USE_COLLECTION_START_TIME_SYS_PROP)) {
+                final ConstantTimeKeeper timeKeeper = new ConstantTimeKeeper(new Date(m_lastScheduledCollectionTime));
+                // Wrap the persister visitor such that calls to CollectionResource.getTimeKeeper() return the given timeKeeper
+                persister = wrapResourcesWithTimekeeper(persister, timeKeeper);
+            }
+            result.visit(persister);
+        } finally {
+            Collectd.instrumentation().endPersistingServiceData(m_spec.getPackageName(), m_nodeId, getHostAddress(), m_spec.getServiceName());
+        }
+    }
+
+    private void threshold(CollectionSet result) {
+        if (result == null) {
+            return;
+        }
+        if (m_thresholdingSession != null) {
+            try {
+                m_thresholdingSession.accept(result);
+            } catch (ThresholdInitializationException e) {
+                LOG.warn("ThresholdInitializationException for {}. Thresholding skipped.", this, e);
+            }
+        } else {
+            LOG.warn("No thresholding session for {}. Thresholding skipped.", this);
+        }
+    }
 
 	/**
      * Process any outstanding updates.
@@ -43,9 +43,12 @@ import java.util.ListIterator;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.apache.commons.lang.StringUtils;
 import org.opennms.core.logging.Logging;
+import org.opennms.core.sysprops.SystemProperties;
 import org.opennms.core.utils.ConfigFileConstants;
 import org.opennms.core.utils.InsufficientInformationException;
 import org.opennms.netmgt.collection.api.CollectionInitializationException;
@@ -83,6 +86,7 @@ import org.opennms.netmgt.model.events.EventUtils;
 import org.opennms.netmgt.scheduler.LegacyScheduler;
 import org.opennms.netmgt.scheduler.ReadyRunnable;
 import org.opennms.netmgt.scheduler.Scheduler;
+import org.opennms.netmgt.scheduler.TimingWheelScheduler;
 import org.opennms.netmgt.snmp.InetAddrUtils;
 import org.opennms.netmgt.threshd.api.ThresholdingService;
 import org.slf4j.Logger;
@@ -95,6 +99,7 @@ import org.springframework.util.Assert;
 import org.springframework.util.ClassUtils;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 /**
  * <p>Collectd class.</p>
@@ -131,6 +136,24 @@ public class Collectd extends AbstractServiceDaemon implements
      * Log4j category
      */
     static final String LOG4J_CATEGORY = "collectd";
+
+    /**
+     * System property used to select the scheduler implementation
+     */
+    private static final String SCHEDULER_PROPERTY = "org.opennms.netmgt.collectd.scheduler";
+
+    private static final String TIMING_WHEEL_SCHEDULER = "timing-wheel";
+
+    /**
+     * System property used to enable the asynchronous collections
+     */
+    protected static final String ASYNC_PROPERTY = "org.opennms.netmgt.collectd.async";
+
+    /**
+     * System property used to size the scheduler and completion pools when
+     * collecting asynchronously, defaults to twice the number of processors
+     */
+    protected static final String ASYNC_THREADS_PROPERTY = "org.opennms.netmgt.collectd.async.threads";
     
     /**
      * Instantiated service collectors specified in config file
@@ -147,6 +170,11 @@ public class Collectd extends AbstractServiceDaemon implements
      */
     private volatile Scheduler m_scheduler;
 
+    /**
+     * Persists and thresholds the collection sets when collecting asynchronously
+     */
+    private volatile ExecutorService m_asyncExecutor;
+
     /**
      * Indicates if scheduling of existing interfaces has been completed
      */
@@ -337,7 +365,20 @@ public class Collectd extends AbstractServiceDaemon implements
             // Create a scheduler
             try {
                 LOG.debug("init: Creating collectd scheduler");
-                setScheduler(new LegacyScheduler("Collectd", m_collectdConfigFactory.getCollectdConfig().getThreads()));
+                int threads = m_collectdConfigFactory.getCollectdConfig().getThreads();
+                if (Boolean.getBoolean(ASYNC_PROPERTY)) {
+                    // The scheduler threads are only used to start the collections
+                    threads = SystemProperties.getInteger(ASYNC_THREADS_PROPERTY, 2 * Runtime.getRuntime().availableProcessors());
+                    LOG.info("init: Collecting asynchronously using {} threads", threads);
+                    m_asyncExecutor = Executors.newFixedThreadPool(threads, new ThreadFactoryBuilder()
+                            .setNameFormat("Collectd-Async-%d")
+                            .build());
+                }
+                if (TIMING_WHEEL_SCHEDULER.equalsIgnoreCase(System.getProperty(SCHEDULER_PROPERTY))) {
+                    setScheduler(new TimingWheelScheduler("Collectd", threads));
+                } else {
+                    setScheduler(new LegacyScheduler("Collectd", threads));
+                }
             } catch (final RuntimeException e) {
                 LOG.error("init: Failed to create collectd scheduler", e);
                 throw e;
@@ -366,6 +407,10 @@ public class Collectd extends AbstractServiceDaemon implements
         deinstallMessageSelectors();
 
         setScheduler(null);
+        if (m_asyncExecutor != null) {
+            m_asyncExecutor.shutdown();
+            m_asyncExecutor = null;
+        }
     }
 
     /** {@inheritDoc} */
@@ -536,7 +581,8 @@ public class Collectd extends AbstractServiceDaemon implements
                     m_schedulingCompletedFlag,
                     m_transTemplate.getTransactionManager(),
                     m_persisterFactory,
-                    m_thresholdingService
+                    m_thresholdingService,
+                    m_asyncExecutor
                 );
 
                 // Add new collectable service to the collectable service list.
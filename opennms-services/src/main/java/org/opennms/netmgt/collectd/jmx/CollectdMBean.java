@@ -91,4 +91,24 @@ public interface CollectdMBean extends BaseOnmsMBean {
      * @return The number of pending tasks
      */
     public long getTaskQueueRemainingCapacity();
+
+    /**
+     * @return The number of collection tasks waiting on the scheduler for their next run
+     */
+    public long getSchedulerBacklog();
+
+    /**
+     * @return The cumulative number of collection tasks that were started later than scheduled
+     */
+    public long getSchedulerLateTasks();
+
+    /**
+     * @return The largest delay between the scheduled and the actual start of a collection task, in milliseconds
+     */
+    public long getSchedulerMaxLateness();
+
+    /**
+     * @return The average delay between the scheduled and the actual start of a collection task, in milliseconds
+     */
+    public double getSchedulerAverageLateness();
 }
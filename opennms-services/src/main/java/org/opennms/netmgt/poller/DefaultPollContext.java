@@ -94,6 +94,12 @@ public class DefaultPollContext implements PollContext, EventListener {
      */
     public static final boolean DISABLE_POLL_TIMESTAMP_TRACKING = Boolean.getBoolean("org.opennms.netmgt.poller.disablePollTimestampTracking");
 
+    /**
+     * When enabled, the services of a node poll concurrently and only the application of their results
+     * to the node's outage state is serialized, see {@link org.opennms.netmgt.poller.pollables.PollableNode#post}.
+     */
+    public static final boolean POLL_MAILBOX_ENABLED = Boolean.getBoolean("org.opennms.netmgt.poller.mailbox");
+
     private volatile PollerConfig m_pollerConfig;
     private volatile QueryManager m_queryManager;
     private volatile EventIpcManager m_eventManager;
@@ -394,6 +400,16 @@ public class DefaultPollContext implements PollContext, EventListener {
         return getPollerConfig().isServiceUnresponsiveEnabled();
     }
 
+    /**
+     * <p>isPollMailboxEnabled</p>
+     *
+     * @return a boolean.
+     */
+    @Override
+    public boolean isPollMailboxEnabled() {
+        return POLL_MAILBOX_ENABLED;
+    }
+
     /* (non-Javadoc)
      * @see org.opennms.netmgt.eventd.EventListener#onEvent(org.opennms.netmgt.events.api.model.IEvent)
      */
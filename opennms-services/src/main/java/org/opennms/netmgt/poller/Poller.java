@@ -63,6 +63,7 @@ import org.opennms.netmgt.poller.pollables.PollableVisitorAdaptor;
 import org.opennms.netmgt.scheduler.LegacyScheduler;
 import org.opennms.netmgt.scheduler.Schedule;
 import org.opennms.netmgt.scheduler.Scheduler;
+import org.opennms.netmgt.scheduler.TimingWheelScheduler;
 import org.opennms.netmgt.threshd.api.ThresholdingService;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -86,9 +87,16 @@ public class Poller extends AbstractServiceDaemon {
 
     private static final String LOG4J_CATEGORY = "poller";
 
+    /**
+     * System property used to select the scheduler implementation.
+     */
+    private static final String SCHEDULER_PROPERTY = "org.opennms.netmgt.poller.scheduler";
+
+    private static final String TIMING_WHEEL_SCHEDULER = "timing-wheel";
+
     private boolean m_initialized = false;
 
-    private LegacyScheduler m_scheduler = null;
+    private Scheduler m_scheduler = null;
 
     private PollerEventProcessor m_eventProcessor;
 
@@ -270,9 +278,9 @@ public class Poller extends AbstractServiceDaemon {
     /**
      * <p>setScheduler</p>
      *
-     * @param scheduler a {@link org.opennms.netmgt.scheduler.LegacyScheduler} object.
+     * @param scheduler a {@link org.opennms.netmgt.scheduler.Scheduler} object.
      */
-    public void setScheduler(LegacyScheduler scheduler) {
+    public void setScheduler(Scheduler scheduler) {
         m_scheduler = scheduler;
     }
 
@@ -335,7 +343,11 @@ public class Poller extends AbstractServiceDaemon {
         try {
             LOG.debug("init: Creating poller scheduler");
 
-            setScheduler(new LegacyScheduler("Poller", getPollerConfig().getThreads()));
+            if (TIMING_WHEEL_SCHEDULER.equalsIgnoreCase(System.getProperty(SCHEDULER_PROPERTY))) {
+                setScheduler(new TimingWheelScheduler("Poller", getPollerConfig().getThreads()));
+            } else {
+                setScheduler(new LegacyScheduler("Poller", getPollerConfig().getThreads()));
+            }
         } catch (RuntimeException e) {
             LOG.error("init: Failed to create poller scheduler", e);
             throw e;
@@ -32,6 +32,7 @@ import java.util.concurrent.ThreadPoolExecutor;
 
 import org.opennms.netmgt.daemon.AbstractSpringContextJmxServiceDaemon;
 import org.opennms.netmgt.scheduler.LegacyScheduler;
+import org.opennms.netmgt.scheduler.TimingWheelScheduler;
 
 /**
  * <p>Pollerd class.</p>
@@ -160,10 +161,51 @@ public class Pollerd extends AbstractSpringContextJmxServiceDaemon<org.opennms.n
     }
     
     private ThreadPoolExecutor getExecutor() {
+        if (getDaemon().getScheduler() instanceof TimingWheelScheduler) {
+            return (ThreadPoolExecutor) ((TimingWheelScheduler) getDaemon().getScheduler()).getRunner();
+        }
         return (ThreadPoolExecutor) ((LegacyScheduler) getDaemon().getScheduler()).getRunner();
     }
     
     private boolean getThreadPoolStatsStatus() {
-        return (getDaemon().getScheduler() instanceof LegacyScheduler);
+        return (getDaemon().getScheduler() instanceof LegacyScheduler || getDaemon().getScheduler() instanceof TimingWheelScheduler);
+    }
+
+    @Override
+    public long getSchedulerBacklog() {
+        if (getDaemon().getScheduler() instanceof TimingWheelScheduler) {
+            return ((TimingWheelScheduler) getDaemon().getScheduler()).getScheduled();
+        } else if (getDaemon().getScheduler() instanceof LegacyScheduler) {
+            return ((LegacyScheduler) getDaemon().getScheduler()).getScheduled();
+        } else {
+            return 0L;
+        }
+    }
+
+    @Override
+    public long getSchedulerLateTasks() {
+        if (getDaemon().getScheduler() instanceof TimingWheelScheduler) {
+            return ((TimingWheelScheduler) getDaemon().getScheduler()).getNumTasksLate();
+        } else {
+            return 0L;
+        }
+    }
+
+    @Override
+    public long getSchedulerMaxLateness() {
+        if (getDaemon().getScheduler() instanceof TimingWheelScheduler) {
+            return ((TimingWheelScheduler) getDaemon().getScheduler()).getMaxLateness();
+        } else {
+            return 0L;
+        }
+    }
+
+    @Override
+    public double getSchedulerAverageLateness() {
+        if (getDaemon().getScheduler() instanceof TimingWheelScheduler) {
+            return ((TimingWheelScheduler) getDaemon().getScheduler()).getAverageLateness();
+        } else {
+            return 0.0;
+        }
     }
 }
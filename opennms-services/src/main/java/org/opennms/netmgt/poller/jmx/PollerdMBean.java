@@ -93,4 +93,24 @@ public interface PollerdMBean extends BaseOnmsMBean {
      * @return The number of open slots on our ExecutorService queue.
      */
     public long getTaskQueueRemainingCapacity();
+
+    /**
+     * @return The number of polling tasks waiting on the scheduler for their next run
+     */
+    public long getSchedulerBacklog();
+
+    /**
+     * @return The cumulative number of polling tasks that were started later than scheduled
+     */
+    public long getSchedulerLateTasks();
+
+    /**
+     * @return The largest delay between the scheduled and the actual start of a polling task, in milliseconds
+     */
+    public long getSchedulerMaxLateness();
+
+    /**
+     * @return The average delay between the scheduled and the actual start of a polling task, in milliseconds
+     */
+    public double getSchedulerAverageLateness();
 }
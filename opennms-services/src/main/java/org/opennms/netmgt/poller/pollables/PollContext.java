@@ -106,5 +106,14 @@ public interface PollContext {
      */
     public boolean isServiceUnresponsiveEnabled();
 
+    /**
+     * <p>isPollMailboxEnabled</p>
+     *
+     * @return true if services poll outside of the node's tree lock and post
+     * their results to the node's mailbox rather than holding the lock while
+     * the monitor runs.
+     */
+    public boolean isPollMailboxEnabled();
+
     void trackPoll(PollableService service, PollStatus result);
 }
@@ -32,7 +32,12 @@ import java.net.InetAddress;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.opennms.netmgt.events.api.EventConstants;
@@ -53,6 +58,23 @@ public class PollableNode extends PollableContainer {
     private String m_nodeLabel;
     private final String m_nodeLocation;
     private final ReentrantLock m_lock = new ReentrantLock(true);
+    private final Queue<PostedStatus> m_mailbox = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger m_mailboxSize = new AtomicInteger(0);
+    private final AtomicLong m_statusSequence = new AtomicLong(0);
+    private volatile long m_statusChangeSequence = 0;
+
+    private static final class PostedStatus {
+        private final PollableService m_service;
+        private final PollStatus m_status;
+        private final long m_pollStarted;
+        private final CompletableFuture<PollStatus> m_applied = new CompletableFuture<>();
+
+        private PostedStatus(PollableService service, PollStatus status, long pollStarted) {
+            m_service = service;
+            m_status = status;
+            m_pollStarted = pollStarted;
+        }
+    }
 
     /**
      * <p>Constructor for PollableNode.</p>
@@ -292,4 +314,92 @@ public class PollableNode extends PollableContainer {
         return retVal[0];
     }
 
+    /**
+     * Posts the result of a poll that was made outside of the tree lock to
+     * the node's mailbox.
+     *
+     * The mailbox has a single writer: the thread that posts to an empty
+     * mailbox drains it, applying each result under the tree lock exactly
+     * as {@link PollableService#doRun()} would have, while threads posting
+     * to a busy mailbox return immediately.  Since results are applied one
+     * at a time through the same cause/effect logic, the outages and events
+     * are the same as if the polls had been serialized by the lock, but the
+     * services no longer wait for each other while their monitors run.
+     *
+     * Results are applied in the order they were posted rather than the
+     * order they were polled, so a result is discarded if the node or the
+     * service changed status after its poll started: the cause/effect logic
+     * has polled the service again since and knows better.
+     *
+     * @param svc the service that was polled
+     * @param status the status returned by its monitor
+     * @param pollStarted the {@link #getStatusSequence()} of this node when
+     * the poll started
+     * @return a future completed with the status of the service once the
+     * result has been applied
+     */
+    public CompletableFuture<PollStatus> post(final PollableService svc, final PollStatus status, final long pollStarted) {
+        final PostedStatus posted = new PostedStatus(svc, status, pollStarted);
+        m_mailbox.add(posted);
+        if (m_mailboxSize.getAndIncrement() == 0) {
+            do {
+                apply(m_mailbox.poll());
+            } while (m_mailboxSize.decrementAndGet() != 0);
+        }
+        return posted.m_applied;
+    }
+
+    /**
+     * <p>getMailboxSize</p>
+     *
+     * @return the number of posted results that have not been applied yet
+     */
+    public int getMailboxSize() {
+        return m_mailboxSize.get();
+    }
+
+    /**
+     * <p>getStatusSequence</p>
+     *
+     * @return the number of status changes of this node and its services so
+     * far, used to order polls against status changes
+     */
+    public long getStatusSequence() {
+        return m_statusSequence.get();
+    }
+
+    long nextStatusSequence() {
+        return m_statusSequence.incrementAndGet();
+    }
+
+    /** {@inheritDoc} */
+    @Override
+    public void updateStatus(PollStatus newStatus) {
+        final boolean changed = !getStatus().equals(newStatus);
+        super.updateStatus(newStatus);
+        if (changed) {
+            m_statusChangeSequence = nextStatusSequence();
+        }
+    }
+
+    private void apply(final PostedStatus posted) {
+        try {
+            if (posted.m_service.isDeleted()) {
+                LOG.debug("Discarding {} posted for deleted service {}", posted.m_status, posted.m_service);
+                posted.m_applied.complete(posted.m_service.getStatus());
+                return;
+            }
+            posted.m_applied.complete(withTreeLock(() -> {
+                if (Math.max(m_statusChangeSequence, posted.m_service.getStatusChangeSequence()) > posted.m_pollStarted) {
+                    LOG.debug("Discarding {} posted for {}, its status changed while it was polled", posted.m_status, posted.m_service);
+                    return posted.m_service.getStatus();
+                }
+                return posted.m_service.applyPolledStatus(posted.m_status);
+            }));
+        } catch (Throwable t) {
+            LOG.error("Failed to apply {} posted for {}", posted.m_status, posted.m_service, t);
+            posted.m_applied.completeExceptionally(t);
+        }
+    }
+
 }
@@ -31,6 +31,7 @@ package org.opennms.netmgt.poller.pollables;
 import java.net.InetAddress;
 import java.util.Date;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 import org.opennms.core.logging.Logging;
 import org.opennms.netmgt.events.api.EventConstants;
@@ -73,6 +74,8 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
     private volatile PollStatus m_oldStatus;
     private volatile Schedule m_schedule;
     private volatile long m_statusChangeTime = 0L;
+    private volatile PollStatus m_polledStatus;
+    private volatile long m_statusChangeSequence = 0L;
     /**
      * <p>Constructor for PollableService.</p>
      *
@@ -188,7 +191,12 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
      */
     @Override
     public PollStatus poll() {
-        PollStatus newStatus = m_pollConfig.poll();
+        PollStatus newStatus = m_polledStatus;
+        if (newStatus != null) {
+            m_polledStatus = null;
+        } else {
+            newStatus = m_pollConfig.poll();
+        }
         if (!newStatus.isUnknown()) { 
             updateStatus(newStatus);
         }
@@ -311,6 +319,7 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
         if (!currentStatus.equals(newStatus)) {
             m_oldStatus = getStatus();
             setStatusChangeTime(m_pollConfig.getCurrentTime());
+            m_statusChangeSequence = getNode().nextStatusSequence();
         }
             
         
@@ -399,7 +408,14 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
             long startDate = System.currentTimeMillis();
             LOG.debug("Start Scheduled Poll of service {}", this);
             PollStatus status;
-            if (getContext().isNodeProcessingEnabled()) {
+            if (getContext().isNodeProcessingEnabled() && getContext().isPollMailboxEnabled()) {
+                // Poll without the tree lock, the node applies the result once the services ahead of it are done
+                final long pollStarted = getNode().getStatusSequence();
+                final PollStatus polledStatus = m_pollConfig.poll();
+                final CompletableFuture<PollStatus> applied = getNode().post(this, polledStatus, pollStarted);
+                status = timeout > 0 ? applied.getNow(getStatus()) : applied.join();
+            }
+            else if (getContext().isNodeProcessingEnabled()) {
                 PollRunner r = new PollRunner();
                 try {
                     withTreeLock(r, timeout);
@@ -421,6 +437,31 @@ public class PollableService extends PollableElement implements ReadyRunnable, M
         }
     }
 
+    /**
+     * Applies a status that was polled outside of the tree lock, used by
+     * {@link PollableNode#post} with the tree lock held.  The status stands
+     * in for the first poll of this service so that the cause/effect logic
+     * runs as it does for {@link #doRun()}, and is dropped if that logic
+     * does not poll the service, e.g. when its interface is down.
+     *
+     * @param polledStatus the status returned by the monitor
+     * @return the status of the service once applied
+     */
+    long getStatusChangeSequence() {
+        return m_statusChangeSequence;
+    }
+
+    PollStatus applyPolledStatus(PollStatus polledStatus) {
+        m_polledStatus = polledStatus;
+        try {
+            doPoll();
+            getNode().processStatusChange(new Date());
+            return getStatus();
+        } finally {
+            m_polledStatus = null;
+        }
+    }
+
 	/**
      * <p>delete</p>
      */
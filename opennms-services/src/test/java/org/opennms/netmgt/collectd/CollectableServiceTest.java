@@ -31,8 +31,11 @@ package org.opennms.netmgt.collectd;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -42,6 +45,14 @@ import java.io.IOException;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.jrobin.core.RrdDb;
 import org.jrobin.core.RrdException;
@@ -58,6 +69,7 @@ import org.opennms.netmgt.collection.api.CollectionAgent;
 import org.opennms.netmgt.collection.api.CollectionException;
 import org.opennms.netmgt.collection.api.CollectionInitializationException;
 import org.opennms.netmgt.collection.api.CollectionSet;
+import org.opennms.netmgt.collection.api.CollectionTimedOut;
 import org.opennms.netmgt.collection.api.ServiceParameters;
 import org.opennms.netmgt.collection.core.CollectionSpecification;
 import org.opennms.netmgt.collection.persistence.rrd.RrdPersisterFactory;
@@ -66,6 +78,7 @@ import org.opennms.netmgt.collection.support.builder.NodeLevelResource;
 import org.opennms.netmgt.dao.api.IpInterfaceDao;
 import org.opennms.netmgt.dao.api.ResourceStorageDao;
 import org.opennms.netmgt.dao.mock.MockEventIpcManager;
+import org.opennms.netmgt.events.api.EventConstants;
 import org.opennms.netmgt.events.api.EventIpcManagerFactory;
 import org.opennms.netmgt.model.OnmsIpInterface;
 import org.opennms.netmgt.rrd.RrdRepository;
@@ -222,7 +235,79 @@ public class CollectableServiceTest {
                 lastUpdateTimeInSecs < (afterInSecs - (collectionDelayInSecs / 2d)));
     }
 
+    /**
+     * Verifies that the service is only rescheduled once the asynchronous
+     * collection and the persistence of the collection set are complete.
+     */
+    @Test
+    public void collectAsynchronously() throws CollectionInitializationException, IOException, InterruptedException, ExecutionException, TimeoutException {
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            createCollectableService(executor);
+
+            Long serviceIntervalInMs = 300 * 1000L;
+            when(spec.getInterval()).thenReturn(serviceIntervalInMs);
+            final CompletableFuture<CollectionSet> future = new CompletableFuture<>();
+            final AtomicReference<CollectionAgent> agent = new AtomicReference<>();
+            when(spec.collectAsync(any())).then(new Answer<CompletableFuture<CollectionSet>>() {
+                @Override
+                public CompletableFuture<CollectionSet> answer(InvocationOnMock invocation) {
+                    agent.set((CollectionAgent)invocation.getArguments()[0]);
+                    return future;
+                }
+            });
+
+            // The scheduler thread is released before the collection completes
+            service.run();
+            verify(scheduler, never()).schedule(anyLong(), any());
+
+            File nodeDir = fileAnticipator.expecting(getSnmpRrdDirectory(), "1");
+            fileAnticipator.expecting(nodeDir, "myCounter" + rrdStrategy.getDefaultFileExtension());
+            fileAnticipator.expecting(nodeDir, "myCounter" + ".meta");
+
+            future.complete(new CollectionSetBuilder(agent.get())
+                    .withNumericAttribute(new NodeLevelResource(agent.get().getNodeId()), "mibGroup", "myCounter", 1000, AttributeType.COUNTER)
+                    .build());
+
+            ArgumentCaptor<Long> intervalCaptor = ArgumentCaptor.forClass(Long.class);
+            verify(scheduler, timeout(5000).times(1)).schedule(intervalCaptor.capture(), any());
+            assertEquals(serviceIntervalInMs, intervalCaptor.getValue());
+
+            // Persistence happened on the executor before rescheduling
+            executor.submit(() -> {}).get(5, TimeUnit.SECONDS);
+            assertTrue(new File(nodeDir, "myCounter" + ".meta").canRead());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Verifies that failed asynchronous collections are rescheduled and
+     * report the failure.
+     */
+    @Test
+    public void rescheduleFailedAsynchronousCollections() throws CollectionInitializationException, IOException {
+        final MockEventIpcManager eventIpcManager = new MockEventIpcManager();
+        EventIpcManagerFactory.setIpcManager(eventIpcManager);
+        createCollectableService(Runnable::run);
+
+        when(spec.getInterval()).thenReturn(1000L);
+        final CompletableFuture<CollectionSet> future = new CompletableFuture<>();
+        future.completeExceptionally(new CollectionTimedOut("timed out"));
+        when(spec.collectAsync(any())).thenReturn(future);
+
+        service.run();
+        verify(scheduler, times(1)).schedule(anyLong(), any());
+        assertEquals(1, eventIpcManager.getEventAnticipator().getUnanticipatedEvents().stream()
+                .filter(e -> EventConstants.DATA_COLLECTION_FAILED_EVENT_UEI.equals(e.getUei()))
+                .count());
+    }
+
     private void createCollectableService() throws CollectionInitializationException, IOException {
+        createCollectableService(null);
+    }
+
+    private void createCollectableService(Executor executor) throws CollectionInitializationException, IOException {
         // Mock it all!
         OnmsIpInterface iface = mock(OnmsIpInterface.class, RETURNS_DEEP_STUBS);
         IpInterfaceDao ifaceDao = mock(IpInterfaceDao.class);
@@ -247,7 +332,7 @@ public class CollectableServiceTest {
 
         ThresholdingService mockThresholdingService = mock(ThresholdingService.class, RETURNS_DEEP_STUBS);
 
-        service = new CollectableService(iface, ifaceDao, spec, scheduler, schedulingCompletedFlag, transMgr, persisterFactory, mockThresholdingService);
+        service = new CollectableService(iface, ifaceDao, spec, scheduler, schedulingCompletedFlag, transMgr, persisterFactory, mockThresholdingService, executor);
     }
 
     private RrdRepository createRrdRepository() throws IOException {
@@ -60,6 +60,7 @@ public class MockPollContext implements PollContext, EventListener {
     private boolean m_nodeProcessingEnabled;
     private boolean m_pollingAllIfCritServiceUndefined;
     private boolean m_serviceUnresponsiveEnabled;
+    private boolean m_pollMailboxEnabled;
     private EventIpcManager m_eventMgr;
     private MockDatabase m_db;
     private MockNetwork m_mockNetwork;
@@ -181,6 +182,15 @@ public class MockPollContext implements PollContext, EventListener {
         m_serviceUnresponsiveEnabled = serviceUnresponsiveEnabled;
     }
 
+    @Override
+    public boolean isPollMailboxEnabled() {
+        return m_pollMailboxEnabled;
+    }
+
+    public void setPollMailboxEnabled(boolean pollMailboxEnabled) {
+        m_pollMailboxEnabled = pollMailboxEnabled;
+    }
+
     @Override
     public String getName() {
         return "MockPollContext";
@@ -0,0 +1,324 @@
+/*******************************************************************************
+ * This file is part of OpenNMS(R).
+ *
+ * Copyright (C) 2021 The OpenNMS Group, Inc.
+ * OpenNMS(R) is Copyright (C) 1999-2021 The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is a registered trademark of The OpenNMS Group, Inc.
+ *
+ * OpenNMS(R) is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as published
+ * by the Free Software Foundation, either version 3 of the License,
+ * or (at your option) any later version.
+ *
+ * OpenNMS(R) is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with OpenNMS(R).  If not, see:
+ *      http://www.gnu.org/licenses/
+ *
+ * For more information contact:
+ *     OpenNMS(R) Licensing <license@opennms.org>
+ *     http://www.opennms.org/
+ *     http://www.opennms.com/
+ *******************************************************************************/
+
+
+package org.opennms.netmgt.poller.pollables;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+import org.opennms.core.utils.InetAddressUtils;
+import org.opennms.netmgt.events.api.EventConstants;
+import org.opennms.netmgt.model.events.EventBuilder;
+import org.opennms.netmgt.poller.PollStatus;
+import org.opennms.netmgt.scheduler.Schedule;
+import org.opennms.netmgt.xml.event.Event;
+
+public class PollableNodeMailboxTest {
+
+    private static final InetAddress IF1 = InetAddressUtils.addr("192.168.1.1");
+    private static final InetAddress IF2 = InetAddressUtils.addr("192.168.1.2");
+
+    private final ExecutorService m_executor = Executors.newCachedThreadPool();
+
+    @After
+    public void tearDown() {
+        m_executor.shutdownNow();
+    }
+
+    @Test(timeout=30000)
+    public void servicesPollConcurrently() throws Exception {
+        final TestContext context = new TestContext(true);
+        final TestNode node = new TestNode(context);
+
+        // Every monitor waits for all of the others, which can only happen when none of them holds the tree lock
+        final CountDownLatch polling = new CountDownLatch(node.getServices().size());
+        node.setMonitor(svc -> {
+            polling.countDown();
+            assertTrue(polling.await(10, TimeUnit.SECONDS));
+            return PollStatus.down();
+        });
+
+        final List<Future<PollStatus>> polls = new ArrayList<>();
+        for (final PollableService svc : node.getServices()) {
+            polls.add(m_executor.submit(() -> svc.doRun()));
+        }
+        for (final Future<PollStatus> poll : polls) {
+            poll.get();
+        }
+
+        assertEquals(0, node.getNode().getMailboxSize());
+        assertTrue(node.getNode().getStatus().isDown());
+        assertEquals(Collections.singletonList(EventConstants.NODE_DOWN_EVENT_UEI), context.getEvents());
+        assertEquals(3, context.getOpenOutages().size());
+    }
+
+    @Test
+    public void appliesOutagesLikeTheTreeLock() throws Exception {
+        final List<String> withTreeLock = runScenario(new TestContext(false));
+        assertTrue(withTreeLock.contains(EventConstants.NODE_LOST_SERVICE_EVENT_UEI));
+        assertTrue(withTreeLock.contains(EventConstants.INTERFACE_DOWN_EVENT_UEI));
+        assertTrue(withTreeLock.contains(EventConstants.NODE_DOWN_EVENT_UEI));
+        assertTrue(withTreeLock.contains(EventConstants.NODE_UP_EVENT_UEI));
+        assertEquals(withTreeLock, runScenario(new TestContext(true)));
+    }
+
+    @Test(timeout=30000)
+    public void appliesConcurrentResultsOnce() throws Exception {
+        final TestContext context = new TestContext(true);
+        final TestNode node = new TestNode(context);
+        node.setMonitor(svc -> {
+            Thread.sleep(5);
+            return PollStatus.down();
+        });
+
+        final List<Future<?>> polls = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            for (final PollableService svc : node.getServices()) {
+                polls.add(m_executor.submit(() -> svc.run()));
+            }
+        }
+        for (final Future<?> poll : polls) {
+            poll.get();
+        }
+
+        assertEquals(0, node.getNode().getMailboxSize());
+        assertEquals(Collections.singletonList(EventConstants.NODE_DOWN_EVENT_UEI), context.getEvents());
+        assertEquals(3, context.getOpenOutages().size());
+    }
+
+    @Test(timeout=30000)
+    public void discardsResultsPolledBeforeAStatusChange() throws Exception {
+        final TestContext context = new TestContext(true);
+        final TestNode node = new TestNode(context);
+        final PollableService icmp1 = node.getServices().get(0);
+        final PollableService icmp2 = node.getServices().get(2);
+
+        // The first poll of IF2/ICMP sees it up but only posts once the node has gone down
+        final CountDownLatch polling = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger icmp2Polls = new AtomicInteger(0);
+        node.setMonitor(svc -> {
+            if (svc == icmp2 && icmp2Polls.getAndIncrement() == 0) {
+                polling.countDown();
+                assertTrue(release.await(10, TimeUnit.SECONDS));
+                return PollStatus.up();
+            }
+            return PollStatus.down();
+        });
+
+        final Future<PollStatus> stale = m_executor.submit(() -> icmp2.doRun());
+        assertTrue(polling.await(10, TimeUnit.SECONDS));
+
+        // IF1/ICMP going down polls IF2/ICMP again, which is down by now
+        icmp1.doRun();
+        assertEquals(2, icmp2Polls.get());
+        assertTrue(node.getNode().getStatus().isDown());
+
+        release.countDown();
+        assertTrue(stale.get().isDown());
+
+        assertEquals(0, node.getNode().getMailboxSize());
+        assertTrue(node.getNode().getStatus().isDown());
+        assertEquals(Collections.singletonList(EventConstants.NODE_DOWN_EVENT_UEI), context.getEvents());
+        assertEquals(3, context.getOpenOutages().size());
+        assertEquals(Collections.emptyList(), context.getResolvedOutages());
+    }
+
+    /**
+     * Takes the node through a service outage, an interface outage, a node
+     * outage and back up, and returns the events and outages recorded.
+     */
+    private static List<String> runScenario(final TestContext context) {
+        final TestNode node = new TestNode(context);
+        final Map<String, PollStatus> statuses = new ConcurrentHashMap<>();
+        node.setMonitor(svc -> statuses.getOrDefault(svc.getIpAddr() + "/" + svc.getSvcName(), PollStatus.up()));
+
+        node.pollAll();
+        statuses.put("192.168.1.1/HTTP", PollStatus.down());
+        node.pollAll();
+        statuses.put("192.168.1.1/ICMP", PollStatus.down());
+        node.pollAll();
+        statuses.put("192.168.1.2/ICMP", PollStatus.down());
+        node.pollAll();
+        statuses.clear();
+        node.pollAll();
+
+        final List<String> recorded = new ArrayList<>(context.getEvents());
+        recorded.addAll(context.getOpenOutages());
+        recorded.addAll(context.getResolvedOutages());
+        return recorded;
+    }
+
+    @FunctionalInterface
+    private interface Monitor {
+        PollStatus poll(PollableService svc) throws Exception;
+    }
+
+    private static class TestNode {
+        private final PollableNode m_node;
+        private final List<PollableService> m_services = new ArrayList<>();
+        private volatile Monitor m_monitor = svc -> PollStatus.up();
+
+        private TestNode(final TestContext context) {
+            final PollableNetwork network = new PollableNetwork(context);
+            m_services.add(network.createService(1, "node1", "Default", IF1, "ICMP"));
+            m_services.add(network.createService(1, "node1", "Default", IF1, "HTTP"));
+            m_services.add(network.createService(1, "node1", "Default", IF2, "ICMP"));
+            m_node = network.getNode(1);
+
+            for (final PollableService svc : m_services) {
+                final PollableServiceConfig config = mock(PollableServiceConfig.class);
+                when(config.poll()).thenAnswer(invocation -> m_monitor.poll(svc));
+                when(config.getCurrentTime()).thenAnswer(invocation -> System.currentTimeMillis());
+                svc.setPollConfig(config);
+                svc.setSchedule(mock(Schedule.class));
+                svc.updateStatus(PollStatus.up());
+            }
+
+            network.recalculateStatus();
+            network.propagateInitialCause();
+            network.resetStatusChanged();
+        }
+
+        private PollableNode getNode() {
+            return m_node;
+        }
+
+        private List<PollableService> getServices() {
+            return m_services;
+        }
+
+        private void setMonitor(final Monitor monitor) {
+            m_monitor = monitor;
+        }
+
+        private void pollAll() {
+            for (final PollableService svc : m_services) {
+                svc.doRun();
+            }
+        }
+    }
+
+    private static class TestContext implements PollContext {
+        private final boolean m_pollMailboxEnabled;
+        private final AtomicInteger m_eventIds = new AtomicInteger(0);
+        private final List<String> m_events = Collections.synchronizedList(new ArrayList<>());
+        private final List<String> m_openOutages = Collections.synchronizedList(new ArrayList<>());
+        private final List<String> m_resolvedOutages = Collections.synchronizedList(new ArrayList<>());
+
+        private TestContext(final boolean pollMailboxEnabled) {
+            m_pollMailboxEnabled = pollMailboxEnabled;
+        }
+
+        private List<String> getEvents() {
+            return m_events;
+        }
+
+        private List<String> getOpenOutages() {
+            return m_openOutages;
+        }
+
+        private List<String> getResolvedOutages() {
+            return m_resolvedOutages;
+        }
+
+        @Override
+        public String getCriticalServiceName() {
+            return "ICMP";
+        }
+
+        @Override
+        public boolean isNodeProcessingEnabled() {
+            return true;
+        }
+
+        @Override
+        public boolean isPollingAllIfCritServiceUndefined() {
+            return true;
+        }
+
+        @Override
+        public PollEvent sendEvent(final Event event) {
+            m_events.add(event.getUei());
+            return new DbPollEvent(m_eventIds.incrementAndGet(), event.getUei(), new Date());
+        }
+
+        @Override
+        public Event createEvent(final String uei, final int nodeId, final InetAddress address, final String svcName, final Date date, final String reason) {
+            return new EventBuilder(uei, "Test", date)
+                    .setNodeid(nodeId)
+                    .setInterface(address)
+                    .setService(svcName)
+                    .getEvent();
+        }
+
+        @Override
+        public void openOutage(final PollableService pSvc, final PollEvent svcLostEvent) {
+            m_openOutages.add("open " + pSvc.getIpAddr() + "/" + pSvc.getSvcName() + " caused by " + svcLostEvent.getEventId());
+        }
+
+        @Override
+        public void resolveOutage(final PollableService pSvc, final PollEvent svcRegainEvent) {
+            m_resolvedOutages.add("resolve " + pSvc.getIpAddr() + "/" + pSvc.getSvcName() + " resolved by " + svcRegainEvent.getEventId());
+        }
+
+        @Override
+        public boolean isServiceUnresponsiveEnabled() {
+            return false;
+        }
+
+        @Override
+        public boolean isPollMailboxEnabled() {
+            return m_pollMailboxEnabled;
+        }
+
+        @Override
+        public void trackPoll(final PollableService service, final PollStatus result) {
+            // nothing to track
+        }
+    }
+}